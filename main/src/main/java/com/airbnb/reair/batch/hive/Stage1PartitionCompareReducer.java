@@ -20,6 +20,9 @@ import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Reducer;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Reducer to process partition entities.
@@ -31,6 +34,9 @@ import java.io.IOException;
 public class Stage1PartitionCompareReducer extends Reducer<LongWritable, Text, Text, Text> {
   private static final Log LOG = LogFactory.getLog(Stage1PartitionCompareReducer.class);
 
+  // Number of partitions to check at a time
+  private static final int PARTITION_CHECK_BATCH_SIZE = 500;
+
   private static final DestinationObjectFactory destinationObjectFactory =
       new DestinationObjectFactory();
 
@@ -42,6 +48,8 @@ public class Stage1PartitionCompareReducer extends Reducer<LongWritable, Text, T
   private DirectoryCopier directoryCopier;
   private long count = 0;
   private TaskEstimator estimator;
+  // Partitions to check, along with the serialized input for each one
+  private List<Pair<HiveObjectSpec, String>> pendingPartitionChecks = new ArrayList<>();
 
   public Stage1PartitionCompareReducer() {
   }
@@ -78,33 +86,86 @@ public class Stage1PartitionCompareReducer extends Reducer<LongWritable, Text, T
           MetastoreReplicationJob.deseralizeJobResult(value.toString());
       TaskEstimate estimate = input.getLeft();
       HiveObjectSpec spec = input.getRight();
-      String result = value.toString();
-      String extra = "";
-
-      try {
-        if (estimate.getTaskType() == TaskEstimate.TaskType.CHECK_PARTITION) {
-          // Table exists in source, but not in dest. It should copy the table.
-          TaskEstimate newEstimate = estimator.analyze(spec);
 
-          result = MetastoreReplicationJob.serializeJobResult(newEstimate, spec);
+      if (estimate.getTaskType() == TaskEstimate.TaskType.CHECK_PARTITION) {
+        // Partitions are analyzed in batches so that they can be fetched from the metastore with
+        // fewer calls
+        pendingPartitionChecks.add(Pair.of(spec, value.toString()));
+        if (pendingPartitionChecks.size() >= PARTITION_CHECK_BATCH_SIZE) {
+          checkPendingPartitions(context);
         }
-      } catch (HiveMetastoreException e) {
-        LOG.error(String.format("Hit exception during db:%s, tbl:%s, part:%s", spec.getDbName(),
-              spec.getTableName(), spec.getPartitionName()), e);
-        extra = String.format("exception in %s of mapper = %s", estimate.getTaskType().toString(),
-            context.getTaskAttemptID().toString());
+      } else {
+        write(value.toString(), "", context);
       }
+    }
+  }
 
-      context.write(new Text(result), new Text(extra));
-      ++this.count;
-      if (this.count % 100 == 0) {
-        LOG.info("Processed " + this.count + " entities");
+  /**
+   * Figure out the action to take for the partitions that are waiting to be checked, and write out
+   * the results. If the batched check fails, each partition is checked separately so that an error
+   * only affects the partitions that caused it.
+   */
+  private void checkPendingPartitions(Context context) throws IOException, InterruptedException {
+    if (pendingPartitionChecks.isEmpty()) {
+      return;
+    }
+    List<HiveObjectSpec> specs = new ArrayList<>();
+    for (Pair<HiveObjectSpec, String> pendingCheck : pendingPartitionChecks) {
+      specs.add(pendingCheck.getLeft());
+    }
+
+    Map<HiveObjectSpec, TaskEstimate> specToEstimate = null;
+    try {
+      specToEstimate = estimator.analyzePartitions(specs);
+    } catch (HiveMetastoreException e) {
+      LOG.warn(String.format("Hit exception while checking %d partitions starting with %s, so "
+          + "checking them separately", specs.size(), specs.get(0)), e);
+    }
+
+    for (Pair<HiveObjectSpec, String> pendingCheck : pendingPartitionChecks) {
+      HiveObjectSpec spec = pendingCheck.getLeft();
+      if (specToEstimate != null) {
+        write(MetastoreReplicationJob.serializeJobResult(specToEstimate.get(spec), spec), "",
+            context);
+      } else {
+        checkPartition(spec, pendingCheck.getRight(), context);
       }
     }
+    pendingPartitionChecks.clear();
+  }
+
+  /**
+   * Figure out the action to take for a single partition, and write out the result.
+   *
+   * @param spec the partition to check
+   * @param input the serialized input for the partition, written out if the check fails
+   */
+  private void checkPartition(HiveObjectSpec spec, String input, Context context)
+      throws IOException, InterruptedException {
+    try {
+      TaskEstimate estimate = estimator.analyze(spec);
+      write(MetastoreReplicationJob.serializeJobResult(estimate, spec), "", context);
+    } catch (HiveMetastoreException e) {
+      LOG.error(String.format("Hit exception during db:%s, tbl:%s, part:%s", spec.getDbName(),
+          spec.getTableName(), spec.getPartitionName()), e);
+      write(input, String.format("exception in %s of mapper = %s",
+          TaskEstimate.TaskType.CHECK_PARTITION.toString(),
+          context.getTaskAttemptID().toString()), context);
+    }
+  }
+
+  private void write(String result, String extra, Context context)
+      throws IOException, InterruptedException {
+    context.write(new Text(result), new Text(extra));
+    ++this.count;
+    if (this.count % 100 == 0) {
+      LOG.info("Processed " + this.count + " entities");
+    }
   }
 
   protected void cleanup(Context context) throws IOException,
             InterruptedException {
+    checkPendingPartitions(context);
     this.srcClient.close();
     this.dstClient.close();
   }
@@ -12,11 +12,13 @@ import com.airbnb.reair.incremental.configuration.ClusterFactory;
 import com.airbnb.reair.incremental.configuration.ConfigurationException;
 import com.airbnb.reair.incremental.configuration.DestinationObjectFactory;
 import com.airbnb.reair.incremental.configuration.ObjectConflictHandler;
+import com.airbnb.reair.incremental.deploy.ConfigurationKeys;
 import com.airbnb.reair.incremental.primitives.CopyPartitionTask;
 import com.airbnb.reair.incremental.primitives.CopyPartitionedTableTask;
 import com.airbnb.reair.incremental.primitives.CopyUnpartitionedTableTask;
 import com.airbnb.reair.incremental.primitives.DropPartitionTask;
 import com.airbnb.reair.incremental.primitives.DropTableTask;
+import com.airbnb.reair.incremental.primitives.PartitionMetadataCommitter;
 import com.airbnb.reair.incremental.primitives.TaskEstimate;
 
 import org.apache.commons.lang3.tuple.Pair;
@@ -31,18 +33,25 @@ import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 /**
  * Stage 3 mapper to commit metadata changes.
  *
  * <p>Input of the Stage 3 job is Stage 1 job output, which is a list of actions to take for each
  * table / partition.
+ *
+ * <p>The partitions that need to be created or altered are committed to the destination together
+ * in chunks, and their statuses are written once the chunk has been committed.
  */
 public class Stage3CommitChangeMapper extends Mapper<LongWritable, Text, Text, Text> {
   private static final Log LOG = LogFactory.getLog(Stage3CommitChangeMapper.class);
   private static final DestinationObjectFactory DESTINATION_OBJECT_FACTORY =
       new DestinationObjectFactory();
+  private static final int DEFAULT_METADATA_COMMIT_CHUNK_SIZE = 500;
 
   private Configuration conf;
   private HiveMetastoreClient srcClient;
@@ -51,6 +60,25 @@ public class Stage3CommitChangeMapper extends Mapper<LongWritable, Text, Text, T
   private Cluster dstCluster;
   private DirectoryCopier directoryCopier;
   private ObjectConflictHandler objectConflictHandler = new ObjectConflictHandler();
+  private int metadataCommitChunkSize;
+  private Optional<PartitionMetadataCommitter> metadataCommitter;
+  // The partitions that were processed but not committed
+  private List<UncommittedPartition> uncommittedPartitions = new ArrayList<>();
+
+  /**
+   * A partition that was processed, but whose metadata has not been committed yet.
+   */
+  private static class UncommittedPartition {
+    private final HiveObjectSpec spec;
+    private final Text input;
+    private final RunInfo.RunStatus status;
+
+    UncommittedPartition(HiveObjectSpec spec, Text input, RunInfo.RunStatus status) {
+      this.spec = spec;
+      this.input = input;
+      this.status = status;
+    }
+  }
 
   protected void setup(Context context) throws IOException, InterruptedException {
     try {
@@ -64,6 +92,13 @@ public class Stage3CommitChangeMapper extends Mapper<LongWritable, Text, Text, T
       this.dstClient = this.dstCluster.getMetastoreClient();
 
       this.directoryCopier = clusterFactory.getDirectoryCopier();
+
+      this.metadataCommitChunkSize = conf.getInt(
+          ConfigurationKeys.COPY_PARTITIONS_METADATA_COMMIT_CHUNK_SIZE,
+          DEFAULT_METADATA_COMMIT_CHUNK_SIZE);
+      this.metadataCommitter = metadataCommitChunkSize > 1
+          ? Optional.of(new PartitionMetadataCommitter(metadataCommitChunkSize))
+          : Optional.empty();
     } catch (HiveMetastoreException | ConfigurationException e) {
       throw new IOException(e);
     }
@@ -91,9 +126,19 @@ public class Stage3CommitChangeMapper extends Mapper<LongWritable, Text, Text, T
               Optional.<Path>empty(),
               Optional.<Path>empty(),
               directoryCopier,
-              false);
+              false,
+              metadataCommitter);
           status = copyPartitionTask.runTask();
-          context.write(value, new Text(status.getRunStatus().toString()));
+          if (!metadataCommitter.isPresent()) {
+            context.write(value, new Text(status.getRunStatus().toString()));
+            break;
+          }
+          // The value object is reused by the framework, so make a copy
+          uncommittedPartitions.add(
+              new UncommittedPartition(spec, new Text(value), status.getRunStatus()));
+          if (uncommittedPartitions.size() >= metadataCommitChunkSize) {
+            commitPartitions(context);
+          }
           break;
 
         case COPY_PARTITIONED_TABLE:
@@ -167,7 +212,34 @@ public class Stage3CommitChangeMapper extends Mapper<LongWritable, Text, Text, T
     }
   }
 
+  /**
+   * Commit the partitions that were processed to the destination, and write out their statuses.
+   * Partitions that were processed successfully but couldn't be committed are marked as failed.
+   */
+  private void commitPartitions(Context context) throws IOException, InterruptedException {
+    if (uncommittedPartitions.isEmpty()) {
+      return;
+    }
+    Set<HiveObjectSpec> failedSpecs = metadataCommitter.get().commitPartitions(dstClient);
+    if (!failedSpecs.isEmpty()) {
+      LOG.error(String.format("Unable to commit %d out of %d partitions", failedSpecs.size(),
+          uncommittedPartitions.size()));
+    }
+
+    for (UncommittedPartition partition : uncommittedPartitions) {
+      RunInfo.RunStatus status = partition.status;
+      if (status == RunInfo.RunStatus.SUCCESSFUL && failedSpecs.contains(partition.spec)) {
+        status = RunInfo.RunStatus.FAILED;
+      }
+      context.write(partition.input, new Text(status.toString()));
+    }
+    uncommittedPartitions.clear();
+  }
+
   protected void cleanup(Context context) throws IOException, InterruptedException {
+    if (metadataCommitter.isPresent()) {
+      commitPartitions(context);
+    }
     this.srcClient.close();
     this.dstClient.close();
   }
@@ -0,0 +1,207 @@
+package com.airbnb.reair.incremental;
+
+import com.airbnb.reair.common.HiveObjectSpec;
+import com.airbnb.reair.incremental.db.PersistedJobInfo;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Groups COPY_PARTITION jobs for the same table that arrive within a time or count window into a
+ * single COPY_PARTITIONS job. This way, pipelines that write one partition per query can have the
+ * partitions copied with a single DistCp job instead of one job per partition.
+ *
+ * <p>Jobs that aren't COPY_PARTITION jobs are passed through. However, if such a job involves a
+ * table that has buffered partition copies, the buffered copies are released first so that the
+ * order of operations on the table is preserved.
+ */
+public class CopyPartitionJobBatcher {
+
+  private static final Log LOG = LogFactory.getLog(CopyPartitionJobBatcher.class);
+
+  /**
+   * The partition copies that are buffered for a table.
+   */
+  private static class Batch {
+    private final long startTime;
+    private final List<ReplicationJob> jobs = new ArrayList<>();
+
+    Batch(long startTime) {
+      this.startTime = startTime;
+    }
+  }
+
+  private final ReplicationJobFactory jobFactory;
+  private final int maxBatchSize;
+  private final long maxDelayMs;
+  // Batches in the order that they were started
+  private final Map<HiveObjectSpec, Batch> batches = new LinkedHashMap<>();
+
+  /**
+   * Constructor.
+   *
+   * @param jobFactory factory used to create the batched jobs
+   * @param maxBatchSize release a batch once it has this many partition copies. If 1, batching is
+   *                     disabled.
+   * @param maxDelayMs release a batch once its first partition copy has been buffered for this long
+   */
+  public CopyPartitionJobBatcher(
+      ReplicationJobFactory jobFactory,
+      int maxBatchSize,
+      long maxDelayMs) {
+    this.jobFactory = jobFactory;
+    this.maxBatchSize = maxBatchSize;
+    this.maxDelayMs = maxDelayMs;
+  }
+
+  /**
+   * Add jobs to the batcher.
+   *
+   * @param jobs the jobs, in the order that they should be run
+   * @param now the current time in ms
+   * @return jobs that are ready to run, in the order that they should be run
+   */
+  public synchronized List<ReplicationJob> add(List<ReplicationJob> jobs, long now) {
+    List<ReplicationJob> readyJobs = new ArrayList<>();
+    if (maxBatchSize <= 1) {
+      readyJobs.addAll(jobs);
+      return readyJobs;
+    }
+
+    for (ReplicationJob job : jobs) {
+      PersistedJobInfo jobInfo = job.getPersistedJobInfo();
+      HiveObjectSpec tableSpec =
+          new HiveObjectSpec(jobInfo.getSrcDbName(), jobInfo.getSrcTableName());
+
+      if (jobInfo.getOperation() == ReplicationOperation.COPY_PARTITION) {
+        Batch batch = batches.get(tableSpec);
+        if (batch == null) {
+          batch = new Batch(now);
+          batches.put(tableSpec, batch);
+        }
+        batch.jobs.add(job);
+        if (batch.jobs.size() >= maxBatchSize) {
+          release(tableSpec, readyJobs);
+        }
+        continue;
+      }
+
+      // Other operations on the table must run after the buffered copies
+      release(tableSpec, readyJobs);
+      if (jobInfo.getRenameToDb().isPresent() && jobInfo.getRenameToTable().isPresent()) {
+        release(new HiveObjectSpec(jobInfo.getRenameToDb().get(),
+            jobInfo.getRenameToTable().get()), readyJobs);
+      }
+      readyJobs.add(job);
+    }
+
+    readyJobs.addAll(releaseExpired(now));
+    return readyJobs;
+  }
+
+  /**
+   * Release batches that have been buffered for longer than the maximum delay.
+   *
+   * @param now the current time in ms
+   * @return jobs that are ready to run
+   */
+  public synchronized List<ReplicationJob> releaseExpired(long now) {
+    List<ReplicationJob> readyJobs = new ArrayList<>();
+    Iterator<Map.Entry<HiveObjectSpec, Batch>> batchIterator = batches.entrySet().iterator();
+    while (batchIterator.hasNext()) {
+      Map.Entry<HiveObjectSpec, Batch> entry = batchIterator.next();
+      if (now - entry.getValue().startTime < maxDelayMs) {
+        // Batches are ordered by start time, so the remaining ones haven't expired either
+        break;
+      }
+      readyJobs.add(toJob(entry.getValue()));
+      batchIterator.remove();
+    }
+    return readyJobs;
+  }
+
+  /**
+   * Get the lowest audit log ID of the buffered jobs. Since the buffered jobs are not yet
+   * persisted, the audit log should not be considered processed past this ID.
+   *
+   * @return the lowest audit log ID of the buffered jobs, or empty if there are none
+   */
+  public synchronized Optional<Long> getLowestBufferedAuditLogId() {
+    Optional<Long> lowestId = Optional.empty();
+    for (Batch batch : batches.values()) {
+      for (ReplicationJob job : batch.jobs) {
+        String auditLogId =
+            job.getPersistedJobInfo().getExtras().get(PersistedJobInfo.AUDIT_LOG_ID_EXTRAS_KEY);
+        if (auditLogId == null) {
+          continue;
+        }
+        long id = Long.parseLong(auditLogId);
+        if (!lowestId.isPresent() || id < lowestId.get()) {
+          lowestId = Optional.of(id);
+        }
+      }
+    }
+    return lowestId;
+  }
+
+  /**
+   * Get the keys of the buffered jobs, as returned by {@link #getJobKey(ReplicationJob)}. Since the
+   * buffered jobs are not persisted, these can be saved so that only the buffered jobs are created
+   * again when the audit log is re-read after a restart.
+   *
+   * @return the keys of the buffered jobs, in the order that they were added
+   */
+  public synchronized Set<String> getBufferedJobKeys() {
+    Set<String> keys = new LinkedHashSet<>();
+    for (Batch batch : batches.values()) {
+      for (ReplicationJob job : batch.jobs) {
+        keys.add(getJobKey(job));
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * Get a key that identifies a job by the audit log entry that it was created from and the object
+   * that it operates on. Creating the jobs for the same audit log entry again produces jobs with
+   * the same keys.
+   *
+   * @param job the job
+   * @return the key for the job
+   */
+  public static String getJobKey(ReplicationJob job) {
+    PersistedJobInfo jobInfo = job.getPersistedJobInfo();
+    HiveObjectSpec spec = jobInfo.getSrcPartitionNames().size() == 1
+        ? new HiveObjectSpec(jobInfo.getSrcDbName(), jobInfo.getSrcTableName(),
+            jobInfo.getSrcPartitionNames().get(0))
+        : new HiveObjectSpec(jobInfo.getSrcDbName(), jobInfo.getSrcTableName());
+    return String.format("%s:%s:%s",
+        jobInfo.getExtras().get(PersistedJobInfo.AUDIT_LOG_ID_EXTRAS_KEY),
+        jobInfo.getOperation(), spec);
+  }
+
+  private void release(HiveObjectSpec tableSpec, List<ReplicationJob> readyJobs) {
+    Batch batch = batches.remove(tableSpec);
+    if (batch != null) {
+      readyJobs.add(toJob(batch));
+    }
+  }
+
+  private ReplicationJob toJob(Batch batch) {
+    if (batch.jobs.size() == 1) {
+      return batch.jobs.get(0);
+    }
+    ReplicationJob job = jobFactory.createJobForBatchedCopyPartitions(batch.jobs);
+    LOG.debug(String.format("Batched %d partition copies into %s", batch.jobs.size(), job));
+    return job;
+  }
+}
@@ -11,10 +11,13 @@ import com.airbnb.reair.incremental.deploy.ConfigurationKeys;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Random;
 
@@ -27,6 +30,8 @@ public class DirectoryCopier {
   private Configuration conf;
   private Path tmpDir;
   private boolean checkFileModificationTimes;
+  // Whether to compare the total sizes of directories before listing them
+  private boolean sizeCheckEnabled;
 
   /**
    * Constructor for the directory copier.
@@ -42,21 +47,36 @@ public class DirectoryCopier {
     this.conf = conf;
     this.tmpDir = tmpDir;
     this.checkFileModificationTimes = checkFileModificationTimes;
+    this.sizeCheckEnabled = conf.getBoolean(ConfigurationKeys.COMPARE_SIZE_CHECK_ENABLED, false);
   }
 
   /**
-   * Copy the source directory to the destination directory.
+   * Get the total size of a directory if the size check is enabled, and the size can be fetched
+   * without listing the directory.
+   */
+  private Optional<Long> getSize(Path dir) throws IOException {
+    if (!sizeCheckEnabled || !FsUtils.hasServerSideContentSummary(conf, dir)) {
+      return Optional.empty();
+    }
+    FileSystem fs = dir.getFileSystem(conf);
+    try {
+      return Optional.of(fs.getContentSummary(dir).getLength());
+    } catch (FileNotFoundException e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Make the options for a copy, with a new tmp and log directory for the copy.
    *
    * @param srcDir source directory
    * @param destDir destination directory
-   * @param copyAttributes a list of attributes to use when creating the tmp directory. Doesn't
-   *        really matter, but it can make it easier to manually inspect the tmp directory.
-   * @return the number of bytes copied
-   * @throws IOException if there was an error copying the directory
+   * @param copyAttributes a list of attributes to use when creating the tmp directory
+   * @return the options for the copy
    * @throws ConfigurationException if configuration options are improper
    */
-  public long copy(Path srcDir, Path destDir, List<String> copyAttributes)
-      throws ConfigurationException, IOException {
+  private DistCpWrapperOptions makeOptions(Path srcDir, Path destDir, List<String> copyAttributes)
+      throws ConfigurationException {
     Random random = new Random();
     long randomLong = Math.abs(random.nextLong());
 
@@ -74,51 +94,137 @@ public class DirectoryCopier {
 
     Path distCpLogDir = logDirPathBuilder.add(Long.toHexString(randomLong)).toPath();
 
+    DistCpWrapperOptions options =
+        new DistCpWrapperOptions(srcDir, destDir, distCpTmpDir, distCpLogDir)
+            .setAtomic(true)
+            .setSyncModificationTimes(checkFileModificationTimes);
+
+    long copyJobTimeoutSeconds = conf.getLong(
+        ConfigurationKeys.COPY_JOB_TIMEOUT_SECONDS,
+        -1);
+    if (copyJobTimeoutSeconds > 0) {
+      options.setDistCpJobTimeout(copyJobTimeoutSeconds * 1_000L);
+    }
+    boolean dynamicTimeoutEnabled = conf.getBoolean(
+        ConfigurationKeys.COPY_JOB_DYNAMIC_TIMEOUT_ENABLED,
+        false);
+    options.setDistcpDynamicJobTimeoutEnabled(dynamicTimeoutEnabled);
+    if (dynamicTimeoutEnabled && copyJobTimeoutSeconds > 0) {
+      throw new ConfigurationException(String.format(
+          "The config options {} and {} are both set, but only one can be used",
+          ConfigurationKeys.COPY_JOB_DYNAMIC_TIMEOUT_ENABLED,
+          ConfigurationKeys.COPY_JOB_TIMEOUT_SECONDS));
+    }
+    long dynamicTimeoutSecPerGb = conf.getLong(
+        ConfigurationKeys.COPY_JOB_DYNAMIC_TIMEOUT_SEC_PER_GB,
+        -1);
+    if (dynamicTimeoutSecPerGb > 0) {
+      options.setDistcpDynamicJobTimeoutMsPerGb(1_000L * dynamicTimeoutSecPerGb);
+    }
+    long dynamicTimeoutMin = conf.getLong(
+        ConfigurationKeys.COPY_JOB_DYNAMIC_TIMEOUT_MIN,
+        -1);
+    if (dynamicTimeoutMin > 0) {
+      options.setDistcpDynamicJobTimeoutMin(1_000L * dynamicTimeoutMin);
+    }
+    long dynamicTimeoutMax = conf.getLong(
+        ConfigurationKeys.COPY_JOB_DYNAMIC_TIMEOUT_MAX,
+        -1);
+    if (dynamicTimeoutMax > 0) {
+      options.setDistcpDynamicJobTimeoutMax(1_000L * dynamicTimeoutMax);
+    }
+
+    long parallelCopySizeThreshold = conf.getLong(
+        ConfigurationKeys.COPY_PARALLEL_SIZE_THRESHOLD,
+        -1);
+    if (parallelCopySizeThreshold >= 0) {
+      options.setParallelCopySizeThreshold(parallelCopySizeThreshold);
+    }
+    long parallelCopyCountThreshold = conf.getLong(
+        ConfigurationKeys.COPY_PARALLEL_COUNT_THRESHOLD,
+        -1);
+    if (parallelCopyCountThreshold >= 0) {
+      options.setParallelCopyCountThreshold(parallelCopyCountThreshold);
+    }
+    long sameFsCopySizeThreshold = conf.getLong(
+        ConfigurationKeys.COPY_SAME_FS_SIZE_THRESHOLD,
+        -1);
+    if (sameFsCopySizeThreshold >= 0) {
+      options.setSameFsCopySizeThreshold(sameFsCopySizeThreshold);
+    }
+    long sameFsCopyCountThreshold = conf.getLong(
+        ConfigurationKeys.COPY_SAME_FS_COUNT_THRESHOLD,
+        -1);
+    if (sameFsCopyCountThreshold >= 0) {
+      options.setSameFsCopyCountThreshold(sameFsCopyCountThreshold);
+    }
+    options.setDeltaCopy(conf.getBoolean(ConfigurationKeys.COPY_DELTA_ENABLED, false));
+    return options;
+  }
+
+  /**
+   * Copy the source directory to the destination directory.
+   *
+   * @param srcDir source directory
+   * @param destDir destination directory
+   * @param copyAttributes a list of attributes to use when creating the tmp directory. Doesn't
+   *        really matter, but it can make it easier to manually inspect the tmp directory.
+   * @return the number of bytes copied
+   * @throws IOException if there was an error copying the directory
+   * @throws ConfigurationException if configuration options are improper
+   */
+  public long copy(Path srcDir, Path destDir, List<String> copyAttributes)
+      throws ConfigurationException, IOException {
+    DistCpWrapperOptions options = makeOptions(srcDir, destDir, copyAttributes);
+
     try {
       // Copy directory
-      DistCpWrapperOptions options =
-          new DistCpWrapperOptions(srcDir, destDir, distCpTmpDir, distCpLogDir)
-              .setAtomic(true)
-              .setSyncModificationTimes(checkFileModificationTimes);
-
-      long copyJobTimeoutSeconds = conf.getLong(
-          ConfigurationKeys.COPY_JOB_TIMEOUT_SECONDS,
-          -1);
-      if (copyJobTimeoutSeconds > 0) {
-        options.setDistCpJobTimeout(copyJobTimeoutSeconds * 1_000L);
-      }
-      boolean dynamicTimeoutEnabled = conf.getBoolean(
-          ConfigurationKeys.COPY_JOB_DYNAMIC_TIMEOUT_ENABLED,
-          false);
-      options.setDistcpDynamicJobTimeoutEnabled(dynamicTimeoutEnabled);
-      if (dynamicTimeoutEnabled && copyJobTimeoutSeconds > 0) {
-        throw new ConfigurationException(String.format(
-            "The config options {} and {} are both set, but only one can be used",
-            ConfigurationKeys.COPY_JOB_DYNAMIC_TIMEOUT_ENABLED,
-            ConfigurationKeys.COPY_JOB_TIMEOUT_SECONDS));
-      }
-      long dynamicTimeoutSecPerGb = conf.getLong(
-          ConfigurationKeys.COPY_JOB_DYNAMIC_TIMEOUT_SEC_PER_GB,
-          -1);
-      if (dynamicTimeoutSecPerGb > 0) {
-        options.setDistcpDynamicJobTimeoutMsPerGb(1_000L * dynamicTimeoutSecPerGb);
-      }
-      long dynamicTimeoutMin = conf.getLong(
-          ConfigurationKeys.COPY_JOB_DYNAMIC_TIMEOUT_MIN,
-          -1);
-      if (dynamicTimeoutMin > 0) {
-        options.setDistcpDynamicJobTimeoutMin(1_000L * dynamicTimeoutMin);
-      }
-      long dynamicTimeoutMax = conf.getLong(
-          ConfigurationKeys.COPY_JOB_DYNAMIC_TIMEOUT_MAX,
-          -1);
-      if (dynamicTimeoutMax > 0) {
-        options.setDistcpDynamicJobTimeoutMax(1_000L * dynamicTimeoutMax);
-      }
+      DistCpWrapper distCpWrapper = new DistCpWrapper(conf);
+      return distCpWrapper.copy(options);
+    } catch (DistCpException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Copy multiple source directories to their destination directories with a single MR job.
+   * Directories that already match, or that are small enough to be copied without an MR job, are
+   * not copied. Directories that failed to copy are not included in the result, so the caller
+   * should check the directories that it needs and copy them separately.
+   *
+   * @param srcToDestDirs a map from each source directory to its destination directory
+   * @param copyAttributes a list of attributes to use when creating the tmp directory
+   * @return a map from each source directory that was copied to the number of bytes copied
+   * @throws IOException if there was an error copying the directories
+   * @throws ConfigurationException if configuration options are improper
+   */
+  public Map<Path, Long> copyAll(Map<Path, Path> srcToDestDirs, List<String> copyAttributes)
+      throws ConfigurationException, IOException {
+    return copyAll(srcToDestDirs, srcToDestDirs, copyAttributes);
+  }
 
+  /**
+   * Copy multiple source directories with a single MR job, like {@link #copyAll(Map, List)}, but
+   * skip the directories that match a different set of directories than the ones they are copied
+   * to. For example, the directories can be copied to a staging location, skipping the ones that
+   * already match their final location.
+   *
+   * @param srcToDestDirs a map from each source directory to the directory to copy it to
+   * @param srcToCompareDirs a map from each source directory to the directory to compare it to
+   * @param copyAttributes a list of attributes to use when creating the tmp directory
+   * @return a map from each source directory that was copied to the number of bytes copied
+   * @throws IOException if there was an error copying the directories
+   * @throws ConfigurationException if configuration options are improper
+   */
+  public Map<Path, Long> copyAll(
+      Map<Path, Path> srcToDestDirs,
+      Map<Path, Path> srcToCompareDirs,
+      List<String> copyAttributes) throws ConfigurationException, IOException {
+    DistCpWrapperOptions options = makeOptions(null, null, copyAttributes);
+
+    try {
       DistCpWrapper distCpWrapper = new DistCpWrapper(conf);
-      long bytesCopied = distCpWrapper.copy(options);
-      return bytesCopied;
+      return distCpWrapper.copyAll(srcToDestDirs, srcToCompareDirs, options);
     } catch (DistCpException e) {
       throw new IOException(e);
     }
@@ -127,7 +233,8 @@ public class DirectoryCopier {
   /**
    * Checks to see if two directories contain the same files. Same is defined as having the same set
    * of non-empty files with matching file sizes (and matching modified times if set in the
-   * constructor)
+   * constructor). If the size check is enabled and the total sizes of the directories differ, the
+   * directories are known to be different without listing them.
    *
    * @param srcDir source directory
    * @param destDir destination directory
@@ -136,6 +243,16 @@ public class DirectoryCopier {
    * @throws IOException if there's an error reading the filesystem
    */
   public boolean equalDirs(Path srcDir, Path destDir) throws IOException {
-    return FsUtils.equalDirs(conf, srcDir, destDir, Optional.empty(), checkFileModificationTimes);
+    // The comparison checks the size of every file, so directories with different total sizes
+    // can't be the same
+    Optional<Long> srcSize = getSize(srcDir);
+    Optional<Long> destSize = getSize(destDir);
+    if (srcSize.isPresent() && destSize.isPresent() && !srcSize.get().equals(destSize.get())) {
+      LOG.debug(String.format("Total sizes of %s (%d) and %s (%d) do not match", srcDir,
+          srcSize.get(), destDir, destSize.get()));
+      return false;
+    }
+    return FsUtils.equalDirs(conf, srcDir, destDir, Optional.empty(),
+        checkFileModificationTimes);
   }
 }
@@ -4,7 +4,6 @@ import com.airbnb.reair.common.DistCpException;
 import com.airbnb.reair.common.HiveMetastoreException;
 import com.airbnb.reair.incremental.configuration.ConfigurationException;
 import com.airbnb.reair.incremental.db.PersistedJobInfo;
-import com.airbnb.reair.incremental.deploy.ConfigurationKeys;
 import com.airbnb.reair.incremental.primitives.ReplicationTask;
 import com.airbnb.reair.multiprocessing.Job;
 import com.airbnb.reair.multiprocessing.LockSet;
@@ -33,6 +32,8 @@ public class ReplicationJob extends Job {
   private ReplicationTask replicationTask;
   private OnStateChangeHandler onStateChangeHandler;
   private PersistedJobInfo persistedJobInfo;
+  // Number of times this job has been run
+  private int attempt = 0;
 
   /**
    * Constructor for a replication job that can be run in the ParallelJobExecutor.
@@ -59,47 +60,54 @@ public class ReplicationJob extends Job {
 
   @Override
   public int run() {
-    int maxAttempts = 1 + Math.max(0, conf.getInt(ConfigurationKeys.JOB_RETRIES, 8));
-    for (int attempt = 0; attempt < maxAttempts; attempt++) {
-      try {
-        onStateChangeHandler.onStart(this);
-        RunInfo runInfo = replicationTask.runTask();
-        LOG.info(String.format("Replication job id: %s finished " + "with status %s",
-            persistedJobInfo.getId(), runInfo.getRunStatus()));
-        onStateChangeHandler.onComplete(runInfo, this);
-
-        switch (runInfo.getRunStatus()) {
-          case SUCCESSFUL:
-          case NOT_COMPLETABLE:
-            return 0;
-          case FAILED:
-            return -1;
-          default:
-            throw new RuntimeException("State not handled: " + runInfo.getRunStatus());
-        }
-      } catch (HiveMetastoreException | IOException | DistCpException e) {
-        LOG.error("Got an exception!", e);
-      } catch (StateUpdateException | ConfigurationException e) {
-        // Indicates an error with the system - fail the job.
-        LOG.error("Got an exception!", e);
-        return -1;
+    int maxAttempts = ReplicationUtils.getMaxJobAttempts(conf);
+    try {
+      onStateChangeHandler.onStart(this);
+      RunInfo runInfo = replicationTask.runTask();
+      LOG.info(String.format("Replication job id: %s finished " + "with status %s",
+          persistedJobInfo.getId(), runInfo.getRunStatus()));
+      onStateChangeHandler.onComplete(runInfo, this);
+
+      switch (runInfo.getRunStatus()) {
+        case SUCCESSFUL:
+        case NOT_COMPLETABLE:
+          return 0;
+        case FAILED:
+          return -1;
+        default:
+          throw new RuntimeException("State not handled: " + runInfo.getRunStatus());
       }
+    } catch (HiveMetastoreException | IOException | DistCpException e) {
+      LOG.error("Got an exception!", e);
+    } catch (StateUpdateException | ConfigurationException e) {
+      // Indicates an error with the system - fail the job.
+      LOG.error("Got an exception!", e);
+      return -1;
+    }
 
-      if (attempt == maxAttempts - 1) {
-        break;
-      }
+    if (Thread.currentThread().isInterrupted()) {
+      // The executor is stopping, so don't schedule a retry
+      LOG.warn("Got interrupted, so not retrying job id: " + getId());
+      return -1;
+    }
 
-      LOG.error("Because job id: " + getId() + " was not successful, "
-          + "it will be retried after sleeping.");
+    if (attempt >= maxAttempts - 1) {
+      LOG.error(String.format("Job id: %s failed after %s attempts", getId(), maxAttempts));
       try {
-        ReplicationUtils.exponentialSleep(attempt);
-      } catch (InterruptedException e) {
-        LOG.warn("Got interrupted", e);
-        return -1;
+        onStateChangeHandler.onComplete(new RunInfo(RunInfo.RunStatus.FAILED, 0), this);
+      } catch (StateUpdateException e) {
+        LOG.error("Unable to mark job id: " + getId() + " as failed", e);
       }
-      attempt++;
+      return -1;
     }
-    return -1;
+
+    // Rather than sleeping in the worker thread, have the executor run this job again after the
+    // delay. The job keeps its locks in the meantime.
+    long retryDelayMs = ReplicationUtils.getExponentialWaitTimeMs(attempt);
+    LOG.error("Because job id: " + getId() + " was not successful, "
+        + "it will be retried in " + retryDelayMs + " ms.");
+    attempt++;
+    return retryAfter(retryDelayMs);
   }
 
   @Override
@@ -116,9 +124,15 @@ public class ReplicationJob extends Job {
    * Get the ID associated with this job.
    *
    * @return this job's ID
+   *
+   * @throws IllegalStateException if the job hasn't been written to the DB yet
    */
   public long getId() {
-    return persistedJobInfo.getId();
+    Long id = persistedJobInfo.getId();
+    if (id == null) {
+      throw new IllegalStateException("Job has not been persisted yet: " + this);
+    }
+    return id;
   }
 
   /**
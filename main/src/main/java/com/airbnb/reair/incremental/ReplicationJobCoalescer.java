@@ -0,0 +1,227 @@
+package com.airbnb.reair.incremental;
+
+import com.airbnb.reair.common.HiveObjectSpec;
+import com.airbnb.reair.hive.hooks.HiveOperation;
+import com.airbnb.reair.incremental.auditlog.AuditLogEntry;
+import com.airbnb.reair.incremental.db.PersistedJobInfo;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Removes redundant jobs that were created from a window of audit log entries, before the jobs are
+ * persisted and run. Since the copy tasks replicate the latest state of the source object, if the
+ * same object is copied multiple times, only the last copy is needed. Similarly, if an object is
+ * created and then dropped within the window, neither the copy nor the drop is needed.
+ *
+ * <p>Drops and renames act as barriers - a copy before a drop or rename of an object is never
+ * merged with a copy after it, so the relative order of those operations is preserved.
+ */
+public class ReplicationJobCoalescer {
+
+  private static final Log LOG = LogFactory.getLog(ReplicationJobCoalescer.class);
+
+  // Commands that create a new table or partition. If a copy for one of these is followed by a
+  // drop of the same object, the object never needs to exist on the destination.
+  private static final Set<HiveOperation> CREATE_OPERATIONS = EnumSet.of(
+      HiveOperation.CREATETABLE,
+      HiveOperation.CREATETABLE_AS_SELECT,
+      HiveOperation.CREATEVIEW,
+      HiveOperation.ALTERTABLE_ADDPARTS,
+      HiveOperation.THRIFT_CREATE_TABLE,
+      HiveOperation.THRIFT_ADD_PARTITION);
+
+  /**
+   * The most recent copy job for an object since the last barrier for the object.
+   */
+  private static class PendingCopy {
+    private final int jobIndex;
+    // Whether the object was created after the last barrier
+    private final boolean createdInWindow;
+
+    PendingCopy(int jobIndex, boolean createdInWindow) {
+      this.jobIndex = jobIndex;
+      this.createdInWindow = createdInWindow;
+    }
+  }
+
+  private List<ReplicationJob> jobs;
+  private boolean[] removed;
+  // For copy jobs, the objects that the job still needs to copy
+  private Map<Integer, Set<HiveObjectSpec>> remainingSpecs;
+  private Map<HiveObjectSpec, PendingCopy> pendingCopies;
+
+  /**
+   * Remove the redundant jobs from the supplied jobs.
+   *
+   * @param jobsByEntry the jobs that were created for each audit log entry, in the order of the
+   *                    audit log entries
+   * @return the jobs that should be run, in the same order as supplied
+   */
+  public synchronized List<ReplicationJob> coalesce(
+      LinkedHashMap<AuditLogEntry, List<ReplicationJob>> jobsByEntry) {
+    jobs = new ArrayList<>();
+    List<AuditLogEntry> entryForJob = new ArrayList<>();
+    for (Map.Entry<AuditLogEntry, List<ReplicationJob>> entry : jobsByEntry.entrySet()) {
+      for (ReplicationJob job : entry.getValue()) {
+        jobs.add(job);
+        entryForJob.add(entry.getKey());
+      }
+    }
+
+    removed = new boolean[jobs.size()];
+    remainingSpecs = new HashMap<>();
+    pendingCopies = new HashMap<>();
+
+    for (int i = 0; i < jobs.size(); i++) {
+      PersistedJobInfo jobInfo = jobs.get(i).getPersistedJobInfo();
+      HiveObjectSpec tableSpec =
+          new HiveObjectSpec(jobInfo.getSrcDbName(), jobInfo.getSrcTableName());
+
+      switch (jobInfo.getOperation()) {
+        case COPY_UNPARTITIONED_TABLE:
+        case COPY_PARTITIONED_TABLE:
+        case COPY_PARTITION:
+        case COPY_PARTITIONS:
+          boolean createdByEntry =
+              CREATE_OPERATIONS.contains(entryForJob.get(i).getCommandType());
+          Set<HiveObjectSpec> specs = getCopiedSpecs(jobInfo);
+          remainingSpecs.put(i, new HashSet<>(specs));
+          for (HiveObjectSpec spec : specs) {
+            PendingCopy previousCopy = pendingCopies.get(spec);
+            if (previousCopy != null) {
+              supersede(previousCopy.jobIndex, spec);
+            }
+            pendingCopies.put(spec, new PendingCopy(i,
+                createdByEntry || (previousCopy != null && previousCopy.createdInWindow)));
+          }
+          break;
+        case DROP_TABLE:
+          handleDrop(i, tableSpec, true);
+          break;
+        case DROP_PARTITION:
+          handleDrop(i, partitionSpec(tableSpec, jobInfo), false);
+          break;
+        case RENAME_TABLE:
+        case RENAME_PARTITION:
+          // Partition renames don't store the partition names, so be conservative and treat the
+          // whole table as changed.
+          clearPendingCopies(tableSpec, true);
+          if (jobInfo.getRenameToDb().isPresent() && jobInfo.getRenameToTable().isPresent()) {
+            clearPendingCopies(new HiveObjectSpec(jobInfo.getRenameToDb().get(),
+                jobInfo.getRenameToTable().get()), true);
+          }
+          break;
+        default:
+          clearPendingCopies(tableSpec, true);
+      }
+    }
+
+    List<ReplicationJob> jobsToRun = new ArrayList<>();
+    for (int i = 0; i < jobs.size(); i++) {
+      if (removed[i]) {
+        LOG.debug("Not running redundant job: " + jobs.get(i));
+      } else {
+        jobsToRun.add(jobs.get(i));
+      }
+    }
+    if (jobsToRun.size() < jobs.size()) {
+      LOG.debug(String.format("Coalesced %d jobs into %d jobs", jobs.size(), jobsToRun.size()));
+    }
+    return jobsToRun;
+  }
+
+  /**
+   * Handle a drop of the specified object. If the object was created after the last barrier, the
+   * copies of the object and the drop are redundant.
+   *
+   * @param jobIndex index of the drop job
+   * @param spec the object that's dropped
+   * @param isTable whether the object is a table, in which case its partitions are also dropped
+   */
+  private void handleDrop(int jobIndex, HiveObjectSpec spec, boolean isTable) {
+    PendingCopy pendingCopy = pendingCopies.get(spec);
+    if (pendingCopy != null && pendingCopy.createdInWindow) {
+      supersede(pendingCopy.jobIndex, spec);
+      if (isTable) {
+        for (Map.Entry<HiveObjectSpec, PendingCopy> entry : pendingCopies.entrySet()) {
+          if (entry.getKey().isPartition() && entry.getKey().getTableSpec().equals(spec)) {
+            supersede(entry.getValue().jobIndex, entry.getKey());
+          }
+        }
+      }
+      removed[jobIndex] = true;
+    }
+    clearPendingCopies(spec, isTable);
+  }
+
+  private void supersede(int jobIndex, HiveObjectSpec spec) {
+    Set<HiveObjectSpec> specs = remainingSpecs.get(jobIndex);
+    specs.remove(spec);
+    if (specs.isEmpty()) {
+      removed[jobIndex] = true;
+    }
+  }
+
+  /**
+   * Forget about the copies that were made for an object so that later copies are not merged with
+   * them.
+   *
+   * @param spec the object
+   * @param includePartitions if the object is a table, whether to also forget its partitions
+   */
+  private void clearPendingCopies(HiveObjectSpec spec, boolean includePartitions) {
+    pendingCopies.remove(spec);
+    if (includePartitions) {
+      Iterator<HiveObjectSpec> specIterator = pendingCopies.keySet().iterator();
+      while (specIterator.hasNext()) {
+        HiveObjectSpec pendingSpec = specIterator.next();
+        if (pendingSpec.isPartition() && pendingSpec.getTableSpec().equals(spec)) {
+          specIterator.remove();
+        }
+      }
+    }
+  }
+
+  private static HiveObjectSpec partitionSpec(HiveObjectSpec tableSpec, PersistedJobInfo jobInfo) {
+    if (jobInfo.getSrcPartitionNames().isEmpty()) {
+      return tableSpec;
+    }
+    return new HiveObjectSpec(tableSpec.getDbName(), tableSpec.getTableName(),
+        jobInfo.getSrcPartitionNames().get(0));
+  }
+
+  /**
+   * Get the objects that a copy job replicates.
+   *
+   * @param jobInfo the persisted information for a copy job
+   * @return the table or partitions that the job copies
+   */
+  private static Set<HiveObjectSpec> getCopiedSpecs(PersistedJobInfo jobInfo) {
+    HiveObjectSpec tableSpec =
+        new HiveObjectSpec(jobInfo.getSrcDbName(), jobInfo.getSrcTableName());
+    Set<HiveObjectSpec> specs = new HashSet<>();
+    switch (jobInfo.getOperation()) {
+      case COPY_PARTITION:
+      case COPY_PARTITIONS:
+        for (String partitionName : jobInfo.getSrcPartitionNames()) {
+          specs.add(new HiveObjectSpec(tableSpec.getDbName(), tableSpec.getTableName(),
+              partitionName));
+        }
+        break;
+      default:
+        specs.add(tableSpec);
+    }
+    return specs;
+  }
+}
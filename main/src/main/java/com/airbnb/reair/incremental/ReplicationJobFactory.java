@@ -35,13 +35,17 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 
 /**
- * Creates replication jobs and persists initial information into the DB.
+ * Creates replication jobs and persists initial information into the DB. The createJobFor...()
+ * methods return jobs that have not been written to the DB yet - those jobs should be passed to
+ * persistJobs() so that the jobs for an audit log entry are written using as few inserts as
+ * possible.
  */
 public class ReplicationJobFactory {
 
@@ -99,13 +103,11 @@ public class ReplicationJobFactory {
    * @param auditLogEntryCreateTime when the audit log entry was created
    * @param table the table to copy
    * @return job to copy the table
-   *
-   * @throws StateUpdateException if there's an error writing to the DB
    */
   public ReplicationJob createJobForCopyTable(
       long auditLogId,
       long auditLogEntryCreateTime,
-      Table table) throws StateUpdateException {
+      Table table) {
     ReplicationOperation replicationOperation =
         HiveUtils.isPartitioned(table) ? ReplicationOperation.COPY_PARTITIONED_TABLE
             : ReplicationOperation.COPY_UNPARTITIONED_TABLE;
@@ -115,7 +117,7 @@ public class ReplicationJobFactory {
     extras.put(PersistedJobInfo.AUDIT_LOG_ENTRY_CREATE_TIME_KEY,
         Long.toString(auditLogEntryCreateTime));
 
-    PersistedJobInfo persistedJobInfo = jobInfoStore.resilientCreate(replicationOperation,
+    PersistedJobInfo persistedJobInfo = PersistedJobInfo.createDeferred(replicationOperation,
         ReplicationStatus.PENDING, ReplicationUtils.getLocation(table), srcCluster.getName(),
         new HiveObjectSpec(table), Collections.emptyList(), ReplicationUtils.getTldt(table),
         Optional.empty(), Optional.empty(), extras);
@@ -148,13 +150,11 @@ public class ReplicationJobFactory {
    * @param auditLogEntryCreateTime when the audit log entry was created
    * @param spec specification for the partition
    * @return the job to copy the partition
-   *
-   * @throws StateUpdateException if there's an error writing to the DB
    */
   public ReplicationJob createJobForCopyPartition(
       long auditLogId,
       long auditLogEntryCreateTime,
-      HiveObjectSpec spec) throws StateUpdateException {
+      HiveObjectSpec spec) {
 
     Map<String, String> extras = new HashMap<>();
     extras.put(PersistedJobInfo.AUDIT_LOG_ID_EXTRAS_KEY, Long.toString(auditLogId));
@@ -165,7 +165,7 @@ public class ReplicationJobFactory {
     partitionNames.add(spec.getPartitionName());
     ReplicationOperation replicationOperation = ReplicationOperation.COPY_PARTITION;
 
-    PersistedJobInfo persistedJobInfo = jobInfoStore.resilientCreate(replicationOperation,
+    PersistedJobInfo persistedJobInfo = PersistedJobInfo.createDeferred(replicationOperation,
         ReplicationStatus.PENDING, Optional.empty(), srcCluster.getName(), spec, partitionNames,
         Optional.empty(), Optional.empty(), Optional.empty(), extras);
 
@@ -183,13 +183,11 @@ public class ReplicationJobFactory {
    * @param auditLogEntryCreateTime when the audit log entry was created
    * @param namedPartition partition to copy
    * @return the job to copy the partition
-   *
-   * @throws StateUpdateException if there's an error writing to the DB
    */
   public ReplicationJob createJobForCopyPartition(
       long auditLogId,
       long auditLogEntryCreateTime,
-      NamedPartition namedPartition) throws StateUpdateException {
+      NamedPartition namedPartition) {
     String partitionName = namedPartition.getName();
     List<String> partitionNames = new ArrayList<>();
     partitionNames.add(partitionName);
@@ -204,7 +202,7 @@ public class ReplicationJobFactory {
     Partition partition = namedPartition.getPartition();
     HiveObjectSpec spec = new HiveObjectSpec(namedPartition);
     PersistedJobInfo persistedJobInfo =
-        jobInfoStore.resilientCreate(replicationOperation, ReplicationStatus.PENDING,
+        PersistedJobInfo.createDeferred(replicationOperation, ReplicationStatus.PENDING,
             ReplicationUtils.getLocation(partition), srcCluster.getName(), spec, partitionNames,
             ReplicationUtils.getTldt(partition), Optional.empty(), Optional.empty(), extras);
 
@@ -222,13 +220,11 @@ public class ReplicationJobFactory {
    * @param auditLogEntryCreateTime when the audit log entry was created
    * @param namedPartitions partitions to copy
    * @return the job to copy all of the specified partitions
-   *
-   * @throws StateUpdateException if there's an error writing to the DB
    */
   public ReplicationJob createJobForCopyDynamicPartitions(
       long auditLogId,
       long auditLogEntryCreateTime,
-      List<NamedPartition> namedPartitions) throws StateUpdateException {
+      List<NamedPartition> namedPartitions) {
 
     ReplicationOperation replicationOperation = ReplicationOperation.COPY_PARTITIONS;
 
@@ -248,7 +244,7 @@ public class ReplicationJobFactory {
     extras.put(PersistedJobInfo.AUDIT_LOG_ENTRY_CREATE_TIME_KEY,
         Long.toString(auditLogEntryCreateTime));
 
-    PersistedJobInfo persistedJobInfo = jobInfoStore.resilientCreate(replicationOperation,
+    PersistedJobInfo persistedJobInfo = PersistedJobInfo.createDeferred(replicationOperation,
         ReplicationStatus.PENDING, commonLocation, srcCluster.getName(), tableSpec, partitionNames,
         Optional.empty(), Optional.empty(), Optional.empty(), extras);
 
@@ -259,6 +255,64 @@ public class ReplicationJobFactory {
     return new ReplicationJob(conf, replicationTask, onStateChangeHandler, persistedJobInfo);
   }
 
+  /**
+   * Create a job that copies all the partitions of the supplied COPY_PARTITION jobs. This allows
+   * partitions of the same table that were written by separate audit log entries to be copied
+   * together.
+   *
+   * @param copyPartitionJobs jobs returned by createJobForCopyPartition() for the same table
+   * @return the job to copy all of the partitions
+   */
+  public ReplicationJob createJobForBatchedCopyPartitions(List<ReplicationJob> copyPartitionJobs) {
+    PersistedJobInfo firstJobInfo = copyPartitionJobs.get(0).getPersistedJobInfo();
+    HiveObjectSpec tableSpec =
+        new HiveObjectSpec(firstJobInfo.getSrcDbName(), firstJobInfo.getSrcTableName());
+
+    Set<String> partitionNames = new LinkedHashSet<>();
+    Set<Path> partitionLocations = new HashSet<>();
+    boolean allLocationsKnown = true;
+    long earliestCreateTime = Long.MAX_VALUE;
+
+    for (ReplicationJob job : copyPartitionJobs) {
+      PersistedJobInfo jobInfo = job.getPersistedJobInfo();
+      if (jobInfo.getOperation() != ReplicationOperation.COPY_PARTITION
+          || !tableSpec.equals(
+              new HiveObjectSpec(jobInfo.getSrcDbName(), jobInfo.getSrcTableName()))) {
+        throw new RuntimeException("Can't batch " + job + " with jobs for " + tableSpec);
+      }
+      partitionNames.addAll(jobInfo.getSrcPartitionNames());
+      if (jobInfo.getSrcPath().isPresent()) {
+        partitionLocations.add(jobInfo.getSrcPath().get());
+      } else {
+        allLocationsKnown = false;
+      }
+      earliestCreateTime = Math.min(earliestCreateTime, job.getCreateTime());
+    }
+
+    // The common location is the common path that all the partitions share.
+    Optional<Path> commonLocation = allLocationsKnown
+        ? ReplicationUtils.getCommonDirectory(partitionLocations) : Optional.empty();
+
+    // Use the earliest entry so that the lag of the job reflects the oldest change
+    Map<String, String> extras = new HashMap<>();
+    extras.put(PersistedJobInfo.AUDIT_LOG_ID_EXTRAS_KEY,
+        firstJobInfo.getExtras().get(PersistedJobInfo.AUDIT_LOG_ID_EXTRAS_KEY));
+    extras.put(PersistedJobInfo.AUDIT_LOG_ENTRY_CREATE_TIME_KEY,
+        Long.toString(earliestCreateTime));
+
+    List<String> partitionNameList = new ArrayList<>(partitionNames);
+    PersistedJobInfo persistedJobInfo = PersistedJobInfo.createDeferred(
+        ReplicationOperation.COPY_PARTITIONS, ReplicationStatus.PENDING, commonLocation,
+        srcCluster.getName(), tableSpec, partitionNameList, Optional.empty(), Optional.empty(),
+        Optional.empty(), extras);
+
+    ReplicationTask replicationTask = new CopyPartitionsTask(conf, destinationObjectFactory,
+        objectConflictHandler, srcCluster, destCluster, tableSpec, partitionNameList,
+        commonLocation, copyPartitionJobExecutor, directoryCopier);
+
+    return new ReplicationJob(conf, replicationTask, onStateChangeHandler, persistedJobInfo);
+  }
+
   /**
    * Create a mapping from a Hive object specification to the Thrift Hive Table object.
    *
@@ -283,13 +337,11 @@ public class ReplicationJobFactory {
    * @param auditLogEntryCreateTime when the audit log entry was created
    * @param table the table to drop
    * @return the job to drop the table
-   *
-   * @throws StateUpdateException if there's an error writing to the DB
    */
   public ReplicationJob createJobForDropTable(
       long auditLogId,
       long auditLogEntryCreateTime,
-      Table table) throws StateUpdateException {
+      Table table) {
     ReplicationOperation replicationOperation = ReplicationOperation.DROP_TABLE;
 
     Map<String, String> extras = new HashMap<>();
@@ -299,7 +351,7 @@ public class ReplicationJobFactory {
 
     HiveObjectSpec tableSpec = new HiveObjectSpec(table);
 
-    PersistedJobInfo persistedJobInfo = jobInfoStore.resilientCreate(replicationOperation,
+    PersistedJobInfo persistedJobInfo = PersistedJobInfo.createDeferred(replicationOperation,
         ReplicationStatus.PENDING, ReplicationUtils.getLocation(table), srcCluster.getName(),
         tableSpec, Collections.emptyList(), ReplicationUtils.getTldt(table), Optional.empty(),
         Optional.empty(), extras);
@@ -322,13 +374,11 @@ public class ReplicationJobFactory {
    * @param auditLogEntryCreateTime when the audit log entry was created
    * @param namedPartition the partition to drop
    * @return the job to drop the partition
-   *
-   * @throws StateUpdateException if there is an error writing to the DB
    */
   public ReplicationJob createJobForDropPartition(
       long auditLogId,
       long auditLogEntryCreateTime,
-      NamedPartition namedPartition) throws StateUpdateException {
+      NamedPartition namedPartition) {
     Map<String, String> extras = new HashMap<>();
     extras.put(PersistedJobInfo.AUDIT_LOG_ID_EXTRAS_KEY, Long.toString(auditLogId));
     extras.put(PersistedJobInfo.AUDIT_LOG_ENTRY_CREATE_TIME_KEY,
@@ -339,7 +389,7 @@ public class ReplicationJobFactory {
     List<String> partitionNames = new ArrayList<>();
     partitionNames.add(namedPartition.getName());
     Optional<String> partitionTldt = ReplicationUtils.getTldt(namedPartition.getPartition());
-    PersistedJobInfo persistedJobInfo = jobInfoStore.resilientCreate(replicationOperation,
+    PersistedJobInfo persistedJobInfo = PersistedJobInfo.createDeferred(replicationOperation,
         ReplicationStatus.PENDING, ReplicationUtils.getLocation(namedPartition.getPartition()),
         srcCluster.getName(), partitionSpec.getTableSpec(), partitionNames, partitionTldt,
         Optional.empty(), Optional.empty(), extras);
@@ -363,14 +413,12 @@ public class ReplicationJobFactory {
    * @param renameFromTable the table to rename from
    * @param renameToTable the table to rename to
    * @return the job to rename the specified table
-   *
-   * @throws StateUpdateException if there's an error writing to the DB
    */
   public ReplicationJob createJobForRenameTable(
       long auditLogId,
       long auditLogEntryCreateTime,
       Table renameFromTable,
-      Table renameToTable) throws StateUpdateException {
+      Table renameToTable) {
     ReplicationOperation replicationOperation = ReplicationOperation.RENAME_TABLE;
 
     Map<String, String> extras = new HashMap<>();
@@ -383,7 +431,7 @@ public class ReplicationJobFactory {
     Optional<Path> renameFromPath = ReplicationUtils.getLocation(renameFromTable);
     Optional<Path> renameToPath = ReplicationUtils.getLocation(renameToTable);
 
-    PersistedJobInfo persistedJobInfo = jobInfoStore.resilientCreate(replicationOperation,
+    PersistedJobInfo persistedJobInfo = PersistedJobInfo.createDeferred(replicationOperation,
         ReplicationStatus.PENDING, renameFromPath, srcCluster.getName(), renameFromTableSpec,
         new ArrayList<>(), ReplicationUtils.getTldt(renameFromTable),
         Optional.of(renameToTableSpec), renameToPath, extras);
@@ -414,14 +462,12 @@ public class ReplicationJobFactory {
    * @param renameFromPartition partition to rename from
    * @param renameToPartition partition to rename to
    * @return a job to rename the partition
-   *
-   * @throws StateUpdateException if there's an error writing to the DB
    */
   public ReplicationJob createJobForRenamePartition(
       long auditLogId,
       long auditLogEntryCreateTime,
       NamedPartition renameFromPartition,
-      NamedPartition renameToPartition) throws StateUpdateException {
+      NamedPartition renameToPartition) {
     ReplicationOperation replicationOperation = ReplicationOperation.RENAME_PARTITION;
 
     Map<String, String> extras = new HashMap<>();
@@ -434,7 +480,7 @@ public class ReplicationJobFactory {
     Optional renameFromPath = ReplicationUtils.getLocation(renameFromPartition.getPartition());
     Optional renameToPath = ReplicationUtils.getLocation(renameToPartition.getPartition());
 
-    PersistedJobInfo persistedJobInfo = jobInfoStore.resilientCreate(replicationOperation,
+    PersistedJobInfo persistedJobInfo = PersistedJobInfo.createDeferred(replicationOperation,
         ReplicationStatus.PENDING, renameFromPath, srcCluster.getName(), renameFromPartitionSpec,
         new ArrayList<>(), ReplicationUtils.getTldt(renameFromPartition.getPartition()),
         Optional.of(renameToPartitionSpec), renameToPath, extras);
@@ -471,6 +517,22 @@ public class ReplicationJobFactory {
   public List<ReplicationJob> createReplicationJobs(
       AuditLogEntry auditLogEntry,
       List<ReplicationFilter> replicationFilters) throws StateUpdateException {
+    List<ReplicationJob> replicationJobs = buildReplicationJobs(auditLogEntry, replicationFilters);
+    persistJobs(replicationJobs);
+    return replicationJobs;
+  }
+
+  /**
+   * Converts the audit log entry into a set of replication jobs, but does not persist them. The
+   * returned jobs should be passed to persistJobs() before they are run.
+   *
+   * @param auditLogEntry the audit log entry associated with the actions that need to be replicated
+   * @param replicationFilters the filters for replication entries
+   * @return the jobs for the audit log entry
+   */
+  public List<ReplicationJob> buildReplicationJobs(
+      AuditLogEntry auditLogEntry,
+      List<ReplicationFilter> replicationFilters) {
     List<ReplicationJob> replicationJobs = new ArrayList<>();
 
     for (ReplicationFilter replicationFilter : replicationFilters) {
@@ -681,6 +743,26 @@ public class ReplicationJobFactory {
     return replicationJobs;
   }
 
+  /**
+   * Write the information for the jobs that were returned by the createJobFor...() methods to the
+   * DB. The jobs are written with multi-row inserts, and the ID's are assigned in the order of the
+   * supplied list.
+   *
+   * @param replicationJobs the jobs to persist
+   *
+   * @throws StateUpdateException if there's an error writing to the DB
+   */
+  public void persistJobs(List<ReplicationJob> replicationJobs) throws StateUpdateException {
+    if (replicationJobs.isEmpty()) {
+      return;
+    }
+    List<PersistedJobInfo> jobInfos = new ArrayList<>();
+    for (ReplicationJob job : replicationJobs) {
+      jobInfos.add(job.getPersistedJobInfo());
+    }
+    jobInfoStore.resilientCreateBatch(jobInfos);
+  }
+
   /**
    * Based on the supplied filter, remove tables and partitions that should not be replicated.
    *
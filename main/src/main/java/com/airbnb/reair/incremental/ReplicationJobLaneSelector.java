@@ -0,0 +1,47 @@
+package com.airbnb.reair.incremental;
+
+import com.airbnb.reair.incremental.db.PersistedJobInfo;
+import com.airbnb.reair.multiprocessing.Job;
+import com.airbnb.reair.multiprocessing.JobLaneSelector;
+
+/**
+ * Runs replication jobs that only change metadata in a separate lane from jobs that copy data, so
+ * that drops and renames don't wait behind long running copies.
+ */
+public class ReplicationJobLaneSelector implements JobLaneSelector {
+
+  public static final String METADATA_LANE = "metadata";
+  public static final String DATA_COPY_LANE = "copy";
+
+  /**
+   * Whether a job only changes metadata on the destination.
+   *
+   * @param jobInfo the persisted information for the job
+   * @return true if the job doesn't need to copy data
+   */
+  static boolean isMetadataOnly(PersistedJobInfo jobInfo) {
+    switch (jobInfo.getOperation()) {
+      case COPY_PARTITIONED_TABLE:
+      case DROP_TABLE:
+      case DROP_PARTITION:
+      case RENAME_TABLE:
+      case RENAME_PARTITION:
+        return true;
+      case COPY_UNPARTITIONED_TABLE:
+      case COPY_PARTITION:
+        // Views and other objects without a location don't have data to copy
+        return !jobInfo.getSrcPath().isPresent();
+      default:
+        return false;
+    }
+  }
+
+  @Override
+  public String getLane(Job job) {
+    if (job instanceof ReplicationJob
+        && isMetadataOnly(((ReplicationJob) job).getPersistedJobInfo())) {
+      return METADATA_LANE;
+    }
+    return DATA_COPY_LANE;
+  }
+}
@@ -0,0 +1,111 @@
+package com.airbnb.reair.incremental;
+
+import com.airbnb.reair.common.FsUtils;
+import com.airbnb.reair.incremental.db.PersistedJobInfo;
+import com.airbnb.reair.incremental.deploy.ConfigurationKeys;
+import com.airbnb.reair.multiprocessing.Job;
+import com.airbnb.reair.multiprocessing.JobPriorityPolicy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Orders replication jobs that are ready to run so that cheap jobs don't wait behind expensive
+ * ones. The priority of a job is the time that it became ready plus a delay based on its estimated
+ * cost:
+ *
+ * <p>Jobs that only change metadata (drops, renames, and copies of partitioned tables or views)
+ * have no delay. Jobs that copy data are delayed by a fixed amount, plus an optional amount per GB
+ * of source data. The delay is scaled by a per-database weight, and is capped so that an expensive
+ * job will eventually run before jobs that became ready after it.
+ */
+public class ReplicationJobPriorityPolicy implements JobPriorityPolicy {
+
+  private static final Log LOG = LogFactory.getLog(ReplicationJobPriorityPolicy.class);
+
+  private static final long BYTES_PER_GB = 1024L * 1024 * 1024;
+
+  private final Configuration conf;
+  private final long dataCopyDelayMs;
+  private final long delayMsPerGb;
+  private final long maxDelayMs;
+  private final Map<String, Double> dbWeights;
+
+  /**
+   * Constructor for a policy that reads the delays and weights from the configuration.
+   *
+   * @param conf configuration object
+   */
+  public ReplicationJobPriorityPolicy(Configuration conf) {
+    this.conf = conf;
+    this.dataCopyDelayMs = conf.getLong(ConfigurationKeys.SCHEDULING_DATA_COPY_DELAY_MS,
+        60 * 1000);
+    this.delayMsPerGb = conf.getLong(ConfigurationKeys.SCHEDULING_DELAY_MS_PER_GB, 0);
+    this.maxDelayMs = conf.getLong(ConfigurationKeys.SCHEDULING_MAX_DELAY_MS, 60 * 60 * 1000);
+    this.dbWeights = parseDbWeights(conf.get(ConfigurationKeys.SCHEDULING_DB_WEIGHTS, ""));
+  }
+
+  private static Map<String, Double> parseDbWeights(String dbWeightsString) {
+    Map<String, Double> dbWeights = new HashMap<>();
+    for (String dbWeight : dbWeightsString.split(",")) {
+      if (dbWeight.trim().isEmpty()) {
+        continue;
+      }
+      String[] dbAndWeight = dbWeight.split(":");
+      if (dbAndWeight.length != 2) {
+        throw new IllegalArgumentException("Invalid db weight: " + dbWeight);
+      }
+      dbWeights.put(dbAndWeight[0].trim(), Double.parseDouble(dbAndWeight[1].trim()));
+    }
+    return dbWeights;
+  }
+
+  /**
+   * Get the size of the data to copy.
+   *
+   * @param path the path to the source data
+   * @return the size in bytes, or 0 if it can't be determined
+   */
+  private long getSize(Path path) {
+    try {
+      return FsUtils.getSize(conf, path, Optional.empty());
+    } catch (IOException e) {
+      LOG.warn("Unable to get the size of " + path, e);
+      return 0;
+    }
+  }
+
+  /**
+   * Get the delay for a job based on its estimated cost.
+   *
+   * @param jobInfo the persisted information for the job
+   * @return the delay in ms
+   */
+  private long getDelay(PersistedJobInfo jobInfo) {
+    if (ReplicationJobLaneSelector.isMetadataOnly(jobInfo)) {
+      return 0;
+    }
+
+    double delay = dataCopyDelayMs;
+    if (delayMsPerGb > 0 && jobInfo.getSrcPath().isPresent()) {
+      delay += (double) getSize(jobInfo.getSrcPath().get()) / BYTES_PER_GB * delayMsPerGb;
+    }
+    delay *= dbWeights.getOrDefault(jobInfo.getSrcDbName(), 1.0);
+    return Math.max(0, Math.min(maxDelayMs, (long) delay));
+  }
+
+  @Override
+  public long getPriority(Job job, long readyTime) {
+    if (!(job instanceof ReplicationJob)) {
+      return readyTime;
+    }
+    return readyTime + getDelay(((ReplicationJob) job).getPersistedJobInfo());
+  }
+}
@@ -10,6 +10,7 @@ import com.airbnb.reair.incremental.configuration.DestinationObjectFactory;
 import com.airbnb.reair.incremental.configuration.ObjectConflictHandler;
 import com.airbnb.reair.incremental.db.PersistedJobInfo;
 import com.airbnb.reair.incremental.db.PersistedJobInfoStore;
+import com.airbnb.reair.incremental.deploy.ConfigurationKeys;
 import com.airbnb.reair.incremental.filter.ReplicationFilter;
 import com.airbnb.reair.incremental.primitives.CopyPartitionTask;
 import com.airbnb.reair.incremental.primitives.CopyPartitionedTableTask;
@@ -22,6 +23,7 @@ import com.airbnb.reair.incremental.primitives.RenameTableTask;
 import com.airbnb.reair.incremental.primitives.ReplicationTask;
 import com.airbnb.reair.incremental.thrift.TReplicationJob;
 import com.airbnb.reair.incremental.thrift.TReplicationService;
+import com.airbnb.reair.multiprocessing.JobPriorityPolicy;
 import com.airbnb.reair.multiprocessing.ParallelJobExecutor;
 
 import org.apache.commons.logging.Log;
@@ -34,9 +36,12 @@ import java.sql.SQLException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.TimeZone;
 
 /**
@@ -55,6 +60,9 @@ public class ReplicationServer implements TReplicationService.Iface {
   // Key used for storing the last persisted audit log ID in the key value
   // store
   public static final String LAST_PERSISTED_AUDIT_LOG_ID_KEY = "last_persisted_id";
+  // Key used for storing the jobs that were buffered by the batcher, and not persisted, as of the
+  // last processed audit log ID. The value has the format "<ID>;<JSON list of job keys>".
+  public static final String BUFFERED_JOBS_KEY = "buffered_jobs";
 
   private Configuration conf;
   private Cluster srcCluster;
@@ -92,6 +100,20 @@ public class ReplicationServer implements TReplicationService.Iface {
 
   private Optional<Long> startAfterAuditLogId = Optional.empty();
 
+  // Number of audit log entries to read ahead so that redundant jobs can be removed
+  private int coalesceWindowEntries;
+
+  private ReplicationJobCoalescer jobCoalescer = new ReplicationJobCoalescer();
+
+  // Groups partition copies for the same table into a single job
+  private CopyPartitionJobBatcher copyPartitionJobBatcher;
+
+  // After a restart, the audit log is read again from before the jobs that were buffered by the
+  // batcher. The entries up to this ID were already processed, so only the jobs that were buffered
+  // (with keys in replayJobKeys) are created again for those entries.
+  private long replayUntilAuditLogId = 0;
+  private Set<String> replayJobKeys = new HashSet<>();
+
   // Responsible for persisting changes to the state of the replication job
   // once it finishes
   private class JobStateChangeHandler implements OnStateChangeHandler {
@@ -183,8 +205,24 @@ public class ReplicationServer implements TReplicationService.Iface {
 
     this.maxJobsInMemory = maxJobsInMemory;
 
-    this.jobExecutor = new ParallelJobExecutor("TaskWorker", numWorkers);
-    this.copyPartitionJobExecutor = new ParallelJobExecutor("CopyPartitionWorker", numWorkers);
+    int numLockStripes = conf.getInt(ConfigurationKeys.WORKER_LOCK_STRIPES, 1);
+    Optional<JobPriorityPolicy> priorityPolicy = Optional.empty();
+    if (conf.getBoolean(ConfigurationKeys.SCHEDULING_PRIORITY_ENABLED, false)) {
+      priorityPolicy = Optional.of(new ReplicationJobPriorityPolicy(conf));
+    }
+    int numMetadataWorkers = conf.getInt(ConfigurationKeys.METADATA_WORKER_THREADS, 0);
+    if (numMetadataWorkers > 0) {
+      Map<String, Integer> laneToNumWorkers = new LinkedHashMap<>();
+      laneToNumWorkers.put(ReplicationJobLaneSelector.METADATA_LANE, numMetadataWorkers);
+      laneToNumWorkers.put(ReplicationJobLaneSelector.DATA_COPY_LANE, numWorkers);
+      this.jobExecutor = new ParallelJobExecutor("TaskWorker", laneToNumWorkers,
+          new ReplicationJobLaneSelector(), numLockStripes, priorityPolicy);
+    } else {
+      this.jobExecutor =
+          new ParallelJobExecutor("TaskWorker", numWorkers, numLockStripes, priorityPolicy);
+    }
+    this.copyPartitionJobExecutor =
+        new ParallelJobExecutor("CopyPartitionWorker", numWorkers, numLockStripes);
 
     this.directoryCopier = directoryCopier;
 
@@ -201,6 +239,12 @@ public class ReplicationServer implements TReplicationService.Iface {
 
     this.startAfterAuditLogId = startAfterAuditLogId;
 
+    this.coalesceWindowEntries =
+        Math.max(1, conf.getInt(ConfigurationKeys.COALESCE_WINDOW_ENTRIES, 1));
+    this.copyPartitionJobBatcher = new CopyPartitionJobBatcher(jobFactory,
+        conf.getInt(ConfigurationKeys.COPY_PARTITION_BATCH_MAX_SIZE, 1),
+        conf.getLong(ConfigurationKeys.COPY_PARTITION_BATCH_MAX_DELAY_MS, 60 * 1000));
+
     jobExecutor.start();
     copyPartitionJobExecutor.start();
 
@@ -351,6 +395,17 @@ public class ReplicationServer implements TReplicationService.Iface {
       } else {
         lastPersistedAuditLogId = Long.parseLong(lastPersistedIdString.get());
       }
+
+      Optional<String> bufferedJobsString = keyValueStore.get(BUFFERED_JOBS_KEY);
+      if (bufferedJobsString.isPresent()) {
+        String value = bufferedJobsString.get();
+        int separatorIndex = value.indexOf(';');
+        replayUntilAuditLogId = Long.parseLong(value.substring(0, separatorIndex));
+        replayJobKeys = new HashSet<>(
+            ReplicationUtils.convertToList(value.substring(separatorIndex + 1)));
+        LOG.info(String.format("Re-creating %d buffered jobs from entries up to ID %s",
+            replayJobKeys.size(), replayUntilAuditLogId));
+      }
     }
 
     LOG.info("Using last persisted ID of " + lastPersistedAuditLogId);
@@ -403,58 +458,136 @@ public class ReplicationServer implements TReplicationService.Iface {
         continue;
       }
 
-      // Get an entry from the audit log
+      // Get entries from the audit log. When coalescing, read ahead as many entries as are
+      // available, up to the window size.
       LOG.debug("Fetching the next entry from the audit log");
-      Optional<AuditLogEntry> auditLogEntry = auditLogReader.resilientNext();
+      List<AuditLogEntry> entries = new ArrayList<>();
+      while (entries.size() < coalesceWindowEntries) {
+        Optional<AuditLogEntry> auditLogEntry = auditLogReader.resilientNext();
+        if (!auditLogEntry.isPresent()) {
+          break;
+        }
+        LOG.debug("Got audit log entry: " + auditLogEntry.get());
+        entries.add(auditLogEntry.get());
+      }
 
       // If there's nothing from the audit log, then wait for a little bit
       // and then try again.
-      if (!auditLogEntry.isPresent()) {
+      if (entries.isEmpty()) {
+        // Partition copies that have been batched for long enough shouldn't wait for new entries
+        submitJobs(copyPartitionJobBatcher.releaseExpired(System.currentTimeMillis()),
+            jobsToComplete);
         LOG.debug(String.format("No more entries from the audit log. " + "Sleeping for %s ms",
             pollWaitTimeMs));
         ReplicationUtils.sleep(pollWaitTimeMs);
         continue;
       }
 
-      AuditLogEntry entry = auditLogEntry.get();
-
-      LOG.debug("Got audit log entry: " + entry);
+      AuditLogEntry entry = entries.get(entries.size() - 1);
 
-      // Convert the audit log entry into a replication job, which has
+      // Convert the audit log entries into replication jobs, which have
       // elements persisted to the DB
-      List<ReplicationJob> replicationJobs =
-          jobFactory.createReplicationJobs(auditLogEntry.get(), replicationFilters);
-
-      LOG.debug(
-          String.format("Audit log entry id: %s converted to %s", entry.getId(), replicationJobs));
-
-      // Add these jobs to the registry
-      for (ReplicationJob job : replicationJobs) {
-        jobRegistry.registerJob(job);
+      LinkedHashMap<AuditLogEntry, List<ReplicationJob>> jobsByEntry = new LinkedHashMap<>();
+      for (AuditLogEntry entryInWindow : entries) {
+        List<ReplicationJob> jobsForEntry =
+            jobFactory.buildReplicationJobs(entryInWindow, replicationFilters);
+        if (entryInWindow.getId() <= replayUntilAuditLogId) {
+          jobsForEntry = removePersistedJobs(jobsForEntry);
+        }
+        LOG.debug(String.format("Audit log entry id: %s converted to %s", entryInWindow.getId(),
+            jobsForEntry));
+        jobsByEntry.put(entryInWindow, jobsForEntry);
       }
+      List<ReplicationJob> replicationJobs = copyPartitionJobBatcher.add(
+          jobCoalescer.coalesce(jobsByEntry), System.currentTimeMillis());
+      submitJobs(replicationJobs, jobsToComplete);
 
       // Since the replication job was created and persisted, we can
-      // advance the last persisted ID. Update every 10s to reduce db
-      if (System.currentTimeMillis() - updateTimeForLastPersistedId > 10000) {
-        keyValueStore.resilientSet(LAST_PERSISTED_AUDIT_LOG_ID_KEY, Long.toString(entry.getId()));
+      // advance the last persisted ID. Jobs that are still being batched
+      // aren't persisted, so don't advance past those. Update every 10s to reduce db. While
+      // entries from before a restart are being read again, keep the saved state as is.
+      if (System.currentTimeMillis() - updateTimeForLastPersistedId > 10000
+          && entry.getId() >= replayUntilAuditLogId) {
+        long lastPersistedId = entry.getId();
+        Optional<Long> lowestBufferedId = copyPartitionJobBatcher.getLowestBufferedAuditLogId();
+        if (lowestBufferedId.isPresent()) {
+          lastPersistedId = Math.min(lastPersistedId, lowestBufferedId.get() - 1);
+        }
+        // The entries after the persisted ID are read again after a restart, so save which of
+        // their jobs weren't persisted. This is saved first so that if the server stops in
+        // between, jobs are created twice rather than not at all.
+        keyValueStore.resilientSet(BUFFERED_JOBS_KEY, entry.getId() + ";"
+            + ReplicationUtils.convertToJson(
+                new ArrayList<>(copyPartitionJobBatcher.getBufferedJobKeys())));
+        keyValueStore.resilientSet(LAST_PERSISTED_AUDIT_LOG_ID_KEY,
+            Long.toString(lastPersistedId));
         updateTimeForLastPersistedId = System.currentTimeMillis();
       }
+    }
+  }
 
-      for (ReplicationJob replicationJob : replicationJobs) {
-        LOG.debug("Scheduling: " + replicationJob);
-        prettyLogStart(replicationJob);
-        long tasksSubmittedForExecution =
-            counters.getCounter(ReplicationCounters.Type.EXECUTION_SUBMITTED_TASKS);
-
-        if (tasksSubmittedForExecution >= jobsToComplete) {
-          LOG.warn(String.format("Not submitting %s for execution "
-              + " due to the limit for the number of " + "jobs to execute", replicationJob));
-          continue;
-        } else {
-          queueJobForExecution(replicationJob);
-        }
+  /**
+   * Remove the jobs created for an audit log entry that was processed before a restart, except for
+   * the jobs that were buffered by the batcher and therefore never persisted.
+   *
+   * @param jobs the jobs created for the audit log entry
+   * @return the jobs that still need to be run
+   */
+  private List<ReplicationJob> removePersistedJobs(List<ReplicationJob> jobs) {
+    List<ReplicationJob> jobsToKeep = new ArrayList<>();
+    for (ReplicationJob job : jobs) {
+      if (replayJobKeys.contains(CopyPartitionJobBatcher.getJobKey(job))) {
+        jobsToKeep.add(job);
+      } else {
+        LOG.debug("Not creating job again since it was persisted before restarting: " + job);
       }
     }
+    return jobsToKeep;
+  }
+
+  /**
+   * Persist, register, and queue the specified jobs for execution.
+   *
+   * @param replicationJobs jobs that haven't been persisted yet
+   * @param jobsToComplete the number of jobs to complete before returning. Useful for testing.
+   *
+   * @throws StateUpdateException if there's an error writing to the DB
+   */
+  private void submitJobs(List<ReplicationJob> replicationJobs, long jobsToComplete)
+      throws StateUpdateException {
+    jobFactory.persistJobs(replicationJobs);
+
+    // Add these jobs to the registry
+    for (ReplicationJob job : replicationJobs) {
+      jobRegistry.registerJob(job);
+    }
+
+    for (ReplicationJob replicationJob : replicationJobs) {
+      LOG.debug("Scheduling: " + replicationJob);
+      prettyLogStart(replicationJob);
+      long tasksSubmittedForExecution =
+          counters.getCounter(ReplicationCounters.Type.EXECUTION_SUBMITTED_TASKS);
+
+      if (tasksSubmittedForExecution >= jobsToComplete) {
+        LOG.warn(String.format("Not submitting %s for execution "
+            + " due to the limit for the number of " + "jobs to execute", replicationJob));
+        continue;
+      } else {
+        queueJobForExecution(replicationJob);
+      }
+    }
+  }
+
+  /**
+   * Release the resources held for reading the audit log, and write any job status changes that
+   * are still queued. Can be called when the server is exiting, e.g. from a shutdown hook.
+   *
+   * @throws StateUpdateException if there's an error writing to the DB
+   */
+  public void shutdown() throws StateUpdateException {
+    LOG.info("Shutting down the replication server");
+    auditLogReader.close();
+    jobInfoStore.shutdown();
   }
 
   /**
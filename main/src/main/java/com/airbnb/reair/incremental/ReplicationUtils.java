@@ -6,10 +6,12 @@ import com.airbnb.reair.common.HiveMetastoreClient;
 import com.airbnb.reair.common.HiveMetastoreException;
 import com.airbnb.reair.common.HiveObjectSpec;
 import com.airbnb.reair.common.HiveParameterKeys;
+import com.airbnb.reair.incremental.deploy.ConfigurationKeys;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hive.metastore.api.Database;
 import org.apache.hadoop.hive.metastore.api.Partition;
@@ -38,6 +40,9 @@ public class ReplicationUtils {
   private static final int DEFAULT_WAIT_TIME_BASE = 2;
   // For doing exponential backoff, the maximum number of seconds to use
   private static final int DEFAULT_MAX_WAIT_TIME = 3600;
+  // The partitions of a table are hashed into this many buckets for locking. A job on many
+  // partitions can then lock the buckets of its partitions instead of each partition.
+  public static final int PARTITION_LOCK_BUCKETS = 64;
 
   /**
    * Remove (or set to 0) fields in the table object that should not be compared.
@@ -443,10 +448,69 @@ public class ReplicationUtils {
     return paths;
   }
 
+  /**
+   * Get the names of the locks for the specified object and its ancestors, for use with
+   * LockSet.addHierarchical(). The path starts with the database, followed by the table, and then
+   * the partition's bucket and the partition if the object is a partition.
+   *
+   * @param spec the table or partition to lock
+   * @return the lock names for the database, table, and partition (if applicable)
+   */
+  public static List<String> getLockPath(HiveObjectSpec spec) {
+    List<String> path = new ArrayList<>();
+    path.add(spec.getDbName());
+    if (spec.isPartition()) {
+      path.add(spec.getTableSpec().toString());
+      path.add(getPartitionBucketLockName(spec));
+    }
+    path.add(spec.toString());
+    return path;
+  }
+
+  /**
+   * Get the names of the locks for the bucket of the specified partition and its ancestors, for
+   * use with LockSet.addHierarchical(). An exclusive lock on the bucket conflicts with locks on all
+   * the partitions in the bucket, but not with locks on partitions in other buckets.
+   *
+   * @param spec the partition
+   * @return the lock names for the database, table, and the partition's bucket
+   */
+  public static List<String> getBucketLockPath(HiveObjectSpec spec) {
+    List<String> path = getLockPath(spec);
+    return path.subList(0, path.size() - 1);
+  }
+
+  private static String getPartitionBucketLockName(HiveObjectSpec spec) {
+    int bucket = Math.floorMod(spec.getPartitionName().hashCode(), PARTITION_LOCK_BUCKETS);
+    // '#' can't appear in a partition column name, so this can't be the name of a partition
+    return spec.getTableSpec() + "/#bucket=" + bucket;
+  }
+
+  /**
+   * Get the maximum number of times to attempt a replication job, including the first attempt.
+   *
+   * @param conf configuration object
+   * @return the maximum number of attempts, which is at least 1
+   */
+  public static int getMaxJobAttempts(Configuration conf) {
+    return 1 + Math.max(0,
+        conf.getInt(ConfigurationKeys.JOB_RETRIES, ReplicationJob.DEFAULT_JOB_RETRIES));
+  }
+
   public static void exponentialSleep(int attempt) throws InterruptedException {
     exponentialSleep(attempt, DEFAULT_WAIT_TIME_BASE, DEFAULT_MAX_WAIT_TIME);
   }
 
+  /**
+   * Get the time to wait before the next attempt, using the same backoff as exponentialSleep().
+   *
+   * @param attempt attempt number
+   * @return the wait time in ms
+   */
+  public static long getExponentialWaitTimeMs(int attempt) {
+    return 1000 * (long) Math.min(DEFAULT_MAX_WAIT_TIME, Math.pow(DEFAULT_WAIT_TIME_BASE, attempt));
+  }
+
   /**
    * Sleep for a period of time that relates exponentially to the attempt number.
    *
@@ -27,15 +27,33 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Optional;
 import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Reads entries from the Hive audit log.
+ *
+ * <p>Entries are read in batches. The number of entries requested per batch starts at the
+ * configured minimum and is grown while full batches come back quickly, and shrunk when the
+ * queries are slow. Optionally, a background thread can read batches ahead of the consumer into a
+ * bounded queue so that the caller does not have to wait on the DB round trips.
  */
 public class AuditLogReader {
 
   private static final Log LOG = LogFactory.getLog(AuditLogReader.class);
 
-  private static final int ROW_FETCH_SIZE = 200;
+  private static final int DEFAULT_MIN_FETCH_SIZE = 200;
+  private static final int DEFAULT_MAX_FETCH_SIZE = 5000;
+  private static final long DEFAULT_FETCH_TARGET_LATENCY_MS = 2000;
+  private static final int DEFAULT_PREFETCH_QUEUE_SIZE = 10000;
+
+  // When the prefetcher has caught up to the end of the audit log, wait this long before checking
+  // for new entries.
+  private static final long PREFETCH_IDLE_WAIT_MS = 1000;
+  // How long a consumer waits for the prefetcher when the queue is empty, but the prefetcher
+  // hasn't caught up to the end of the log.
+  private static final long PREFETCH_POLL_TIMEOUT_MS = 1000;
 
   private DbConnectionFactory dbConnectionFactory;
   private String auditLogTableName;
@@ -45,6 +63,23 @@ public class AuditLogReader {
   private Queue<AuditLogEntry> auditLogEntries;
   private RetryingTaskRunner retryingTaskRunner;
 
+  private final int minFetchSize;
+  private final int maxFetchSize;
+  private final long fetchTargetLatencyMs;
+  // Number of entries to request in the next batch. Adjusted after every fetch.
+  private volatile int fetchSize;
+
+  private final boolean prefetchEnabled;
+  private BlockingQueue<AuditLogEntry> prefetchedEntries;
+  // Guards the read position of the prefetcher so that entries read for an old position are not
+  // handed out after setReadAfterId() is called.
+  private final Object prefetchLock = new Object();
+  private long prefetchReadAfterId;
+  private long prefetchGeneration = 0;
+  private volatile boolean prefetcherCaughtUp = false;
+  private volatile Exception prefetchException = null;
+  private Prefetcher prefetcher = null;
+
   /**
    * Constructs an AuditLogReader.
    *
@@ -71,6 +106,22 @@ public class AuditLogReader {
         conf.getInt(ConfigurationKeys.DB_QUERY_RETRIES,
             DbConstants.DEFAULT_NUM_RETRIES),
         DbConstants.DEFAULT_RETRY_EXPONENTIAL_BASE);
+
+    this.minFetchSize = Math.max(1,
+        conf.getInt(ConfigurationKeys.AUDIT_LOG_FETCH_SIZE_MIN, DEFAULT_MIN_FETCH_SIZE));
+    this.maxFetchSize = Math.max(minFetchSize,
+        conf.getInt(ConfigurationKeys.AUDIT_LOG_FETCH_SIZE_MAX, DEFAULT_MAX_FETCH_SIZE));
+    this.fetchTargetLatencyMs = conf.getLong(ConfigurationKeys.AUDIT_LOG_FETCH_TARGET_LATENCY_MS,
+        DEFAULT_FETCH_TARGET_LATENCY_MS);
+    this.fetchSize = minFetchSize;
+
+    this.prefetchEnabled = conf.getBoolean(ConfigurationKeys.AUDIT_LOG_PREFETCH_ENABLED, false);
+    if (prefetchEnabled) {
+      int queueSize = Math.max(maxFetchSize, conf.getInt(
+          ConfigurationKeys.AUDIT_LOG_PREFETCH_QUEUE_SIZE, DEFAULT_PREFETCH_QUEUE_SIZE));
+      this.prefetchedEntries = new LinkedBlockingQueue<>(queueSize);
+      this.prefetchReadAfterId = getIdsAfter;
+    }
   }
 
   /**
@@ -110,13 +161,17 @@ public class AuditLogReader {
    * @throws AuditLogEntryException if there is an error reading the audit log entry
    */
   public synchronized Optional<AuditLogEntry> next() throws SQLException, AuditLogEntryException {
+    if (prefetchEnabled) {
+      return nextPrefetched();
+    }
+
     if (auditLogEntries.size() > 0) {
       return Optional.of(auditLogEntries.remove());
     }
 
     LOG.debug("Executing queries to try to get more audit log entries from the DB");
 
-    fetchMoreEntries();
+    lastReadId = fetchAndAdjust(lastReadId, fetchSize, auditLogEntries);
 
     if (auditLogEntries.size() > 0) {
       return Optional.of(auditLogEntries.remove());
@@ -125,6 +180,209 @@ public class AuditLogReader {
     }
   }
 
+  /**
+   * Return the next audit log entry that was read by the background prefetcher, starting the
+   * prefetcher if necessary. If the prefetcher is still working on a batch, wait a little for it.
+   *
+   * @return the next audit log entry or empty if the prefetcher has caught up with the log
+   *
+   * @throws SQLException if the prefetcher's last attempt to query the DB failed
+   * @throws AuditLogEntryException if the prefetcher could not read an audit log entry
+   */
+  private Optional<AuditLogEntry> nextPrefetched() throws SQLException, AuditLogEntryException {
+    // The prefetcher stops if it can't read an entry, so start another one to try again.
+    if (prefetcher == null || !prefetcher.isAlive()) {
+      prefetcher = new Prefetcher();
+      prefetcher.start();
+    }
+
+    AuditLogEntry entry = prefetchedEntries.poll();
+    if (entry == null && !prefetcherCaughtUp) {
+      try {
+        entry = prefetchedEntries.poll(PREFETCH_POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return Optional.empty();
+      }
+    }
+
+    if (entry != null) {
+      return Optional.of(entry);
+    }
+
+    // Only surface errors from the prefetcher once everything that was read before the error has
+    // been consumed.
+    Exception exception;
+    synchronized (prefetchLock) {
+      exception = prefetchException;
+      prefetchException = null;
+    }
+    if (exception != null) {
+      if (exception instanceof SQLException) {
+        throw (SQLException) exception;
+      } else if (exception instanceof AuditLogEntryException) {
+        throw (AuditLogEntryException) exception;
+      } else {
+        throw new RuntimeException(exception);
+      }
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Stop the background prefetcher, if it was started. Entries that were already prefetched are
+   * kept, and the prefetcher is started again if more entries are requested.
+   */
+  public synchronized void close() {
+    if (prefetcher != null) {
+      synchronized (prefetchLock) {
+        // Discard the batch that the prefetcher may be in the middle of reading
+        prefetchGeneration++;
+        prefetchLock.notifyAll();
+      }
+      prefetcher.interrupt();
+      prefetcher = null;
+    }
+  }
+
+  /**
+   * Thread that reads batches of entries from the audit log into prefetchedEntries.
+   */
+  private class Prefetcher extends Thread {
+
+    public Prefetcher() {
+      setDaemon(true);
+      setName(AuditLogReader.class.getSimpleName() + "-Prefetcher-" + getId());
+    }
+
+    @Override
+    public void run() {
+      int failedAttempts = 0;
+
+      while (!isInterrupted()) {
+        long readAfterId;
+        long generation;
+        synchronized (prefetchLock) {
+          readAfterId = prefetchReadAfterId;
+          generation = prefetchGeneration;
+        }
+
+        // Don't request more than the queue can hold. This is what ties the batch size to the
+        // rate that the consumer removes entries.
+        int entriesToFetch = Math.min(fetchSize, prefetchedEntries.remainingCapacity());
+        if (entriesToFetch < minFetchSize) {
+          if (!waitForWork(PREFETCH_IDLE_WAIT_MS / 10)) {
+            return;
+          }
+          continue;
+        }
+
+        Queue<AuditLogEntry> batch = new LinkedList<>();
+        long newReadAfterId;
+        try {
+          newReadAfterId = fetchAndAdjust(readAfterId, entriesToFetch, batch);
+          failedAttempts = 0;
+        } catch (SQLException e) {
+          LOG.error("Error prefetching entries from the audit log", e);
+          setException(generation, e);
+          try {
+            ReplicationUtils.exponentialSleep(failedAttempts++, 2, 60);
+          } catch (InterruptedException ie) {
+            return;
+          }
+          continue;
+        } catch (AuditLogEntryException e) {
+          LOG.error("Unable to read entry from the audit log. Stopping prefetch.", e);
+          setException(generation, e);
+          return;
+        }
+
+        synchronized (prefetchLock) {
+          if (generation != prefetchGeneration) {
+            // The read position was changed while this batch was being fetched.
+            continue;
+          }
+          // Only this thread adds to the queue, so the capacity check above guarantees space.
+          prefetchedEntries.addAll(batch);
+          prefetchReadAfterId = newReadAfterId;
+          prefetcherCaughtUp = batch.size() < entriesToFetch;
+          prefetchException = null;
+        }
+
+        if (prefetcherCaughtUp && !waitForWork(PREFETCH_IDLE_WAIT_MS)) {
+          return;
+        }
+      }
+    }
+
+    /**
+     * Record an error for the consumer, unless the read position was changed since the failed
+     * read was started.
+     *
+     * @param generation the generation of the read position when the read was started
+     * @param exception the error to record
+     */
+    private void setException(long generation, Exception exception) {
+      synchronized (prefetchLock) {
+        if (generation == prefetchGeneration) {
+          prefetchException = exception;
+        }
+      }
+    }
+
+    /**
+     * Wait for the specified time, or until the read position is changed.
+     *
+     * @param waitTimeMs the maximum amount of time to wait
+     * @return false if the thread was interrupted while waiting
+     */
+    private boolean waitForWork(long waitTimeMs) {
+      try {
+        synchronized (prefetchLock) {
+          prefetchLock.wait(waitTimeMs);
+        }
+        return true;
+      } catch (InterruptedException e) {
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Read a batch of entries after the given ID and adjust the fetch size based on how long the
+   * queries took and whether a full batch was returned.
+   *
+   * @param readAfterId read entries with IDs after this value
+   * @param entriesToFetch the maximum number of entries to read
+   * @param output the queue to add the read entries to
+   * @return the ID to read after for the next batch
+   *
+   * @throws SQLException if there is an error querying the DB
+   * @throws AuditLogEntryException if there is an error reading an audit log entry
+   */
+  private long fetchAndAdjust(long readAfterId, int entriesToFetch,
+      Queue<AuditLogEntry> output) throws SQLException, AuditLogEntryException {
+    int sizeBefore = output.size();
+    long startTime = System.currentTimeMillis();
+    long newReadAfterId = fetchMoreEntries(readAfterId, entriesToFetch, output);
+    long elapsedTime = System.currentTimeMillis() - startTime;
+    int entriesRead = output.size() - sizeBefore;
+
+    int oldFetchSize = fetchSize;
+    if (elapsedTime > fetchTargetLatencyMs) {
+      fetchSize = Math.max(minFetchSize, oldFetchSize / 2);
+    } else if (entriesRead >= entriesToFetch && entriesToFetch >= oldFetchSize) {
+      // A full batch came back quickly, so there's a backlog to work through.
+      fetchSize = (int) Math.min(maxFetchSize, 2L * oldFetchSize);
+    }
+
+    if (fetchSize != oldFetchSize) {
+      LOG.debug(String.format("Read %d entries in %d ms. Changed fetch size from %d to %d",
+          entriesRead, elapsedTime, oldFetchSize, fetchSize));
+    }
+    return newReadAfterId;
+  }
+
   /**
    * From the output column in the audit log table, return the partition name. An example is
    * "default.table/ds=1" => "ds=1".
@@ -149,14 +407,16 @@ public class AuditLogReader {
   }
 
   /**
-   * Given that we start reading after lastReadId and need to get
-   * ROW_FETCH_SIZE rows from the audit log, figure out the min and max row
+   * Given that we start reading after readAfterId and need to get
+   * fetchSize rows from the audit log, figure out the min and max row
    * IDs to read.
    *
+   * @param readAfterId read rows with IDs after this value
+   * @param fetchSize the maximum number of rows to read
    * @returns a range of ID's to read from the audit log table based on the fetch size
    * @throws SQLException if there is an error reading from the DB
    */
-  private LongRange getIdsToRead() throws SQLException {
+  private LongRange getIdsToRead(long readAfterId, int fetchSize) throws SQLException {
     String queryFormatString = "SELECT MIN(id) min_id, MAX(id) max_id "
         + "FROM (SELECT id FROM %s WHERE id > %s "
         + "AND (command_type IS NULL OR command_type NOT IN('SHOWTABLES', 'SHOWPARTITIONS', "
@@ -170,7 +430,7 @@ public class AuditLogReader {
         // inserts id = 1, but another transaction starts, inserts, and commits i = 2 before the
         // first transaction commits. Locking can also be done with serializable isolation level.
         + "LOCK IN SHARE MODE";
-    String query = String.format(queryFormatString, auditLogTableName, lastReadId, ROW_FETCH_SIZE);
+    String query = String.format(queryFormatString, auditLogTableName, readAfterId, fetchSize);
     Connection connection = dbConnectionFactory.getConnection();
 
     PreparedStatement ps = connection.prepareStatement(query);
@@ -185,13 +445,25 @@ public class AuditLogReader {
   }
 
 
-  private void fetchMoreEntries() throws SQLException, AuditLogEntryException {
+  /**
+   * Read up to fetchSize entries after readAfterId from the audit log.
+   *
+   * @param readAfterId read entries with IDs after this value
+   * @param fetchSize the maximum number of entries to read
+   * @param output the queue to add the read entries to
+   * @return the ID to read after for the next batch
+   *
+   * @throws SQLException if there is an error querying the DB
+   * @throws AuditLogEntryException if there is an error reading an audit log entry
+   */
+  private long fetchMoreEntries(long readAfterId, int fetchSize, Queue<AuditLogEntry> output)
+      throws SQLException, AuditLogEntryException {
 
-    LongRange idsToRead = getIdsToRead();
+    LongRange idsToRead = getIdsToRead(readAfterId, fetchSize);
 
     // No more entries to read
     if (idsToRead.getMaximumLong() == 0) {
-      return;
+      return readAfterId;
     }
 
     // TODO: Remove left outer join and command type filter once the
@@ -266,7 +538,6 @@ public class AuditLogReader {
       objectSerialized = rs.getString("serialized_object");
 
       if (previouslyReadId != -1 && id != previouslyReadId) {
-        lastReadId = previouslyReadId;
         // This means that all the outputs for a given audit log entry
         // has been read.
         AuditLogEntry entry = new AuditLogEntry(
@@ -280,7 +551,7 @@ public class AuditLogReader {
             outputPartitions,
             inputTable,
             renameFromPartition);
-        auditLogEntries.add(entry);
+        output.add(entry);
         // Reset these accumulated values
         outputDirectories = new LinkedList<>();
         referenceTables = new LinkedList<>();
@@ -363,13 +634,12 @@ public class AuditLogReader {
           outputPartitions,
           inputTable,
           renameFromPartition);
-      auditLogEntries.add(entry);
+      output.add(entry);
     }
     // Note: if we constantly get empty results (i.e. no valid entries
-    // because all the commands got filtered out), then the lastReadId won't
+    // because all the commands got filtered out), then the read position won't
     // be updated for a while.
-    lastReadId = idsToRead.getMaximumLong();
-    return;
+    return idsToRead.getMaximumLong();
   }
 
   /**
@@ -383,6 +653,17 @@ public class AuditLogReader {
     // fetched a bunch of entries in advance, and the ID of those entries
     // may not line up with the new read-after ID.
     auditLogEntries.clear();
+
+    if (prefetchEnabled) {
+      synchronized (prefetchLock) {
+        prefetchGeneration++;
+        prefetchReadAfterId = readAfterId;
+        prefetchedEntries.clear();
+        prefetcherCaughtUp = false;
+        prefetchException = null;
+        prefetchLock.notifyAll();
+      }
+    }
   }
 
   /**
@@ -0,0 +1,52 @@
+package com.airbnb.reair.incremental.configuration;
+
+import com.airbnb.reair.common.CachingHiveMetastoreClient;
+import com.airbnb.reair.common.HiveMetadataCache;
+import com.airbnb.reair.common.HiveMetastoreClient;
+import com.airbnb.reair.common.HiveMetastoreException;
+
+import org.apache.hadoop.fs.Path;
+
+/**
+ * A cluster that caches table metadata from the metastore of another cluster. The cache is shared
+ * by the metastore clients for all threads.
+ */
+public class CachingCluster implements Cluster {
+
+  private Cluster cluster;
+  private HiveMetadataCache metadataCache;
+
+  /**
+   * Constructor for a caching cluster.
+   *
+   * @param cluster the cluster to cache the metadata of
+   * @param metadataCache the cache to use for the metadata
+   */
+  public CachingCluster(Cluster cluster, HiveMetadataCache metadataCache) {
+    this.cluster = cluster;
+    this.metadataCache = metadataCache;
+  }
+
+  /**
+   * Get a metastore client that uses the shared cache.
+   */
+  public HiveMetastoreClient getMetastoreClient() throws HiveMetastoreException {
+    return new CachingHiveMetastoreClient(cluster.getMetastoreClient(), metadataCache);
+  }
+
+  public HiveMetadataCache getMetadataCache() {
+    return metadataCache;
+  }
+
+  public Path getFsRoot() {
+    return cluster.getFsRoot();
+  }
+
+  public Path getTmpDir() {
+    return cluster.getTmpDir();
+  }
+
+  public String getName() {
+    return cluster.getName();
+  }
+}
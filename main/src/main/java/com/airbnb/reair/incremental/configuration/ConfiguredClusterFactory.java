@@ -1,13 +1,18 @@
 package com.airbnb.reair.incremental.configuration;
 
+import com.airbnb.reair.common.HiveMetadataCache;
+import com.airbnb.reair.common.PooledHiveMetastoreClient;
 import com.airbnb.reair.incremental.DirectoryCopier;
 import com.airbnb.reair.incremental.deploy.ConfigurationKeys;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 
+import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 public class ConfiguredClusterFactory implements ClusterFactory {
@@ -37,6 +42,77 @@ public class ConfiguredClusterFactory implements ClusterFactory {
     }
   }
 
+  /**
+   * Create a cluster that uses a pool of metastore clients if one is configured, or a client per
+   * thread otherwise. If a metadata cache TTL is configured and caching is allowed, table metadata
+   * is cached.
+   *
+   * @param cacheMetadata whether table metadata may be cached. This should only be set for a
+   *                      cluster that is mostly changed through the cluster object, since changes
+   *                      made by others are only seen once the cached entries expire.
+   */
+  private static Cluster makeCluster(
+      Configuration conf,
+      String clusterName,
+      String metastoreUrlsString,
+      Path hdfsRoot,
+      Path hdfsTmp,
+      boolean cacheMetadata) throws ConfigurationException {
+    Cluster cluster = makeUncachedCluster(conf, clusterName, metastoreUrlsString, hdfsRoot,
+        hdfsTmp);
+    long cacheTtlMs = conf.getLong(ConfigurationKeys.METASTORE_CACHE_TTL_MS, 0);
+    if (!cacheMetadata || cacheTtlMs <= 0) {
+      return cluster;
+    }
+    return new CachingCluster(cluster, new HiveMetadataCache(cacheTtlMs,
+        conf.getInt(ConfigurationKeys.METASTORE_CACHE_MAX_ENTRIES, 100000)));
+  }
+
+  private static Cluster makeUncachedCluster(
+      Configuration conf,
+      String clusterName,
+      String metastoreUrlsString,
+      Path hdfsRoot,
+      Path hdfsTmp) throws ConfigurationException {
+    List<URI> metastoreUrls = new ArrayList<>();
+    for (String metastoreUrlString : metastoreUrlsString.split(",")) {
+      metastoreUrls.add(makeUri(metastoreUrlString.trim()));
+    }
+
+    int maxClients = conf.getInt(ConfigurationKeys.METASTORE_POOL_MAX_CLIENTS, 0);
+    if (maxClients <= 0) {
+      if (metastoreUrls.size() > 1) {
+        throw new ConfigurationException("Multiple metastore URLs require a metastore client "
+            + "pool: " + metastoreUrlsString);
+      }
+      return new HardCodedCluster(
+          clusterName,
+          metastoreUrls.get(0).getHost(),
+          metastoreUrls.get(0).getPort(),
+          null,
+          null,
+          hdfsRoot,
+          hdfsTmp);
+    }
+
+    List<InetSocketAddress> metastoreAddresses = new ArrayList<>();
+    for (URI metastoreUrl : metastoreUrls) {
+      metastoreAddresses.add(
+          InetSocketAddress.createUnresolved(metastoreUrl.getHost(), metastoreUrl.getPort()));
+    }
+    PooledHiveMetastoreClient.Routing routing;
+    try {
+      routing = PooledHiveMetastoreClient.Routing.valueOf(
+          conf.get(ConfigurationKeys.METASTORE_POOL_ROUTING, "ROUND_ROBIN"));
+    } catch (IllegalArgumentException e) {
+      throw new ConfigurationException(e);
+    }
+    PooledHiveMetastoreClient metastoreClient = new PooledHiveMetastoreClient(metastoreAddresses,
+        maxClients, routing,
+        conf.getLong(ConfigurationKeys.METASTORE_POOL_HEALTH_CHECK_INTERVAL_MS, 60 * 1000));
+    return new PooledClientCluster(clusterName, metastoreClient, hdfsRoot, hdfsTmp);
+  }
+
   @Override
   public Cluster getDestCluster() throws ConfigurationException {
 
@@ -50,19 +126,12 @@ public class ConfiguredClusterFactory implements ClusterFactory {
         ConfigurationKeys.DEST_CLUSTER_NAME);
     String destMetastoreUrlString = conf.get(
         ConfigurationKeys.DEST_CLUSTER_METASTORE_URL);
-    URI destMetastoreUrl = makeUri(destMetastoreUrlString);
     String destHdfsRoot = conf.get(
         ConfigurationKeys.DEST_HDFS_ROOT);
     String destHdfsTmp = conf.get(
         ConfigurationKeys.DEST_HDFS_TMP);
-    return new HardCodedCluster(
-        destClusterName,
-        destMetastoreUrl.getHost(),
-        destMetastoreUrl.getPort(),
-        null,
-        null,
-        new Path(destHdfsRoot),
-        new Path(destHdfsTmp));
+    return makeCluster(conf, destClusterName, destMetastoreUrlString, new Path(destHdfsRoot),
+        new Path(destHdfsTmp), true);
   }
 
   @Override
@@ -78,19 +147,14 @@ public class ConfiguredClusterFactory implements ClusterFactory {
         ConfigurationKeys.SRC_CLUSTER_NAME);
     String srcMetastoreUrlString = conf.get(
         ConfigurationKeys.SRC_CLUSTER_METASTORE_URL);
-    URI srcMetastoreUrl = makeUri(srcMetastoreUrlString);
     String srcHdfsRoot = conf.get(
         ConfigurationKeys.SRC_HDFS_ROOT);
     String srcHdfsTmp = conf.get(
         ConfigurationKeys.SRC_HDFS_TMP);
-    return new HardCodedCluster(
-        srcClusterName,
-        srcMetastoreUrl.getHost(),
-        srcMetastoreUrl.getPort(),
-        null,
-        null,
-        new Path(srcHdfsRoot),
-        new Path(srcHdfsTmp));
+    // The source metadata isn't cached. Jobs are created from changes to the source, so a job
+    // would otherwise copy the metadata from before the change that it was created for.
+    return makeCluster(conf, srcClusterName, srcMetastoreUrlString, new Path(srcHdfsRoot),
+        new Path(srcHdfsTmp), false);
   }
 
   @Override
@@ -0,0 +1,55 @@
+package com.airbnb.reair.incremental.configuration;
+
+import com.airbnb.reair.common.HiveMetastoreClient;
+import com.airbnb.reair.common.PooledHiveMetastoreClient;
+
+import org.apache.hadoop.fs.Path;
+
+/**
+ * A cluster where all threads share a pool of connections to one or more metastore servers.
+ */
+public class PooledClientCluster implements Cluster {
+
+  private String name;
+  private PooledHiveMetastoreClient metastoreClient;
+  private Path hdfsRoot;
+  private Path tmpDir;
+
+  /**
+   * Constructor with specific values.
+   *
+   * @param name string to use for identifying this cluster
+   * @param metastoreClient the pooled client for the metastore servers
+   * @param hdfsRoot the path for the root HDFS directory
+   * @param tmpDir the path for the temporary HDFS directory (should be under root)
+   */
+  public PooledClientCluster(
+      String name,
+      PooledHiveMetastoreClient metastoreClient,
+      Path hdfsRoot,
+      Path tmpDir) {
+    this.name = name;
+    this.metastoreClient = metastoreClient;
+    this.hdfsRoot = hdfsRoot;
+    this.tmpDir = tmpDir;
+  }
+
+  /**
+   * Get the pooled metastore client, which can be used by multiple threads.
+   */
+  public HiveMetastoreClient getMetastoreClient() {
+    return metastoreClient;
+  }
+
+  public Path getFsRoot() {
+    return hdfsRoot;
+  }
+
+  public Path getTmpDir() {
+    return tmpDir;
+  }
+
+  public String getName() {
+    return name;
+  }
+}
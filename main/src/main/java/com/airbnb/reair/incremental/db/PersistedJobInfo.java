@@ -1,5 +1,6 @@
 package com.airbnb.reair.incremental.db;
 
+import com.airbnb.reair.common.HiveObjectSpec;
 import com.airbnb.reair.incremental.ReplicationOperation;
 import com.airbnb.reair.incremental.ReplicationStatus;
 
@@ -119,10 +120,48 @@ public class PersistedJobInfo {
     }
   }
 
+  /**
+   * Create a persisted job info that has not yet been written to the DB. The ID and the create
+   * time are filled in by PersistedJobInfoStore when the job is created in the DB.
+   *
+   * @param operation type of operation
+   * @param status status of the job
+   * @param srcPath the source path
+   * @param srcClusterName the source cluster name
+   * @param srcTableSpec the source Hive table specification
+   * @param srcPartitionNames a list of partition names to copy
+   * @param srcTldt the source object's last modified time (transient_lastDdlTime)
+   * @param renameToObject if renaming, the specification for the new object
+   * @param renameToPath if renaming, the data path for the new object
+   * @param extras any extra, non-essential key/values that should be stored with the job
+   * @return a PersistedJobInfo without an ID
+   */
+  public static PersistedJobInfo createDeferred(
+      ReplicationOperation operation,
+      ReplicationStatus status,
+      Optional<Path> srcPath,
+      String srcClusterName,
+      HiveObjectSpec srcTableSpec,
+      List<String> srcPartitionNames,
+      Optional<String> srcTldt,
+      Optional<HiveObjectSpec> renameToObject,
+      Optional<Path> renameToPath,
+      Map<String, String> extras) {
+    return new PersistedJobInfo(null, 0L, operation, status, srcPath, srcClusterName,
+        srcTableSpec.getDbName(), srcTableSpec.getTableName(), srcPartitionNames, srcTldt,
+        renameToObject.map(HiveObjectSpec::getDbName),
+        renameToObject.map(HiveObjectSpec::getTableName),
+        renameToObject.map(HiveObjectSpec::getPartitionName), renameToPath, extras);
+  }
+
   public void setId(Long id) {
     this.id = id;
   }
 
+  public void setCreateTime(long createTime) {
+    this.createTime = createTime;
+  }
+
   public Long getId() {
     return id;
   }
@@ -29,7 +29,9 @@ import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -52,9 +54,53 @@ public class PersistedJobInfoStore {
       ReplicationStatus.NOT_COMPLETABLE.name(),
       ReplicationStatus.ABORTED.name()};
 
+  // Maximum number of rows to insert with a single statement when creating jobs in a batch
+  private static final int MAX_ROWS_PER_INSERT = 500;
+  // With this innodb_autoinc_lock_mode, the ID's allocated to a multi-row insert may not be
+  // consecutive, so the generated keys returned by the driver may not belong to the inserted rows
+  private static final int INTERLEAVED_AUTOINC_LOCK_MODE = 2;
+
+  private static final long DEFAULT_WRITE_BEHIND_FLUSH_INTERVAL_MS = 1000;
+
   private DbConnectionFactory dbConnectionFactory;
   private String dbTableName;
   private RetryingTaskRunner retryingTaskRunner = new RetryingTaskRunner();
+  // The number of rows to insert with a single statement, based on the DB settings. Set on the
+  // first batch insert.
+  private Optional<Integer> rowsPerInsert = Optional.empty();
+
+  // If enabled, status changes to non-terminal states are queued and written in batches by a
+  // background thread. Changes to terminal states are written before changeStatusAndPersist()
+  // returns.
+  private final boolean writeBehindEnabled;
+  private final long writeBehindFlushIntervalMs;
+  // Status changes that have not yet been written, keyed by job ID. Guarded by itself so that
+  // queueing a change doesn't have to wait for the lock on the store.
+  private final Map<Long, PendingStatusUpdate> pendingStatusUpdates = new LinkedHashMap<>();
+  // The extras for each active job as of the last write. Used to avoid re-writing the extras
+  // column when it hasn't changed. Guarded by pendingStatusUpdates.
+  private final Map<Long, Map<String, String>> persistedExtras = new HashMap<>();
+  // Writes the queued status changes periodically. Guarded by pendingStatusUpdates.
+  private Thread writeBehindFlusher = null;
+  // The error from the last write by the background thread, if it failed. Cleared when the queued
+  // changes are written successfully.
+  private volatile StateUpdateException writeBehindError = null;
+
+  /**
+   * A status change that has been queued, but not yet written to the DB.
+   */
+  private static class PendingStatusUpdate {
+    private final long id;
+    private final ReplicationStatus status;
+    // Set only if the extras changed since they were last written
+    private final Optional<Map<String, String>> extras;
+
+    PendingStatusUpdate(long id, ReplicationStatus status, Optional<Map<String, String>> extras) {
+      this.id = id;
+      this.status = status;
+      this.extras = extras;
+    }
+  }
 
   /**
    * Constructor.
@@ -72,6 +118,11 @@ public class PersistedJobInfoStore {
         conf.getInt(ConfigurationKeys.DB_QUERY_RETRIES,
             DbConstants.DEFAULT_NUM_RETRIES),
         DbConstants.DEFAULT_RETRY_EXPONENTIAL_BASE);
+    this.writeBehindEnabled = conf.getBoolean(
+        ConfigurationKeys.STATE_DB_WRITE_BEHIND_ENABLED, false);
+    this.writeBehindFlushIntervalMs = conf.getLong(
+        ConfigurationKeys.STATE_DB_WRITE_BEHIND_FLUSH_INTERVAL_MS,
+        DEFAULT_WRITE_BEHIND_FLUSH_INTERVAL_MS);
   }
 
   /**
@@ -178,6 +229,7 @@ public class PersistedJobInfoStore {
           srcPath, srcClusterName, srcDbName, srcTableName, srcPartitionNames, srcObjectTldt,
           renameToDbName, renameToTableName, renameToPartitionName, renameToPath, extras);
       persistedJobInfos.add(persistedJobInfo);
+      recordPersistedExtras(persistedJobInfo);
     }
     return persistedJobInfos;
   }
@@ -259,63 +311,226 @@ public class PersistedJobInfoStore {
       Optional<HiveObjectSpec> renameToObject,
       Optional<Path> renameToPath,
       Map<String, String> extras) throws IOException, SQLException {
+    PersistedJobInfo jobInfo = PersistedJobInfo.createDeferred(operation, status, srcPath,
+        srcClusterName, srcTableSpec, srcPartitionNames, srcTldt, renameToObject, renameToPath,
+        extras);
+    createBatch(Collections.singletonList(jobInfo));
+    return jobInfo;
+  }
+
+  /**
+   * Create entries in the state table for the supplied jobs, retrying until successful. See
+   * {@link #createBatch(List)}.
+   *
+   * @param jobInfos jobs created through PersistedJobInfo.createDeferred()
+   * @return the supplied jobs, with the ID's and create times set
+   *
+   * @throws StateUpdateException if there's an error writing to the DB
+   */
+  public synchronized List<PersistedJobInfo> resilientCreateBatch(
+      final List<PersistedJobInfo> jobInfos) throws StateUpdateException {
+    try {
+      retryingTaskRunner.runWithRetries(new RetryableTask() {
+        @Override
+        public void run() throws Exception {
+          createBatch(jobInfos);
+        }
+      });
+    } catch (IOException | SQLException e) {
+      // These should be the only exceptions thrown.
+      throw new StateUpdateException(e);
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+    return jobInfos;
+  }
+
+  /**
+   * Create entries in the state table for the supplied jobs using multi-row inserts. The ID and
+   * the create time of each job is set as the rows are inserted, in the same order as the supplied
+   * list. Jobs that already have an ID (e.g. from a previous, partially successful call) are
+   * skipped, so it's safe to call this again after a failure. Each insert is done in a
+   * transaction that is rolled back if the generated ID's can't be matched to the inserted rows,
+   * so a failed insert doesn't leave rows in the table.
+   *
+   * @param jobInfos jobs created through PersistedJobInfo.createDeferred()
+   * @return the supplied jobs, with the ID's and create times set
+   *
+   * @throws IOException if there is an error converting to JSON
+   * @throws SQLException if there's an error querying the DB
+   */
+  public synchronized List<PersistedJobInfo> createBatch(List<PersistedJobInfo> jobInfos)
+      throws IOException, SQLException {
+    List<PersistedJobInfo> jobsToCreate = new ArrayList<>();
+    for (PersistedJobInfo jobInfo : jobInfos) {
+      if (jobInfo.getId() == null) {
+        jobsToCreate.add(jobInfo);
+      }
+    }
+
+    if (jobsToCreate.isEmpty()) {
+      return jobInfos;
+    }
+    for (List<PersistedJobInfo> rows : Lists.partition(jobsToCreate, getRowsPerInsert())) {
+      createRows(rows);
+    }
+    return jobInfos;
+  }
+
+  /**
+   * Get the number of rows to insert with a single statement. The driver returns the generated
+   * keys for a multi-row insert by counting up from the first ID, which is only correct if the DB
+   * allocates consecutive ID's to the insert. If the DB is configured to interleave ID's between
+   * concurrent inserts, rows are inserted one at a time.
+   *
+   * @return the number of rows to insert with a single statement
+   *
+   * @throws SQLException if there's an error querying the DB
+   */
+  private synchronized int getRowsPerInsert() throws SQLException {
+    if (!rowsPerInsert.isPresent()) {
+      Connection connection = dbConnectionFactory.getConnection();
+      Statement statement = connection.createStatement();
+      try {
+        ResultSet rs = statement.executeQuery("SELECT @@innodb_autoinc_lock_mode");
+        if (rs.next() && rs.getInt(1) == INTERLEAVED_AUTOINC_LOCK_MODE) {
+          LOG.warn("innodb_autoinc_lock_mode is " + INTERLEAVED_AUTOINC_LOCK_MODE
+              + ", so jobs will be created with single-row inserts");
+          rowsPerInsert = Optional.of(1);
+        } else {
+          rowsPerInsert = Optional.of(MAX_ROWS_PER_INSERT);
+        }
+      } finally {
+        statement.close();
+      }
+    }
+    return rowsPerInsert.get();
+  }
+
+  private synchronized void createRows(List<PersistedJobInfo> rows)
+      throws IOException, SQLException {
     // Round to the nearest second to match MySQL timestamp resolution
     long currentTime = System.currentTimeMillis() / 1000 * 1000;
 
-    String query = "INSERT INTO " + dbTableName + " SET " + "create_time = ?, " + "operation = ?, "
-        + "status = ?, " + "src_path = ?, " + "src_cluster = ?, " + "src_db = ?, "
-        + "src_table = ?, " + "src_partitions = ?, " + "src_tldt = ?, " + "rename_to_db = ?, "
-        + "rename_to_table = ?, " + "rename_to_partition = ?, " + "rename_to_path = ?, "
-        + "extras = ? ";
+    StringBuilder query = new StringBuilder("INSERT INTO " + dbTableName
+        + " (create_time, operation, status, src_path, src_cluster, src_db, src_table, "
+        + "src_partitions, src_tldt, rename_to_db, rename_to_table, rename_to_partition, "
+        + "rename_to_path, extras) VALUES ");
+    for (int i = 0; i < rows.size(); i++) {
+      query.append(i == 0 ? "" : ", ").append("(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+    }
 
     Connection connection = dbConnectionFactory.getConnection();
+    // The driver synchronizes statements on the connection, so statements from other threads that
+    // share the connection wait until the transaction is done
+    synchronized (connection) {
+      boolean autoCommit = connection.getAutoCommit();
+      connection.setAutoCommit(false);
+      boolean committed = false;
+      try {
+        List<Long> ids = insertRows(connection, query.toString(), rows, currentTime);
+        verifyGeneratedIds(rows, ids);
+        connection.commit();
+        committed = true;
+
+        for (int i = 0; i < rows.size(); i++) {
+          PersistedJobInfo job = rows.get(i);
+          job.setId(ids.get(i));
+          job.setCreateTime(currentTime);
+          recordPersistedExtras(job);
+        }
+      } finally {
+        if (!committed) {
+          try {
+            connection.rollback();
+          } catch (SQLException e) {
+            LOG.error("Unable to roll back insert into " + dbTableName, e);
+          }
+        }
+        connection.setAutoCommit(autoCommit);
+      }
+    }
+  }
 
+  /**
+   * Run a multi-row insert of jobs.
+   *
+   * @param connection the connection to run the insert with
+   * @param query the insert statement, with parameters for each row
+   * @param rows the jobs to insert
+   * @param currentTime the create time of the jobs
+   * @return the generated keys for the insert
+   *
+   * @throws IOException if there is an error converting to JSON
+   * @throws SQLException if there's an error querying the DB
+   */
+  private List<Long> insertRows(
+      Connection connection,
+      String query,
+      List<PersistedJobInfo> rows,
+      long currentTime) throws IOException, SQLException {
     PreparedStatement ps = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
     try {
       int queryParamIndex = 1;
-      ps.setTimestamp(queryParamIndex++, new Timestamp(currentTime));
-      ps.setString(queryParamIndex++, operation.toString());
-      ps.setString(queryParamIndex++, status.toString());
-      ps.setString(queryParamIndex++, srcPath.map(Path::toString).orElse(null));
-      ps.setString(queryParamIndex++, srcClusterName);
-      ps.setString(queryParamIndex++, srcTableSpec.getDbName());
-      ps.setString(queryParamIndex++, srcTableSpec.getTableName());
-      ps.setString(queryParamIndex++, ReplicationUtils.convertToJson(srcPartitionNames));
-      ps.setString(queryParamIndex++, srcTldt.orElse(null));
-      if (!renameToObject.isPresent()) {
-        ps.setString(queryParamIndex++, null);
-        ps.setString(queryParamIndex++, null);
-        ps.setString(queryParamIndex++, null);
-        ps.setString(queryParamIndex++, null);
-      } else {
-        ps.setString(queryParamIndex++, renameToObject.map(HiveObjectSpec::getDbName).orElse(null));
+      for (PersistedJobInfo job : rows) {
+        ps.setTimestamp(queryParamIndex++, new Timestamp(currentTime));
+        ps.setString(queryParamIndex++, job.getOperation().toString());
+        ps.setString(queryParamIndex++, job.getStatus().toString());
+        ps.setString(queryParamIndex++, job.getSrcPath().map(Path::toString).orElse(null));
+        ps.setString(queryParamIndex++, job.getSrcClusterName());
+        ps.setString(queryParamIndex++, job.getSrcDbName());
+        ps.setString(queryParamIndex++, job.getSrcTableName());
         ps.setString(queryParamIndex++,
-            renameToObject.map(HiveObjectSpec::getTableName).orElse(null));
-        ps.setString(queryParamIndex++,
-            renameToObject.map(HiveObjectSpec::getPartitionName).orElse(null));
-        ps.setString(queryParamIndex++, renameToPath.map(Path::toString).orElse(null));
+            ReplicationUtils.convertToJson(job.getSrcPartitionNames()));
+        ps.setString(queryParamIndex++, job.getSrcObjectTldt().orElse(null));
+        ps.setString(queryParamIndex++, job.getRenameToDb().orElse(null));
+        ps.setString(queryParamIndex++, job.getRenameToTable().orElse(null));
+        ps.setString(queryParamIndex++, job.getRenameToPartition().orElse(null));
+        // The rename to path is only meaningful for renames
+        ps.setString(queryParamIndex++, job.getRenameToDb().isPresent()
+            ? job.getRenameToPath().map(Path::toString).orElse(null) : null);
+        ps.setString(queryParamIndex++, ReplicationUtils.convertToJson(job.getExtras()));
       }
-      ps.setString(queryParamIndex++, ReplicationUtils.convertToJson(extras));
 
       ps.execute();
       ResultSet rs = ps.getGeneratedKeys();
-      boolean ret = rs.next();
-      if (!ret) {
-        // Shouldn't happen since we asked for the generated keys.
-        throw new RuntimeException("Unexpected behavior!");
+      List<Long> ids = new ArrayList<>();
+      while (rs.next()) {
+        ids.add(rs.getLong(1));
       }
-      long id = rs.getLong(1);
-      return new PersistedJobInfo(id, currentTime, operation, status, srcPath, srcClusterName,
-          srcTableSpec.getDbName(), srcTableSpec.getTableName(), srcPartitionNames, srcTldt,
-          renameToObject.map(HiveObjectSpec::getDbName),
-          renameToObject.map(HiveObjectSpec::getTableName),
-          renameToObject.map(HiveObjectSpec::getPartitionName), renameToPath, extras);
+      return ids;
     } finally {
       ps.close();
       ps = null;
     }
   }
 
+  /**
+   * Check that there is a generated key for each inserted row, and that the keys are consecutive
+   * in the order of the rows. The ID's are only correct if the DB allocated consecutive ID's to
+   * the insert, which depends on the DB settings (see {@link #getRowsPerInsert()}).
+   *
+   * @param rows the jobs that were inserted
+   * @param ids the generated keys returned for the insert, in the same order as the rows
+   *
+   * @throws SQLException if the keys don't match the rows
+   */
+  private void verifyGeneratedIds(List<PersistedJobInfo> rows, List<Long> ids)
+      throws SQLException {
+    if (ids.size() != rows.size()) {
+      throw new SQLException(String.format("Inserted %d rows into %s, but got %d generated keys",
+          rows.size(), dbTableName, ids.size()));
+    }
+    // The step is auto_increment_increment, which is usually 1
+    long step = ids.size() > 1 ? ids.get(1) - ids.get(0) : 1;
+    for (int i = 1; i < ids.size(); i++) {
+      if (step <= 0 || ids.get(i) - ids.get(i - 1) != step) {
+        throw new SQLException(String.format("Generated keys for the insert into %s are not "
+            + "consecutive: %s", dbTableName, ids));
+      }
+    }
+  }
+
   private synchronized void persistHelper(PersistedJobInfo job) throws SQLException, IOException {
     String query = "INSERT INTO " + dbTableName
         + " SET " + "id = ?, " + "create_time = ?, "
@@ -385,10 +600,231 @@ public class PersistedJobInfoStore {
     }
   }
 
-  public synchronized void changeStatusAndPersist(ReplicationStatus status, PersistedJobInfo job)
+  /**
+   * Change the status of the job and write it to the DB. If write-behind is enabled and the new
+   * status is not a terminal one, the change is queued and written later, coalesced with other
+   * changes. Changes to terminal states (e.g. SUCCESSFUL) are always written before returning.
+   *
+   * @param status the new status for the job
+   * @param job the job to change
+   *
+   * @throws StateUpdateException if there's an error writing to the DB
+   */
+  public void changeStatusAndPersist(ReplicationStatus status, PersistedJobInfo job)
       throws StateUpdateException {
-    job.setStatus(status);
-    persist(job);
+    if (!writeBehindEnabled || job.getId() == null) {
+      synchronized (this) {
+        job.setStatus(status);
+        persist(job);
+      }
+      return;
+    }
+
+    synchronized (pendingStatusUpdates) {
+      job.setStatus(status);
+      Map<String, String> lastExtras = persistedExtras.get(job.getId());
+      Optional<Map<String, String>> changedExtras = job.getExtras().equals(lastExtras)
+          ? Optional.empty() : Optional.of(new HashMap<>(job.getExtras()));
+      PendingStatusUpdate previousUpdate = pendingStatusUpdates.remove(job.getId());
+      pendingStatusUpdates.put(job.getId(), merge(previousUpdate,
+          new PendingStatusUpdate(job.getId(), status, changedExtras)));
+    }
+
+    // If the background thread couldn't write the queued changes, write them now so that the
+    // caller gets the error.
+    if (isTerminal(status) || writeBehindError != null) {
+      flushStatusUpdates();
+    } else {
+      startWriteBehindFlusher();
+    }
+  }
+
+  /**
+   * Combine two updates for the same job. The newer update supersedes the older one, but the
+   * changed extras from the older update are kept if the newer one doesn't have its own.
+   *
+   * @param olderUpdate the update that was queued first, or null if there isn't one
+   * @param newerUpdate the update that was queued last
+   * @return the combined update
+   */
+  private static PendingStatusUpdate merge(
+      PendingStatusUpdate olderUpdate,
+      PendingStatusUpdate newerUpdate) {
+    if (olderUpdate == null || newerUpdate.extras.isPresent()) {
+      return newerUpdate;
+    }
+    return new PendingStatusUpdate(newerUpdate.id, newerUpdate.status, olderUpdate.extras);
+  }
+
+  /**
+   * Write all queued status changes to the DB using a single batch of updates. If there's an
+   * error, the changes are queued again, combined with any newer changes for the same jobs.
+   *
+   * @throws StateUpdateException if there's an error writing to the DB
+   */
+  public synchronized void flushStatusUpdates() throws StateUpdateException {
+    final List<PendingStatusUpdate> updates;
+    synchronized (pendingStatusUpdates) {
+      if (pendingStatusUpdates.isEmpty()) {
+        return;
+      }
+      updates = new ArrayList<>(pendingStatusUpdates.values());
+      pendingStatusUpdates.clear();
+    }
+
+    try {
+      retryingTaskRunner.runWithRetries(new RetryableTask() {
+        @Override
+        public void run() throws Exception {
+          writeStatusUpdates(updates);
+        }
+      });
+    } catch (IOException | SQLException e) {
+      requeueStatusUpdates(updates);
+      throw new StateUpdateException(e);
+    } catch (InterruptedException e) {
+      requeueStatusUpdates(updates);
+      Thread.currentThread().interrupt();
+      throw new StateUpdateException("Interrupted while writing status updates", e);
+    } catch (Exception e) {
+      requeueStatusUpdates(updates);
+      throw new RuntimeException(e);
+    }
+
+    writeBehindError = null;
+    synchronized (pendingStatusUpdates) {
+      for (PendingStatusUpdate update : updates) {
+        if (isTerminal(update.status)) {
+          // Jobs in a terminal state won't be changed again
+          persistedExtras.remove(update.id);
+        } else if (update.extras.isPresent()) {
+          persistedExtras.put(update.id, update.extras.get());
+        }
+      }
+    }
+  }
+
+  /**
+   * Queue updates that couldn't be written so that they're written with the next flush.
+   *
+   * @param updates the updates that couldn't be written
+   */
+  private void requeueStatusUpdates(List<PendingStatusUpdate> updates) {
+    synchronized (pendingStatusUpdates) {
+      for (PendingStatusUpdate update : updates) {
+        PendingStatusUpdate newerUpdate = pendingStatusUpdates.get(update.id);
+        pendingStatusUpdates.put(update.id,
+            newerUpdate == null ? update : merge(update, newerUpdate));
+      }
+    }
+  }
+
+  private synchronized void writeStatusUpdates(List<PendingStatusUpdate> updates)
+      throws IOException, SQLException {
+    Connection connection = dbConnectionFactory.getConnection();
+    // Only the columns that changed are written
+    PreparedStatement statusPs = connection.prepareStatement(
+        "UPDATE " + dbTableName + " SET status = ? WHERE id = ?");
+    PreparedStatement statusAndExtrasPs = connection.prepareStatement(
+        "UPDATE " + dbTableName + " SET status = ?, extras = ? WHERE id = ?");
+    try {
+      int statusOnlyCount = 0;
+      for (PendingStatusUpdate update : updates) {
+        if (update.extras.isPresent()) {
+          statusAndExtrasPs.setString(1, update.status.toString());
+          statusAndExtrasPs.setString(2, ReplicationUtils.convertToJson(update.extras.get()));
+          statusAndExtrasPs.setLong(3, update.id);
+          statusAndExtrasPs.addBatch();
+        } else {
+          statusPs.setString(1, update.status.toString());
+          statusPs.setLong(2, update.id);
+          statusPs.addBatch();
+          statusOnlyCount++;
+        }
+      }
+      if (statusOnlyCount > 0) {
+        statusPs.executeBatch();
+      }
+      if (statusOnlyCount < updates.size()) {
+        statusAndExtrasPs.executeBatch();
+      }
+      LOG.debug(String.format("Wrote %d status updates", updates.size()));
+    } finally {
+      statusPs.close();
+      statusAndExtrasPs.close();
+    }
+  }
+
+  private void startWriteBehindFlusher() {
+    synchronized (pendingStatusUpdates) {
+      if (writeBehindFlusher != null) {
+        return;
+      }
+      writeBehindFlusher = new Thread() {
+        @Override
+        public void run() {
+          while (true) {
+            try {
+              Thread.sleep(writeBehindFlushIntervalMs);
+            } catch (InterruptedException e) {
+              LOG.debug("Stopping the status update writer");
+              return;
+            }
+            try {
+              flushStatusUpdates();
+            } catch (StateUpdateException e) {
+              LOG.error("Error writing status updates. Will retry.", e);
+              writeBehindError = e;
+            }
+          }
+        }
+      };
+      writeBehindFlusher.setDaemon(true);
+      writeBehindFlusher.setName(PersistedJobInfoStore.class.getSimpleName() + "-Flusher-"
+          + writeBehindFlusher.getId());
+      writeBehindFlusher.start();
+    }
+  }
+
+  /**
+   * Stop the background thread that writes queued status changes, and write the changes that are
+   * still queued. Should be called before the process exits. If the status of a job is changed
+   * afterwards, the background thread is started again.
+   *
+   * @throws StateUpdateException if there's an error writing to the DB
+   */
+  public void shutdown() throws StateUpdateException {
+    Thread flusher;
+    synchronized (pendingStatusUpdates) {
+      flusher = writeBehindFlusher;
+      writeBehindFlusher = null;
+    }
+    if (flusher != null) {
+      flusher.interrupt();
+      try {
+        flusher.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    flushStatusUpdates();
+  }
+
+  private static boolean isTerminal(ReplicationStatus status) {
+    return Arrays.asList(completedStateStrings).contains(status.name());
+  }
+
+  private void recordPersistedExtras(PersistedJobInfo job) {
+    if (!writeBehindEnabled) {
+      return;
+    }
+    synchronized (pendingStatusUpdates) {
+      if (isTerminal(job.getStatus())) {
+        persistedExtras.remove(job.getId());
+      } else {
+        persistedExtras.put(job.getId(), new HashMap<>(job.getExtras()));
+      }
+    }
   }
 
   /**
@@ -397,6 +833,12 @@ public class PersistedJobInfoStore {
    * @param job the job to persist
    */
   public synchronized void persist(final PersistedJobInfo job) throws StateUpdateException {
+    if (writeBehindEnabled && job.getId() != null) {
+      // Writing the whole job supersedes any queued status change
+      synchronized (pendingStatusUpdates) {
+        pendingStatusUpdates.remove(job.getId());
+      }
+    }
     try {
       retryingTaskRunner.runWithRetries(new RetryableTask() {
         @Override
@@ -409,6 +851,7 @@ public class PersistedJobInfoStore {
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
+    recordPersistedExtras(job);
   }
 
   private synchronized PersistedJobInfo getJob(long id) throws SQLException {
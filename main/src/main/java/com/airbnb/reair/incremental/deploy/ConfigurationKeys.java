@@ -18,6 +18,19 @@ public class ConfigurationKeys {
   // Name of the table containing mapred job stats
   public static final String AUDIT_LOG_MAPRED_STATS_DB_TABLE =
       "airbnb.reair.audit_log.mapred_stats.db.table_name";
+  // Whether to read entries from the audit log ahead of time using a background thread
+  public static final String AUDIT_LOG_PREFETCH_ENABLED =
+      "airbnb.reair.audit_log.prefetch.enabled";
+  // Maximum number of audit log entries to buffer in memory when prefetching
+  public static final String AUDIT_LOG_PREFETCH_QUEUE_SIZE =
+      "airbnb.reair.audit_log.prefetch.queue_size";
+  // Minimum and maximum number of audit log entries to read from the DB in a single batch. The
+  // number used is adjusted between these bounds depending on the backlog and the query time.
+  public static final String AUDIT_LOG_FETCH_SIZE_MIN = "airbnb.reair.audit_log.fetch_size.min";
+  public static final String AUDIT_LOG_FETCH_SIZE_MAX = "airbnb.reair.audit_log.fetch_size.max";
+  // If reading a batch of audit log entries takes longer than this many ms, reduce the batch size
+  public static final String AUDIT_LOG_FETCH_TARGET_LATENCY_MS =
+      "airbnb.reair.audit_log.fetch.target_latency_ms";
 
   // JDB URL to the DB containing the replication state tables
   public static final String STATE_JDBC_URL = "airbnb.reair.state.db.jdbc_url";
@@ -29,6 +42,13 @@ public class ConfigurationKeys {
   public static final String STATE_DB_TABLE = "airbnb.reair.state.db.table_name";
   // Name of the table containing key/value pairs
   public static final String STATE_KV_DB_TABLE = "airbnb.reair.state.kv.db.table_name";
+  // Whether to queue job status changes and write them to the state table in batches. Changes to
+  // a finished state are always written immediately.
+  public static final String STATE_DB_WRITE_BEHIND_ENABLED =
+      "airbnb.reair.state.db.write_behind.enabled";
+  // When queueing job status changes, how often to write them to the state table
+  public static final String STATE_DB_WRITE_BEHIND_FLUSH_INTERVAL_MS =
+      "airbnb.reair.state.db.write_behind.flush_interval_ms";
 
   // When running queries to the DB, the number of times to retry if there's an error
   public static final String DB_QUERY_RETRIES =
@@ -36,7 +56,8 @@ public class ConfigurationKeys {
 
   // Name to use for the source cluster
   public static final String SRC_CLUSTER_NAME = "airbnb.reair.clusters.src.name";
-  // URL to the source cluster's metastore Thrift server.
+  // URL to the source cluster's metastore Thrift server. With a metastore client pool, this can be
+  // a comma-separated list of URLs for highly available metastore servers.
   public static final String SRC_CLUSTER_METASTORE_URL = "airbnb.reair.clusters.src.metastore.url";
   // The root of the HDFS directory for the source cluster
   public static final String SRC_HDFS_ROOT = "airbnb.reair.clusters.src.hdfs.root";
@@ -45,7 +66,8 @@ public class ConfigurationKeys {
 
   // Name to use for the destination cluster
   public static final String DEST_CLUSTER_NAME = "airbnb.reair.clusters.dest.name";
-  // URL to the destination cluster's metastore Thrift server.
+  // URL to the destination cluster's metastore Thrift server. With a metastore client pool, this
+  // can be a comma-separated list of URLs for highly available metastore servers.
   public static final String DEST_CLUSTER_METASTORE_URL =
       "airbnb.reair.clusters.dest.metastore.url";
   // The root of the HDFS directory for the destination cluster
@@ -53,12 +75,82 @@ public class ConfigurationKeys {
   // The root of the temporary directory for storing temporary files on the destination cluster
   public static final String DEST_HDFS_TMP = "airbnb.reair.clusters.dest.hdfs.tmp";
 
+  // Maximum number of connections to each cluster's metastore. If greater than 0, all threads
+  // share a pool of connections. Otherwise, each thread opens its own connection.
+  public static final String METASTORE_POOL_MAX_CLIENTS = "airbnb.reair.metastore.pool.max_clients";
+  // How the metastore client pool picks a server for a new connection. Either ROUND_ROBIN or
+  // LEAST_LATENCY.
+  public static final String METASTORE_POOL_ROUTING = "airbnb.reair.metastore.pool.routing";
+  // Connections in the metastore client pool that have been idle for longer than this (in ms) are
+  // checked before they are used.
+  public static final String METASTORE_POOL_HEALTH_CHECK_INTERVAL_MS =
+      "airbnb.reair.metastore.pool.health_check_interval_ms";
+  // If greater than 0, tables and database existence checks on the destination cluster are cached
+  // for this many ms, so that handling many partitions of the same table doesn't fetch the table
+  // each time. Changes made by the replication process invalidate the cached entries, but changes
+  // made by others are only seen once the entries expire. The source cluster is never cached.
+  public static final String METASTORE_CACHE_TTL_MS = "airbnb.reair.metastore.cache.ttl_ms";
+  // Maximum number of tables to keep in the metadata cache for each cluster
+  public static final String METASTORE_CACHE_MAX_ENTRIES =
+      "airbnb.reair.metastore.cache.max_entries";
+
   // Class to use for filtering out entries from the audit log
   public static final String OBJECT_FILTER_CLASS = "airbnb.reair.object.filter";
   // Number of threads to use for copying objects in the incremental replication server
   public static final String WORKER_THREADS = "airbnb.reair.worker.threads";
+  // Number of partitions for the locks used to schedule jobs. With more than 1, jobs with unrelated
+  // locks can be added and completed by different threads without contending on a single monitor.
+  public static final String WORKER_LOCK_STRIPES = "airbnb.reair.worker.lock_stripes";
+  // Number of worker threads for jobs that only change metadata (e.g. drops and renames). If
+  // greater than 0, these jobs run in a separate lane from jobs that copy data, and the copy jobs
+  // use the number of threads in airbnb.reair.worker.threads.
+  public static final String METADATA_WORKER_THREADS = "airbnb.reair.worker.metadata.threads";
+  // Whether to order jobs that are ready to run by their estimated cost instead of the order that
+  // they became ready. Metadata-only jobs (e.g. drops and renames) run before jobs that copy data.
+  public static final String SCHEDULING_PRIORITY_ENABLED =
+      "airbnb.reair.scheduling.priority.enabled";
+  // With priority scheduling, how long (in ms) a job that copies data can be passed over by jobs
+  // that only change metadata
+  public static final String SCHEDULING_DATA_COPY_DELAY_MS =
+      "airbnb.reair.scheduling.data_copy.delay_ms";
+  // With priority scheduling, an additional delay (in ms) per GB of source data for jobs that copy
+  // data, so that smaller copies run first. Determining the size requires a call to the source
+  // file system, so this is disabled (0) by default.
+  public static final String SCHEDULING_DELAY_MS_PER_GB =
+      "airbnb.reair.scheduling.delay_ms_per_gb";
+  // With priority scheduling, the maximum delay (in ms) for any job. This bounds how long a job
+  // can be passed over by jobs that became ready after it.
+  public static final String SCHEDULING_MAX_DELAY_MS =
+      "airbnb.reair.scheduling.max_delay_ms";
+  // With priority scheduling, a comma-separated list of db:weight pairs (e.g. "db1:0.5,db2:2")
+  // that scales the delay for jobs in those databases. Databases with tighter SLAs should have
+  // lower weights.
+  public static final String SCHEDULING_DB_WEIGHTS = "airbnb.reair.scheduling.db_weights";
   // Maximum number of jobs to keep in memory in the incremental replication server
   public static final String MAX_JOBS_IN_MEMORY = "airbnb.reair.jobs.in_memory_count";
+  // Number of audit log entries to read ahead before creating jobs. Within this window, multiple
+  // copies of the same object are merged, and copies of objects that are later dropped are
+  // removed. A value of 1 disables this.
+  public static final String COALESCE_WINDOW_ENTRIES = "airbnb.reair.coalesce.window.entries";
+  // Copies of single partitions of the same table are grouped into a single job that copies
+  // multiple partitions. The group is released once it has this many partitions, or once the
+  // first partition has waited for the specified number of ms. A size of 1 disables this.
+  public static final String COPY_PARTITION_BATCH_MAX_SIZE =
+      "airbnb.reair.copy_partition.batch.max_size";
+  public static final String COPY_PARTITION_BATCH_MAX_DELAY_MS =
+      "airbnb.reair.copy_partition.batch.max_delay_ms";
+  // If a job copies more than this many partitions, it locks the buckets that the partitions hash
+  // to instead of each partition, so that the scheduler doesn't track a lock for every partition.
+  public static final String COPY_PARTITIONS_MAX_PARTITION_LOCKS =
+      "airbnb.reair.copy_partitions.max_partition_locks";
+  // When copying multiple partitions, the partitions are created or altered on the destination
+  // with bulk metastore calls of up to this many partitions. A value of 1 disables this.
+  public static final String COPY_PARTITIONS_METADATA_COMMIT_CHUNK_SIZE =
+      "airbnb.reair.copy_partitions.metadata_commit_chunk_size";
+  // When copying multiple partitions without a common directory, whether to copy the partition
+  // directories that need an MR job with a single distcp job.
+  public static final String COPY_PARTITIONS_BATCH_COPY_ENABLED =
+      "airbnb.reair.copy_partitions.batch_copy.enabled";
   // The port for the Thrift server to listen on
   public static final String THRIFT_SERVER_PORT = "airbnb.reair.thrift.port";
   // When copying tables or partitions using an MR job, fail the job and retry if the job takes
@@ -72,6 +164,28 @@ public class ConfigurationKeys {
   public static final String COPY_JOB_DYNAMIC_TIMEOUT_MIN =
       "airbnb.reair.copy.timeout.dynamic.min";
   public static final String COPY_JOB_DYNAMIC_TIMEOUT_MAX = "airbnb.reair.copy.timeout.dynamic.max";
+  // Directories that are too large to copy with a single thread, but are smaller than this many
+  // bytes and have fewer than this many files are copied with a thread pool in the replication
+  // server instead of an MR job. Setting either to 0 disables this.
+  public static final String COPY_PARALLEL_SIZE_THRESHOLD =
+      "airbnb.reair.copy.parallel.size_threshold";
+  public static final String COPY_PARALLEL_COUNT_THRESHOLD =
+      "airbnb.reair.copy.parallel.count_threshold";
+  // If the source and destination directories are on the same filesystem, directories that are
+  // smaller than this many bytes and have fewer than this many files are copied in the replication
+  // server instead of an MR job. Both default to 0, which disables this.
+  public static final String COPY_SAME_FS_SIZE_THRESHOLD =
+      "airbnb.reair.copy.same_fs.size_threshold";
+  public static final String COPY_SAME_FS_COUNT_THRESHOLD =
+      "airbnb.reair.copy.same_fs.count_threshold";
+  // When copying a directory that already exists on the destination, whether to copy only the
+  // files that are new or changed instead of replacing the whole directory.
+  public static final String COPY_DELTA_ENABLED = "airbnb.reair.copy.delta.enabled";
+  // Whether to compare the total sizes of two directories before listing them, so that directories
+  // with different sizes are found to be different without a listing. Only used for filesystems
+  // where the size can be fetched without listing the directory.
+  public static final String COMPARE_SIZE_CHECK_ENABLED =
+      "airbnb.reair.compare.size_check.enabled";
   // If a replication job fails, the number of times to retry the job.
   public static final String JOB_RETRIES = "airbnb.reair.job.retries";
   // After a copy, whether to set / check that modified times for the copied files match between
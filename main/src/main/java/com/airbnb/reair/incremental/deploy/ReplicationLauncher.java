@@ -169,7 +169,7 @@ public class ReplicationLauncher {
 
     LOG.debug("Running replication server");
 
-    ReplicationServer replicationServer = new ReplicationServer(
+    final ReplicationServer replicationServer = new ReplicationServer(
         conf,
         srcCluster,
         destCluster,
@@ -213,11 +213,24 @@ public class ReplicationLauncher {
         stateConnectionFactory);
     dbConnectionWatchdog.start();
 
+    // The server normally runs until the process is killed, so clean up from a shutdown hook.
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        try {
+          replicationServer.shutdown();
+        } catch (StateUpdateException e) {
+          LOG.error("Error shutting down the replication server", e);
+        }
+      }
+    });
+
     // Start replicating entries
     try {
       replicationServer.run(Long.MAX_VALUE);
     } finally {
       LOG.debug("Replication server stopped running");
+      replicationServer.shutdown();
     }
   }
 
@@ -6,6 +6,7 @@ import com.airbnb.reair.common.HiveMetastoreException;
 import com.airbnb.reair.common.HiveObjectSpec;
 import com.airbnb.reair.common.HiveUtils;
 import com.airbnb.reair.incremental.DirectoryCopier;
+import com.airbnb.reair.incremental.ReplicationUtils;
 import com.airbnb.reair.incremental.RunInfo;
 import com.airbnb.reair.incremental.configuration.Cluster;
 import com.airbnb.reair.incremental.configuration.ConfigurationException;
@@ -105,10 +106,11 @@ public class CopyCompleteTableTask implements ReplicationTask {
       // Create a collection containing all the partitions that should
       // be copied.
       List<String> partitionNames = srcMs.getPartitionNames(spec.getDbName(), spec.getTableName());
+      Map<String, Partition> srcPartitions =
+          srcMs.getPartitionsByNames(spec.getDbName(), spec.getTableName(), partitionNames);
       Map<HiveObjectSpec, Partition> specToPartition = new HashMap<>();
       for (String partitionName : partitionNames) {
-        Partition partition =
-            srcMs.getPartition(spec.getDbName(), spec.getTableName(), partitionName);
+        Partition partition = srcPartitions.get(partitionName);
 
         if (partition == null) {
           throw new HiveMetastoreException(String.format("Partition %s does not exist!",
@@ -164,7 +166,7 @@ public class CopyCompleteTableTask implements ReplicationTask {
   @Override
   public LockSet getRequiredLocks() {
     LockSet lockSet = new LockSet();
-    lockSet.add(new Lock(Lock.Type.EXCLUSIVE, spec.toString()));
+    lockSet.addHierarchical(Lock.Type.EXCLUSIVE, ReplicationUtils.getLockPath(spec));
     return lockSet;
   }
 }
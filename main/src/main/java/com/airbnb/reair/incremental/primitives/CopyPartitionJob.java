@@ -19,55 +19,78 @@ public class CopyPartitionJob extends Job {
 
   private CopyPartitionTask copyPartitionTask;
   private CopyPartitionsCounter copyPartitionsCounter;
+  private int maxAttempts;
+  // Number of times this job has been run
+  private int attempt = 0;
 
+  /**
+   * Constructor for a job that copies a partition as part of copying multiple partitions.
+   *
+   * @param copyPartitionTask the task that copies the partition
+   * @param copyPartitionsCounter counter to update when the partition is copied, or when the copy
+   *                              fails
+   * @param maxAttempts the number of times to run the task before giving up on the copy
+   */
   public CopyPartitionJob(
       CopyPartitionTask copyPartitionTask,
-      CopyPartitionsCounter copyPartitionsCounter) {
+      CopyPartitionsCounter copyPartitionsCounter,
+      int maxAttempts) {
     this.copyPartitionTask = copyPartitionTask;
     this.copyPartitionsCounter = copyPartitionsCounter;
+    this.maxAttempts = maxAttempts;
   }
 
   @Override
   public int run() {
+    try {
+      RunInfo runInfo = copyPartitionTask.runTask();
+      LOG.debug(String.format("Copy partition task %s finished " + "with status %s",
+          copyPartitionTask.getSpec(), runInfo.getRunStatus()));
 
-    int attempt = 0;
-    while (true) {
-      try {
-        RunInfo runInfo = copyPartitionTask.runTask();
-        LOG.debug(String.format("Copy partition task %s finished " + "with status %s",
-            copyPartitionTask.getSpec(), runInfo.getRunStatus()));
-
-        switch (runInfo.getRunStatus()) {
-          case SUCCESSFUL:
-          case NOT_COMPLETABLE:
-            copyPartitionsCounter.incrementBytesCopied(runInfo.getBytesCopied());
-            copyPartitionsCounter.incrementCompletionCount();
-            return 0;
-          case FAILED:
-            return -1;
-          default:
-            throw new RuntimeException("State not handled: " + runInfo.getRunStatus());
-        }
-      } catch (HiveMetastoreException e) {
-        LOG.error("Got an exception - will retry", e);
-      } catch (DistCpException e) {
-        LOG.error("Got an exception - will retry", e);
-      } catch (IOException e) {
-        LOG.error("Got an exception - will retry", e);
-      } catch (ConfigurationException e) {
-        LOG.error("Got unrecoverable exception", e);
-        return -1;
-      }
-      LOG.error("Because " + copyPartitionTask.getSpec() + " was not successful, "
-          + "it will be retried after sleeping.");
-      try {
-        ReplicationUtils.exponentialSleep(attempt);
-      } catch (InterruptedException e) {
-        LOG.warn("Got interrupted", e);
-        return 0;
+      switch (runInfo.getRunStatus()) {
+        case SUCCESSFUL:
+        case NOT_COMPLETABLE:
+        case DEST_IS_NEWER:
+          copyPartitionsCounter.incrementBytesCopied(runInfo.getBytesCopied());
+          copyPartitionsCounter.incrementCompletionCount();
+          return 0;
+        case FAILED:
+          copyPartitionsCounter.incrementFailureCount();
+          return 0;
+        default:
+          throw new RuntimeException("State not handled: " + runInfo.getRunStatus());
       }
-      attempt++;
+    } catch (HiveMetastoreException e) {
+      LOG.error("Got an exception - will retry", e);
+    } catch (DistCpException e) {
+      LOG.error("Got an exception - will retry", e);
+    } catch (IOException e) {
+      LOG.error("Got an exception - will retry", e);
+    } catch (ConfigurationException e) {
+      LOG.error("Got unrecoverable exception", e);
+      copyPartitionsCounter.incrementFailureCount();
+      return 0;
+    }
+
+    if (Thread.currentThread().isInterrupted()) {
+      // The executor is stopping, so don't schedule a retry
+      LOG.warn("Got interrupted, so not retrying " + copyPartitionTask.getSpec());
+      copyPartitionsCounter.incrementFailureCount();
+      return 0;
     }
+
+    if (attempt >= maxAttempts - 1) {
+      LOG.error(String.format("Copy of %s failed after %s attempts", copyPartitionTask.getSpec(),
+          maxAttempts));
+      copyPartitionsCounter.incrementFailureCount();
+      return 0;
+    }
+
+    LOG.error("Because " + copyPartitionTask.getSpec() + " was not successful, "
+        + "it will be retried after waiting.");
+    long retryDelayMs = ReplicationUtils.getExponentialWaitTimeMs(attempt);
+    attempt++;
+    return retryAfter(retryDelayMs);
   }
 
   @Override
@@ -52,6 +52,7 @@ public class CopyPartitionTask implements ReplicationTask {
   private Optional<Path> optimisticCopyRoot;
   private DirectoryCopier directoryCopier;
   private boolean allowDataCopy;
+  private Optional<PartitionMetadataCommitter> metadataCommitter;
 
   /**
    * Constructor for a task that copies a single Hive partition.
@@ -83,6 +84,42 @@ public class CopyPartitionTask implements ReplicationTask {
       Optional<Path> optimisticCopyRoot,
       DirectoryCopier directoryCopier,
       boolean allowDataCopy) {
+    this(conf, destObjectFactory, objectConflictHandler, srcCluster, destCluster, spec,
+        partitionLocation, optimisticCopyRoot, directoryCopier, allowDataCopy, Optional.empty());
+  }
+
+  /**
+   * Constructor for a task that copies a partition, with the option to defer creating or altering
+   * the partition on the destination.
+   *
+   * @param conf configuration object
+   * @param destObjectFactory factory for creating objects for the destination cluster
+   * @param objectConflictHandler handler for addressing conflicting tables/partitions on the
+   *                              destination cluster
+   * @param srcCluster source cluster
+   * @param destCluster destination cluster
+   * @param spec specification for the Hive partition to copy
+   * @param partitionLocation the location for the partition, if applicable
+   * @param optimisticCopyRoot if data for this partitioned was copied in advance, the root
+   *                           directory where the data was copied to
+   * @param directoryCopier runs directory copies through MR jobs
+   * @param allowDataCopy Whether to copy data for this partition
+   * @param metadataCommitter if set, the partition is added to this committer instead of being
+   *                          created or altered on the destination. The caller is responsible for
+   *                          committing the changes.
+   */
+  public CopyPartitionTask(
+      Configuration conf,
+      DestinationObjectFactory destObjectFactory,
+      ObjectConflictHandler objectConflictHandler,
+      Cluster srcCluster,
+      Cluster destCluster,
+      HiveObjectSpec spec,
+      Optional<Path> partitionLocation,
+      Optional<Path> optimisticCopyRoot,
+      DirectoryCopier directoryCopier,
+      boolean allowDataCopy,
+      Optional<PartitionMetadataCommitter> metadataCommitter) {
     this.conf = conf;
     this.destObjectFactory = destObjectFactory;
     this.objectConflictHandler = objectConflictHandler;
@@ -93,6 +130,7 @@ public class CopyPartitionTask implements ReplicationTask {
     this.optimisticCopyRoot = optimisticCopyRoot;
     this.directoryCopier = directoryCopier;
     this.allowDataCopy = allowDataCopy;
+    this.metadataCommitter = metadataCommitter;
   }
 
   @Override
@@ -240,12 +278,22 @@ public class CopyPartitionTask implements ReplicationTask {
       case CREATE:
         ReplicationUtils.createDbIfNecessary(srcMs, destMs, destPartition.getDbName());
 
+        if (metadataCommitter.isPresent()) {
+          LOG.debug("Deferring creation of " + spec);
+          metadataCommitter.get().add(spec, action, destPartition);
+          break;
+        }
         LOG.debug("Creating " + spec + " since it does not exist on " + "the destination");
         destMs.addPartition(destPartition);
         LOG.debug("Successfully created " + spec);
         break;
 
       case ALTER:
+        if (metadataCommitter.isPresent()) {
+          LOG.debug("Deferring alteration of " + spec);
+          metadataCommitter.get().add(spec, action, destPartition);
+          break;
+        }
         LOG.debug("Altering partition " + spec + " on destination");
         destMs.alterPartition(destPartition.getDbName(), destPartition.getTableName(),
             destPartition);
@@ -269,8 +317,7 @@ public class CopyPartitionTask implements ReplicationTask {
   @Override
   public LockSet getRequiredLocks() {
     LockSet lockSet = new LockSet();
-    lockSet.add(new Lock(Lock.Type.SHARED, spec.getTableSpec().toString()));
-    lockSet.add(new Lock(Lock.Type.EXCLUSIVE, spec.toString()));
+    lockSet.addHierarchical(Lock.Type.EXCLUSIVE, ReplicationUtils.getLockPath(spec));
     return lockSet;
   }
 }
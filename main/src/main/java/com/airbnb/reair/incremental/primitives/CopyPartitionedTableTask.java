@@ -156,7 +156,7 @@ public class CopyPartitionedTableTask implements ReplicationTask {
   @Override
   public LockSet getRequiredLocks() {
     LockSet lockSet = new LockSet();
-    lockSet.add(new Lock(Lock.Type.EXCLUSIVE, spec.toString()));
+    lockSet.addHierarchical(Lock.Type.EXCLUSIVE, ReplicationUtils.getLockPath(spec));
     return lockSet;
   }
 }
@@ -1,20 +1,55 @@
 package com.airbnb.reair.incremental.primitives;
 
 /**
- * Counts the number of partitions copied by a replication task.
+ * Counts the number of partitions copied by a replication task, and the number of partitions that
+ * couldn't be copied. Threads can wait for the total to reach a specific value, and are woken up as
+ * soon as it does.
  */
 public class CopyPartitionsCounter {
   long completionCount = 0;
+  long failureCount = 0;
   long bytesCopiedCount = 0;
 
   synchronized void incrementCompletionCount() {
     completionCount++;
+    notifyAll();
   }
 
   synchronized long getCompletionCount() {
     return completionCount;
   }
 
+  synchronized void incrementFailureCount() {
+    failureCount++;
+    notifyAll();
+  }
+
+  synchronized long getFailureCount() {
+    return failureCount;
+  }
+
+  /**
+   * Wait until the number of partitions that were either copied or failed reaches the given value,
+   * or until the timeout elapses.
+   *
+   * @param expectedCount the number of copied or failed partitions to wait for
+   * @param timeoutMs the maximum amount of time to wait in ms
+   * @return the number of copied or failed partitions when this method returned
+   * @throws InterruptedException if interrupted while waiting
+   */
+  synchronized long awaitDoneCount(long expectedCount, long timeoutMs)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMs;
+    while (completionCount + failureCount < expectedCount) {
+      long remainingMs = deadline - System.currentTimeMillis();
+      if (remainingMs <= 0) {
+        break;
+      }
+      wait(remainingMs);
+    }
+    return completionCount + failureCount;
+  }
+
   synchronized void incrementBytesCopied(long bytesCopied) {
     bytesCopiedCount += bytesCopied;
   }
@@ -14,6 +14,7 @@ import com.airbnb.reair.incremental.configuration.Cluster;
 import com.airbnb.reair.incremental.configuration.ConfigurationException;
 import com.airbnb.reair.incremental.configuration.DestinationObjectFactory;
 import com.airbnb.reair.incremental.configuration.ObjectConflictHandler;
+import com.airbnb.reair.incremental.deploy.ConfigurationKeys;
 import com.airbnb.reair.multiprocessing.Lock;
 import com.airbnb.reair.multiprocessing.LockSet;
 import com.airbnb.reair.multiprocessing.ParallelJobExecutor;
@@ -28,6 +29,9 @@ import org.apache.hadoop.hive.metastore.api.Table;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -37,13 +41,20 @@ import java.util.Set;
 
 /**
  * Task that copies multiple partitions. To reduce the number of distcp jobs necessary, this task
- * tries to copy a common parent directory of those partitions. However, a better solution would be
- * to use a copy tool that can copy multiple source and destination directories simultaneously.
+ * tries to copy a common parent directory of those partitions. If there isn't a suitable common
+ * directory, the partition directories that are too large to copy without an MR job are copied to
+ * their destinations with a single distcp job before the partitions are copied.
  */
 public class CopyPartitionsTask implements ReplicationTask {
 
   private static final Log LOG = LogFactory.getLog(CopyPartitionsTask.class);
 
+  private static final int DEFAULT_MAX_PARTITION_LOCKS = 1000;
+  private static final int DEFAULT_METADATA_COMMIT_CHUNK_SIZE = 500;
+
+  // How often to log progress while waiting for the partitions to be copied
+  private static final long PROGRESS_LOG_INTERVAL_MS = 5 * 1000;
+
   private Configuration conf;
   private DestinationObjectFactory objectModifier;
   private ObjectConflictHandler objectConflictHandler;
@@ -54,7 +65,9 @@ public class CopyPartitionsTask implements ReplicationTask {
   private Optional<Path> commonDirectory;
   private ParallelJobExecutor copyPartitionsExecutor;
   private DirectoryCopier directoryCopier;
-
+  private int maxPartitionLocks;
+  private int metadataCommitChunkSize;
+  private boolean batchCopyEnabled;
 
   /**
    * Constructor for a task to copy multiple partitions.
@@ -92,6 +105,13 @@ public class CopyPartitionsTask implements ReplicationTask {
     this.commonDirectory = commonDirectory;
     this.copyPartitionsExecutor = copyPartitionsExecutor;
     this.directoryCopier = directoryCopier;
+    this.maxPartitionLocks = conf.getInt(ConfigurationKeys.COPY_PARTITIONS_MAX_PARTITION_LOCKS,
+        DEFAULT_MAX_PARTITION_LOCKS);
+    this.metadataCommitChunkSize = conf.getInt(
+        ConfigurationKeys.COPY_PARTITIONS_METADATA_COMMIT_CHUNK_SIZE,
+        DEFAULT_METADATA_COMMIT_CHUNK_SIZE);
+    this.batchCopyEnabled = conf.getBoolean(ConfigurationKeys.COPY_PARTITIONS_BATCH_COPY_ENABLED,
+        true);
   }
 
   /**
@@ -160,6 +180,9 @@ public class CopyPartitionsTask implements ReplicationTask {
     Optional<Path> tableLocation = ReplicationUtils.getLocation(freshSrcTable);
     LOG.debug("Location of table " + srcTableSpec + " is " + tableLocation);
 
+    Map<String, Partition> srcPartitions = srcMs.getPartitionsByNames(srcTableSpec.getDbName(),
+        srcTableSpec.getTableName(), partitionNames);
+
     // If possible, copy the common directory in a single distcp job.
     // We call this the optimistic copy as this should result in no
     // additional distcp jobs when copying the partitions.
@@ -176,12 +199,8 @@ public class CopyPartitionsTask implements ReplicationTask {
       // the same size
 
       long sizeOfPartitionsInCommonDirectory = 0;
-      for (String partitionName : partitionNames) {
-        Partition partition = srcMs.getPartition(
-            srcTableSpec.getDbName(),
-            srcTableSpec.getTableName(),
-            partitionName);
-        if (partition != null && partition.getSd().getLocation() != null) {
+      for (Partition partition : srcPartitions.values()) {
+        if (partition.getSd().getLocation() != null) {
           Path partitionLocation = new Path(partition.getSd().getLocation());
           if (FsUtils.isSubDirectory(commonDir, partitionLocation)
               && FsUtils.dirExists(conf, partitionLocation)) {
@@ -235,13 +254,35 @@ public class CopyPartitionsTask implements ReplicationTask {
       }
     }
 
+    // Without an optimistic copy, copy the data for the partitions that would each need a distcp
+    // job in a single job. Like the optimistic copy, the data is copied to a temporary directory
+    // with the same structure as the source. Each partition copy below moves its data into place
+    // only after its own checks pass, and copies any directories that failed.
+    Optional<Path> batchCopyDir = Optional.empty();
+    if (!doOptimisticCopy && batchCopyEnabled && srcPartitions.size() > 1) {
+      Path path = new PathBuilder(destCluster.getTmpDir()).add("distcp_tmp")
+          .add(srcCluster.getName()).add("batch_copy").add(Long.toString(new Random().nextLong()))
+          .toPath();
+      Map<Path, Long> batchBytesCopied = copyPartitionDirectories(srcPartitions.values(), path);
+      if (!batchBytesCopied.isEmpty()) {
+        batchCopyDir = Optional.of(path);
+        optimisticCopyDir = batchCopyDir;
+        bytesCopied += batchBytesCopied.values().stream().mapToLong(Long::longValue).sum();
+      }
+    }
+
     // Now copy all the partitions
     CopyPartitionsCounter copyPartitionsCounter = new CopyPartitionsCounter();
     long expectedCopyCount = 0;
+    int maxCopyAttempts = ReplicationUtils.getMaxJobAttempts(conf);
+    // If enabled, the partitions are created or altered on the destination together after all the
+    // data has been copied
+    Optional<PartitionMetadataCommitter> metadataCommitter = metadataCommitChunkSize > 1
+        ? Optional.of(new PartitionMetadataCommitter(metadataCommitChunkSize))
+        : Optional.empty();
 
     for (String partitionName : partitionNames) {
-      Partition srcPartition =
-          srcMs.getPartition(srcTableSpec.getDbName(), srcTableSpec.getTableName(), partitionName);
+      Partition srcPartition = srcPartitions.get(partitionName);
       HiveObjectSpec partitionSpec =
           new HiveObjectSpec(srcTableSpec.getDbName(), srcTableSpec.getTableName(), partitionName);
 
@@ -252,36 +293,135 @@ public class CopyPartitionsTask implements ReplicationTask {
 
       CopyPartitionTask copyPartitionTask = new CopyPartitionTask(conf, objectModifier,
           objectConflictHandler, srcCluster, destCluster, partitionSpec,
-          ReplicationUtils.getLocation(srcPartition), optimisticCopyDir, directoryCopier, true);
+          ReplicationUtils.getLocation(srcPartition), optimisticCopyDir, directoryCopier, true,
+          metadataCommitter);
 
       CopyPartitionJob copyPartitionJob =
-          new CopyPartitionJob(copyPartitionTask, copyPartitionsCounter);
+          new CopyPartitionJob(copyPartitionTask, copyPartitionsCounter, maxCopyAttempts);
 
       copyPartitionsExecutor.add(copyPartitionJob);
       expectedCopyCount++;
     }
 
+    // The counter wakes this thread as soon as the last partition is copied. The timeout is only
+    // for logging progress.
     while (true) {
+      long doneCount;
+      try {
+        doneCount = copyPartitionsCounter.awaitDoneCount(expectedCopyCount,
+            PROGRESS_LOG_INTERVAL_MS);
+      } catch (InterruptedException e) {
+        LOG.error("Got interrupted!");
+        throw new RuntimeException(e);
+      }
+
       LOG.debug(String.format("Copied %s out of %s partitions",
           copyPartitionsCounter.getCompletionCount(), expectedCopyCount));
 
-      if (copyPartitionsCounter.getCompletionCount() == expectedCopyCount) {
+      if (doneCount == expectedCopyCount) {
         break;
       }
+    }
 
+    // Remove the copied data that wasn't moved into place, e.g. for partitions where the
+    // destination was newer
+    if (batchCopyDir.isPresent()) {
       try {
-        Thread.sleep(5 * 1000);
-      } catch (InterruptedException e) {
-        LOG.error("Got interrupted!");
-        throw new RuntimeException(e);
+        batchCopyDir.get().getFileSystem(conf).delete(batchCopyDir.get(), true);
+      } catch (IOException e) {
+        LOG.warn("Unable to delete batch copy directory " + batchCopyDir.get(), e);
       }
     }
 
+    if (metadataCommitter.isPresent()) {
+      LOG.debug(String.format("Committing %d partitions to the destination",
+          metadataCommitter.get().getPendingCount()));
+      metadataCommitter.get().commit(destMs);
+    }
+
     bytesCopied += copyPartitionsCounter.getBytesCopied();
 
+    if (copyPartitionsCounter.getFailureCount() > 0) {
+      LOG.error(String.format("Failed to copy %s out of %s partitions",
+          copyPartitionsCounter.getFailureCount(), expectedCopyCount));
+      return new RunInfo(RunInfo.RunStatus.FAILED, bytesCopied);
+    }
+
     return new RunInfo(RunInfo.RunStatus.SUCCESSFUL, bytesCopied);
   }
 
+  /**
+   * Copies the data directories of the partitions to a temporary directory with a single distcp
+   * job. Each directory is copied to the path under the temporary directory that an optimistic copy
+   * would use, so that each partition copy can move its data into place after checking the
+   * partition. Directories that already match their destination, or that are small, are skipped by
+   * the copier using a single listing of all the directories. Errors are logged rather than thrown,
+   * since the directories will be copied separately when each partition is copied.
+   *
+   * @param partitions the partitions to copy the data for
+   * @param copyRoot the temporary directory to copy the data to
+   * @return a map from each source directory that was copied to the number of bytes copied
+   * @throws ConfigurationException if the config is improper
+   */
+  private Map<Path, Long> copyPartitionDirectories(Collection<Partition> partitions, Path copyRoot)
+      throws ConfigurationException {
+    Map<Path, Path> srcToDestDirs = new HashMap<>();
+    Map<Path, Path> srcToFinalDirs = new HashMap<>();
+    try {
+      for (Partition partition : partitions) {
+        Optional<Path> srcLocation = ReplicationUtils.getLocation(partition);
+        if (!srcLocation.isPresent()) {
+          continue;
+        }
+        // The final location is decided by each partition copy, so this is only used to skip the
+        // directories that won't need to be copied
+        String destLocation = objectModifier.modifyLocation(srcCluster, destCluster,
+            srcLocation.get().toString());
+        if (!objectModifier.shouldCopyData(destLocation)
+            || srcLocation.get().equals(new Path(destLocation))) {
+          continue;
+        }
+        srcToDestDirs.put(srcLocation.get(), getPathWithStructure(copyRoot, srcLocation.get()));
+        srcToFinalDirs.put(srcLocation.get(), new Path(destLocation));
+      }
+      if (srcToDestDirs.size() < 2) {
+        return Collections.emptyMap();
+      }
+
+      Map<Path, Long> bytesCopied = directoryCopier.copyAll(srcToDestDirs, srcToFinalDirs,
+          Arrays.asList(srcCluster.getName(), srcTableSpec.getDbName(),
+              srcTableSpec.getTableName(), "batch_copy"));
+      LOG.debug(String.format("Copied %s out of %s partition directories in a batch",
+          bytesCopied.size(), srcToDestDirs.size()));
+      return bytesCopied;
+    } catch (IOException e) {
+      LOG.warn("Batch copy of partition directories failed, so copying them separately", e);
+      return Collections.emptyMap();
+    }
+  }
+
+  /**
+   * Get the path under a directory that keeps the structure of another path. For example, with
+   * /tmp and /a/b/c, this returns /tmp/a/b/c.
+   *
+   * @param root the directory to add the path to
+   * @param path the path to add
+   * @return the path under the root directory
+   */
+  private static Path getPathWithStructure(Path root, Path path) {
+    PathBuilder dirBuilder = new PathBuilder(root);
+    // Decompose a directory like /a/b/c and add a, b, c as subdirectories
+    List<String> pathElements = new ArrayList<>(Arrays.asList(path.toUri().getPath().split("/")));
+    // When splitting a path like '/a/b/c', the first element is ''
+    if (pathElements.get(0).equals("")) {
+      pathElements.remove(0);
+    }
+    for (String pathElement : pathElements) {
+      dirBuilder.add(pathElement);
+    }
+    return dirBuilder.toPath();
+  }
+
   /**
    * Copies the source directory to the destination directory while preserving structure. i.e. if
    * copying /a/b/c to the destination directory /d, then /d/a/b/c will be created and contain files
@@ -297,20 +437,8 @@ public class CopyPartitionsTask implements ReplicationTask {
   private long copyWithStructure(Path srcDir, Path destDir)
       throws ConfigurationException, DistCpException, IOException {
 
-    PathBuilder dirBuilder = new PathBuilder(destDir);
     // Preserve the directory structure within the dest directory
-    // Decompose a directory like /a/b/c and add a, b, c as subdirectories
-    // within the tmp direcotry
-    List<String> pathElements =
-        new ArrayList<>(Arrays.asList(srcDir.toUri().getPath().split("/")));
-    // When splitting a path like '/a/b/c', the first element is ''
-    if (pathElements.get(0).equals("")) {
-      pathElements.remove(0);
-    }
-    for (String pathElement : pathElements) {
-      dirBuilder.add(pathElement);
-    }
-    Path destPath = dirBuilder.toPath();
+    Path destPath = getPathWithStructure(destDir, srcDir);
 
     // Copy directory
     long bytesCopied = directoryCopier.copy(srcDir, destPath,
@@ -322,12 +450,16 @@ public class CopyPartitionsTask implements ReplicationTask {
   @Override
   public LockSet getRequiredLocks() {
     LockSet lockSet = new LockSet();
-    lockSet.add(new Lock(Lock.Type.SHARED, srcTableSpec.toString()));
-
+    // The table only gets an intention lock, so this job doesn't block jobs on other partitions.
+    // For a large number of partitions, lock the buckets of the partitions instead of tracking a
+    // lock for every partition. There are at most PARTITION_LOCK_BUCKETS buckets per table.
+    boolean lockBuckets = partitionNames.size() > maxPartitionLocks;
     for (String partitionName : partitionNames) {
       HiveObjectSpec partitionSpec =
           new HiveObjectSpec(srcTableSpec.getDbName(), srcTableSpec.getTableName(), partitionName);
-      lockSet.add(new Lock(Lock.Type.EXCLUSIVE, partitionSpec.toString()));
+      lockSet.addHierarchical(Lock.Type.EXCLUSIVE, lockBuckets
+          ? ReplicationUtils.getBucketLockPath(partitionSpec)
+          : ReplicationUtils.getLockPath(partitionSpec));
     }
     return lockSet;
   }
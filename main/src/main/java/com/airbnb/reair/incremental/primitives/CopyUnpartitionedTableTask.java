@@ -203,7 +203,7 @@ public class CopyUnpartitionedTableTask implements ReplicationTask {
   @Override
   public LockSet getRequiredLocks() {
     LockSet lockSet = new LockSet();
-    lockSet.add(new Lock(Lock.Type.EXCLUSIVE, spec.toString()));
+    lockSet.addHierarchical(Lock.Type.EXCLUSIVE, ReplicationUtils.getLockPath(spec));
     return lockSet;
   }
 }
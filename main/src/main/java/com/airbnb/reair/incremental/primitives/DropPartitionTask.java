@@ -4,6 +4,7 @@ import com.airbnb.reair.common.HiveMetastoreClient;
 import com.airbnb.reair.common.HiveMetastoreException;
 import com.airbnb.reair.common.HiveObjectSpec;
 import com.airbnb.reair.common.HiveParameterKeys;
+import com.airbnb.reair.incremental.ReplicationUtils;
 import com.airbnb.reair.incremental.RunInfo;
 import com.airbnb.reair.incremental.configuration.Cluster;
 import com.airbnb.reair.multiprocessing.Lock;
@@ -89,8 +90,7 @@ public class DropPartitionTask implements ReplicationTask {
   @Override
   public LockSet getRequiredLocks() {
     LockSet lockSet = new LockSet();
-    lockSet.add(new Lock(Lock.Type.SHARED, spec.getTableSpec().toString()));
-    lockSet.add(new Lock(Lock.Type.EXCLUSIVE, spec.toString()));
+    lockSet.addHierarchical(Lock.Type.EXCLUSIVE, ReplicationUtils.getLockPath(spec));
     return lockSet;
   }
 }
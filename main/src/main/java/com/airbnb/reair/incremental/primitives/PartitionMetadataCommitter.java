@@ -0,0 +1,225 @@
+package com.airbnb.reair.incremental.primitives;
+
+import com.airbnb.reair.common.HiveMetastoreClient;
+import com.airbnb.reair.common.HiveMetastoreException;
+import com.airbnb.reair.common.HiveObjectSpec;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.metastore.api.Partition;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects the partitions that need to be created or altered on the destination by multiple
+ * {@link CopyPartitionTask}s, and commits them with bulk metastore calls. The partitions for each
+ * table are committed in chunks. If a chunk can't be committed (e.g. because one of the partitions
+ * was created on the destination in the meantime), the partitions in that chunk are committed one
+ * at a time, so that only the partitions that can't be committed on their own are reported as
+ * failed.
+ *
+ * <p>This class is thread safe.
+ */
+public class PartitionMetadataCommitter {
+
+  private static final Log LOG = LogFactory.getLog(PartitionMetadataCommitter.class);
+
+  /**
+   * A partition to commit, along with the spec that identifies it to the caller.
+   */
+  private static class PendingPartition {
+    private final HiveObjectSpec spec;
+    private final Partition partition;
+
+    PendingPartition(HiveObjectSpec spec, Partition partition) {
+      this.spec = spec;
+      this.partition = partition;
+    }
+  }
+
+  private final int chunkSize;
+
+  // The partitions to create and to alter, for each table
+  private Map<HiveObjectSpec, List<PendingPartition>> tableToPartitionsToCreate =
+      new LinkedHashMap<>();
+  private Map<HiveObjectSpec, List<PendingPartition>> tableToPartitionsToAlter =
+      new LinkedHashMap<>();
+  private int pendingCount = 0;
+
+  /**
+   * Constructor for a committer.
+   *
+   * @param chunkSize the maximum number of partitions to commit in a single metastore call
+   */
+  public PartitionMetadataCommitter(int chunkSize) {
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+    }
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * Add a partition to commit later.
+   *
+   * @param spec the spec that identifies the partition when reporting the partitions that couldn't
+   *             be committed
+   * @param action whether the partition should be created or altered
+   * @param partition the partition, as it should be on the destination
+   */
+  public synchronized void add(HiveObjectSpec spec, MetadataAction action, Partition partition) {
+    HiveObjectSpec tableSpec = new HiveObjectSpec(partition.getDbName(), partition.getTableName());
+    PendingPartition pendingPartition = new PendingPartition(spec, partition);
+    switch (action) {
+      case CREATE:
+        tableToPartitionsToCreate.computeIfAbsent(tableSpec, table -> new ArrayList<>())
+            .add(pendingPartition);
+        break;
+      case ALTER:
+        tableToPartitionsToAlter.computeIfAbsent(tableSpec, table -> new ArrayList<>())
+            .add(pendingPartition);
+        break;
+      default:
+        throw new RuntimeException("Unhandled action: " + action);
+    }
+    pendingCount++;
+  }
+
+  /**
+   * Get the number of partitions that have not been committed.
+   *
+   * @return the number of partitions that have not been committed
+   */
+  public synchronized int getPendingCount() {
+    return pendingCount;
+  }
+
+  /**
+   * Commit all the partitions that were added.
+   *
+   * @param destMs the client for the destination metastore
+   *
+   * @throws HiveMetastoreException if any of the partitions can't be committed. The other
+   *                                partitions are still committed.
+   */
+  public void commit(HiveMetastoreClient destMs) throws HiveMetastoreException {
+    Set<HiveObjectSpec> failedSpecs = commitPartitions(destMs);
+    if (!failedSpecs.isEmpty()) {
+      throw new HiveMetastoreException(String.format("Unable to commit %d partitions, "
+          + "including %s", failedSpecs.size(), failedSpecs.iterator().next()));
+    }
+  }
+
+  /**
+   * Commit all the partitions that were added. A partition that can't be committed doesn't prevent
+   * the other partitions from being committed.
+   *
+   * @param destMs the client for the destination metastore
+   * @return the specs of the partitions that couldn't be committed, as given to
+   *         {@link #add(HiveObjectSpec, MetadataAction, Partition)}
+   */
+  public Set<HiveObjectSpec> commitPartitions(HiveMetastoreClient destMs) {
+    Map<HiveObjectSpec, List<PendingPartition>> partitionsToCreate;
+    Map<HiveObjectSpec, List<PendingPartition>> partitionsToAlter;
+    synchronized (this) {
+      partitionsToCreate = tableToPartitionsToCreate;
+      partitionsToAlter = tableToPartitionsToAlter;
+      tableToPartitionsToCreate = new LinkedHashMap<>();
+      tableToPartitionsToAlter = new LinkedHashMap<>();
+      pendingCount = 0;
+    }
+
+    Set<HiveObjectSpec> failedSpecs = new LinkedHashSet<>();
+    for (Map.Entry<HiveObjectSpec, List<PendingPartition>> entry : partitionsToCreate.entrySet()) {
+      List<PendingPartition> partitions = entry.getValue();
+      for (int i = 0; i < partitions.size(); i += chunkSize) {
+        List<PendingPartition> chunk =
+            partitions.subList(i, Math.min(i + chunkSize, partitions.size()));
+        try {
+          destMs.addPartitions(getPartitions(chunk));
+          LOG.debug(String.format("Created %d partitions in %s", chunk.size(), entry.getKey()));
+        } catch (HiveMetastoreException e) {
+          LOG.warn(String.format("Unable to create %d partitions in %s together. Creating them "
+              + "one at a time.", chunk.size(), entry.getKey()), e);
+          for (PendingPartition pendingPartition : chunk) {
+            commitPartition(destMs, pendingPartition, MetadataAction.CREATE, failedSpecs);
+          }
+        }
+      }
+    }
+
+    for (Map.Entry<HiveObjectSpec, List<PendingPartition>> entry : partitionsToAlter.entrySet()) {
+      HiveObjectSpec tableSpec = entry.getKey();
+      List<PendingPartition> partitions = entry.getValue();
+      for (int i = 0; i < partitions.size(); i += chunkSize) {
+        List<PendingPartition> chunk =
+            partitions.subList(i, Math.min(i + chunkSize, partitions.size()));
+        try {
+          destMs.alterPartitions(tableSpec.getDbName(), tableSpec.getTableName(),
+              getPartitions(chunk));
+          LOG.debug(String.format("Altered %d partitions in %s", chunk.size(), tableSpec));
+        } catch (HiveMetastoreException e) {
+          LOG.warn(String.format("Unable to alter %d partitions in %s together. Altering them "
+              + "one at a time.", chunk.size(), tableSpec), e);
+          for (PendingPartition pendingPartition : chunk) {
+            commitPartition(destMs, pendingPartition, MetadataAction.ALTER, failedSpecs);
+          }
+        }
+      }
+    }
+    return failedSpecs;
+  }
+
+  private static List<Partition> getPartitions(List<PendingPartition> pendingPartitions) {
+    List<Partition> partitions = new ArrayList<>(pendingPartitions.size());
+    for (PendingPartition pendingPartition : pendingPartitions) {
+      partitions.add(pendingPartition.partition);
+    }
+    return partitions;
+  }
+
+  /**
+   * Commit a single partition. If the partition can't be created, it's assumed that it was created
+   * since the action was determined, so it's altered instead, and vice versa. If that fails too,
+   * the partition is added to the failed specs.
+   */
+  private void commitPartition(
+      HiveMetastoreClient destMs,
+      PendingPartition pendingPartition,
+      MetadataAction action,
+      Set<HiveObjectSpec> failedSpecs) {
+    Partition partition = pendingPartition.partition;
+    try {
+      commitPartitionWithAction(destMs, partition, action);
+      return;
+    } catch (HiveMetastoreException e) {
+      LOG.warn(String.format("Unable to %s partition %s. Trying to %s it instead.",
+          action, pendingPartition.spec, getOtherAction(action)), e);
+    }
+    try {
+      commitPartitionWithAction(destMs, partition, getOtherAction(action));
+    } catch (HiveMetastoreException e) {
+      LOG.error("Unable to commit partition " + pendingPartition.spec, e);
+      failedSpecs.add(pendingPartition.spec);
+    }
+  }
+
+  private static MetadataAction getOtherAction(MetadataAction action) {
+    return action == MetadataAction.CREATE ? MetadataAction.ALTER : MetadataAction.CREATE;
+  }
+
+  private static void commitPartitionWithAction(
+      HiveMetastoreClient destMs,
+      Partition partition,
+      MetadataAction action) throws HiveMetastoreException {
+    if (action == MetadataAction.CREATE) {
+      destMs.addPartition(partition);
+    } else {
+      destMs.alterPartition(partition.getDbName(), partition.getTableName(), partition);
+    }
+  }
+}
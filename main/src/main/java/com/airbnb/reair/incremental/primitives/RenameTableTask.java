@@ -174,8 +174,8 @@ public class RenameTableTask implements ReplicationTask {
   @Override
   public LockSet getRequiredLocks() {
     LockSet lockSet = new LockSet();
-    lockSet.add(new Lock(Lock.Type.EXCLUSIVE, renameFromSpec.toString()));
-    lockSet.add(new Lock(Lock.Type.EXCLUSIVE, renameToSpec.toString()));
+    lockSet.addHierarchical(Lock.Type.EXCLUSIVE, ReplicationUtils.getLockPath(renameFromSpec));
+    lockSet.addHierarchical(Lock.Type.EXCLUSIVE, ReplicationUtils.getLockPath(renameToSpec));
     return lockSet;
   }
 }
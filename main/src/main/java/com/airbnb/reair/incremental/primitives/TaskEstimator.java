@@ -18,6 +18,10 @@ import org.apache.hadoop.hive.metastore.api.Partition;
 import org.apache.hadoop.hive.metastore.api.Table;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -143,13 +147,51 @@ public class TaskEstimator {
     }
   }
 
+  /**
+   * Returns estimates for multiple partitions. The partitions are fetched from the metastores
+   * with one call per table (for each cluster), rather than one call per partition.
+   *
+   * @param specs the partitions that should be replicated
+   * @return a map from each partition to the estimate for that partition
+   * @throws HiveMetastoreException if there is an error connecting to the metastore
+   * @throws IOException if there is an error accessing the filesystem
+   */
+  public Map<HiveObjectSpec, TaskEstimate> analyzePartitions(List<HiveObjectSpec> specs)
+      throws HiveMetastoreException, IOException {
+    Map<HiveObjectSpec, List<String>> tableToPartitionNames = new LinkedHashMap<>();
+    for (HiveObjectSpec spec : specs) {
+      if (!spec.isPartition()) {
+        throw new RuntimeException("Argument should be a partition " + spec);
+      }
+      tableToPartitionNames.computeIfAbsent(spec.getTableSpec(), tableSpec -> new ArrayList<>())
+          .add(spec.getPartitionName());
+    }
+
+    HiveMetastoreClient srcMs = srcCluster.getMetastoreClient();
+    HiveMetastoreClient destMs = destCluster.getMetastoreClient();
+    Map<HiveObjectSpec, TaskEstimate> specToEstimate = new LinkedHashMap<>();
+    for (Map.Entry<HiveObjectSpec, List<String>> entry : tableToPartitionNames.entrySet()) {
+      HiveObjectSpec tableSpec = entry.getKey();
+      Map<String, Partition> partitionsOnSrc = srcMs.getPartitionsByNames(tableSpec.getDbName(),
+          tableSpec.getTableName(), entry.getValue());
+      Map<String, Partition> partitionsOnDest = destMs.getPartitionsByNames(
+          tableSpec.getDbName(), tableSpec.getTableName(), entry.getValue());
+      for (String partitionName : entry.getValue()) {
+        HiveObjectSpec spec =
+            new HiveObjectSpec(tableSpec.getDbName(), tableSpec.getTableName(), partitionName);
+        specToEstimate.put(spec, analyzePartition(spec, partitionsOnSrc.get(partitionName),
+            partitionsOnDest.get(partitionName)));
+      }
+    }
+    return specToEstimate;
+  }
+
   private TaskEstimate analyzePartitionSpec(HiveObjectSpec spec)
       throws HiveMetastoreException, IOException {
 
     if (!spec.isPartition()) {
       throw new RuntimeException("Argument should be a partition " + spec);
     }
-    boolean updateData = false;
 
     HiveMetastoreClient srcMs = srcCluster.getMetastoreClient();
     Partition partitionOnSrc =
@@ -159,6 +201,15 @@ public class TaskEstimator {
     Partition partitionOnDest =
         destMs.getPartition(spec.getDbName(), spec.getTableName(), spec.getPartitionName());
 
+    return analyzePartition(spec, partitionOnSrc, partitionOnDest);
+  }
+
+  private TaskEstimate analyzePartition(
+      HiveObjectSpec spec,
+      Partition partitionOnSrc,
+      Partition partitionOnDest) throws HiveMetastoreException, IOException {
+    boolean updateData = false;
+
     // If the source partition does not exist, but the destination does,
     // it's most likely a drop.
     if (partitionOnSrc == null && partitionOnDest != null) {
@@ -0,0 +1,275 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.airbnb.reair.db.DbConnectionFactory;
+import com.airbnb.reair.incremental.auditlog.AuditLogEntry;
+import com.airbnb.reair.incremental.auditlog.AuditLogEntryException;
+import com.airbnb.reair.incremental.auditlog.AuditLogReader;
+import com.airbnb.reair.incremental.deploy.ConfigurationKeys;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class AuditLogReaderTest {
+
+  private static final String AUDIT_LOG_TABLE_NAME = "audit_log";
+  private static final String AUDIT_LOG_OBJECTS_TABLE_NAME = "audit_objects";
+  private static final String AUDIT_LOG_MAP_RED_STATS_TABLE_NAME = "mapred_stats";
+
+  private static final long READ_TIMEOUT_MS = 30 * 1000;
+
+  /**
+   * Serves the queries made by the AuditLogReader from an in-memory list of audit log IDs.
+   */
+  private static class FakeAuditLogDb implements DbConnectionFactory {
+
+    private static final Pattern READ_AFTER_ID_PATTERN = Pattern.compile("WHERE id > (\\d+)");
+    private static final Pattern LIMIT_PATTERN = Pattern.compile("LIMIT (\\d+)");
+
+    private final List<Long> ids = new ArrayList<>();
+    // Entries with these ID's have an output object that can't be deserialized
+    private final Set<Long> invalidIds = new HashSet<>();
+    // The number of entries requested by each batch
+    private final List<Integer> requestedFetchSizes = Collections.synchronizedList(
+        new ArrayList<>());
+    private volatile long queryDelayMs = 0;
+
+    FakeAuditLogDb(long numEntries) {
+      for (long id = 1; id <= numEntries; id++) {
+        ids.add(id);
+      }
+    }
+
+    @Override
+    public Connection getConnection() {
+      return fake(Connection.class, (proxy, method, args) -> {
+        if (method.getName().equals("prepareStatement")) {
+          return prepareStatement((String) args[0]);
+        }
+        return null;
+      });
+    }
+
+    private PreparedStatement prepareStatement(String query) throws InterruptedException {
+      if (query.startsWith("SELECT MIN(id)")) {
+        Thread.sleep(queryDelayMs);
+        long readAfterId = Long.parseLong(find(READ_AFTER_ID_PATTERN, query));
+        int limit = Integer.parseInt(find(LIMIT_PATTERN, query));
+        requestedFetchSizes.add(limit);
+
+        long minId = 0;
+        long maxId = 0;
+        int count = 0;
+        for (long id : ids) {
+          if (id > readAfterId && count < limit) {
+            minId = count == 0 ? id : minId;
+            maxId = id;
+            count++;
+          }
+        }
+        Map<String, Object> row = new HashMap<>();
+        row.put("min_id", minId);
+        row.put("max_id", maxId);
+        List<Map<String, Object>> rows = Collections.singletonList(row);
+        return fake(PreparedStatement.class, (proxy, method, args) ->
+            method.getName().equals("executeQuery") ? makeResultSet(rows) : null);
+      }
+
+      // The query for the entries in the ID range, which is set through parameters
+      long[] range = new long[3];
+      return fake(PreparedStatement.class, (proxy, method, args) -> {
+        if (method.getName().equals("setLong")) {
+          range[(Integer) args[0]] = (Long) args[1];
+        } else if (method.getName().equals("executeQuery")) {
+          List<Map<String, Object>> rows = new ArrayList<>();
+          for (long id : ids) {
+            if (id >= range[1] && id <= range[2]) {
+              rows.add(makeRow(id));
+            }
+          }
+          return makeResultSet(rows);
+        }
+        return null;
+      });
+    }
+
+    private Map<String, Object> makeRow(long id) {
+      Map<String, Object> row = new HashMap<>();
+      row.put("id", id);
+      row.put("create_time", new Timestamp(0));
+      row.put("command_type", "QUERY");
+      row.put("command", "SELECT " + id);
+      if (invalidIds.contains(id)) {
+        row.put("name", "test_db.test_table");
+        row.put("category", "OUTPUT");
+        row.put("type", "TABLE");
+        row.put("serialized_object", "Not a serialized table");
+      }
+      return row;
+    }
+
+    private static String find(Pattern pattern, String query) {
+      Matcher matcher = pattern.matcher(query);
+      assertTrue(query, matcher.find());
+      return matcher.group(1);
+    }
+  }
+
+  private static ResultSet makeResultSet(List<Map<String, Object>> rows) {
+    int[] index = {-1};
+    return fake(ResultSet.class, (proxy, method, args) -> {
+      switch (method.getName()) {
+        case "next":
+          return ++index[0] < rows.size();
+        case "getLong":
+          Object value = rows.get(index[0]).get(args[0]);
+          return value == null ? 0L : value;
+        case "getString":
+        case "getTimestamp":
+          return rows.get(index[0]).get(args[0]);
+        default:
+          return null;
+      }
+    });
+  }
+
+  private static <T> T fake(Class<T> iface, InvocationHandler handler) {
+    return iface.cast(Proxy.newProxyInstance(AuditLogReaderTest.class.getClassLoader(),
+        new Class<?>[] {iface}, handler));
+  }
+
+  private static Configuration makeConf(boolean prefetch) {
+    Configuration conf = new Configuration();
+    conf.setInt(ConfigurationKeys.DB_QUERY_RETRIES, 1);
+    conf.setInt(ConfigurationKeys.AUDIT_LOG_FETCH_SIZE_MIN, 10);
+    conf.setInt(ConfigurationKeys.AUDIT_LOG_FETCH_SIZE_MAX, 80);
+    conf.setBoolean(ConfigurationKeys.AUDIT_LOG_PREFETCH_ENABLED, prefetch);
+    conf.setInt(ConfigurationKeys.AUDIT_LOG_PREFETCH_QUEUE_SIZE, 100);
+    return conf;
+  }
+
+  private static AuditLogReader makeReader(Configuration conf, FakeAuditLogDb db)
+      throws SQLException {
+    return new AuditLogReader(conf, db, AUDIT_LOG_TABLE_NAME, AUDIT_LOG_OBJECTS_TABLE_NAME,
+        AUDIT_LOG_MAP_RED_STATS_TABLE_NAME, 0);
+  }
+
+  /**
+   * Read the specified number of entries, waiting for the prefetcher if necessary.
+   */
+  private static List<Long> readIds(AuditLogReader reader, int numEntries)
+      throws AuditLogEntryException, SQLException {
+    List<Long> readIds = new ArrayList<>();
+    long deadline = System.currentTimeMillis() + READ_TIMEOUT_MS;
+    while (readIds.size() < numEntries) {
+      assertTrue("Timed out reading entries", System.currentTimeMillis() < deadline);
+      Optional<AuditLogEntry> entry = reader.next();
+      entry.ifPresent(e -> readIds.add(e.getId()));
+    }
+    return readIds;
+  }
+
+  private static List<Long> range(long start, long end) {
+    List<Long> ids = new ArrayList<>();
+    for (long id = start; id <= end; id++) {
+      ids.add(id);
+    }
+    return ids;
+  }
+
+  @Test
+  public void testAdaptiveFetchSize() throws AuditLogEntryException, SQLException {
+    Configuration conf = makeConf(false);
+    conf.setLong(ConfigurationKeys.AUDIT_LOG_FETCH_TARGET_LATENCY_MS, 50);
+    FakeAuditLogDb db = new FakeAuditLogDb(1000);
+    AuditLogReader reader = makeReader(conf, db);
+
+    // Full batches that come back quickly should double the fetch size
+    assertEquals(range(1, 70), readIds(reader, 70));
+    // A slow batch should halve it
+    db.queryDelayMs = 100;
+    assertEquals(range(71, 150), readIds(reader, 80));
+    db.queryDelayMs = 0;
+    assertEquals(range(151, 151), readIds(reader, 1));
+
+    assertEquals(Arrays.asList(10, 20, 40, 80, 40), db.requestedFetchSizes);
+  }
+
+  @Test
+  public void testPrefetch() throws AuditLogEntryException, SQLException {
+    FakeAuditLogDb db = new FakeAuditLogDb(500);
+    AuditLogReader reader = makeReader(makeConf(true), db);
+
+    // The prefetcher can't read more than the queue can hold at a time, so reading everything
+    // requires the consumer and the prefetcher to take turns.
+    assertEquals(range(1, 500), readIds(reader, 500));
+    assertFalse(reader.next().isPresent());
+
+    // Re-reading from an earlier position shouldn't return entries from the old position
+    reader.setReadAfterId(250);
+    assertEquals(range(251, 500), readIds(reader, 250));
+
+    // After closing, the prefetcher should be started again when more entries are requested
+    reader.close();
+    reader.setReadAfterId(490);
+    assertEquals(range(491, 500), readIds(reader, 10));
+    reader.close();
+  }
+
+  @Test
+  public void testPrefetchError() throws AuditLogEntryException, SQLException {
+    FakeAuditLogDb db = new FakeAuditLogDb(100);
+    db.invalidIds.add(50L);
+    AuditLogReader reader = makeReader(makeConf(true), db);
+
+    // The entries read before the invalid one should be returned, and then the error
+    List<Long> readIds = new ArrayList<>();
+    long deadline = System.currentTimeMillis() + READ_TIMEOUT_MS;
+    try {
+      while (true) {
+        assertTrue("Timed out reading entries", System.currentTimeMillis() < deadline);
+        reader.next().ifPresent(e -> readIds.add(e.getId()));
+      }
+    } catch (AuditLogEntryException e) {
+      // Expected
+    }
+    assertEquals(range(1, readIds.size()), readIds);
+    assertTrue(readIds.size() < 50);
+
+    // Trying again should read the invalid entry again rather than returning nothing
+    try {
+      readIds(reader, 1);
+      fail("Expected the error to be surfaced again");
+    } catch (AuditLogEntryException e) {
+      // Expected
+    }
+
+    // Skipping the invalid entry should allow the reader to continue
+    reader.setReadAfterId(50);
+    assertEquals(range(51, 100), readIds(reader, 50));
+    reader.close();
+  }
+}
@@ -0,0 +1,160 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.airbnb.reair.common.CachingHiveMetastoreClient;
+import com.airbnb.reair.common.HiveMetadataCache;
+import com.airbnb.reair.common.HiveMetastoreException;
+
+import org.apache.hadoop.hive.metastore.api.Database;
+import org.apache.hadoop.hive.metastore.api.Table;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CachingHiveMetastoreClientTest {
+
+  private static final String DB_NAME = "test_db";
+  private static final String TABLE_NAME = "test_table";
+
+  /**
+   * Metastore client that counts the number of table lookups, and can block them until released.
+   */
+  private static class CountingMetastoreClient extends MockHiveMetastoreClient {
+    private final AtomicInteger getTableCount = new AtomicInteger(0);
+    private final AtomicInteger existsDbCount = new AtomicInteger(0);
+    private volatile CountDownLatch getTableLatch = new CountDownLatch(0);
+
+    @Override
+    public Table getTable(String dbName, String tableName) throws HiveMetastoreException {
+      getTableCount.incrementAndGet();
+      try {
+        getTableLatch.await();
+      } catch (InterruptedException e) {
+        throw new HiveMetastoreException(e);
+      }
+      return super.getTable(dbName, tableName);
+    }
+
+    @Override
+    public boolean existsDb(String dbName) throws HiveMetastoreException {
+      existsDbCount.incrementAndGet();
+      return super.existsDb(dbName);
+    }
+  }
+
+  private CountingMetastoreClient metastoreClient;
+
+  /**
+   * Creates a database and a table in the underlying metastore.
+   *
+   * @throws HiveMetastoreException if there's an error creating the table
+   */
+  @Before
+  public void setUp() throws HiveMetastoreException {
+    metastoreClient = new CountingMetastoreClient();
+    metastoreClient.createDatabase(new Database(DB_NAME, null, null, null));
+    Table table = new Table();
+    table.setDbName(DB_NAME);
+    table.setTableName(TABLE_NAME);
+    table.setParameters(new HashMap<>());
+    metastoreClient.createTable(table);
+    // Only count the calls made by the tests
+    metastoreClient.getTableCount.set(0);
+    metastoreClient.existsDbCount.set(0);
+  }
+
+  @Test
+  public void testCachedLookups() throws HiveMetastoreException {
+    HiveMetadataCache cache = new HiveMetadataCache(60 * 1000, 100);
+    CachingHiveMetastoreClient client1 = new CachingHiveMetastoreClient(metastoreClient, cache);
+    CachingHiveMetastoreClient client2 = new CachingHiveMetastoreClient(metastoreClient, cache);
+
+    for (int i = 0; i < 10; i++) {
+      assertEquals(TABLE_NAME, client1.getTable(DB_NAME, TABLE_NAME).getTableName());
+      assertTrue(client2.existsTable(DB_NAME, TABLE_NAME));
+      assertTrue(client1.existsDb(DB_NAME));
+      assertNull(client2.getTable(DB_NAME, "missing_table"));
+    }
+    assertEquals(2, metastoreClient.getTableCount.get());
+    assertEquals(1, metastoreClient.existsDbCount.get());
+
+    // Changing the returned object shouldn't change the cached entry
+    client1.getTable(DB_NAME, TABLE_NAME).getParameters().put("changed", "true");
+    assertNull(client2.getTable(DB_NAME, TABLE_NAME).getParameters().get("changed"));
+  }
+
+  @Test
+  public void testInvalidationOnWrite() throws HiveMetastoreException {
+    HiveMetadataCache cache = new HiveMetadataCache(60 * 1000, 100);
+    CachingHiveMetastoreClient client1 = new CachingHiveMetastoreClient(metastoreClient, cache);
+    CachingHiveMetastoreClient client2 = new CachingHiveMetastoreClient(metastoreClient, cache);
+
+    Table table = client1.getTable(DB_NAME, TABLE_NAME);
+    table.getParameters().put("changed", "true");
+    client2.alterTable(DB_NAME, TABLE_NAME, table);
+    assertEquals("true", client1.getTable(DB_NAME, TABLE_NAME).getParameters().get("changed"));
+
+    assertFalse(client1.existsTable(DB_NAME, "new_table"));
+    Table newTable = new Table(table);
+    newTable.setTableName("new_table");
+    client2.createTable(newTable);
+    assertTrue(client1.existsTable(DB_NAME, "new_table"));
+
+    client2.dropTable(DB_NAME, "new_table", false);
+    assertFalse(client1.existsTable(DB_NAME, "new_table"));
+
+    assertFalse(client1.existsDb("new_db"));
+    client2.createDatabase(new Database("new_db", null, null, null));
+    assertTrue(client1.existsDb("new_db"));
+  }
+
+  @Test
+  public void testExpiration() throws Exception {
+    HiveMetadataCache cache = new HiveMetadataCache(1, 100);
+    CachingHiveMetastoreClient client = new CachingHiveMetastoreClient(metastoreClient, cache);
+
+    client.getTable(DB_NAME, TABLE_NAME);
+    Thread.sleep(10);
+    client.getTable(DB_NAME, TABLE_NAME);
+    assertEquals(2, metastoreClient.getTableCount.get());
+  }
+
+  @Test(timeout = 60000)
+  public void testConcurrentLookupsAreCombined() throws Exception {
+    HiveMetadataCache cache = new HiveMetadataCache(60 * 1000, 100);
+    final int numThreads = 8;
+    metastoreClient.getTableLatch = new CountDownLatch(1);
+
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    List<Future<Table>> results = new ArrayList<>();
+    for (int i = 0; i < numThreads; i++) {
+      CachingHiveMetastoreClient client = new CachingHiveMetastoreClient(metastoreClient, cache);
+      results.add(executor.submit(() -> client.getTable(DB_NAME, TABLE_NAME)));
+    }
+    // Wait for all the threads to ask for the table before releasing the lookup
+    while (cache.getHitCount() + cache.getMissCount() < numThreads) {
+      Thread.sleep(10);
+    }
+    metastoreClient.getTableLatch.countDown();
+
+    for (Future<Table> result : results) {
+      assertEquals(TABLE_NAME, result.get().getTableName());
+    }
+    executor.shutdown();
+    executor.awaitTermination(10, TimeUnit.SECONDS);
+    assertEquals(1, metastoreClient.getTableCount.get());
+  }
+}
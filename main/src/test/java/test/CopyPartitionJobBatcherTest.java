@@ -0,0 +1,156 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import com.airbnb.reair.common.HiveObjectSpec;
+import com.airbnb.reair.incremental.CopyPartitionJobBatcher;
+import com.airbnb.reair.incremental.ReplicationJob;
+import com.airbnb.reair.incremental.ReplicationJobFactory;
+import com.airbnb.reair.incremental.ReplicationOperation;
+import com.airbnb.reair.incremental.ReplicationStatus;
+import com.airbnb.reair.incremental.db.PersistedJobInfo;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+public class CopyPartitionJobBatcherTest {
+
+  private static final HiveObjectSpec TABLE_SPEC = new HiveObjectSpec("test_db", "test_table");
+  private static final HiveObjectSpec OTHER_TABLE_SPEC =
+      new HiveObjectSpec("test_db", "other_table");
+
+  private ReplicationJobFactory jobFactory;
+  private long nextAuditLogId;
+
+  /**
+   * Sets up a job factory with mock clusters.
+   */
+  @Before
+  public void setUp() {
+    Configuration conf = new Configuration();
+    MockCluster srcCluster = new MockCluster("src_cluster", new MockHiveMetastoreClient(),
+        new Path("file:///src"), new Path("file:///src/tmp"));
+    MockCluster destCluster = new MockCluster("dest_cluster", new MockHiveMetastoreClient(),
+        new Path("file:///dest"), new Path("file:///dest/tmp"));
+    jobFactory = new ReplicationJobFactory(conf, srcCluster, destCluster, null, null, null, null,
+        null, null);
+    nextAuditLogId = 1;
+  }
+
+  private ReplicationJob makeJob(
+      ReplicationOperation operation,
+      HiveObjectSpec tableSpec,
+      String partitionName) {
+    Map<String, String> extras = new HashMap<>();
+    extras.put(PersistedJobInfo.AUDIT_LOG_ID_EXTRAS_KEY, Long.toString(nextAuditLogId));
+    extras.put(PersistedJobInfo.AUDIT_LOG_ENTRY_CREATE_TIME_KEY, Long.toString(nextAuditLogId));
+    nextAuditLogId++;
+    PersistedJobInfo jobInfo = PersistedJobInfo.createDeferred(operation,
+        ReplicationStatus.PENDING,
+        Optional.of(new Path("file:///src/warehouse/test_table/" + partitionName)),
+        "src_cluster", tableSpec, Collections.singletonList(partitionName), Optional.empty(),
+        Optional.empty(), Optional.empty(), extras);
+    return new ReplicationJob(new Configuration(), null, null, jobInfo);
+  }
+
+  private ReplicationJob makeCopyJob(String partitionName) {
+    return makeJob(ReplicationOperation.COPY_PARTITION, TABLE_SPEC, partitionName);
+  }
+
+  @Test
+  public void testBatchBySize() {
+    CopyPartitionJobBatcher batcher = new CopyPartitionJobBatcher(jobFactory, 3, 60000);
+
+    List<ReplicationJob> readyJobs =
+        batcher.add(Arrays.asList(makeCopyJob("ds=1"), makeCopyJob("ds=2")), 0);
+    assertEquals(0, readyJobs.size());
+    assertEquals(Optional.of(1L), batcher.getLowestBufferedAuditLogId());
+
+    readyJobs = batcher.add(Arrays.asList(makeCopyJob("ds=3")), 0);
+    assertEquals(1, readyJobs.size());
+    PersistedJobInfo jobInfo = readyJobs.get(0).getPersistedJobInfo();
+    assertEquals(ReplicationOperation.COPY_PARTITIONS, jobInfo.getOperation());
+    assertEquals(Arrays.asList("ds=1", "ds=2", "ds=3"), jobInfo.getSrcPartitionNames());
+    assertEquals(Optional.of(new Path("file:///src/warehouse/test_table")),
+        jobInfo.getSrcPath());
+    assertEquals("1", jobInfo.getExtras().get(PersistedJobInfo.AUDIT_LOG_ID_EXTRAS_KEY));
+    assertEquals(Optional.empty(), batcher.getLowestBufferedAuditLogId());
+  }
+
+  @Test
+  public void testBatchByTime() {
+    CopyPartitionJobBatcher batcher = new CopyPartitionJobBatcher(jobFactory, 100, 1000);
+
+    ReplicationJob copyJob = makeCopyJob("ds=1");
+    assertEquals(0, batcher.add(Arrays.asList(copyJob), 0).size());
+    assertEquals(0, batcher.releaseExpired(999).size());
+    // A single job doesn't need to be converted
+    assertEquals(Arrays.asList(copyJob), batcher.releaseExpired(1000));
+  }
+
+  @Test
+  public void testOtherOperationsReleaseBatch() {
+    CopyPartitionJobBatcher batcher = new CopyPartitionJobBatcher(jobFactory, 100, 1000);
+
+    ReplicationJob copyJob1 = makeCopyJob("ds=1");
+    ReplicationJob otherTableCopy =
+        makeJob(ReplicationOperation.COPY_PARTITION, OTHER_TABLE_SPEC, "ds=1");
+    ReplicationJob copyJob2 = makeCopyJob("ds=2");
+    ReplicationJob drop = makeJob(ReplicationOperation.DROP_PARTITION, TABLE_SPEC, "ds=1");
+    List<ReplicationJob> readyJobs =
+        batcher.add(Arrays.asList(copyJob1, otherTableCopy, copyJob2, drop), 0);
+
+    // The copies for the table should be released before the drop, but the copy for the other
+    // table should still be buffered.
+    assertEquals(2, readyJobs.size());
+    assertEquals(Arrays.asList("ds=1", "ds=2"),
+        readyJobs.get(0).getPersistedJobInfo().getSrcPartitionNames());
+    assertEquals(drop, readyJobs.get(1));
+    assertEquals(Optional.of(2L), batcher.getLowestBufferedAuditLogId());
+  }
+
+  @Test
+  public void testBatchingDisabled() {
+    CopyPartitionJobBatcher batcher = new CopyPartitionJobBatcher(jobFactory, 1, 1000);
+    List<ReplicationJob> jobs = Arrays.asList(makeCopyJob("ds=1"), makeCopyJob("ds=2"));
+    assertEquals(jobs, batcher.add(jobs, 0));
+  }
+
+  @Test
+  public void testBufferedJobKeys() {
+    CopyPartitionJobBatcher batcher = new CopyPartitionJobBatcher(jobFactory, 100, 1000);
+
+    ReplicationJob copyJob1 = makeCopyJob("ds=1");
+    ReplicationJob copyJob2 = makeCopyJob("ds=2");
+    ReplicationJob drop = makeJob(ReplicationOperation.DROP_PARTITION, TABLE_SPEC, "ds=1");
+    ReplicationJob copyJob3 = makeCopyJob("ds=3");
+    batcher.add(Arrays.asList(copyJob1, copyJob2, drop, copyJob3), 0);
+
+    // Only the copy after the drop is still buffered
+    assertEquals(Collections.singleton(CopyPartitionJobBatcher.getJobKey(copyJob3)),
+        batcher.getBufferedJobKeys());
+
+    // Creating the job again from the same audit log entry should give the same key, while the
+    // other jobs should have different keys.
+    nextAuditLogId = 4;
+    ReplicationJob recreatedCopyJob3 = makeCopyJob("ds=3");
+    assertEquals(CopyPartitionJobBatcher.getJobKey(copyJob3),
+        CopyPartitionJobBatcher.getJobKey(recreatedCopyJob3));
+    Set<String> keys = new HashSet<>();
+    for (ReplicationJob job : Arrays.asList(copyJob1, copyJob2, drop, copyJob3)) {
+      keys.add(CopyPartitionJobBatcher.getJobKey(job));
+    }
+    assertEquals(4, keys.size());
+  }
+}
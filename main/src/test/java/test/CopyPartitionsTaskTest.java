@@ -5,25 +5,36 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import com.airbnb.reair.common.DistCpException;
+import com.airbnb.reair.common.FsUtils;
 import com.airbnb.reair.common.HiveMetastoreException;
 import com.airbnb.reair.common.HiveObjectSpec;
+import com.airbnb.reair.common.HiveParameterKeys;
+import com.airbnb.reair.incremental.DirectoryCopier;
 import com.airbnb.reair.incremental.ReplicationUtils;
 import com.airbnb.reair.incremental.RunInfo;
 import com.airbnb.reair.incremental.configuration.ConfigurationException;
+import com.airbnb.reair.incremental.deploy.ConfigurationKeys;
 import com.airbnb.reair.incremental.primitives.CopyPartitionsTask;
+import com.airbnb.reair.multiprocessing.Lock;
+import com.airbnb.reair.multiprocessing.LockSet;
 import com.airbnb.reair.multiprocessing.ParallelJobExecutor;
 import com.airbnb.reair.utils.ReplicationTestUtils;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hive.metastore.TableType;
 import org.apache.hadoop.hive.metastore.api.Partition;
+import org.apache.hadoop.yarn.conf.YarnConfiguration;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -156,4 +167,124 @@ public class CopyPartitionsTaskTest extends MockClusterTest {
     assertFalse(ReplicationUtils.exists(destMetastore, partitionSpec5));
     assertEquals(18, status.getBytesCopied());
   }
+
+  /**
+   * This ensures that when the partition directories are copied in a batch, a partition is not
+   * changed on the destination if the partition copy decides not to overwrite it.
+   *
+   * @throws IOException if there's an error writing to the local file system
+   * @throws HiveMetastoreException if there's an error querying the metastore
+   * @throws DistCpException if there's an error copying data
+   */
+  @Test
+  public void testBatchCopyDoesNotOverwriteNewer()
+      throws ConfigurationException, IOException, HiveMetastoreException, DistCpException {
+    YarnConfiguration conf = new YarnConfiguration(MockClusterTest.conf);
+    conf.setBoolean(ConfigurationKeys.BATCH_JOB_OVERWRITE_NEWER, false);
+    // Copy the partition directories with a distcp job, even though they are small
+    conf.setLong(ConfigurationKeys.COPY_PARALLEL_SIZE_THRESHOLD, 0);
+    DirectoryCopier directoryCopier = new DirectoryCopier(conf, destCluster.getTmpDir(), false);
+
+    // Create a partitioned table with two partitions in the source
+    HiveObjectSpec tableSpec = new HiveObjectSpec("test_db", "test_table");
+    ReplicationTestUtils.createPartitionedTable(conf, srcMetastore, tableSpec,
+        TableType.MANAGED_TABLE, srcWarehouseRoot);
+    HiveObjectSpec partitionSpec1 = new HiveObjectSpec("test_db", "test_table", "ds=1/hr=1");
+    HiveObjectSpec partitionSpec2 = new HiveObjectSpec("test_db", "test_table", "ds=1/hr=2");
+    Partition srcPartition1 =
+        ReplicationTestUtils.createPartition(conf, srcMetastore, partitionSpec1);
+    ReplicationTestUtils.createPartition(conf, srcMetastore, partitionSpec2);
+
+    // Create a newer version of the first partition in the destination with different data
+    ReplicationTestUtils.createPartitionedTable(conf, destMetastore, tableSpec,
+        TableType.MANAGED_TABLE, destWarehouseRoot);
+    Partition destPartition1 =
+        ReplicationTestUtils.createPartition(conf, destMetastore, partitionSpec1);
+    destPartition1.putToParameters(HiveParameterKeys.TLDT,
+        Long.toString(ReplicationUtils.getLastModifiedTime(srcPartition1) + 1));
+    destMetastore.alterPartition("test_db", "test_table", destPartition1);
+    Path destPartition1Location = new Path(destPartition1.getSd().getLocation());
+    ReplicationTestUtils.createTextFile(conf, destPartition1Location, "newer_file", "newer");
+
+    // Copy the partitions without a common directory, so that the data is copied in a batch
+    CopyPartitionsTask copyPartitionsTask =
+        new CopyPartitionsTask(conf, destinationObjectFactory, conflictHandler, srcCluster,
+            destCluster, tableSpec, Arrays.asList("ds=1/hr=1", "ds=1/hr=2"), Optional.empty(),
+            jobExecutor, directoryCopier);
+    RunInfo status = copyPartitionsTask.runTask();
+    assertEquals(RunInfo.RunStatus.SUCCESSFUL, status.getRunStatus());
+    // Both directories differ from the destination, so both were copied in the batch
+    long partitionSize = FsUtils.getSize(conf, new Path(srcPartition1.getSd().getLocation()),
+        Optional.empty());
+    assertEquals(2 * partitionSize, status.getBytesCopied());
+
+    // The newer partition should be left alone, while the other one is copied
+    FileSystem destFs = destPartition1Location.getFileSystem(conf);
+    assertTrue(destFs.exists(new Path(destPartition1Location, "newer_file")));
+    assertTrue(ReplicationUtils.exists(destMetastore, partitionSpec2));
+    Path destPartition2Location = new Path(destMetastore.getPartition("test_db", "test_table",
+        "ds=1/hr=2").getSd().getLocation());
+    Path srcPartition2Location = new Path(srcMetastore.getPartition("test_db", "test_table",
+        "ds=1/hr=2").getSd().getLocation());
+    assertTrue(directoryCopier.equalDirs(srcPartition2Location, destPartition2Location));
+
+    // The batch copy directory should be cleaned up
+    Path batchCopyRoot = new Path(destCluster.getTmpDir(), "distcp_tmp/src_cluster/batch_copy");
+    assertTrue(!destFs.exists(batchCopyRoot) || destFs.listStatus(batchCopyRoot).length == 0);
+  }
+
+  @Test
+  public void testRequiredLocks() {
+    HiveObjectSpec tableSpec = new HiveObjectSpec("test_db", "test_table");
+    HiveObjectSpec partition1Spec = new HiveObjectSpec("test_db", "test_table", "ds=1");
+    String bucket1Lock = ReplicationUtils.getBucketLockPath(partition1Spec).get(2);
+
+    // Only the partitions are locked exclusively
+    CopyPartitionsTask copyPartitionsTask = new CopyPartitionsTask(conf,
+        destinationObjectFactory, conflictHandler, srcCluster, destCluster, tableSpec,
+        Arrays.asList("ds=1", "ds=2"), Optional.empty(), jobExecutor, directoryCopier);
+    LockSet lockSet = copyPartitionsTask.getRequiredLocks();
+    assertEquals(Lock.Type.INTENTION_EXCLUSIVE, lockSet.getType("test_db"));
+    assertEquals(Lock.Type.INTENTION_EXCLUSIVE, lockSet.getType("test_db.test_table"));
+    assertEquals(Lock.Type.INTENTION_EXCLUSIVE, lockSet.getType(bucket1Lock));
+    assertEquals(Lock.Type.EXCLUSIVE, lockSet.getType("test_db.test_table/ds=1"));
+    assertEquals(Lock.Type.EXCLUSIVE, lockSet.getType("test_db.test_table/ds=2"));
+    assertEquals(new HashSet<>(Arrays.asList("test_db.test_table/ds=1", "test_db.test_table/ds=2")),
+        lockSet.getExclusiveLocks());
+
+    // Many partitions are locked by bucket, so that the job needs a bounded number of locks but
+    // doesn't block jobs on partitions in other buckets
+    List<String> manyPartitionNames = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      manyPartitionNames.add("ds=" + i);
+    }
+    copyPartitionsTask = new CopyPartitionsTask(conf, destinationObjectFactory,
+        conflictHandler, srcCluster, destCluster, tableSpec, manyPartitionNames,
+        Optional.empty(), jobExecutor, directoryCopier);
+    lockSet = copyPartitionsTask.getRequiredLocks();
+    assertTrue(lockSet.getLocks().size() <= 2 + ReplicationUtils.PARTITION_LOCK_BUCKETS);
+    assertEquals(Lock.Type.INTENTION_EXCLUSIVE, lockSet.getType("test_db"));
+    assertEquals(Lock.Type.INTENTION_EXCLUSIVE, lockSet.getType("test_db.test_table"));
+    assertEquals(Lock.Type.EXCLUSIVE, lockSet.getType(bucket1Lock));
+    assertFalse(lockSet.contains("test_db.test_table/ds=1"));
+
+    // A job on a single partition conflicts with the bucket lock, but not with the table lock
+    LockSet partitionLockSet = new LockSet();
+    partitionLockSet.addHierarchical(Lock.Type.EXCLUSIVE,
+        ReplicationUtils.getLockPath(partition1Spec));
+    assertTrue(partitionLockSet.getType("test_db.test_table")
+        .isCompatibleWith(lockSet.getType("test_db.test_table")));
+    assertFalse(partitionLockSet.getType(bucket1Lock).isCompatibleWith(
+        lockSet.getType(bucket1Lock)));
+
+    // With a higher limit, the partitions are locked individually again
+    Configuration highLimitConf = new Configuration(conf);
+    highLimitConf.setInt(ConfigurationKeys.COPY_PARTITIONS_MAX_PARTITION_LOCKS, 2000);
+    copyPartitionsTask = new CopyPartitionsTask(highLimitConf, destinationObjectFactory,
+        conflictHandler, srcCluster, destCluster, tableSpec, manyPartitionNames,
+        Optional.empty(), jobExecutor, directoryCopier);
+    lockSet = copyPartitionsTask.getRequiredLocks();
+    assertEquals(Lock.Type.INTENTION_EXCLUSIVE, lockSet.getType(bucket1Lock));
+    assertEquals(Lock.Type.EXCLUSIVE, lockSet.getType("test_db.test_table/ds=1999"));
+  }
 }
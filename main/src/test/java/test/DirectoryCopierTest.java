@@ -0,0 +1,71 @@
+package test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.airbnb.reair.common.FsUtils;
+import com.airbnb.reair.incremental.DirectoryCopier;
+import com.airbnb.reair.incremental.deploy.ConfigurationKeys;
+import com.airbnb.reair.utils.ReplicationTestUtils;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DirectoryCopierTest {
+
+  @Rule
+  public TemporaryFolder localTmp = new TemporaryFolder();
+
+  private Configuration conf;
+  private Path srcDir;
+  private Path destDir;
+
+  /**
+   * Creates source and destination directories with the same files, and enables the size check on
+   * the local filesystem.
+   *
+   * @throws Exception if there's an error creating the files
+   */
+  @Before
+  public void setUp() throws Exception {
+    conf = new Configuration();
+    conf.set(FsUtils.CONTENT_SUMMARY_SCHEMES_KEY, "file");
+    conf.setBoolean(ConfigurationKeys.COMPARE_SIZE_CHECK_ENABLED, true);
+    srcDir = new Path(localTmp.newFolder("src").toURI());
+    destDir = new Path(localTmp.newFolder("dest").toURI());
+    for (Path dir : new Path[] {srcDir, destDir}) {
+      ReplicationTestUtils.createTextFile(conf, dir, "file1.txt", "12345");
+      ReplicationTestUtils.createTextFile(conf, new Path(dir, "subdir"), "file2.txt", "123");
+    }
+  }
+
+  private DirectoryCopier makeCopier() {
+    return new DirectoryCopier(conf, new Path(localTmp.getRoot().toURI()), false);
+  }
+
+  @Test
+  public void testDifferentSizes() throws Exception {
+    DirectoryCopier copier = makeCopier();
+    assertTrue(copier.equalDirs(srcDir, destDir));
+
+    ReplicationTestUtils.createTextFile(conf, new Path(destDir, "subdir"), "extra.txt", "1");
+    assertFalse(copier.equalDirs(srcDir, destDir));
+    assertFalse(copier.equalDirs(srcDir, new Path(destDir, "missing")));
+  }
+
+  @Test
+  public void testSameSizesAreCompared() throws Exception {
+    DirectoryCopier copier = makeCopier();
+
+    // Renaming a file doesn't change the total size, so the directories are still compared
+    FileSystem fs = destDir.getFileSystem(conf);
+    assertTrue(fs.rename(new Path(destDir, "subdir/file2.txt"),
+        new Path(destDir, "subdir/renamed.txt")));
+    assertFalse(copier.equalDirs(srcDir, destDir));
+  }
+}
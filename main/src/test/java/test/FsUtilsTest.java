@@ -0,0 +1,377 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.airbnb.reair.common.BatchCopyListing;
+import com.airbnb.reair.common.DirectoryListing;
+import com.airbnb.reair.common.DistCpWrapper;
+import com.airbnb.reair.common.DistCpWrapperOptions;
+import com.airbnb.reair.common.FsUtils;
+import com.airbnb.reair.common.ParallelFileCopier;
+import com.airbnb.reair.common.ParallelFileLister;
+import com.airbnb.reair.utils.ReplicationTestUtils;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+public class FsUtilsTest {
+
+  @Rule
+  public TemporaryFolder localTmp = new TemporaryFolder();
+
+  private Path srcDir;
+  private Path destDir;
+
+  /**
+   * Creates a directory tree with files in multiple levels of subdirectories.
+   *
+   * @param conf configuration object
+   * @param root the root of the tree
+   *
+   * @throws IOException if there's an error creating the files
+   */
+  private static void createTree(Configuration conf, Path root) throws IOException {
+    for (int bucket = 0; bucket < 4; bucket++) {
+      Path bucketDir = new Path(root, "bucket=" + bucket);
+      ReplicationTestUtils.createTextFile(conf, bucketDir, "file.txt", "12345");
+      for (int part = 0; part < 3; part++) {
+        ReplicationTestUtils.createTextFile(conf, new Path(bucketDir, "part=" + part),
+            "file.txt", "123");
+      }
+    }
+    ReplicationTestUtils.createTextFile(conf, root, "top.txt", "1");
+  }
+
+  private static Set<String> getRelativePaths(Path root, Set<FileStatus> statuses) {
+    Set<String> relativePaths = new HashSet<>();
+    for (FileStatus status : statuses) {
+      relativePaths.add(FsUtils.getRelativePath(root, status.getPath()));
+    }
+    return relativePaths;
+  }
+
+  /**
+   * Creates the same directory tree under the source and destination directories.
+   *
+   * @throws IOException if there's an error creating the files
+   */
+  @Before
+  public void setUp() throws IOException {
+    Configuration conf = new Configuration();
+    srcDir = new Path(localTmp.newFolder("src").toURI());
+    destDir = new Path(localTmp.newFolder("dest").toURI());
+    createTree(conf, srcDir);
+    createTree(conf, destDir);
+  }
+
+  @Test
+  public void testParallelListingMatchesSerialListing() throws IOException {
+    Configuration serialConf = new Configuration();
+    serialConf.setInt(ParallelFileLister.PARALLELISM_KEY, 1);
+    Configuration parallelConf = new Configuration();
+    parallelConf.setInt(ParallelFileLister.PARALLELISM_KEY, 4);
+
+    Set<FileStatus> serialStatuses =
+        FsUtils.getFileStatusesRecursive(serialConf, srcDir, Optional.empty());
+    Set<FileStatus> parallelStatuses =
+        FsUtils.getFileStatusesRecursive(parallelConf, srcDir, Optional.empty());
+    assertEquals(4 * 4 + 1, serialStatuses.size());
+    assertEquals(getRelativePaths(srcDir, serialStatuses),
+        getRelativePaths(srcDir, parallelStatuses));
+
+    // Directories rejected by the filter are not listed
+    Set<FileStatus> filteredStatuses = FsUtils.getFileStatusesRecursive(parallelConf, srcDir,
+        Optional.of(path -> !path.getName().startsWith("part=")));
+    assertEquals(4 + 1, filteredStatuses.size());
+
+    assertEquals(4 * 5 + 4 * 3 * 3 + 1,
+        FsUtils.getSize(parallelConf, srcDir, Optional.empty()));
+    assertTrue(FsUtils.exceedsSize(parallelConf, srcDir, 20));
+    assertFalse(FsUtils.exceedsSize(parallelConf, srcDir, 100));
+  }
+
+  @Test
+  public void testEqualDirs() throws IOException {
+    Configuration conf = new Configuration();
+    assertTrue(FsUtils.equalDirs(conf, srcDir, destDir));
+    assertFalse(FsUtils.filesExistOnDestButNotSrc(conf, srcDir, destDir, Optional.empty()));
+
+    ReplicationTestUtils.createTextFile(conf, new Path(destDir, "bucket=1/part=2"),
+        "extra.txt", "1");
+    assertFalse(FsUtils.equalDirs(conf, srcDir, destDir));
+    assertTrue(FsUtils.filesExistOnDestButNotSrc(conf, srcDir, destDir, Optional.empty()));
+  }
+
+  @Test
+  public void testListingSnapshots() throws IOException {
+    Configuration conf = new Configuration();
+    List<DirectoryListing> listings =
+        DirectoryListing.listAll(conf, Arrays.asList(srcDir, destDir), Optional.empty());
+    DirectoryListing srcListing = listings.get(0);
+    assertEquals(4 * 4 + 1, srcListing.getFileCount());
+    assertEquals(FsUtils.getSize(conf, srcDir, Optional.empty()), srcListing.getTotalSize());
+    assertTrue(FsUtils.equalDirs(srcListing, listings.get(1), false));
+
+    // The listing is a snapshot, so files added later aren't in it
+    ReplicationTestUtils.createTextFile(conf, srcDir, "later.txt", "1");
+    assertEquals(4 * 4 + 1, srcListing.getFileCount());
+
+    FsUtils.syncModificationTimes(conf, srcListing, destDir);
+    assertTrue(FsUtils.equalDirs(srcListing, DirectoryListing.list(conf, destDir,
+        Optional.empty()), true));
+  }
+
+  @Test
+  public void testSizeFromContentSummary() throws IOException {
+    Configuration conf = new Configuration();
+    conf.set(FsUtils.CONTENT_SUMMARY_SCHEMES_KEY, "hdfs, file");
+
+    long expectedSize = 4 * 5 + 4 * 3 * 3 + 1;
+    assertEquals(expectedSize, FsUtils.getSize(conf, srcDir, Optional.empty()));
+    assertTrue(FsUtils.exceedsSize(conf, srcDir, expectedSize - 1));
+    assertFalse(FsUtils.exceedsSize(conf, srcDir, expectedSize));
+    // Filters can't be applied to content summaries, so the directory is listed instead
+    assertEquals(4 * 5 + 1, FsUtils.getSize(conf, srcDir,
+        Optional.of(path -> !path.getName().startsWith("part="))));
+  }
+
+  @Test
+  public void testStreamingComparison() throws IOException {
+    for (int parallelism : new int[] {1, 4}) {
+      Configuration conf = new Configuration();
+      conf.setInt(ParallelFileLister.PARALLELISM_KEY, parallelism);
+      Path src = new Path(localTmp.newFolder().toURI());
+      Path dest = new Path(localTmp.newFolder().toURI());
+
+      // Names that sort differently as path strings than component by component
+      for (Path root : Arrays.asList(src, dest)) {
+        ReplicationTestUtils.createTextFile(conf, new Path(root, "a"), "b", "1");
+        ReplicationTestUtils.createTextFile(conf, root, "a.x", "12");
+        ReplicationTestUtils.createTextFile(conf, new Path(root, "a-dir/nested"), "c", "123");
+      }
+      assertTrue(FsUtils.equalDirs(conf, src, dest));
+      assertFalse(FsUtils.filesExistOnDestButNotSrc(conf, src, dest, Optional.empty()));
+
+      // Directories rejected by the filter are ignored
+      ReplicationTestUtils.createTextFile(conf, new Path(dest, "a/skipped"), "d", "1");
+      assertFalse(FsUtils.equalDirs(conf, src, dest));
+      assertTrue(FsUtils.equalDirs(conf, src, dest,
+          Optional.of(path -> !path.getName().equals("skipped"))));
+
+      // A file on one side with the same name as a directory on the other side
+      ReplicationTestUtils.createTextFile(conf, src, "b", "1");
+      ReplicationTestUtils.createTextFile(conf, new Path(dest, "b"), "c", "1");
+      assertFalse(FsUtils.equalDirs(conf, src, dest,
+          Optional.of(path -> !path.getName().equals("skipped"))));
+      assertTrue(FsUtils.filesExistOnDestButNotSrc(conf, src, dest, Optional.empty()));
+    }
+  }
+
+  @Test
+  public void testModificationTimeComparison() throws IOException {
+    Configuration conf = new Configuration();
+    assertTrue(FsUtils.equalDirs(conf, srcDir, destDir, Optional.empty(), false));
+    srcDir.getFileSystem(conf).setTimes(new Path(srcDir, "bucket=2/part=1/file.txt"), 1000, -1);
+    assertFalse(FsUtils.equalDirs(conf, srcDir, destDir, Optional.empty(), true));
+
+    FsUtils.syncModificationTimes(conf, srcDir, destDir, Optional.empty());
+    assertTrue(FsUtils.equalDirs(conf, srcDir, destDir, Optional.empty(), true));
+  }
+
+  @Test
+  public void testParallelCopy() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setInt(ParallelFileCopier.PARALLELISM_KEY, 4);
+    FileSystem fs = srcDir.getFileSystem(conf);
+    Path permissionFile = new Path(srcDir, "bucket=0/file.txt");
+    fs.setPermission(permissionFile, new FsPermission((short) 0640));
+    Path copyDir = new Path(localTmp.getRoot().toURI().toString(), "copy/nested");
+
+    DirectoryListing srcListing = DirectoryListing.list(conf, srcDir, Optional.empty());
+    assertEquals(srcListing.getTotalSize(),
+        ParallelFileCopier.copy(conf, srcListing, copyDir, Optional.empty(), 60000));
+    assertTrue(FsUtils.equalDirs(conf, srcDir, copyDir, Optional.empty(), true));
+    assertEquals(new FsPermission((short) 0640),
+        fs.getFileStatus(new Path(copyDir, "bucket=0/file.txt")).getPermission());
+
+    // Files that already exist on the destination with the same length aren't copied again
+    ReplicationTestUtils.createTextFile(conf, srcDir, "new.txt", "12");
+    DirectoryListing copyListing = DirectoryListing.list(conf, copyDir, Optional.empty());
+    srcListing = DirectoryListing.list(conf, srcDir, Optional.empty());
+    assertEquals(2,
+        ParallelFileCopier.copy(conf, srcListing, copyDir, Optional.of(copyListing), 60000));
+    assertTrue(FsUtils.equalDirs(conf, srcDir, copyDir, Optional.empty(), true));
+  }
+
+  @Test
+  public void testDistCpWrapperParallelCopy() throws Exception {
+    Configuration conf = new Configuration();
+    Path tmpDir = new Path(localTmp.getRoot().toURI().toString(), "tmp");
+    Path copyDir = new Path(localTmp.getRoot().toURI().toString(), "copy");
+
+    // Too large for a local copy, but small enough to copy without a distcp job
+    DistCpWrapperOptions options = new DistCpWrapperOptions(srcDir, copyDir,
+        new Path(tmpDir, "distcp_tmp"), new Path(tmpDir, "distcp_logs"))
+        .setLocalCopySizeThreshold(0);
+    long expectedSize = FsUtils.getSize(conf, srcDir, Optional.empty());
+    assertEquals(expectedSize, new DistCpWrapper(conf).copy(options));
+    assertTrue(FsUtils.equalDirs(conf, srcDir, copyDir, Optional.empty(), true));
+    assertFalse(FsUtils.dirExists(conf, new Path(tmpDir, "distcp_tmp")));
+  }
+
+  @Test
+  public void testDistCpWrapperBatchCopy() throws Exception {
+    Configuration conf = new Configuration();
+    String root = localTmp.getRoot().toURI().toString();
+    // Directories with the same name can be copied in the same job
+    Path src1 = new Path(root, "batch_src/a/ds=1");
+    Path src2 = new Path(root, "batch_src/b/ds=1");
+    Path src3 = new Path(root, "batch_src/c/ds=1");
+    createTree(conf, src1);
+    ReplicationTestUtils.createTextFile(conf, src2, "file.txt", "123");
+    ReplicationTestUtils.createTextFile(conf, src3, "file.txt", "12");
+    Path dest1 = new Path(root, "batch_dest/a/ds=1");
+    Path dest2 = new Path(root, "batch_dest/b/ds=1");
+    Path dest3 = new Path(root, "batch_dest/c/ds=1");
+    // The third directory is already on the destination
+    ReplicationTestUtils.createTextFile(conf, dest3, "file.txt", "12");
+    FsUtils.syncModificationTimes(conf, src3, dest3, Optional.empty());
+
+    Map<Path, Path> srcToDestDirs = new HashMap<>();
+    srcToDestDirs.put(src1, dest1);
+    srcToDestDirs.put(src2, dest2);
+    srcToDestDirs.put(src3, dest3);
+    Path tmpDir = new Path(root, "tmp");
+    DistCpWrapperOptions options = new DistCpWrapperOptions(null, null,
+        new Path(tmpDir, "distcp_tmp"), new Path(tmpDir, "distcp_logs"))
+        .setParallelCopySizeThreshold(0)
+        .setSameFsCopySizeThreshold(0);
+
+    Map<Path, Long> bytesCopied = new DistCpWrapper(conf).copyAll(srcToDestDirs, options);
+    assertEquals(2, bytesCopied.size());
+    assertEquals(Long.valueOf(FsUtils.getSize(conf, src1, Optional.empty())),
+        bytesCopied.get(src1));
+    assertEquals(Long.valueOf(3), bytesCopied.get(src2));
+    for (Map.Entry<Path, Path> entry : srcToDestDirs.entrySet()) {
+      assertTrue(FsUtils.equalDirs(conf, entry.getKey(), entry.getValue(), Optional.empty(),
+          true));
+    }
+    assertFalse(FsUtils.dirExists(conf, new Path(tmpDir, "distcp_tmp")));
+  }
+
+  @Test
+  public void testDistCpWrapperDeltaCopy() throws Exception {
+    Configuration conf = new Configuration();
+    FileSystem fs = srcDir.getFileSystem(conf);
+    // Mark a file on the destination without changing its length, so that it looks unchanged
+    ReplicationTestUtils.createTextFile(conf, new Path(destDir, "bucket=1/part=1"), "file.txt",
+        "abc");
+    FsUtils.syncModificationTimes(conf, srcDir, destDir, Optional.empty());
+
+    // Change one file, add one, and remove one
+    ReplicationTestUtils.createTextFile(conf, new Path(srcDir, "bucket=0"), "file.txt", "123456");
+    ReplicationTestUtils.createTextFile(conf, new Path(srcDir, "bucket=4"), "new.txt", "12");
+    fs.delete(new Path(srcDir, "bucket=2/part=0/file.txt"), false);
+
+    Path tmpDir = new Path(localTmp.getRoot().toURI().toString(), "tmp");
+    DistCpWrapperOptions options = new DistCpWrapperOptions(srcDir, destDir,
+        new Path(tmpDir, "distcp_tmp"), new Path(tmpDir, "distcp_logs"))
+        .setDeltaCopy(true);
+    assertEquals(6 + 2, new DistCpWrapper(conf).copy(options));
+    assertTrue(FsUtils.equalDirs(conf, srcDir, destDir, Optional.empty(), true));
+    assertFalse(FsUtils.dirExists(conf, new Path(tmpDir, "distcp_tmp")));
+    // Files that didn't change were left in place
+    assertEquals("abc", new String(Files.readAllBytes(Paths.get(
+        new Path(destDir, "bucket=1/part=1/file.txt").toUri())), StandardCharsets.UTF_8).trim());
+  }
+
+  @Test
+  public void testDistCpWrapperDeltaCopyRestoresOnError() throws Exception {
+    Configuration conf = new Configuration();
+    FsUtils.syncModificationTimes(conf, srcDir, destDir, Optional.empty());
+
+    // Change one file and add one
+    ReplicationTestUtils.createTextFile(conf, new Path(srcDir, "bucket=0"), "file.txt", "123456");
+    ReplicationTestUtils.createTextFile(conf, new Path(srcDir, "bucket=4"), "new.txt", "12");
+
+    // A file where the replaced files would be moved to makes replacing the changed file fail
+    Path tmpDir = new Path(localTmp.getRoot().toURI().toString(), "tmp");
+    Path distCpTmpDir = new Path(tmpDir, "distcp_tmp");
+    ReplicationTestUtils.createTextFile(conf, tmpDir, "distcp_tmp_replaced", "");
+    DirectoryListing destListing = DirectoryListing.list(conf, destDir, Optional.empty());
+
+    DistCpWrapperOptions options = new DistCpWrapperOptions(srcDir, destDir, distCpTmpDir,
+        new Path(tmpDir, "distcp_logs"))
+        .setDeltaCopy(true);
+    try {
+      new DistCpWrapper(conf).copy(options);
+      fail("Expected the delta copy to fail");
+    } catch (IOException e) {
+      // Expected
+    }
+    // The destination is left as it was, and the staging directories are cleaned up
+    assertTrue(FsUtils.equalDirs(destListing,
+        DirectoryListing.list(conf, destDir, Optional.empty()), true));
+    assertFalse(FsUtils.dirExists(conf, distCpTmpDir));
+    assertFalse(distCpTmpDir.getFileSystem(conf).exists(new Path(tmpDir, "distcp_tmp_replaced")));
+  }
+
+  @Test
+  public void testSameFsCopy() throws Exception {
+    Configuration conf = new Configuration();
+    conf.set(MiniDFSCluster.HDFS_MINIDFS_BASEDIR, localTmp.newFolder("dfs").getAbsolutePath());
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    try {
+      FileSystem fs = cluster.getFileSystem();
+      Configuration dfsConf = new Configuration(fs.getConf());
+      // DistCp can't run with this setting, so the copies have to be done in this process
+      dfsConf.set(BatchCopyListing.COPY_LISTING_CLASS_KEY, "NonExistentCopyListing");
+      Path src = fs.makeQualified(new Path("/warehouse1/test_table/ds=1"));
+      Path dest = fs.makeQualified(new Path("/warehouse2/test_table/ds=1"));
+      Path tmpDir = fs.makeQualified(new Path("/tmp"));
+      createTree(dfsConf, src);
+      DistCpWrapperOptions options = new DistCpWrapperOptions(src, dest,
+          new Path(tmpDir, "distcp_tmp"), new Path(tmpDir, "distcp_logs"))
+          .setLocalCopySizeThreshold(0)
+          .setParallelCopySizeThreshold(0)
+          .setSameFsCopySizeThreshold((long) 8e9)
+          .setSameFsCopyCountThreshold(10000);
+
+      DistCpWrapper distCpWrapper = new DistCpWrapper(dfsConf);
+      assertEquals(FsUtils.getSize(dfsConf, src, Optional.empty()), distCpWrapper.copy(options));
+      assertTrue(FsUtils.equalDirs(dfsConf, src, dest, Optional.empty(), true));
+
+      // With a delta copy, only the changed file is copied to the existing destination
+      options.setDeltaCopy(true);
+      ReplicationTestUtils.createTextFile(dfsConf, new Path(src, "bucket=0"), "file.txt", "123");
+      assertEquals(3, distCpWrapper.copy(options));
+      assertTrue(FsUtils.equalDirs(dfsConf, src, dest, Optional.empty(), true));
+      assertFalse(FsUtils.dirExists(dfsConf, new Path(tmpDir, "distcp_tmp")));
+    } finally {
+      cluster.shutdown();
+    }
+  }
+}
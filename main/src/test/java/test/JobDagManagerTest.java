@@ -0,0 +1,275 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.airbnb.reair.multiprocessing.Job;
+import com.airbnb.reair.multiprocessing.JobDag;
+import com.airbnb.reair.multiprocessing.JobDagManager;
+import com.airbnb.reair.multiprocessing.Lock;
+import com.airbnb.reair.multiprocessing.LockSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class JobDagManagerTest {
+
+  private static final Log LOG = LogFactory.getLog(JobDagManagerTest.class);
+
+  /**
+   * A job that only needs locks. Like the replication jobs, it builds a new lock set on each call.
+   */
+  protected static class LockJob extends Job {
+    private final String name;
+    private final List<Lock> locks;
+
+    LockJob(String name, List<Lock> locks) {
+      this.name = name;
+      this.locks = locks;
+    }
+
+    @Override
+    public int run() {
+      return 0;
+    }
+
+    @Override
+    public LockSet getRequiredLocks() {
+      LockSet lockSet = new LockSet();
+      for (Lock lock : locks) {
+        lockSet.add(lock);
+      }
+      return lockSet;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  protected JobDag createDagManager() {
+    return new JobDagManager();
+  }
+
+  protected static LockJob job(String name, String... lockSpecs) {
+    List<Lock> locks = new ArrayList<>();
+    for (String lockSpec : lockSpecs) {
+      // Lock specs are of the form "S:name", "X:name", "IS:name", or "IX:name"
+      String[] typeAndName = lockSpec.split(":", 2);
+      Lock.Type type;
+      switch (typeAndName[0]) {
+        case "S":
+          type = Lock.Type.SHARED;
+          break;
+        case "X":
+          type = Lock.Type.EXCLUSIVE;
+          break;
+        case "IS":
+          type = Lock.Type.INTENTION_SHARED;
+          break;
+        case "IX":
+          type = Lock.Type.INTENTION_EXCLUSIVE;
+          break;
+        default:
+          throw new RuntimeException("Unknown lock type in " + lockSpec);
+      }
+      locks.add(new Lock(type, typeAndName[1]));
+    }
+    return new LockJob(name, locks);
+  }
+
+  @Test
+  public void testExclusiveLocks() {
+    JobDag dagManager = createDagManager();
+    Job job1 = job("job1", "X:a");
+    Job job2 = job("job2", "X:b");
+    Job job3 = job("job3", "X:a", "X:b");
+    Job job4 = job("job4", "X:a");
+
+    assertTrue(dagManager.addJob(job1));
+    assertTrue(dagManager.addJob(job2));
+    assertFalse(dagManager.addJob(job3));
+    assertFalse(dagManager.addJob(job4));
+
+    assertEquals(Collections.emptySet(), dagManager.removeJob(job1));
+    assertEquals(Collections.singleton(job3), dagManager.removeJob(job2));
+    assertEquals(Collections.singleton(job4), dagManager.removeJob(job3));
+    assertEquals(Collections.emptySet(), dagManager.removeJob(job4));
+  }
+
+  @Test
+  public void testSharedLocks() {
+    JobDag dagManager = createDagManager();
+    Job shared1 = job("shared1", "S:table", "X:table/ds=1");
+    Job shared2 = job("shared2", "S:table", "X:table/ds=2");
+    Job exclusive = job("exclusive", "X:table");
+    Job shared3 = job("shared3", "S:table", "X:table/ds=1");
+    Job shared4 = job("shared4", "S:table", "X:table/ds=3");
+
+    assertTrue(dagManager.addJob(shared1));
+    assertTrue(dagManager.addJob(shared2));
+    // The exclusive lock has to wait for both shared locks
+    assertFalse(dagManager.addJob(exclusive));
+    // Shared locks after an exclusive lock have to wait for the exclusive lock
+    assertFalse(dagManager.addJob(shared3));
+    assertFalse(dagManager.addJob(shared4));
+
+    assertEquals(Collections.emptySet(), dagManager.removeJob(shared2));
+    assertEquals(Collections.singleton(exclusive), dagManager.removeJob(shared1));
+    Set<Job> expectedJobs = new HashSet<>();
+    expectedJobs.add(shared3);
+    expectedJobs.add(shared4);
+    assertEquals(expectedJobs, dagManager.removeJob(exclusive));
+
+    // A new exclusive lock needs to wait for the shared locks after the last exclusive lock
+    Job exclusive2 = job("exclusive2", "X:table");
+    assertFalse(dagManager.addJob(exclusive2));
+    assertEquals(Collections.emptySet(), dagManager.removeJob(shared4));
+    assertEquals(Collections.singleton(exclusive2), dagManager.removeJob(shared3));
+    assertEquals(Collections.emptySet(), dagManager.removeJob(exclusive2));
+
+    // All locks should be released
+    Job exclusive3 = job("exclusive3", "X:table", "X:table/ds=1");
+    assertTrue(dagManager.addJob(exclusive3));
+  }
+
+  @Test
+  public void testSharedAndExclusiveLockWithSameName() {
+    JobDag dagManager = createDagManager();
+    Job job1 = job("job1", "S:a", "X:a");
+    Job job2 = job("job2", "S:a");
+
+    assertTrue(dagManager.addJob(job1));
+    assertFalse(dagManager.addJob(job2));
+    assertEquals(Collections.singleton(job2), dagManager.removeJob(job1));
+    assertEquals(Collections.emptySet(), dagManager.removeJob(job2));
+  }
+
+  @Test
+  public void testIntentionLocks() {
+    JobDag dagManager = createDagManager();
+    Job partitionWrite1 = job("partitionWrite1", "IX:db", "IX:db.table", "X:db.table/ds=1");
+    Job partitionWrite2 = job("partitionWrite2", "IX:db", "IX:db.table", "X:db.table/ds=2");
+    Job partitionRead = job("partitionRead", "IS:db", "IS:db.table", "S:db.table/ds=1");
+    Job tableRead = job("tableRead", "IS:db", "S:db.table");
+    Job otherTableWrite = job("otherTableWrite", "IX:db", "X:db.other_table");
+    Job tableWrite = job("tableWrite", "IX:db", "X:db.table");
+
+    // Intention locks on the table don't conflict, so only the partition locks matter
+    assertTrue(dagManager.addJob(partitionWrite1));
+    assertTrue(dagManager.addJob(partitionWrite2));
+    assertFalse(dagManager.addJob(partitionRead));
+    // Reading the whole table conflicts with writes to any partition
+    assertFalse(dagManager.addJob(tableRead));
+    assertTrue(dagManager.addJob(otherTableWrite));
+    assertFalse(dagManager.addJob(tableWrite));
+
+    assertEquals(Collections.emptySet(), dagManager.removeJob(otherTableWrite));
+    assertEquals(Collections.emptySet(), dagManager.removeJob(partitionWrite2));
+    Set<Job> expectedJobs = new HashSet<>();
+    expectedJobs.add(partitionRead);
+    expectedJobs.add(tableRead);
+    assertEquals(expectedJobs, dagManager.removeJob(partitionWrite1));
+    assertEquals(Collections.emptySet(), dagManager.removeJob(tableRead));
+    assertEquals(Collections.singleton(tableWrite), dagManager.removeJob(partitionRead));
+    assertEquals(Collections.emptySet(), dagManager.removeJob(tableWrite));
+  }
+
+  @Test
+  public void testHierarchicalLockSet() {
+    LockSet lockSet = new LockSet();
+    lockSet.addHierarchical(Lock.Type.SHARED, Arrays.asList("db", "db.table", "db.table/ds=1"));
+    assertEquals(Lock.Type.INTENTION_SHARED, lockSet.getType("db"));
+    assertEquals(Lock.Type.INTENTION_SHARED, lockSet.getType("db.table"));
+    assertEquals(Lock.Type.SHARED, lockSet.getType("db.table/ds=1"));
+
+    lockSet.addHierarchical(Lock.Type.EXCLUSIVE, Arrays.asList("db", "db.table", "db.table/ds=2"));
+    assertEquals(Lock.Type.INTENTION_EXCLUSIVE, lockSet.getType("db"));
+    assertEquals(Lock.Type.INTENTION_EXCLUSIVE, lockSet.getType("db.table"));
+    assertEquals(Lock.Type.EXCLUSIVE, lockSet.getType("db.table/ds=2"));
+
+    // There is no shared + intention exclusive type, so it has to be exclusive
+    lockSet.addHierarchical(Lock.Type.SHARED, Arrays.asList("db", "db.table"));
+    assertEquals(Lock.Type.EXCLUSIVE, lockSet.getType("db.table"));
+    assertEquals(Collections.singleton("db.table/ds=1"), lockSet.getSharedLocks());
+  }
+
+  /**
+   * Add jobs that lock the same partitions in a table, and remove each job once it's ready.
+   *
+   * @param numJobs the number of jobs to add
+   * @param numPartitionsPerJob the number of partitions that each job locks
+   * @return the jobs in the order that they became ready
+   */
+  private List<Job> runManyPartitionLockJobs(int numJobs, int numPartitionsPerJob) {
+    List<Job> jobs = new ArrayList<>();
+    for (int i = 0; i < numJobs; i++) {
+      List<Lock> locks = new ArrayList<>();
+      locks.add(new Lock(Lock.Type.SHARED, "test_db.test_table"));
+      for (int j = 0; j < numPartitionsPerJob; j++) {
+        locks.add(new Lock(Lock.Type.EXCLUSIVE, "test_db.test_table/ds=" + j));
+      }
+      jobs.add(new LockJob("job" + i, locks));
+    }
+
+    JobDag dagManager = createDagManager();
+    Deque<Job> readyJobs = new ArrayDeque<>();
+    for (Job job : jobs) {
+      if (dagManager.addJob(job)) {
+        readyJobs.add(job);
+      }
+    }
+
+    List<Job> doneJobs = new ArrayList<>();
+    while (!readyJobs.isEmpty()) {
+      // The jobs lock the same partitions, so only one should be ready at a time
+      assertEquals(1, readyJobs.size());
+      Job job = readyJobs.poll();
+      doneJobs.add(job);
+      readyJobs.addAll(dagManager.removeJob(job));
+    }
+    return doneJobs;
+  }
+
+  @Test
+  public void testManyPartitionLocks() {
+    List<Job> doneJobs = runManyPartitionLockJobs(20, 100);
+    assertEquals(20, doneJobs.size());
+    for (int i = 0; i < doneJobs.size(); i++) {
+      assertEquals("job" + i, doneJobs.get(i).toString());
+    }
+  }
+
+  /**
+   * Simulates jobs that copy many partitions in the same table queued behind each other. With a
+   * lock table that is scanned linearly, this takes time quadratic in the number of queued jobs.
+   * This takes several seconds, so it's not run with the unit tests.
+   */
+  @Ignore("Benchmark - run manually")
+  @Test
+  public void benchmarkManyPartitionLocks() {
+    final int numJobs = 200;
+    final int numPartitionsPerJob = 10000;
+
+    long startTime = System.currentTimeMillis();
+    List<Job> doneJobs = runManyPartitionLockJobs(numJobs, numPartitionsPerJob);
+    long totalTime = System.currentTimeMillis() - startTime;
+
+    assertEquals(numJobs, doneJobs.size());
+    LOG.info(String.format("Scheduled %d jobs with %d locks each in %d ms",
+        numJobs, numPartitionsPerJob + 1, totalTime));
+  }
+}
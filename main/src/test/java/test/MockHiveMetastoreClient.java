@@ -98,6 +98,29 @@ public class MockHiveMetastoreClient implements HiveMetastoreClient {
     return partition;
   }
 
+  @Override
+  public void addPartitions(List<Partition> partitions) throws HiveMetastoreException {
+    // Check all the partitions first, so that either all or none of the partitions are added
+    Map<HiveObjectSpec, Partition> partitionsToAdd = new LinkedHashMap<>();
+    for (Partition partition : partitions) {
+      HiveObjectSpec partitionSpec = getPartitionSpec(partition);
+      if (specToPartition.containsKey(partitionSpec)
+          || partitionsToAdd.put(partitionSpec, partition) != null) {
+        throw new HiveMetastoreException("Partition already exists: " + partitionSpec);
+      }
+    }
+    specToPartition.putAll(partitionsToAdd);
+  }
+
+  private HiveObjectSpec getPartitionSpec(Partition partition) throws HiveMetastoreException {
+    HiveObjectSpec tableSpec = new HiveObjectSpec(partition.getDbName(), partition.getTableName());
+    if (!specToTable.containsKey(tableSpec)) {
+      throw new HiveMetastoreException("Unknown table: " + tableSpec);
+    }
+    return new HiveObjectSpec(tableSpec.getDbName(), tableSpec.getTableName(),
+        getPartitionName(specToTable.get(tableSpec), partition));
+  }
+
   @Override
   public Table getTable(String dbName, String tableName) throws HiveMetastoreException {
     return specToTable.get(new HiveObjectSpec(dbName, tableName));
@@ -109,6 +132,21 @@ public class MockHiveMetastoreClient implements HiveMetastoreClient {
     return specToPartition.get(new HiveObjectSpec(dbName, tableName, partitionName));
   }
 
+  @Override
+  public Map<String, Partition> getPartitionsByNames(
+      String dbName,
+      String tableName,
+      List<String> partitionNames) throws HiveMetastoreException {
+    Map<String, Partition> nameToPartition = new HashMap<>();
+    for (String partitionName : partitionNames) {
+      Partition partition = getPartition(dbName, tableName, partitionName);
+      if (partition != null) {
+        nameToPartition.put(partitionName, partition);
+      }
+    }
+    return nameToPartition;
+  }
+
   @Override
   public void alterPartition(String dbName, String tableName, Partition partition)
       throws HiveMetastoreException {
@@ -128,6 +166,21 @@ public class MockHiveMetastoreClient implements HiveMetastoreClient {
     specToPartition.put(partitionSpec, partition);
   }
 
+  @Override
+  public void alterPartitions(String dbName, String tableName, List<Partition> partitions)
+      throws HiveMetastoreException {
+    // Check all the partitions first, so that either all or none of the partitions are altered
+    Map<HiveObjectSpec, Partition> partitionsToAlter = new LinkedHashMap<>();
+    for (Partition partition : partitions) {
+      HiveObjectSpec partitionSpec = getPartitionSpec(partition);
+      if (!specToPartition.containsKey(partitionSpec)) {
+        throw new HiveMetastoreException("Partition does not exist: " + partitionSpec);
+      }
+      partitionsToAlter.put(partitionSpec, partition);
+    }
+    specToPartition.putAll(partitionsToAlter);
+  }
+
   @Override
   public void createDatabase(Database db) throws HiveMetastoreException {
     if (dbNameToDatabase.containsKey(db.getName())) {
@@ -0,0 +1,98 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import com.airbnb.reair.multiprocessing.Job;
+import com.airbnb.reair.multiprocessing.Lock;
+import com.airbnb.reair.multiprocessing.LockSet;
+import com.airbnb.reair.multiprocessing.ParallelJobExecutor;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class ParallelJobExecutorTest {
+
+  /**
+   * A job that needs an exclusive lock, and asks to be retried a number of times before finishing.
+   */
+  private static class RetryingJob extends Job {
+    private final String name;
+    private final String lockName;
+    private final long retryDelayMs;
+    private final List<String> runOrder;
+    private int retriesLeft;
+
+    RetryingJob(String name, String lockName, int retries, long retryDelayMs,
+        List<String> runOrder) {
+      this.name = name;
+      this.lockName = lockName;
+      this.retriesLeft = retries;
+      this.retryDelayMs = retryDelayMs;
+      this.runOrder = runOrder;
+    }
+
+    @Override
+    public int run() {
+      if (retriesLeft > 0) {
+        retriesLeft--;
+        runOrder.add(name + " failed");
+        return retryAfter(retryDelayMs);
+      }
+      runOrder.add(name);
+      return 0;
+    }
+
+    @Override
+    public LockSet getRequiredLocks() {
+      LockSet lockSet = new LockSet();
+      lockSet.add(new Lock(Lock.Type.EXCLUSIVE, lockName));
+      return lockSet;
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testRetryFreesWorker() throws Exception {
+    List<String> runOrder = Collections.synchronizedList(new ArrayList<>());
+    ParallelJobExecutor executor = new ParallelJobExecutor("Worker", 1);
+
+    executor.add(new RetryingJob("retry", "a", 1, 2000, runOrder));
+    executor.add(new RetryingJob("conflicting", "a", 0, 0, runOrder));
+    executor.add(new RetryingJob("unrelated", "b", 0, 0, runOrder));
+    executor.start();
+    while (executor.getNotDoneJobCount() > 0) {
+      Thread.sleep(10);
+    }
+    executor.stop();
+
+    // The only worker runs the unrelated job while the first job waits to be retried, but the
+    // conflicting job waits until the first job is done.
+    assertEquals(Arrays.asList("retry failed", "unrelated", "retry", "conflicting"), runOrder);
+  }
+
+  @Test(timeout = 60000)
+  public void testStopRequeuesRetryingJobs() throws Exception {
+    List<String> runOrder = Collections.synchronizedList(new ArrayList<>());
+    ParallelJobExecutor executor = new ParallelJobExecutor("Worker", 1);
+
+    // The retry delay is much longer than the test timeout
+    executor.add(new RetryingJob("retry", "a", 1, 10 * 60 * 1000, runOrder));
+    executor.start();
+    while (runOrder.isEmpty()) {
+      Thread.sleep(10);
+    }
+    executor.stop();
+    assertEquals(Arrays.asList("retry failed"), runOrder);
+
+    // After a restart, the job waiting to be retried should run right away
+    executor.start();
+    while (executor.getNotDoneJobCount() > 0) {
+      Thread.sleep(10);
+    }
+    executor.stop();
+    assertEquals(Arrays.asList("retry failed", "retry"), runOrder);
+  }
+}
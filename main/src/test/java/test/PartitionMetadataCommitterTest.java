@@ -0,0 +1,177 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import com.airbnb.reair.common.HiveMetastoreException;
+import com.airbnb.reair.common.HiveObjectSpec;
+import com.airbnb.reair.incremental.primitives.MetadataAction;
+import com.airbnb.reair.incremental.primitives.PartitionMetadataCommitter;
+
+import org.apache.hadoop.hive.metastore.api.Database;
+import org.apache.hadoop.hive.metastore.api.FieldSchema;
+import org.apache.hadoop.hive.metastore.api.Partition;
+import org.apache.hadoop.hive.metastore.api.Table;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class PartitionMetadataCommitterTest {
+
+  private static final String DB_NAME = "test_db";
+  private static final String TABLE_NAME = "test_table";
+
+  /**
+   * Metastore client that counts the number of calls that modify partitions.
+   */
+  private static class CountingMetastoreClient extends MockHiveMetastoreClient {
+    private Map<String, Integer> callCounts = new HashMap<>();
+
+    private void count(String methodName) {
+      callCounts.put(methodName, getCallCount(methodName) + 1);
+    }
+
+    int getCallCount(String methodName) {
+      return callCounts.getOrDefault(methodName, 0);
+    }
+
+    @Override
+    public Partition addPartition(Partition partition) throws HiveMetastoreException {
+      count("addPartition");
+      return super.addPartition(partition);
+    }
+
+    @Override
+    public void addPartitions(List<Partition> partitions) throws HiveMetastoreException {
+      count("addPartitions");
+      super.addPartitions(partitions);
+    }
+
+    @Override
+    public void alterPartition(String dbName, String tableName, Partition partition)
+        throws HiveMetastoreException {
+      count("alterPartition");
+      super.alterPartition(dbName, tableName, partition);
+    }
+
+    @Override
+    public void alterPartitions(String dbName, String tableName, List<Partition> partitions)
+        throws HiveMetastoreException {
+      count("alterPartitions");
+      super.alterPartitions(dbName, tableName, partitions);
+    }
+  }
+
+  private CountingMetastoreClient destMs;
+
+  /**
+   * Creates a partitioned table in the destination metastore.
+   *
+   * @throws HiveMetastoreException if there's an error creating the table
+   */
+  @Before
+  public void setUp() throws HiveMetastoreException {
+    destMs = new CountingMetastoreClient();
+    destMs.createDatabase(new Database(DB_NAME, null, null, null));
+    Table table = new Table();
+    table.setDbName(DB_NAME);
+    table.setTableName(TABLE_NAME);
+    List<FieldSchema> partitionCols = new ArrayList<>();
+    partitionCols.add(new FieldSchema("ds", "string", "my ds comment"));
+    table.setPartitionKeys(partitionCols);
+    destMs.createTable(table);
+  }
+
+  private static HiveObjectSpec makeSpec(int ds) {
+    return new HiveObjectSpec(DB_NAME, TABLE_NAME, "ds=" + ds);
+  }
+
+  private static Partition makePartition(int ds) {
+    Partition partition = new Partition();
+    partition.setDbName(DB_NAME);
+    partition.setTableName(TABLE_NAME);
+    partition.setValues(Collections.singletonList(Integer.toString(ds)));
+    partition.setParameters(new HashMap<>());
+    return partition;
+  }
+
+  @Test
+  public void testBulkCommit() throws HiveMetastoreException {
+    PartitionMetadataCommitter committer = new PartitionMetadataCommitter(2);
+    for (int i = 0; i < 5; i++) {
+      committer.add(makeSpec(i), MetadataAction.CREATE, makePartition(i));
+    }
+    assertEquals(5, committer.getPendingCount());
+    committer.commit(destMs);
+
+    assertEquals(0, committer.getPendingCount());
+    assertEquals(3, destMs.getCallCount("addPartitions"));
+    assertEquals(0, destMs.getCallCount("addPartition"));
+    for (int i = 0; i < 5; i++) {
+      assertNotNull(destMs.getPartition(DB_NAME, TABLE_NAME, "ds=" + i));
+    }
+
+    for (int i = 0; i < 5; i++) {
+      Partition partition = makePartition(i);
+      partition.getParameters().put("altered", "true");
+      committer.add(makeSpec(i), MetadataAction.ALTER, partition);
+    }
+    committer.commit(destMs);
+
+    assertEquals(3, destMs.getCallCount("alterPartitions"));
+    assertEquals(0, destMs.getCallCount("alterPartition"));
+    for (int i = 0; i < 5; i++) {
+      assertEquals("true", destMs.getPartition(DB_NAME, TABLE_NAME, "ds=" + i)
+          .getParameters().get("altered"));
+    }
+  }
+
+  @Test
+  public void testFallbackOnConflict() throws HiveMetastoreException {
+    // Another process created the partition after the action was determined
+    destMs.addPartition(makePartition(1));
+
+    PartitionMetadataCommitter committer = new PartitionMetadataCommitter(10);
+    for (int i = 0; i < 3; i++) {
+      Partition partition = makePartition(i);
+      partition.getParameters().put("committed", "true");
+      committer.add(makeSpec(i), MetadataAction.CREATE, partition);
+    }
+    committer.commit(destMs);
+
+    // The chunk fails as a whole, so the partitions are committed one at a time
+    assertEquals(1, destMs.getCallCount("addPartitions"));
+    assertEquals(1 + 3, destMs.getCallCount("addPartition"));
+    assertEquals(1, destMs.getCallCount("alterPartition"));
+    for (int i = 0; i < 3; i++) {
+      assertEquals("true", destMs.getPartition(DB_NAME, TABLE_NAME, "ds=" + i)
+          .getParameters().get("committed"));
+    }
+  }
+
+  @Test
+  public void testPartialFailure() throws HiveMetastoreException {
+    destMs.addPartition(makePartition(1));
+
+    PartitionMetadataCommitter committer = new PartitionMetadataCommitter(10);
+    for (int i = 0; i < 3; i++) {
+      committer.add(makeSpec(i), MetadataAction.CREATE, makePartition(i));
+    }
+    // A partition in a table that doesn't exist on the destination can't be committed
+    Partition missingTablePartition = makePartition(0);
+    missingTablePartition.setTableName("missing_table");
+    HiveObjectSpec missingTableSpec = new HiveObjectSpec(DB_NAME, "missing_table", "ds=0");
+    committer.add(missingTableSpec, MetadataAction.CREATE, missingTablePartition);
+
+    // Only the partition that failed is reported, and the others are still committed
+    assertEquals(Collections.singleton(missingTableSpec), committer.commitPartitions(destMs));
+    for (int i = 0; i < 3; i++) {
+      assertNotNull(destMs.getPartition(DB_NAME, TABLE_NAME, "ds=" + i));
+    }
+  }
+}
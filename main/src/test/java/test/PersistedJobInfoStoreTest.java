@@ -1,6 +1,9 @@
 package test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import com.airbnb.reair.common.HiveObjectSpec;
 import com.airbnb.reair.db.DbConnectionFactory;
@@ -11,6 +14,7 @@ import com.airbnb.reair.incremental.ReplicationStatus;
 import com.airbnb.reair.incremental.StateUpdateException;
 import com.airbnb.reair.incremental.db.PersistedJobInfo;
 import com.airbnb.reair.incremental.db.PersistedJobInfoStore;
+import com.airbnb.reair.incremental.deploy.ConfigurationKeys;
 import com.airbnb.reair.utils.ReplicationTestUtils;
 
 import org.apache.commons.logging.Log;
@@ -26,6 +30,7 @@ import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -114,6 +119,210 @@ public class PersistedJobInfoStoreTest {
     assertEquals(testJob, idToJob.get(testJob.getId()));
   }
 
+  @Test
+  public void testCreateBatch() throws StateUpdateException, SQLException {
+    DbConnectionFactory dbConnectionFactory = new StaticDbConnectionFactory(
+        ReplicationTestUtils.getJdbcUrl(embeddedMySqlDb, MYSQL_TEST_DB_NAME),
+        embeddedMySqlDb.getUsername(), embeddedMySqlDb.getPassword());
+    String tableName = "replication_jobs_batch";
+
+    Connection connection = dbConnectionFactory.getConnection();
+    Statement statement = connection.createStatement();
+    statement.execute(PersistedJobInfoStore.getCreateTableSql(tableName));
+    PersistedJobInfoStore jobStore =
+        new PersistedJobInfoStore(new Configuration(), dbConnectionFactory, tableName);
+
+    // Create enough jobs so that more than one insert statement is needed
+    List<PersistedJobInfo> jobsToCreate = new ArrayList<>();
+    for (int i = 0; i < 1234; i++) {
+      List<String> partitionNames = new ArrayList<>();
+      partitionNames.add("ds=" + i);
+      jobsToCreate.add(PersistedJobInfo.createDeferred(ReplicationOperation.DROP_PARTITION,
+          ReplicationStatus.PENDING, Optional.of(new Path("file:///tmp/test_table/ds=" + i)),
+          "src_cluster", new HiveObjectSpec("test_db", "test_table"), partitionNames,
+          Optional.of("1"), Optional.empty(), Optional.empty(), new HashMap<>()));
+    }
+    List<PersistedJobInfo> createdJobs = jobStore.resilientCreateBatch(jobsToCreate);
+
+    // The ID's should be assigned in the order of the supplied jobs
+    long previousId = 0;
+    for (PersistedJobInfo job : createdJobs) {
+      assertTrue(job.getId() > previousId);
+      previousId = job.getId();
+    }
+
+    List<PersistedJobInfo> persistedJobInfos = jobStore.getRunnableFromDb();
+    assertEquals(createdJobs, persistedJobInfos);
+  }
+
+  /**
+   * Connection factory that can be made to fail, to simulate the DB being unavailable.
+   */
+  private static class FailingDbConnectionFactory implements DbConnectionFactory {
+    private final DbConnectionFactory dbConnectionFactory;
+    private volatile boolean failing = false;
+
+    FailingDbConnectionFactory(DbConnectionFactory dbConnectionFactory) {
+      this.dbConnectionFactory = dbConnectionFactory;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+      if (failing) {
+        throw new SQLException("Simulated DB failure");
+      }
+      return dbConnectionFactory.getConnection();
+    }
+  }
+
+  private static FailingDbConnectionFactory makeTable(String tableName) throws SQLException {
+    DbConnectionFactory dbConnectionFactory = new StaticDbConnectionFactory(
+        ReplicationTestUtils.getJdbcUrl(embeddedMySqlDb, MYSQL_TEST_DB_NAME),
+        embeddedMySqlDb.getUsername(), embeddedMySqlDb.getPassword());
+    Connection connection = dbConnectionFactory.getConnection();
+    Statement statement = connection.createStatement();
+    statement.execute(PersistedJobInfoStore.getCreateTableSql(tableName));
+    return new FailingDbConnectionFactory(dbConnectionFactory);
+  }
+
+  private static PersistedJobInfoStore makeWriteBehindStore(
+      DbConnectionFactory dbConnectionFactory,
+      String tableName,
+      long flushIntervalMs) {
+    Configuration conf = new Configuration();
+    conf.setBoolean(ConfigurationKeys.STATE_DB_WRITE_BEHIND_ENABLED, true);
+    conf.setLong(ConfigurationKeys.STATE_DB_WRITE_BEHIND_FLUSH_INTERVAL_MS, flushIntervalMs);
+    // Fail right away instead of retrying
+    conf.setInt(ConfigurationKeys.DB_QUERY_RETRIES, 1);
+    return new PersistedJobInfoStore(conf, dbConnectionFactory, tableName);
+  }
+
+  private static PersistedJobInfo createJob(PersistedJobInfoStore jobStore)
+      throws StateUpdateException {
+    return jobStore.resilientCreate(ReplicationOperation.COPY_PARTITION,
+        ReplicationStatus.PENDING, Optional.of(new Path("file:///tmp/test_table/ds=1")),
+        "src_cluster", new HiveObjectSpec("test_db", "test_table"),
+        Collections.singletonList("ds=1"), Optional.of("1"), Optional.empty(), Optional.empty(),
+        new HashMap<>());
+  }
+
+  /**
+   * Read the job from the DB with a separate store, or return empty if the job has finished.
+   */
+  private static Optional<PersistedJobInfo> readRunnableJob(
+      DbConnectionFactory dbConnectionFactory,
+      String tableName,
+      long id) throws SQLException {
+    PersistedJobInfoStore jobStore =
+        new PersistedJobInfoStore(new Configuration(), dbConnectionFactory, tableName);
+    for (PersistedJobInfo job : jobStore.getRunnableFromDb()) {
+      if (job.getId() == id) {
+        return Optional.of(job);
+      }
+    }
+    return Optional.empty();
+  }
+
+  @Test
+  public void testWriteBehind() throws StateUpdateException, SQLException {
+    String tableName = "replication_jobs_write_behind";
+    DbConnectionFactory dbConnectionFactory = makeTable(tableName);
+    // Use a long interval so that only explicit flushes write the changes
+    PersistedJobInfoStore jobStore =
+        makeWriteBehindStore(dbConnectionFactory, tableName, 60 * 60 * 1000);
+    PersistedJobInfo job = createJob(jobStore);
+
+    // Non-terminal changes should be queued and coalesced
+    jobStore.changeStatusAndPersist(ReplicationStatus.RUNNING, job);
+    job.getExtras().put("foo", "bar");
+    jobStore.changeStatusAndPersist(ReplicationStatus.PENDING, job);
+    jobStore.changeStatusAndPersist(ReplicationStatus.RUNNING, job);
+    assertEquals(ReplicationStatus.PENDING,
+        readRunnableJob(dbConnectionFactory, tableName, job.getId()).get().getStatus());
+
+    // The extras from the earlier change should be written with the latest status
+    jobStore.flushStatusUpdates();
+    assertEquals(job, readRunnableJob(dbConnectionFactory, tableName, job.getId()).get());
+
+    // Terminal changes should be written right away
+    jobStore.changeStatusAndPersist(ReplicationStatus.SUCCESSFUL, job);
+    assertFalse(readRunnableJob(dbConnectionFactory, tableName, job.getId()).isPresent());
+  }
+
+  @Test
+  public void testWriteBehindFailure() throws StateUpdateException, SQLException {
+    String tableName = "replication_jobs_write_behind_failure";
+    FailingDbConnectionFactory dbConnectionFactory = makeTable(tableName);
+    PersistedJobInfoStore jobStore =
+        makeWriteBehindStore(dbConnectionFactory, tableName, 60 * 60 * 1000);
+    PersistedJobInfo job = createJob(jobStore);
+
+    job.getExtras().put("foo", "bar");
+    jobStore.changeStatusAndPersist(ReplicationStatus.RUNNING, job);
+    dbConnectionFactory.failing = true;
+    try {
+      jobStore.flushStatusUpdates();
+      fail("Expected the flush to fail");
+    } catch (StateUpdateException e) {
+      // Expected
+    }
+
+    // The failed change should be re-queued and combined with the newer change
+    jobStore.changeStatusAndPersist(ReplicationStatus.PENDING, job);
+    dbConnectionFactory.failing = false;
+    jobStore.flushStatusUpdates();
+    assertEquals(job, readRunnableJob(dbConnectionFactory, tableName, job.getId()).get());
+  }
+
+  @Test
+  public void testWriteBehindBackgroundFailure()
+      throws InterruptedException, StateUpdateException, SQLException {
+    String tableName = "replication_jobs_write_behind_background";
+    FailingDbConnectionFactory dbConnectionFactory = makeTable(tableName);
+    PersistedJobInfoStore jobStore = makeWriteBehindStore(dbConnectionFactory, tableName, 100);
+    PersistedJobInfo job = createJob(jobStore);
+
+    // Once the background thread fails to write, callers should get the error
+    dbConnectionFactory.failing = true;
+    long deadline = System.currentTimeMillis() + 30 * 1000;
+    try {
+      while (true) {
+        assertTrue("Timed out waiting for an error", System.currentTimeMillis() < deadline);
+        jobStore.changeStatusAndPersist(ReplicationStatus.RUNNING, job);
+        Thread.sleep(100);
+      }
+    } catch (StateUpdateException e) {
+      // Expected
+    }
+
+    // Once the DB is back, the queued change should be written
+    dbConnectionFactory.failing = false;
+    jobStore.changeStatusAndPersist(ReplicationStatus.RUNNING, job);
+    jobStore.shutdown();
+    assertEquals(ReplicationStatus.RUNNING,
+        readRunnableJob(dbConnectionFactory, tableName, job.getId()).get().getStatus());
+  }
+
+  @Test
+  public void testWriteBehindShutdown() throws StateUpdateException, SQLException {
+    String tableName = "replication_jobs_write_behind_shutdown";
+    DbConnectionFactory dbConnectionFactory = makeTable(tableName);
+    PersistedJobInfoStore jobStore =
+        makeWriteBehindStore(dbConnectionFactory, tableName, 60 * 60 * 1000);
+    PersistedJobInfo job = createJob(jobStore);
+
+    jobStore.changeStatusAndPersist(ReplicationStatus.RUNNING, job);
+    jobStore.shutdown();
+    assertEquals(ReplicationStatus.RUNNING,
+        readRunnableJob(dbConnectionFactory, tableName, job.getId()).get().getStatus());
+
+    // Changes made after shutting down should still be written
+    jobStore.changeStatusAndPersist(ReplicationStatus.PENDING, job);
+    jobStore.shutdown();
+    assertEquals(ReplicationStatus.PENDING,
+        readRunnableJob(dbConnectionFactory, tableName, job.getId()).get().getStatus());
+  }
+
   @AfterClass
   public static void tearDownClass() {
     embeddedMySqlDb.stopDb();
@@ -0,0 +1,237 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.airbnb.reair.common.HiveMetastoreClient;
+import com.airbnb.reair.common.HiveMetastoreException;
+import com.airbnb.reair.common.PooledHiveMetastoreClient;
+
+import org.apache.hadoop.hive.metastore.api.Database;
+import org.apache.thrift.transport.TTransportException;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PooledHiveMetastoreClientTest {
+
+  private static final List<InetSocketAddress> ADDRESSES = Arrays.asList(
+      InetSocketAddress.createUnresolved("metastore1", 9083),
+      InetSocketAddress.createUnresolved("metastore2", 9083));
+
+  /**
+   * A mock client that remembers which server it's connected to, and can be made to fail.
+   */
+  private static class TestClient extends MockHiveMetastoreClient {
+    private final String host;
+    private final AtomicInteger concurrentCalls;
+    private final AtomicInteger maxConcurrentCalls;
+    private volatile boolean failing = false;
+    // Whether calls fail with an error from the server rather than a transport error
+    private volatile boolean serverError = false;
+    private volatile boolean closed = false;
+
+    TestClient(String host, AtomicInteger concurrentCalls, AtomicInteger maxConcurrentCalls) {
+      this.host = host;
+      this.concurrentCalls = concurrentCalls;
+      this.maxConcurrentCalls = maxConcurrentCalls;
+    }
+
+    @Override
+    public List<String> getAllDatabases() throws HiveMetastoreException {
+      int calls = concurrentCalls.incrementAndGet();
+      maxConcurrentCalls.accumulateAndGet(calls, Math::max);
+      try {
+        Thread.sleep(5);
+        if (failing) {
+          throw new HiveMetastoreException(
+              new TTransportException("Broken connection to " + host));
+        }
+        if (serverError) {
+          throw new HiveMetastoreException("Error from " + host);
+        }
+        return Collections.singletonList(host);
+      } catch (InterruptedException e) {
+        throw new HiveMetastoreException(e);
+      } finally {
+        concurrentCalls.decrementAndGet();
+      }
+    }
+
+    @Override
+    public Database getDatabase(String dbName) throws HiveMetastoreException {
+      if (failing) {
+        throw new HiveMetastoreException(
+            new TTransportException("Broken connection to " + host));
+      }
+      return new Database(dbName, null, null, null);
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  /**
+   * Creates test clients, with the option to make connections to some servers fail.
+   */
+  private static class TestClientFactory implements PooledHiveMetastoreClient.ClientFactory {
+    private final List<TestClient> clients = Collections.synchronizedList(new ArrayList<>());
+    private final Set<String> downHosts = Collections.synchronizedSet(new HashSet<>());
+    private final AtomicInteger concurrentCalls = new AtomicInteger();
+    private final AtomicInteger maxConcurrentCalls = new AtomicInteger();
+
+    @Override
+    public HiveMetastoreClient create(String host, int port) throws HiveMetastoreException {
+      if (downHosts.contains(host)) {
+        throw new HiveMetastoreException("Unable to connect to " + host);
+      }
+      TestClient client = new TestClient(host, concurrentCalls, maxConcurrentCalls);
+      clients.add(client);
+      return client;
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testPoolIsBounded() throws Exception {
+    TestClientFactory factory = new TestClientFactory();
+    PooledHiveMetastoreClient pool = new PooledHiveMetastoreClient(ADDRESSES, 3,
+        PooledHiveMetastoreClient.Routing.ROUND_ROBIN, 60000, factory);
+
+    ExecutorService executor = Executors.newFixedThreadPool(10);
+    List<Future<List<String>>> results = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      results.add(executor.submit(() -> pool.getAllDatabases()));
+    }
+    for (Future<List<String>> result : results) {
+      result.get();
+    }
+    executor.shutdown();
+    executor.awaitTermination(10, TimeUnit.SECONDS);
+
+    // Connections are reused, and no more than the max are used at the same time
+    assertTrue(factory.clients.size() <= 3);
+    assertTrue(factory.maxConcurrentCalls.get() <= 3);
+    assertEquals(200, pool.getLatencyHistograms().get("getAllDatabases").getCount());
+
+    // Connections should be spread across the servers
+    Set<String> hosts = new HashSet<>();
+    for (TestClient client : factory.clients) {
+      hosts.add(client.host);
+    }
+    assertEquals(factory.clients.size() > 1 ? 2 : 1, hosts.size());
+  }
+
+  @Test
+  public void testFailover() throws Exception {
+    TestClientFactory factory = new TestClientFactory();
+    factory.downHosts.add("metastore1");
+    PooledHiveMetastoreClient pool = new PooledHiveMetastoreClient(ADDRESSES, 2,
+        PooledHiveMetastoreClient.Routing.ROUND_ROBIN, 60000, factory);
+
+    // Connections go to the server that is up
+    assertEquals(Collections.singletonList("metastore2"), pool.getAllDatabases());
+    assertEquals(Collections.singletonList("metastore2"), pool.getAllDatabases());
+    assertEquals(1, factory.clients.size());
+  }
+
+  @Test
+  public void testEvictionOnError() throws Exception {
+    TestClientFactory factory = new TestClientFactory();
+    PooledHiveMetastoreClient pool = new PooledHiveMetastoreClient(ADDRESSES.subList(0, 1), 2,
+        PooledHiveMetastoreClient.Routing.ROUND_ROBIN, 60000, factory);
+
+    pool.getAllDatabases();
+    TestClient firstClient = factory.clients.get(0);
+    firstClient.failing = true;
+    try {
+      pool.getAllDatabases();
+      fail("Expected an exception");
+    } catch (HiveMetastoreException e) {
+      // Expected
+    }
+    assertTrue(firstClient.closed);
+
+    // A new connection is made for the next call
+    assertEquals(Collections.singletonList("metastore1"), pool.getAllDatabases());
+    assertEquals(2, factory.clients.size());
+  }
+
+  @Test
+  public void testTransportErrorMarksServerDown() throws Exception {
+    TestClientFactory factory = new TestClientFactory();
+    PooledHiveMetastoreClient pool = new PooledHiveMetastoreClient(ADDRESSES, 2,
+        PooledHiveMetastoreClient.Routing.ROUND_ROBIN, 60000, factory);
+
+    assertEquals(Collections.singletonList("metastore1"), pool.getAllDatabases());
+    factory.clients.get(0).failing = true;
+    try {
+      pool.getAllDatabases();
+      fail("Expected an exception");
+    } catch (HiveMetastoreException e) {
+      // Expected
+    }
+
+    // After closing the pool, every call makes a new connection. The server that is down is
+    // skipped for new connections, even when it would be its turn.
+    pool.close();
+    assertEquals(Collections.singletonList("metastore2"), pool.getAllDatabases());
+    assertEquals(Collections.singletonList("metastore2"), pool.getAllDatabases());
+    assertEquals(3, factory.clients.size());
+  }
+
+  @Test
+  public void testNoEvictionOnServerError() throws Exception {
+    TestClientFactory factory = new TestClientFactory();
+    PooledHiveMetastoreClient pool = new PooledHiveMetastoreClient(ADDRESSES, 2,
+        PooledHiveMetastoreClient.Routing.ROUND_ROBIN, 60000, factory);
+
+    pool.getAllDatabases();
+    TestClient firstClient = factory.clients.get(0);
+    firstClient.serverError = true;
+    try {
+      pool.getAllDatabases();
+      fail("Expected an exception");
+    } catch (HiveMetastoreException e) {
+      // Expected
+    }
+    assertFalse(firstClient.closed);
+
+    // The connection is still used
+    firstClient.serverError = false;
+    assertEquals(Collections.singletonList("metastore1"), pool.getAllDatabases());
+    assertEquals(1, factory.clients.size());
+  }
+
+  @Test
+  public void testHealthCheckOnBorrow() throws Exception {
+    TestClientFactory factory = new TestClientFactory();
+    // Check every connection before it's used
+    PooledHiveMetastoreClient pool = new PooledHiveMetastoreClient(ADDRESSES.subList(0, 1), 2,
+        PooledHiveMetastoreClient.Routing.LEAST_LATENCY, 0, factory);
+
+    pool.getAllDatabases();
+    TestClient firstClient = factory.clients.get(0);
+
+    // The broken connection is replaced before the call is made
+    firstClient.failing = true;
+    pool.existsDb("test_db");
+    assertTrue(firstClient.closed);
+    assertEquals(2, factory.clients.size());
+    assertEquals(1, pool.getLatencyHistograms().get("existsDb").getCount());
+  }
+}
@@ -0,0 +1,144 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import com.airbnb.reair.common.HiveObjectSpec;
+import com.airbnb.reair.hive.hooks.HiveOperation;
+import com.airbnb.reair.incremental.ReplicationJob;
+import com.airbnb.reair.incremental.ReplicationJobCoalescer;
+import com.airbnb.reair.incremental.ReplicationOperation;
+import com.airbnb.reair.incremental.ReplicationStatus;
+import com.airbnb.reair.incremental.auditlog.AuditLogEntry;
+import com.airbnb.reair.incremental.db.PersistedJobInfo;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Optional;
+
+public class ReplicationJobCoalescerTest {
+
+  private static final HiveObjectSpec TABLE_SPEC = new HiveObjectSpec("test_db", "test_table");
+
+  private long nextAuditLogId = 1;
+  private LinkedHashMap<AuditLogEntry, List<ReplicationJob>> jobsByEntry = new LinkedHashMap<>();
+
+  private ReplicationJob addJob(
+      HiveOperation commandType,
+      ReplicationOperation operation,
+      HiveObjectSpec tableSpec,
+      List<String> partitionNames,
+      Optional<HiveObjectSpec> renameToSpec) {
+    AuditLogEntry entry = new AuditLogEntry(nextAuditLogId++, new Timestamp(0), commandType,
+        "", new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), null,
+        null);
+    PersistedJobInfo jobInfo = PersistedJobInfo.createDeferred(operation,
+        ReplicationStatus.PENDING, Optional.empty(), "src_cluster", tableSpec, partitionNames,
+        Optional.of("1"), renameToSpec, Optional.empty(), new HashMap<>());
+    ReplicationJob job = new ReplicationJob(new Configuration(), null, null, jobInfo);
+    jobsByEntry.put(entry, Collections.singletonList(job));
+    return job;
+  }
+
+  private ReplicationJob addJob(
+      HiveOperation commandType,
+      ReplicationOperation operation,
+      String... partitionNames) {
+    return addJob(commandType, operation, TABLE_SPEC, Arrays.asList(partitionNames),
+        Optional.empty());
+  }
+
+  @Test
+  public void testMergeCopies() {
+    addJob(HiveOperation.QUERY, ReplicationOperation.COPY_PARTITION, "ds=1");
+    ReplicationJob otherPartition =
+        addJob(HiveOperation.QUERY, ReplicationOperation.COPY_PARTITION, "ds=2");
+    ReplicationJob lastCopy =
+        addJob(HiveOperation.QUERY, ReplicationOperation.COPY_PARTITION, "ds=1");
+
+    List<ReplicationJob> jobs = new ReplicationJobCoalescer().coalesce(jobsByEntry);
+    assertEquals(Arrays.asList(otherPartition, lastCopy), jobs);
+  }
+
+  @Test
+  public void testMergeCopyIntoDynamicPartitionCopy() {
+    ReplicationJob partialCopy =
+        addJob(HiveOperation.QUERY, ReplicationOperation.COPY_PARTITIONS, "ds=1", "ds=2");
+    addJob(HiveOperation.QUERY, ReplicationOperation.COPY_PARTITION, "ds=3");
+    ReplicationJob dynamicCopy =
+        addJob(HiveOperation.QUERY, ReplicationOperation.COPY_PARTITIONS, "ds=1", "ds=3");
+
+    // The first job still needs to copy ds=2
+    List<ReplicationJob> jobs = new ReplicationJobCoalescer().coalesce(jobsByEntry);
+    assertEquals(Arrays.asList(partialCopy, dynamicCopy), jobs);
+  }
+
+  @Test
+  public void testCreateAndDropCancel() {
+    addJob(HiveOperation.ALTERTABLE_ADDPARTS, ReplicationOperation.COPY_PARTITION, "ds=1");
+    addJob(HiveOperation.QUERY, ReplicationOperation.COPY_PARTITION, "ds=1");
+    addJob(HiveOperation.ALTERTABLE_DROPPARTS, ReplicationOperation.DROP_PARTITION, "ds=1");
+
+    List<ReplicationJob> jobs = new ReplicationJobCoalescer().coalesce(jobsByEntry);
+    assertEquals(0, jobs.size());
+  }
+
+  @Test
+  public void testCopyAndDropOfExistingObject() {
+    // The object may exist on the destination already, so the drop is still needed. Since the
+    // drop checks the modified time, the copy is needed as well.
+    ReplicationJob copy = addJob(HiveOperation.QUERY, ReplicationOperation.COPY_PARTITION, "ds=1");
+    ReplicationJob drop =
+        addJob(HiveOperation.ALTERTABLE_DROPPARTS, ReplicationOperation.DROP_PARTITION, "ds=1");
+
+    List<ReplicationJob> jobs = new ReplicationJobCoalescer().coalesce(jobsByEntry);
+    assertEquals(Arrays.asList(copy, drop), jobs);
+  }
+
+  @Test
+  public void testDropIsBarrier() {
+    ReplicationJob copy = addJob(HiveOperation.QUERY, ReplicationOperation.COPY_PARTITION, "ds=1");
+    ReplicationJob drop =
+        addJob(HiveOperation.ALTERTABLE_DROPPARTS, ReplicationOperation.DROP_PARTITION, "ds=1");
+    ReplicationJob recreate =
+        addJob(HiveOperation.QUERY, ReplicationOperation.COPY_PARTITION, "ds=1");
+
+    List<ReplicationJob> jobs = new ReplicationJobCoalescer().coalesce(jobsByEntry);
+    assertEquals(Arrays.asList(copy, drop, recreate), jobs);
+  }
+
+  @Test
+  public void testCreateAndDropTable() {
+    addJob(HiveOperation.CREATETABLE, ReplicationOperation.COPY_PARTITIONED_TABLE);
+    addJob(HiveOperation.QUERY, ReplicationOperation.COPY_PARTITION, "ds=1");
+    addJob(HiveOperation.DROPTABLE, ReplicationOperation.DROP_TABLE);
+
+    List<ReplicationJob> jobs = new ReplicationJobCoalescer().coalesce(jobsByEntry);
+    assertEquals(0, jobs.size());
+  }
+
+  @Test
+  public void testRenameIsBarrier() {
+    HiveObjectSpec renamedSpec = new HiveObjectSpec("test_db", "renamed_table");
+    ReplicationJob copy =
+        addJob(HiveOperation.QUERY, ReplicationOperation.COPY_UNPARTITIONED_TABLE);
+    ReplicationJob rename = addJob(HiveOperation.ALTERTABLE_RENAME,
+        ReplicationOperation.RENAME_TABLE, TABLE_SPEC, new ArrayList<>(),
+        Optional.of(renamedSpec));
+    ReplicationJob copyAfterRename = addJob(HiveOperation.QUERY,
+        ReplicationOperation.COPY_UNPARTITIONED_TABLE, renamedSpec, new ArrayList<>(),
+        Optional.empty());
+    ReplicationJob recreate =
+        addJob(HiveOperation.QUERY, ReplicationOperation.COPY_UNPARTITIONED_TABLE);
+
+    List<ReplicationJob> jobs = new ReplicationJobCoalescer().coalesce(jobsByEntry);
+    assertEquals(Arrays.asList(copy, rename, copyAfterRename, recreate), jobs);
+  }
+}
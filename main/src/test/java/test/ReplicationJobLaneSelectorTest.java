@@ -0,0 +1,125 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.airbnb.reair.common.HiveObjectSpec;
+import com.airbnb.reair.incremental.ReplicationJob;
+import com.airbnb.reair.incremental.ReplicationJobLaneSelector;
+import com.airbnb.reair.incremental.ReplicationOperation;
+import com.airbnb.reair.incremental.ReplicationStatus;
+import com.airbnb.reair.incremental.db.PersistedJobInfo;
+import com.airbnb.reair.multiprocessing.Job;
+import com.airbnb.reair.multiprocessing.Lock;
+import com.airbnb.reair.multiprocessing.LockSet;
+import com.airbnb.reair.multiprocessing.ParallelJobExecutor;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ReplicationJobLaneSelectorTest {
+
+  private static ReplicationJob makeJob(ReplicationOperation operation, Optional<Path> srcPath) {
+    PersistedJobInfo jobInfo = PersistedJobInfo.createDeferred(operation,
+        ReplicationStatus.PENDING, srcPath, "src_cluster",
+        new HiveObjectSpec("test_db", "test_table"), Collections.emptyList(), Optional.empty(),
+        Optional.empty(), Optional.empty(), new HashMap<>());
+    return new ReplicationJob(new Configuration(), null, null, jobInfo);
+  }
+
+  @Test
+  public void testLaneSelection() {
+    ReplicationJobLaneSelector laneSelector = new ReplicationJobLaneSelector();
+    Optional<Path> srcPath = Optional.of(new Path("file:///src/warehouse/test_table"));
+
+    assertEquals(ReplicationJobLaneSelector.METADATA_LANE,
+        laneSelector.getLane(makeJob(ReplicationOperation.DROP_TABLE, srcPath)));
+    assertEquals(ReplicationJobLaneSelector.METADATA_LANE,
+        laneSelector.getLane(makeJob(ReplicationOperation.RENAME_PARTITION, srcPath)));
+    assertEquals(ReplicationJobLaneSelector.METADATA_LANE,
+        laneSelector.getLane(makeJob(ReplicationOperation.COPY_PARTITIONED_TABLE, srcPath)));
+    // A view doesn't have a location, so there's no data to copy
+    assertEquals(ReplicationJobLaneSelector.METADATA_LANE, laneSelector.getLane(
+        makeJob(ReplicationOperation.COPY_UNPARTITIONED_TABLE, Optional.empty())));
+    assertEquals(ReplicationJobLaneSelector.DATA_COPY_LANE, laneSelector.getLane(
+        makeJob(ReplicationOperation.COPY_UNPARTITIONED_TABLE, srcPath)));
+    assertEquals(ReplicationJobLaneSelector.DATA_COPY_LANE,
+        laneSelector.getLane(makeJob(ReplicationOperation.COPY_PARTITIONS, srcPath)));
+  }
+
+  /**
+   * A job that needs an exclusive lock and waits on a latch before finishing.
+   */
+  private static class LatchJob extends Job {
+    private final String lane;
+    private final String lockName;
+    private final CountDownLatch startLatch;
+    private final CountDownLatch doneLatch;
+
+    LatchJob(String lane, String lockName, CountDownLatch startLatch, CountDownLatch doneLatch) {
+      this.lane = lane;
+      this.lockName = lockName;
+      this.startLatch = startLatch;
+      this.doneLatch = doneLatch;
+    }
+
+    @Override
+    public int run() {
+      try {
+        startLatch.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return -1;
+      }
+      doneLatch.countDown();
+      return 0;
+    }
+
+    @Override
+    public LockSet getRequiredLocks() {
+      LockSet lockSet = new LockSet();
+      lockSet.add(new Lock(Lock.Type.EXCLUSIVE, lockName));
+      return lockSet;
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testLanesShareLocks() throws Exception {
+    Map<String, Integer> laneToNumWorkers = new LinkedHashMap<>();
+    laneToNumWorkers.put("fast", 1);
+    laneToNumWorkers.put("slow", 1);
+    ParallelJobExecutor executor = new ParallelJobExecutor("Worker", laneToNumWorkers,
+        job -> ((LatchJob) job).lane, 1, Optional.empty());
+    executor.start();
+
+    CountDownLatch slowStart = new CountDownLatch(1);
+    CountDownLatch slowDone = new CountDownLatch(1);
+    CountDownLatch fastDone = new CountDownLatch(2);
+    CountDownLatch conflictingFastDone = new CountDownLatch(1);
+    CountDownLatch noWait = new CountDownLatch(0);
+
+    // The slow lane is busy, but jobs in the fast lane with unrelated locks can still run
+    executor.add(new LatchJob("slow", "a", slowStart, slowDone));
+    executor.add(new LatchJob("fast", "b", noWait, fastDone));
+    executor.add(new LatchJob("fast", "c", noWait, fastDone));
+    assertTrue(fastDone.await(30, TimeUnit.SECONDS));
+
+    // Jobs in different lanes still wait for each other's locks
+    executor.add(new LatchJob("fast", "a", noWait, conflictingFastDone));
+    assertEquals(1, conflictingFastDone.getCount());
+    slowStart.countDown();
+    assertTrue(conflictingFastDone.await(30, TimeUnit.SECONDS));
+    assertEquals(0, slowDone.getCount());
+
+    executor.stop();
+  }
+}
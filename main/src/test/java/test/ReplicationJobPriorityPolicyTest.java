@@ -0,0 +1,107 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import com.airbnb.reair.common.HiveObjectSpec;
+import com.airbnb.reair.incremental.ReplicationJob;
+import com.airbnb.reair.incremental.ReplicationJobPriorityPolicy;
+import com.airbnb.reair.incremental.ReplicationOperation;
+import com.airbnb.reair.incremental.ReplicationStatus;
+import com.airbnb.reair.incremental.db.PersistedJobInfo;
+import com.airbnb.reair.incremental.deploy.ConfigurationKeys;
+import com.airbnb.reair.multiprocessing.Job;
+import com.airbnb.reair.multiprocessing.JobPriorityPolicy;
+import com.airbnb.reair.multiprocessing.LockSet;
+import com.airbnb.reair.multiprocessing.ParallelJobExecutor;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+
+public class ReplicationJobPriorityPolicyTest {
+
+  private static ReplicationJob makeJob(ReplicationOperation operation, String dbName) {
+    PersistedJobInfo jobInfo = PersistedJobInfo.createDeferred(operation,
+        ReplicationStatus.PENDING, Optional.of(new Path("file:///src/warehouse/test_table")),
+        "src_cluster",
+        new HiveObjectSpec(dbName, "test_table"), Collections.emptyList(), Optional.empty(),
+        Optional.empty(), Optional.empty(), new HashMap<>());
+    return new ReplicationJob(new Configuration(), null, null, jobInfo);
+  }
+
+  @Test
+  public void testPriority() {
+    Configuration conf = new Configuration();
+    conf.setLong(ConfigurationKeys.SCHEDULING_DATA_COPY_DELAY_MS, 1000);
+    conf.setLong(ConfigurationKeys.SCHEDULING_MAX_DELAY_MS, 5000);
+    conf.set(ConfigurationKeys.SCHEDULING_DB_WEIGHTS, "urgent_db:0.5, slow_db:10");
+    JobPriorityPolicy policy = new ReplicationJobPriorityPolicy(conf);
+
+    // Metadata-only jobs aren't delayed
+    assertEquals(100, policy.getPriority(
+        makeJob(ReplicationOperation.DROP_PARTITION, "test_db"), 100));
+    assertEquals(100, policy.getPriority(
+        makeJob(ReplicationOperation.RENAME_TABLE, "urgent_db"), 100));
+    // Data copies are delayed, scaled by the weight of the database, up to the max delay
+    assertEquals(1100, policy.getPriority(
+        makeJob(ReplicationOperation.COPY_PARTITION, "test_db"), 100));
+    assertEquals(600, policy.getPriority(
+        makeJob(ReplicationOperation.COPY_UNPARTITIONED_TABLE, "urgent_db"), 100));
+    assertEquals(5100, policy.getPriority(
+        makeJob(ReplicationOperation.COPY_PARTITIONS, "slow_db"), 100));
+  }
+
+  /**
+   * A job that records the order in which it ran.
+   */
+  private static class OrderedJob extends Job {
+    private final String name;
+    private final long priority;
+    private final List<String> runOrder;
+
+    OrderedJob(String name, long priority, List<String> runOrder) {
+      this.name = name;
+      this.priority = priority;
+      this.runOrder = runOrder;
+    }
+
+    @Override
+    public int run() {
+      runOrder.add(name);
+      return 0;
+    }
+
+    @Override
+    public LockSet getRequiredLocks() {
+      return new LockSet();
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testExecutorOrder() throws Exception {
+    List<String> runOrder = Collections.synchronizedList(new ArrayList<>());
+    ParallelJobExecutor executor = new ParallelJobExecutor("Worker", 1, 1,
+        Optional.of((job, readyTime) -> ((OrderedJob) job).priority));
+
+    // Jobs are added before the worker starts so that they are all ready at the same time
+    executor.add(new OrderedJob("copy1", 10, runOrder));
+    executor.add(new OrderedJob("drop", 0, runOrder));
+    executor.add(new OrderedJob("copy2", 10, runOrder));
+    executor.add(new OrderedJob("rename", 0, runOrder));
+    executor.start();
+    while (executor.getNotDoneJobCount() > 0) {
+      Thread.sleep(10);
+    }
+    executor.stop();
+
+    // Lower priorities run first, and ties run in the order that the jobs became ready
+    assertEquals(Arrays.asList("drop", "rename", "copy1", "copy2"), runOrder);
+  }
+}
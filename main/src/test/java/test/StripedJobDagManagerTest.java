@@ -0,0 +1,128 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.airbnb.reair.multiprocessing.Job;
+import com.airbnb.reair.multiprocessing.JobDag;
+import com.airbnb.reair.multiprocessing.Lock;
+import com.airbnb.reair.multiprocessing.LockSet;
+import com.airbnb.reair.multiprocessing.ParallelJobExecutor;
+import com.airbnb.reair.multiprocessing.StripedJobDagManager;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the same tests as JobDagManagerTest with the striped DAG manager, along with tests that run
+ * jobs through a multi-threaded executor.
+ */
+public class StripedJobDagManagerTest extends JobDagManagerTest {
+
+  private static final Log LOG = LogFactory.getLog(StripedJobDagManagerTest.class);
+
+  @Override
+  protected JobDag createDagManager() {
+    return new StripedJobDagManager(16);
+  }
+
+  /**
+   * A job that needs an exclusive lock on a partition, and checks that no other job with the same
+   * lock is running at the same time.
+   */
+  private static class PartitionJob extends Job {
+    private final LockSet lockSet = new LockSet();
+    private final int index;
+    private final String partitionLock;
+    private final Map<String, AtomicInteger> runningJobCounts;
+    private final Map<String, List<Integer>> runOrder;
+    private final AtomicBoolean conflictDetected;
+
+    PartitionJob(
+        int index,
+        String tableLock,
+        String partitionLock,
+        Map<String, AtomicInteger> runningJobCounts,
+        Map<String, List<Integer>> runOrder,
+        AtomicBoolean conflictDetected) {
+      this.index = index;
+      this.partitionLock = partitionLock;
+      this.runningJobCounts = runningJobCounts;
+      this.runOrder = runOrder;
+      this.conflictDetected = conflictDetected;
+      lockSet.addHierarchical(Lock.Type.EXCLUSIVE,
+          Arrays.asList(tableLock.split("\\.")[0], tableLock, partitionLock));
+    }
+
+    @Override
+    public int run() {
+      AtomicInteger runningJobCount = runningJobCounts.get(partitionLock);
+      if (runningJobCount.incrementAndGet() != 1) {
+        conflictDetected.set(true);
+      }
+      runOrder.get(partitionLock).add(index);
+      runningJobCount.decrementAndGet();
+      return 0;
+    }
+
+    @Override
+    public LockSet getRequiredLocks() {
+      return lockSet;
+    }
+  }
+
+  private long runPartitionJobs(ParallelJobExecutor executor, int numJobs) throws Exception {
+    Map<String, AtomicInteger> runningJobCounts = new ConcurrentHashMap<>();
+    Map<String, List<Integer>> runOrder = new ConcurrentHashMap<>();
+    AtomicBoolean conflictDetected = new AtomicBoolean(false);
+
+    List<PartitionJob> jobs = new ArrayList<>();
+    for (int i = 0; i < numJobs; i++) {
+      String tableLock = "db" + (i % 4) + ".table" + (i % 50);
+      String partitionLock = tableLock + "/ds=" + (i % 500);
+      runningJobCounts.putIfAbsent(partitionLock, new AtomicInteger());
+      runOrder.putIfAbsent(partitionLock, Collections.synchronizedList(new ArrayList<>()));
+      jobs.add(new PartitionJob(i, tableLock, partitionLock, runningJobCounts, runOrder,
+          conflictDetected));
+    }
+
+    long startTime = System.currentTimeMillis();
+    executor.start();
+    for (PartitionJob job : jobs) {
+      executor.add(job);
+    }
+    while (executor.getNotDoneJobCount() > 0) {
+      Thread.sleep(10);
+    }
+    long elapsedTime = System.currentTimeMillis() - startTime;
+    executor.stop();
+
+    assertFalse(conflictDetected.get());
+    // Jobs that need the same partition should have run in the order that they were added
+    for (List<Integer> indexes : runOrder.values()) {
+      List<Integer> sortedIndexes = new ArrayList<>(indexes);
+      Collections.sort(sortedIndexes);
+      assertEquals(sortedIndexes, indexes);
+    }
+    return elapsedTime;
+  }
+
+  @Test(timeout = 120000)
+  public void testConcurrentExecution() throws Exception {
+    final int numJobs = 50000;
+    long unstripedTime = runPartitionJobs(new ParallelJobExecutor("Worker", 16), numJobs);
+    long stripedTime = runPartitionJobs(new ParallelJobExecutor("Worker", 16, 64), numJobs);
+    LOG.info(String.format("Ran %d jobs with 16 workers: %d ms unstriped, %d ms striped", numJobs,
+        unstripedTime, stripedTime));
+  }
+}
@@ -32,6 +32,8 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.Optional;
 
 public class TaskEstimatorTest extends MockClusterTest {
@@ -219,6 +221,45 @@ public class TaskEstimatorTest extends MockClusterTest {
     assertTrue(estimate.getTaskType() == TaskEstimate.TaskType.DROP_PARTITION);
   }
 
+  @Test
+  public void testEstimatesForMultiplePartitions()
+      throws ConfigurationException, IOException, HiveMetastoreException, DistCpException {
+
+    final DirectoryCopier directoryCopier =
+        new DirectoryCopier(conf, srcCluster.getTmpDir(), false);
+
+    // Create a partitioned table with 2 partitions in the source
+    final HiveObjectSpec tableSpec = new HiveObjectSpec(HIVE_DB, HIVE_TABLE);
+    final Table srcTable =
+        ReplicationTestUtils.createPartitionedTable(conf, srcMetastore, tableSpec,
+                                                    TableType.MANAGED_TABLE, srcWarehouseRoot);
+    final HiveObjectSpec copiedSpec = new HiveObjectSpec(HIVE_DB, HIVE_TABLE, "ds=1/hr=1");
+    final HiveObjectSpec newSpec = new HiveObjectSpec(HIVE_DB, HIVE_TABLE, "ds=1/hr=2");
+    final HiveObjectSpec missingSpec = new HiveObjectSpec(HIVE_DB, HIVE_TABLE, "ds=1/hr=3");
+    ReplicationTestUtils.createPartition(conf, srcMetastore, copiedSpec);
+    ReplicationTestUtils.createPartition(conf, srcMetastore, newSpec);
+
+    // Replicate one of the partitions
+    final CopyPartitionTask copyJob = new CopyPartitionTask(conf, destinationObjectFactory,
+        conflictHandler, srcCluster, destCluster, copiedSpec,
+        ReplicationUtils.getLocation(srcTable), Optional.<Path>empty(), directoryCopier, true);
+    assertEquals(RunInfo.RunStatus.SUCCESSFUL, copyJob.runTask().getRunStatus());
+
+    TaskEstimator estimator =
+        new TaskEstimator(conf, destinationObjectFactory, srcCluster, destCluster, directoryCopier);
+    Map<HiveObjectSpec, TaskEstimate> estimates =
+        estimator.analyzePartitions(Arrays.asList(copiedSpec, newSpec, missingSpec));
+
+    // The estimates should be the same as analyzing each partition individually
+    assertEquals(3, estimates.size());
+    assertEquals(TaskEstimate.TaskType.NO_OP, estimates.get(copiedSpec).getTaskType());
+    assertEquals(TaskEstimate.TaskType.COPY_PARTITION, estimates.get(newSpec).getTaskType());
+    assertEquals(TaskEstimate.TaskType.NO_OP, estimates.get(missingSpec).getTaskType());
+    for (HiveObjectSpec spec : estimates.keySet()) {
+      assertEquals(estimator.analyze(spec).getTaskType(), estimates.get(spec).getTaskType());
+    }
+  }
+
   @Test
   public void testEstimatesForUnpartitionedTableOverwriteNewer()
       throws IOException, HiveMetastoreException, DistCpException {
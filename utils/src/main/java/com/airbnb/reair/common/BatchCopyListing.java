@@ -0,0 +1,114 @@
+package com.airbnb.reair.common;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.security.Credentials;
+import org.apache.hadoop.tools.CopyListing;
+import org.apache.hadoop.tools.CopyListingFileStatus;
+import org.apache.hadoop.tools.DistCpOptions;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A DistCp copy listing that copies each source directory to a subdirectory of the target named
+ * after the index of the source directory. For example, with the sources /a/ds=1 and /b/ds=1 and
+ * the target /tmp/copy, the files are copied to /tmp/copy/0 and /tmp/copy/1. The default listing
+ * would copy both sources to /tmp/copy/ds=1, so directories with the same name couldn't be copied
+ * in the same job.
+ *
+ * <p>To use this listing, set {@link #COPY_LISTING_CLASS_KEY} to the name of this class in the
+ * configuration for DistCp.
+ */
+public class BatchCopyListing extends CopyListing {
+
+  private static final Log LOG = LogFactory.getLog(BatchCopyListing.class);
+
+  public static final String COPY_LISTING_CLASS_KEY = "distcp.copy.listing.class";
+
+  private long bytesToCopy = 0;
+  private long numberOfPaths = 0;
+
+  public BatchCopyListing(Configuration conf, Credentials credentials) {
+    super(conf, credentials);
+  }
+
+  /**
+   * Get the path that a file is copied to, relative to the target directory.
+   *
+   * @param sourceIndex the index of the source directory that the file is in
+   * @param relativePath the path of the file relative to the source directory, or the empty string
+   *                     for the source directory itself
+   * @return the path relative to the target directory
+   */
+  public static String getTargetRelativePath(int sourceIndex, String relativePath) {
+    return relativePath.isEmpty() ? "/" + sourceIndex : "/" + sourceIndex + "/" + relativePath;
+  }
+
+  @Override
+  protected void validatePaths(DistCpOptions options) throws IOException {
+    for (Path source : options.getSourcePaths()) {
+      if (!FsUtils.dirExists(getConf(), source)) {
+        throw new IOException(source + " is not a directory");
+      }
+    }
+  }
+
+  @Override
+  protected void doBuildListing(Path pathToListFile, DistCpOptions options) throws IOException {
+    List<Path> sources = options.getSourcePaths();
+    FileSystem listingFs = pathToListFile.getFileSystem(getConf());
+    listingFs.delete(pathToListFile, false);
+
+    try (SequenceFile.Writer writer = SequenceFile.createWriter(getConf(),
+        SequenceFile.Writer.file(pathToListFile),
+        SequenceFile.Writer.keyClass(Text.class),
+        SequenceFile.Writer.valueClass(CopyListingFileStatus.class),
+        SequenceFile.Writer.compression(SequenceFile.CompressionType.NONE))) {
+      // Add the source directories so that their attributes are preserved
+      for (int i = 0; i < sources.size(); i++) {
+        Path source = sources.get(i);
+        writer.append(new Text(getTargetRelativePath(i, "")),
+            new CopyListingFileStatus(source.getFileSystem(getConf()).getFileStatus(source)));
+        numberOfPaths++;
+      }
+
+      // The visitor is called from this thread, so it can use the writer
+      Container<IOException> writeException = new Container<>();
+      ParallelFileLister.walk(getConf(), sources, Optional.empty(), (sourceIndex, status) -> {
+        String relativePath = FsUtils.getRelativePath(sources.get(sourceIndex), status.getPath());
+        try {
+          writer.append(new Text(getTargetRelativePath(sourceIndex, relativePath)),
+              new CopyListingFileStatus(status));
+        } catch (IOException e) {
+          writeException.set(e);
+          return false;
+        }
+        bytesToCopy += status.getLen();
+        numberOfPaths++;
+        return true;
+      });
+      if (writeException.get() != null) {
+        throw writeException.get();
+      }
+    }
+    LOG.debug(String.format("Listed %s paths with %s bytes in %s source directories",
+        numberOfPaths, bytesToCopy, sources.size()));
+  }
+
+  @Override
+  protected long getBytesToCopy() {
+    return bytesToCopy;
+  }
+
+  @Override
+  protected long getNumberOfPaths() {
+    return numberOfPaths;
+  }
+}
@@ -0,0 +1,202 @@
+package com.airbnb.reair.common;
+
+import org.apache.hadoop.hive.metastore.api.Database;
+import org.apache.hadoop.hive.metastore.api.Partition;
+import org.apache.hadoop.hive.metastore.api.Table;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A HiveMetastoreClient that serves table lookups and database existence checks from a
+ * {@link HiveMetadataCache}, and passes all other calls to another client. Tables and databases
+ * that are changed through this client are invalidated in the cache, so the changes are visible to
+ * the following calls.
+ *
+ * <p>Changes made by other processes are not visible until the cached entries expire, so this
+ * should only be used where slightly stale table metadata is acceptable.
+ */
+public class CachingHiveMetastoreClient implements HiveMetastoreClient {
+
+  private final HiveMetastoreClient client;
+  private final HiveMetadataCache cache;
+
+  /**
+   * Constructor for a caching client.
+   *
+   * @param client the client to use for calls that can't be served from the cache
+   * @param cache the cache to use, which can be shared with other clients for the same metastore
+   */
+  public CachingHiveMetastoreClient(HiveMetastoreClient client, HiveMetadataCache cache) {
+    this.client = client;
+    this.cache = cache;
+  }
+
+  @Override
+  public Partition addPartition(Partition partition) throws HiveMetastoreException {
+    return client.addPartition(partition);
+  }
+
+  @Override
+  public void addPartitions(List<Partition> partitions) throws HiveMetastoreException {
+    client.addPartitions(partitions);
+  }
+
+  @Override
+  public Table getTable(String dbName, String tableName) throws HiveMetastoreException {
+    Table table = cache.getTable(dbName, tableName, () -> client.getTable(dbName, tableName));
+    // Callers may modify the returned table, so don't give out the cached object
+    return table == null ? null : new Table(table);
+  }
+
+  @Override
+  public Partition getPartition(String dbName, String tableName, String partitionName)
+      throws HiveMetastoreException {
+    return client.getPartition(dbName, tableName, partitionName);
+  }
+
+  @Override
+  public List<String> getPartitionNames(String dbName, String tableName)
+      throws HiveMetastoreException {
+    return client.getPartitionNames(dbName, tableName);
+  }
+
+  @Override
+  public Map<String, Partition> getPartitionsByNames(
+      String dbName,
+      String tableName,
+      List<String> partitionNames) throws HiveMetastoreException {
+    return client.getPartitionsByNames(dbName, tableName, partitionNames);
+  }
+
+  @Override
+  public void alterPartition(String dbName, String tableName, Partition partition)
+      throws HiveMetastoreException {
+    client.alterPartition(dbName, tableName, partition);
+  }
+
+  @Override
+  public void alterPartitions(String dbName, String tableName, List<Partition> partitions)
+      throws HiveMetastoreException {
+    client.alterPartitions(dbName, tableName, partitions);
+  }
+
+  @Override
+  public void alterTable(String dbName, String tableName, Table table)
+      throws HiveMetastoreException {
+    try {
+      client.alterTable(dbName, tableName, table);
+    } finally {
+      // The table may have been renamed
+      cache.invalidateTable(dbName, tableName);
+      cache.invalidateTable(table.getDbName(), table.getTableName());
+    }
+  }
+
+  @Override
+  public boolean isPartitioned(String dbName, String tableName) throws HiveMetastoreException {
+    Table table = cache.getTable(dbName, tableName, () -> client.getTable(dbName, tableName));
+    return table != null && table.getPartitionKeys().size() > 0;
+  }
+
+  @Override
+  public boolean existsPartition(String dbName, String tableName, String partitionName)
+      throws HiveMetastoreException {
+    return client.existsPartition(dbName, tableName, partitionName);
+  }
+
+  @Override
+  public boolean existsTable(String dbName, String tableName) throws HiveMetastoreException {
+    return cache.getTable(dbName, tableName, () -> client.getTable(dbName, tableName)) != null;
+  }
+
+  @Override
+  public void createTable(Table table) throws HiveMetastoreException {
+    try {
+      client.createTable(table);
+    } finally {
+      cache.invalidateTable(table.getDbName(), table.getTableName());
+    }
+  }
+
+  @Override
+  public void dropTable(String dbName, String tableName, boolean deleteData)
+      throws HiveMetastoreException {
+    try {
+      client.dropTable(dbName, tableName, deleteData);
+    } finally {
+      cache.invalidateTable(dbName, tableName);
+    }
+  }
+
+  @Override
+  public void dropPartition(String dbName, String tableName, String partitionName,
+      boolean deleteData) throws HiveMetastoreException {
+    client.dropPartition(dbName, tableName, partitionName, deleteData);
+  }
+
+  @Override
+  public Map<String, String> partitionNameToMap(String partitionName)
+      throws HiveMetastoreException {
+    return client.partitionNameToMap(partitionName);
+  }
+
+  @Override
+  public void createDatabase(Database db) throws HiveMetastoreException {
+    try {
+      client.createDatabase(db);
+    } finally {
+      cache.invalidateDb(db.getName());
+    }
+  }
+
+  @Override
+  public Database getDatabase(String dbName) throws HiveMetastoreException {
+    return client.getDatabase(dbName);
+  }
+
+  @Override
+  public boolean existsDb(String dbName) throws HiveMetastoreException {
+    return cache.existsDb(dbName, () -> client.existsDb(dbName));
+  }
+
+  @Override
+  public List<String> getTables(String dbName, String tableName) throws HiveMetastoreException {
+    return client.getTables(dbName, tableName);
+  }
+
+  @Override
+  public Partition exchangePartition(
+      Map<String, String> partitionSpecs,
+      String sourceDb,
+      String sourceTable,
+      String destDb,
+      String destinationTableName) throws HiveMetastoreException {
+    return client.exchangePartition(partitionSpecs, sourceDb, sourceTable, destDb,
+        destinationTableName);
+  }
+
+  @Override
+  public void renamePartition(
+      String db,
+      String table,
+      List<String> partitionValues,
+      Partition partition) throws HiveMetastoreException {
+    client.renamePartition(db, table, partitionValues, partition);
+  }
+
+  @Override
+  public List<String> getAllDatabases() throws HiveMetastoreException {
+    return client.getAllDatabases();
+  }
+
+  @Override
+  public List<String> getAllTables(String dbName) throws HiveMetastoreException {
+    return client.getAllTables(dbName);
+  }
+
+  @Override
+  public void close() {
+    client.close();
+  }
+}
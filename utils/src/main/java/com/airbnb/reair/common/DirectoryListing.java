@@ -0,0 +1,122 @@
+package com.airbnb.reair.common;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * An immutable snapshot of the files under a directory, so that a directory tree can be listed
+ * once and then used for multiple checks.
+ */
+public class DirectoryListing {
+
+  private final Path root;
+  // Maps from the path to a file relative to the root (e.g. a/b.txt) to the status of the file
+  private final Map<String, FileStatus> relativePathToStatus;
+  private final long totalSize;
+
+  private DirectoryListing(Path root, Map<String, FileStatus> relativePathToStatus) {
+    this.root = root;
+    long totalSize = 0;
+    for (FileStatus status : relativePathToStatus.values()) {
+      totalSize += status.getLen();
+    }
+    this.relativePathToStatus = Collections.unmodifiableMap(relativePathToStatus);
+    this.totalSize = totalSize;
+  }
+
+  private DirectoryListing(Path root, Set<FileStatus> statuses) {
+    this(root, getRelativePathToStatus(root, statuses));
+  }
+
+  private static Map<String, FileStatus> getRelativePathToStatus(
+      Path root,
+      Set<FileStatus> statuses) {
+    Map<String, FileStatus> relativePathToStatus = new HashMap<>();
+    for (FileStatus status : statuses) {
+      relativePathToStatus.put(FsUtils.getRelativePath(root, status.getPath()), status);
+    }
+    return relativePathToStatus;
+  }
+
+  /**
+   * List the files under a directory, including subdirectories.
+   *
+   * @param conf configuration object
+   * @param root the directory to list
+   * @param filter use this to filter out directories
+   * @return a listing of the directory
+   *
+   * @throws IOException if there's an error accessing the filesystem
+   */
+  public static DirectoryListing list(Configuration conf, Path root, Optional<PathFilter> filter)
+      throws IOException {
+    return listAll(conf, Collections.singletonList(root), filter).get(0);
+  }
+
+  /**
+   * List the files under multiple directories at the same time.
+   *
+   * @param conf configuration object
+   * @param roots the directories to list
+   * @param filter use this to filter out directories
+   * @return the listings of the directories, in the same order as the roots
+   *
+   * @throws IOException if there's an error accessing the filesystem
+   */
+  public static List<DirectoryListing> listAll(
+      Configuration conf,
+      List<Path> roots,
+      Optional<PathFilter> filter) throws IOException {
+    Map<Path, Set<FileStatus>> rootToStatuses =
+        ParallelFileLister.getFileStatusesRecursive(conf, roots, filter);
+    List<DirectoryListing> listings = new ArrayList<>();
+    for (Path root : roots) {
+      listings.add(new DirectoryListing(root, rootToStatuses.get(root)));
+    }
+    return listings;
+  }
+
+  /**
+   * Get a listing with only some of the files in this listing.
+   *
+   * @param relativePaths the paths of the files to keep, relative to the root
+   * @return a listing with the files in this listing that have the specified paths
+   */
+  public DirectoryListing subset(Set<String> relativePaths) {
+    Map<String, FileStatus> subset = new HashMap<>();
+    for (String relativePath : relativePaths) {
+      FileStatus status = relativePathToStatus.get(relativePath);
+      if (status != null) {
+        subset.put(relativePath, status);
+      }
+    }
+    return new DirectoryListing(root, subset);
+  }
+
+  public Path getRoot() {
+    return root;
+  }
+
+  public Map<String, FileStatus> getRelativePathToStatus() {
+    return relativePathToStatus;
+  }
+
+  public int getFileCount() {
+    return relativePathToStatus.size();
+  }
+
+  public long getTotalSize() {
+    return totalSize;
+  }
+}
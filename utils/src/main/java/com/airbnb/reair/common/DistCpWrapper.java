@@ -4,6 +4,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.FsShell;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.tools.DistCp;
@@ -12,7 +13,10 @@ import org.apache.hadoop.util.ToolRunner;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 
@@ -56,12 +60,38 @@ public class DistCpWrapper {
     boolean atomic = options.getAtomic();
     boolean canDeleteDest = options.getCanDeleteDest();
 
-    if (destDirExists
-        && FsUtils.equalDirs(conf, srcDir, destDir, Optional.empty(), syncModificationTimes)) {
+    // List the source (and the destination, if it exists) once, and use the listings for all the
+    // checks before the copy.
+    DirectoryListing srcListing;
+    Optional<DirectoryListing> destListing;
+    if (destDirExists) {
+      List<DirectoryListing> listings =
+          DirectoryListing.listAll(conf, Arrays.asList(srcDir, destDir), Optional.empty());
+      srcListing = listings.get(0);
+      destListing = Optional.of(listings.get(1));
+    } else {
+      srcListing = DirectoryListing.list(conf, srcDir, Optional.empty());
+      destListing = Optional.empty();
+    }
+
+    if (destListing.isPresent()
+        && FsUtils.equalDirs(srcListing, destListing.get(), syncModificationTimes)) {
       LOG.debug("Source and destination paths are already equal!");
       return 0;
     }
 
+    // If the source and destination are on the same filesystem, the data doesn't cross clusters,
+    // so larger directories can be copied in this process.
+    boolean sameFs = FsUtils.sameFs(conf, srcDir, destDir);
+
+    // If only some files changed, copy just those files instead of replacing the directory
+    if (atomic && canDeleteDest && options.getDeltaCopy() && destListing.isPresent()) {
+      Optional<Long> bytesCopied = deltaCopy(srcListing, destListing.get(), sameFs, options);
+      if (bytesCopied.isPresent()) {
+        return bytesCopied.get();
+      }
+    }
+
     boolean useDistcpUpdate = false;
     // Distcp -update can be used for cases where we're not doing an atomic
     // copy and there aren't any files in the destination that are not in
@@ -70,8 +100,8 @@ public class DistCpWrapper {
     // that functionality is not yet built out. Instead, this deletes the
     // destination directory and does a fresh copy.
     if (!atomic) {
-      useDistcpUpdate = destDirExists
-          && !FsUtils.filesExistOnDestButNotSrc(conf, srcDir, destDir, Optional.empty());
+      useDistcpUpdate = destListing.isPresent()
+          && !FsUtils.filesExistOnDestButNotSrc(srcListing, destListing.get());
       if (useDistcpUpdate) {
         LOG.debug("Doing a distcp update from " + srcDir + " to " + destDir);
       }
@@ -99,21 +129,15 @@ public class DistCpWrapper {
 
     LOG.debug(String.format("Copying %s to %s", srcDir, distcpDestDir));
 
-
-    Set<FileStatus> fileStatuses =
-        FsUtils.getFileStatusesRecursive(conf, srcDir, Optional.empty());
-
-    long srcSize = 0;
-    for (FileStatus status : fileStatuses) {
-      srcSize += status.getLen();
-    }
+    long srcSize = srcListing.getTotalSize();
+    int srcFileCount = srcListing.getFileCount();
     LOG.debug(String.format(
         "%s has %s files with a total size of %s bytes",
-        srcDir, fileStatuses.size(), srcSize));
+        srcDir, srcFileCount, srcSize));
 
     // Use shell to copy for small files
     if (srcSize < options.getLocalCopySizeThreshold()
-        && fileStatuses.size() < options.getLocalCopyCountThreshold()) {
+        && srcFileCount < options.getLocalCopyCountThreshold()) {
       String[] mkdirArgs = {"-mkdir", "-p", distcpDestDir.getParent().toString()};
       String[] copyArgs = {"-cp", srcDir.toString(), distcpDestDir.toString()};
 
@@ -128,9 +152,14 @@ public class DistCpWrapper {
       } finally {
         shell.close();
       }
-
-      if (syncModificationTimes) {
-        FsUtils.syncModificationTimes(conf, srcDir, distcpDestDir, Optional.empty());
+    } else if (canCopyInProcess(srcSize, srcFileCount, sameFs, options)) {
+      // Copy medium sized directories with a thread pool, as starting a distcp job takes a while
+      LOG.debug(String.format("Using a thread pool to copy %s to %s", srcDir, distcpDestDir));
+      try {
+        ParallelFileCopier.copy(conf, srcListing, distcpDestDir,
+            useDistcpUpdate ? destListing : Optional.empty(), options.getDistcpTimeout(srcSize));
+      } catch (IOException e) {
+        throw new DistCpException(e);
       }
     } else {
 
@@ -148,7 +177,7 @@ public class DistCpWrapper {
       List<String> distcpArgs = new ArrayList<>();
       distcpArgs.add("-m");
       long mappers = Math.max(1, srcSize / options.getBytesPerMapper());
-      mappers = Math.max(mappers, fileStatuses.size() / options.getFilesPerMapper());
+      mappers = Math.max(mappers, srcFileCount / options.getFilesPerMapper());
       distcpArgs.add(Long.toString(mappers));
       distcpArgs.add("-log");
       distcpArgs.add(distCpLogDir.toString());
@@ -184,10 +213,13 @@ public class DistCpWrapper {
     }
 
     if (syncModificationTimes) {
-      FsUtils.syncModificationTimes(conf, srcDir, distcpDestDir, Optional.empty());
+      FsUtils.syncModificationTimes(conf, srcListing, distcpDestDir);
     }
 
-    if (!FsUtils.equalDirs(conf, srcDir, distcpDestDir, Optional.empty(), syncModificationTimes)) {
+    // Only the copy needs to be listed again. Since the source listing was taken before the copy,
+    // changes to the source during the copy show up as a mismatch.
+    DirectoryListing copiedListing = DirectoryListing.list(conf, distcpDestDir, Optional.empty());
+    if (!FsUtils.equalDirs(srcListing, copiedListing, syncModificationTimes)) {
       LOG.error("Source and destination sizes don't match!");
       if (atomic) {
         LOG.debug("Since it's an atomic copy, deleting " + distcpDestDir);
@@ -217,6 +249,371 @@ public class DistCpWrapper {
     return srcSize;
   }
 
+  /**
+   * Check whether files can be copied with a thread pool in this process, rather than a distcp job.
+   *
+   * @param size the total size of the files
+   * @param fileCount the number of files
+   * @param sameFs whether the source and destination are on the same filesystem
+   * @param options the options for the copy
+   * @return whether the files can be copied in this process
+   */
+  private static boolean canCopyInProcess(
+      long size,
+      long fileCount,
+      boolean sameFs,
+      DistCpWrapperOptions options) {
+    if (size < options.getParallelCopySizeThreshold()
+        && fileCount < options.getParallelCopyCountThreshold()) {
+      return true;
+    }
+    return sameFs && size < options.getSameFsCopySizeThreshold()
+        && fileCount < options.getSameFsCopyCountThreshold();
+  }
+
+  /**
+   * Copy the files that are new or changed in the source into an existing destination directory,
+   * and remove the files on the destination that aren't in the source. The changed files are
+   * copied to a staging directory and verified before any changes are made to the destination.
+   * Then, the replaced and removed files are moved aside and each changed file is moved into place,
+   * so files that haven't changed are never rewritten.
+   *
+   * <p>Unlike an atomic copy, the changes to the destination are not atomic. While the files are
+   * being moved, a reader can see a mix of old and new files. If moving a file fails, or the
+   * destination doesn't match the source afterwards, the files that were moved are moved back, so
+   * the destination is left as it was before the copy. The files that were moved aside are deleted
+   * only once the destination has been verified or restored.
+   *
+   * @param srcListing the listing of the source directory
+   * @param destListing the listing of the destination directory
+   * @param sameFs whether the source and destination are on the same filesystem
+   * @param options the options for the copy
+   * @return the number of bytes copied, or empty if the changes are too large to copy without a
+   *         distcp job, in which case nothing was done
+   *
+   * @throws IOException if there's an error accessing the filesystem
+   * @throws DistCpException if the destination doesn't match the source after the changes
+   */
+  private Optional<Long> deltaCopy(
+      DirectoryListing srcListing,
+      DirectoryListing destListing,
+      boolean sameFs,
+      DistCpWrapperOptions options) throws IOException, DistCpException {
+    boolean syncModificationTimes = options.getSyncModificationTimes();
+    Map<String, FileStatus> srcFiles = srcListing.getRelativePathToStatus();
+    Map<String, FileStatus> destFiles = destListing.getRelativePathToStatus();
+
+    Set<String> changedFiles = new HashSet<>();
+    for (Map.Entry<String, FileStatus> entry : srcFiles.entrySet()) {
+      FileStatus destStatus = destFiles.get(entry.getKey());
+      if (destStatus == null || destStatus.getLen() != entry.getValue().getLen()
+          || (syncModificationTimes
+              && destStatus.getModificationTime() != entry.getValue().getModificationTime())) {
+        changedFiles.add(entry.getKey());
+      }
+    }
+    Set<String> removedFiles = new HashSet<>(destFiles.keySet());
+    removedFiles.removeAll(srcFiles.keySet());
+
+    DirectoryListing changedListing = srcListing.subset(changedFiles);
+    if (!canCopyInProcess(changedListing.getTotalSize(), changedListing.getFileCount(), sameFs,
+        options)) {
+      LOG.debug(String.format("Not doing a delta copy of %s since %s files with %s bytes changed",
+          srcListing.getRoot(), changedListing.getFileCount(), changedListing.getTotalSize()));
+      return Optional.empty();
+    }
+    LOG.debug(String.format("Doing a delta copy of %s to %s: %s of %s files changed, %s removed",
+        srcListing.getRoot(), destListing.getRoot(), changedFiles.size(), srcFiles.size(),
+        removedFiles.size()));
+
+    Path stagingDir = options.getDistCpTmpDir();
+    // The replaced files are kept outside of the staging directory, since they can be the only
+    // copies of the original files if the destination can't be restored
+    Path replacedDir = new Path(stagingDir.getParent(), stagingDir.getName() + "_replaced");
+    Path destDir = destListing.getRoot();
+    try {
+      // Stage and verify the changed files
+      ParallelFileCopier.copy(conf, changedListing, stagingDir, Optional.empty(),
+          options.getDistcpTimeout(changedListing.getTotalSize()));
+      DirectoryListing stagedListing = DirectoryListing.list(conf, stagingDir, Optional.empty());
+      if (!FsUtils.equalDirs(changedListing, stagedListing, syncModificationTimes)) {
+        throw new DistCpException("Staged files for " + destDir + " don't match the source");
+      }
+      replaceFiles(srcListing, destDir, stagingDir, replacedDir, changedFiles, removedFiles,
+          syncModificationTimes);
+    } finally {
+      // Only has copies of source files that weren't moved into place
+      FsUtils.deleteDirectory(conf, stagingDir);
+    }
+    return Optional.of(changedListing.getTotalSize());
+  }
+
+  /**
+   * Move the removed files and the files that will be replaced out of the destination directory,
+   * move the staged files into place, and check that the destination matches the source. If a
+   * move or the check fails, the moves that were done are undone before the error is thrown. The
+   * directory with the replaced files is deleted only if the destination matches the source or was
+   * restored.
+   *
+   * @param srcListing the listing of the source directory
+   * @param destDir the destination directory
+   * @param changedDir the directory with the staged versions of the changed files
+   * @param replacedDir the directory to move the removed and replaced files to
+   * @param changedFiles the relative paths of the files to move into place
+   * @param removedFiles the relative paths of the files to remove from the destination
+   * @param syncModificationTimes whether modification times are compared in the check
+   *
+   * @throws IOException if there's an error moving the files
+   * @throws DistCpException if the destination doesn't match the source after the changes, or if
+   *                         the destination couldn't be restored after an error
+   */
+  private void replaceFiles(
+      DirectoryListing srcListing,
+      Path destDir,
+      Path changedDir,
+      Path replacedDir,
+      Set<String> changedFiles,
+      Set<String> removedFiles,
+      boolean syncModificationTimes) throws IOException, DistCpException {
+    FileSystem destFs = destDir.getFileSystem(conf);
+    List<String> movedOut = new ArrayList<>();
+    List<String> movedIn = new ArrayList<>();
+    try {
+      // Move the files that aren't in the source out first, in case a removed file has the same
+      // path as a directory in the source. Then move the changed files into place.
+      for (String relativePath : removedFiles) {
+        LOG.debug("Removing " + relativePath + " from " + destDir
+            + " since it's not in the source");
+        move(destFs, new Path(destDir, relativePath), new Path(replacedDir, relativePath));
+        movedOut.add(relativePath);
+      }
+      for (String relativePath : changedFiles) {
+        Path destFile = new Path(destDir, relativePath);
+        if (destFs.isFile(destFile)) {
+          move(destFs, destFile, new Path(replacedDir, relativePath));
+          movedOut.add(relativePath);
+        } else {
+          // The path can be a directory on the destination. Since the files under it weren't in
+          // the source, they were moved out above, so only empty directories are deleted.
+          destFs.delete(destFile, true);
+        }
+        move(destFs, new Path(changedDir, relativePath), destFile);
+        movedIn.add(relativePath);
+      }
+
+      DirectoryListing newDestListing = DirectoryListing.list(conf, destDir, Optional.empty());
+      if (!FsUtils.equalDirs(srcListing, newDestListing, syncModificationTimes)) {
+        throw new DistCpException("Delta copy result mismatch for " + destDir);
+      }
+    } catch (IOException | DistCpException | RuntimeException e) {
+      LOG.error("Error while updating " + destDir + ", so restoring the original files", e);
+      try {
+        for (String relativePath : movedIn) {
+          destFs.delete(new Path(destDir, relativePath), false);
+        }
+        for (String relativePath : movedOut) {
+          move(destFs, new Path(replacedDir, relativePath), new Path(destDir, relativePath));
+        }
+      } catch (IOException | RuntimeException restoreException) {
+        LOG.error("Unable to restore the original files in " + destDir, restoreException);
+        // Keep the replaced files, since they may be the only copies of the originals
+        DistCpException restoreError = new DistCpException(String.format(
+            "Unable to restore %s after an error. The replaced and removed files are in %s",
+            destDir, replacedDir), e);
+        restoreError.addSuppressed(restoreException);
+        throw restoreError;
+      }
+      FsUtils.deleteDirectory(conf, replacedDir);
+      throw e;
+    }
+    FsUtils.deleteDirectory(conf, replacedDir);
+  }
+
+  private static void move(FileSystem fs, Path src, Path dest) throws IOException {
+    fs.mkdirs(dest.getParent());
+    if (!fs.rename(src, dest)) {
+      throw new IOException("Error while moving from " + src + " to " + dest);
+    }
+  }
+
+  /**
+   * Copy multiple directories with a single distcp job, so that the cost of launching a job is paid
+   * once for all the directories. Directories that already match their destination, or that are
+   * small enough to be copied without a distcp job, are skipped. The copies are atomic - each
+   * directory is copied to a subdirectory of the temporary directory, verified against the
+   * listing of the source taken before the copy, and then moved to its destination.
+   *
+   * <p>A directory that fails verification is not moved and isn't included in the result, but the
+   * other directories in the batch are still moved into place.
+   *
+   * @param srcToDestDirs a map from each source directory to the destination directory to copy it
+   *                      to
+   * @param options the options for the distcp job. The source and destination directories of the
+   *                options are not used.
+   * @return a map from each source directory that was copied to the number of bytes copied
+   *
+   * @throws IOException if there's an error accessing the filesystem
+   * @throws DistCpException if there is an error running DistCp
+   */
+  public Map<Path, Long> copyAll(Map<Path, Path> srcToDestDirs, DistCpWrapperOptions options)
+      throws IOException, DistCpException {
+    return copyAll(srcToDestDirs, srcToDestDirs, options);
+  }
+
+  /**
+   * Copy multiple directories with a single distcp job, like
+   * {@link #copyAll(Map, DistCpWrapperOptions)}, but decide which directories to skip by comparing
+   * the sources to a different set of directories than the ones they are copied to. This is useful
+   * for copying directories to a staging location, while skipping the ones that already match the
+   * final location.
+   *
+   * @param srcToDestDirs a map from each source directory to the destination directory to copy it
+   *                      to
+   * @param srcToCompareDirs a map from each source directory to the directory to compare it to.
+   *                         A source that matches this directory is not copied.
+   * @param options the options for the distcp job. The source and destination directories of the
+   *                options are not used.
+   * @return a map from each source directory that was copied to the number of bytes copied
+   *
+   * @throws IOException if there's an error accessing the filesystem
+   * @throws DistCpException if there is an error running DistCp
+   */
+  public Map<Path, Long> copyAll(
+      Map<Path, Path> srcToDestDirs,
+      Map<Path, Path> srcToCompareDirs,
+      DistCpWrapperOptions options) throws IOException, DistCpException {
+    if (Thread.currentThread().isInterrupted()) {
+      throw new DistCpException("Current thread has been interrupted");
+    }
+
+    Path distCpTmpDir = options.getDistCpTmpDir();
+    Path distCpLogDir = options.getDistCpLogDir();
+    boolean syncModificationTimes = options.getSyncModificationTimes();
+
+    // List all the sources and the existing directories to compare them to at the same time
+    List<Path> srcDirs = new ArrayList<>();
+    List<Path> dirsToList = new ArrayList<>();
+    for (Path srcDir : srcToDestDirs.keySet()) {
+      if (!FsUtils.dirExists(conf, srcDir)) {
+        LOG.warn("Not copying " + srcDir + " since it doesn't exist");
+        continue;
+      }
+      srcDirs.add(srcDir);
+      dirsToList.add(srcDir);
+      Path compareDir = srcToCompareDirs.get(srcDir);
+      if (compareDir != null && FsUtils.dirExists(conf, compareDir)) {
+        dirsToList.add(compareDir);
+      }
+    }
+    Map<Path, DirectoryListing> dirToListing = new HashMap<>();
+    for (DirectoryListing listing : DirectoryListing.listAll(conf, dirsToList, Optional.empty())) {
+      dirToListing.put(listing.getRoot(), listing);
+    }
+
+    List<Path> batchSrcDirs = new ArrayList<>();
+    long batchSize = 0;
+    long batchFileCount = 0;
+    for (Path srcDir : srcDirs) {
+      Path destDir = srcToDestDirs.get(srcDir);
+      Path compareDir = srcToCompareDirs.get(srcDir);
+      DirectoryListing srcListing = dirToListing.get(srcDir);
+      DirectoryListing compareListing = compareDir == null ? null : dirToListing.get(compareDir);
+      boolean destExists = destDir.equals(compareDir)
+          ? compareListing != null : FsUtils.dirExists(conf, destDir);
+      if (compareListing != null
+          && FsUtils.equalDirs(srcListing, compareListing, syncModificationTimes)) {
+        LOG.debug(String.format("Not copying %s since it matches %s", srcDir, compareDir));
+      } else if (destExists && !options.getCanDeleteDest()) {
+        LOG.warn(String.format("Not copying %s since %s exists and can't be overwritten", srcDir,
+            destDir));
+      } else if (canCopyInProcess(srcListing.getTotalSize(), srcListing.getFileCount(),
+          FsUtils.sameFs(conf, srcDir, destDir), options)) {
+        LOG.debug(String.format("Not copying %s in a batch since it's small", srcDir));
+      } else {
+        batchSrcDirs.add(srcDir);
+        batchSize += srcListing.getTotalSize();
+        batchFileCount += srcListing.getFileCount();
+      }
+    }
+
+    Map<Path, Long> bytesCopied = new HashMap<>();
+    if (batchSrcDirs.isEmpty()) {
+      return bytesCopied;
+    }
+
+    if (!FsUtils.sameFs(distCpTmpDir, srcToDestDirs.get(batchSrcDirs.get(0)))) {
+      throw new DistCpException(
+          String.format("Filesystems do not match for tmp (%s) and destination (%s)",
+              distCpTmpDir, srcToDestDirs.get(batchSrcDirs.get(0))));
+    }
+
+    List<String> distcpArgs = new ArrayList<>();
+    distcpArgs.add("-m");
+    long mappers = Math.max(1, batchSize / options.getBytesPerMapper());
+    mappers = Math.max(mappers, batchFileCount / options.getFilesPerMapper());
+    distcpArgs.add(Long.toString(mappers));
+    distcpArgs.add("-log");
+    distcpArgs.add(distCpLogDir.toString());
+    distcpArgs.add("-prugpb");
+    for (Path srcDir : batchSrcDirs) {
+      distcpArgs.add(srcDir.toString());
+    }
+    distcpArgs.add(distCpTmpDir.toString());
+    LOG.debug(String.format("Copying %s directories with %s bytes in a single distcp job",
+        batchSrcDirs.size(), batchSize));
+    LOG.debug("Running DistCp with args: " + distcpArgs);
+
+    // Copy each source to a subdirectory of the tmp directory named after its index
+    Configuration distCpConf = new Configuration(conf);
+    distCpConf.set(BatchCopyListing.COPY_LISTING_CLASS_KEY, BatchCopyListing.class.getName());
+    DistCp distCp = new DistCp();
+    distCp.setConf(distCpConf);
+
+    int ret = runDistCp(distCp, distcpArgs, options.getDistcpTimeout(batchSize),
+        options.getDistCpPollInterval());
+
+    if (Thread.currentThread().isInterrupted()) {
+      throw new DistCpException("Thread interrupted");
+    }
+
+    if (ret != 0) {
+      throw new DistCpException("Distcp failed");
+    }
+
+    for (int i = 0; i < batchSrcDirs.size(); i++) {
+      Path srcDir = batchSrcDirs.get(i);
+      Path destDir = srcToDestDirs.get(srcDir);
+      Path copiedDir = new Path(distCpTmpDir.toString()
+          + BatchCopyListing.getTargetRelativePath(i, ""));
+      DirectoryListing srcListing = dirToListing.get(srcDir);
+
+      if (syncModificationTimes) {
+        FsUtils.syncModificationTimes(conf, srcListing, copiedDir);
+      }
+      DirectoryListing copiedListing = DirectoryListing.list(conf, copiedDir, Optional.empty());
+      if (!FsUtils.equalDirs(srcListing, copiedListing, syncModificationTimes)) {
+        LOG.error(String.format("Copy of %s to %s doesn't match the source!", srcDir, copiedDir));
+        FsUtils.deleteDirectory(conf, copiedDir);
+        continue;
+      }
+
+      if (FsUtils.dirExists(conf, destDir)) {
+        LOG.debug("Deleting existing directory " + destDir);
+        FsUtils.deleteDirectory(conf, destDir);
+      }
+      LOG.debug("Moving from " + copiedDir + " to " + destDir);
+      FsUtils.moveDir(conf, copiedDir, destDir);
+      bytesCopied.put(srcDir, srcListing.getTotalSize());
+    }
+
+    LOG.debug("Deleting tmp directory " + distCpTmpDir);
+    FsUtils.deleteDirectory(conf, distCpTmpDir);
+    LOG.debug("Deleting log directory " + distCpLogDir);
+    FsUtils.deleteDirectory(conf, distCpLogDir);
+
+    return bytesCopied;
+  }
+
   /**
    * Run distcp in a separate thread, but kill the thread if runtime exceeds timeout.
    *
@@ -33,6 +33,20 @@ public class DistCpWrapperOptions {
   // this many files, use a local -cp command to copy the files.
   private long localCopyCountThreshold = (long) 100;
   private long localCopySizeThreshold = (long) 256e6;
+  // If the input data is too large for a local -cp command, but smaller than this many bytes and
+  // fewer than this many files, copy the files with a thread pool in this process instead of
+  // running a distcp job.
+  private long parallelCopyCountThreshold = (long) 1000;
+  private long parallelCopySizeThreshold = (long) 2e9;
+  // If the source and destination are on the same filesystem, the data doesn't need to cross
+  // clusters, so larger directories (smaller than this many bytes and with fewer than this many
+  // files) are copied in this process as well. Disabled by default.
+  private long sameFsCopyCountThreshold = 0;
+  private long sameFsCopySizeThreshold = 0;
+  // If the destination directory already exists, copy only the files that are new or changed
+  // into the destination instead of replacing the whole directory. Only used if the changed files
+  // are small enough to be copied without a distcp job.
+  private boolean deltaCopy = false;
   // Poll for the progress of DistCp every N ms
   private long distCpPollInterval = 2500;
   // Use a variable amount of time for distcp job timeout, depending on filesize
@@ -91,6 +105,31 @@ public class DistCpWrapperOptions {
     return this;
   }
 
+  public DistCpWrapperOptions setParallelCopyCountThreshold(long parallelCopyCountThreshold) {
+    this.parallelCopyCountThreshold = parallelCopyCountThreshold;
+    return this;
+  }
+
+  public DistCpWrapperOptions setParallelCopySizeThreshold(long parallelCopySizeThreshold) {
+    this.parallelCopySizeThreshold = parallelCopySizeThreshold;
+    return this;
+  }
+
+  public DistCpWrapperOptions setSameFsCopyCountThreshold(long sameFsCopyCountThreshold) {
+    this.sameFsCopyCountThreshold = sameFsCopyCountThreshold;
+    return this;
+  }
+
+  public DistCpWrapperOptions setSameFsCopySizeThreshold(long sameFsCopySizeThreshold) {
+    this.sameFsCopySizeThreshold = sameFsCopySizeThreshold;
+    return this;
+  }
+
+  public DistCpWrapperOptions setDeltaCopy(boolean deltaCopy) {
+    this.deltaCopy = deltaCopy;
+    return this;
+  }
+
   public DistCpWrapperOptions setDistcpDynamicJobTimeoutEnabled(
       boolean distcpDynamicJobTimeoutEnabled) {
     this.distcpDynamicJobTimeoutEnabled = distcpDynamicJobTimeoutEnabled;
@@ -159,6 +198,26 @@ public class DistCpWrapperOptions {
     return localCopyCountThreshold;
   }
 
+  public long getParallelCopyCountThreshold() {
+    return parallelCopyCountThreshold;
+  }
+
+  public long getParallelCopySizeThreshold() {
+    return parallelCopySizeThreshold;
+  }
+
+  public long getSameFsCopyCountThreshold() {
+    return sameFsCopyCountThreshold;
+  }
+
+  public long getSameFsCopySizeThreshold() {
+    return sameFsCopySizeThreshold;
+  }
+
+  public boolean getDeltaCopy() {
+    return deltaCopy;
+  }
+
   public long getDistCpPollInterval() {
     return distCpPollInterval;
   }
@@ -14,12 +14,9 @@ import org.apache.hadoop.fs.Trash;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URI;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Queue;
 import java.util.Set;
 
 /**
@@ -29,13 +26,62 @@ public class FsUtils {
 
   private static final Log LOG = LogFactory.getLog(FsUtils.class);
 
+  // Schemes of the filesystems where getContentSummary() is computed by the server in a single
+  // call. For other filesystems, the default implementation lists the directory tree serially, so
+  // sizes are computed with ParallelFileLister instead.
+  public static final String CONTENT_SUMMARY_SCHEMES_KEY =
+      "airbnb.reair.fs.content_summary.schemes";
+  public static final String DEFAULT_CONTENT_SUMMARY_SCHEMES = "hdfs";
+
   public static boolean sameFs(Path p1, Path p2) {
     return StringUtils.equals(p1.toUri().getScheme(), p2.toUri().getScheme())
         && StringUtils.equals(p1.toUri().getAuthority(), p2.toUri().getAuthority());
   }
 
   /**
-   * Get the total size of the files under the specified path.
+   * Check whether two paths are on the same filesystem. Unlike {@link #sameFs(Path, Path)}, paths
+   * without a scheme or authority are resolved against the default filesystem first.
+   *
+   * @param conf configuration object
+   * @param p1 the first path
+   * @param p2 the second path
+   * @return whether the paths are on the same filesystem
+   *
+   * @throws IOException if there's an error getting the filesystems
+   */
+  public static boolean sameFs(Configuration conf, Path p1, Path p2) throws IOException {
+    return sameFs(p1.getFileSystem(conf).makeQualified(p1),
+        p2.getFileSystem(conf).makeQualified(p2));
+  }
+
+  /**
+   * Check whether the size of a directory can be found with a single call to the filesystem.
+   *
+   * @param conf configuration object
+   * @param path the path to check
+   * @return whether the content summary of the path is computed by the filesystem
+   *
+   * @throws IOException if there's an error getting the filesystem
+   */
+  public static boolean hasServerSideContentSummary(Configuration conf, Path path)
+      throws IOException {
+    return hasServerSideContentSummary(conf, path.getFileSystem(conf));
+  }
+
+  private static boolean hasServerSideContentSummary(Configuration conf, FileSystem fs) {
+    String scheme = fs.getUri().getScheme();
+    for (String contentSummaryScheme : conf.getTrimmedStrings(CONTENT_SUMMARY_SCHEMES_KEY,
+        DEFAULT_CONTENT_SUMMARY_SCHEMES)) {
+      if (contentSummaryScheme.equalsIgnoreCase(scheme)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Get the total size of the files under the specified path. If there is no filter and the
+   * filesystem supports it, the size comes from a single content summary call.
    *
    * @param conf the configuration object
    * @param path the path to get the size of
@@ -46,36 +92,23 @@ public class FsUtils {
    */
   public static long getSize(Configuration conf, Path path, Optional<PathFilter> filter)
       throws IOException {
-    long totalSize = 0;
-
-    FileSystem fs = FileSystem.get(path.toUri(), conf);
-
-    Queue<Path> pathsToCheck = new LinkedList<>();
-    pathsToCheck.add(path);
-
-    // Traverse the directory tree and find all the paths
-    // Use this instead of listFiles() as there seems to be more errors
-    // related to block locations when using with s3n
-    while (pathsToCheck.size() > 0) {
-      Path pathToCheck = pathsToCheck.remove();
-      if (filter.isPresent() && !filter.get().accept(pathToCheck)) {
-        LOG.warn("Skipping check of directory: " + pathToCheck);
-        continue;
-      }
-      FileStatus[] statuses = fs.listStatus(pathToCheck);
-      for (FileStatus status : statuses) {
-        if (status.isDirectory()) {
-          pathsToCheck.add(status.getPath());
-        } else {
-          totalSize += status.getLen();
-        }
-      }
+    FileSystem fs = path.getFileSystem(conf);
+    if (!filter.isPresent() && hasServerSideContentSummary(conf, fs)) {
+      return fs.getContentSummary(path).getLength();
     }
-    return totalSize;
+
+    long[] totalSize = {0};
+    ParallelFileLister.walk(conf, Collections.singletonList(path), filter, (rootIndex, status) -> {
+      totalSize[0] += status.getLen();
+      return true;
+    });
+    return totalSize[0];
   }
 
   /**
-   * Check if a directory exceeds the specified size.
+   * Check if a directory exceeds the specified size. If the filesystem supports it, the size comes
+   * from a single content summary call. Otherwise, the directory is listed until the size is
+   * exceeded.
    *
    * @param conf configuration object
    * @param path the path to check the size of
@@ -86,34 +119,24 @@ public class FsUtils {
    */
   public static boolean exceedsSize(Configuration conf, Path path, long maxSize)
       throws IOException {
-    long totalSize = 0;
-    FileSystem fs = FileSystem.get(path.toUri(), conf);
-
-    Queue<Path> pathsToCheck = new LinkedList<>();
-    pathsToCheck.add(path);
-
-    // Traverse the directory tree and find all the paths
-    // Use this instead of listFiles() as there seems to be more errors
-    // related to block locations when using with s3n
-    while (pathsToCheck.size() > 0) {
-      Path pathToCheck = pathsToCheck.remove();
-      FileStatus[] statuses = fs.listStatus(pathToCheck);
-      for (FileStatus status : statuses) {
-        if (status.isDirectory()) {
-          pathsToCheck.add(status.getPath());
-        } else {
-          totalSize += status.getLen();
-          if (totalSize > maxSize) {
-            return true;
-          }
-        }
-      }
+    FileSystem fs = path.getFileSystem(conf);
+    if (hasServerSideContentSummary(conf, fs)) {
+      return fs.getContentSummary(path).getLength() > maxSize;
     }
-    return false;
+
+    long[] totalSize = {0};
+    ParallelFileLister.walk(conf, Collections.singletonList(path), Optional.empty(),
+        (rootIndex, status) -> {
+          totalSize[0] += status.getLen();
+          // Stop listing once the size is exceeded
+          return totalSize[0] <= maxSize;
+        });
+    return totalSize[0] > maxSize;
   }
 
   /**
-   * Get the file statuses of all the files in the path, including subdirectories.
+   * Get the file statuses of all the files in the path, including subdirectories. Directories are
+   * listed in parallel by {@link ParallelFileLister}.
    *
    * @param conf configuration object
    * @param path the path to examine
@@ -125,66 +148,8 @@ public class FsUtils {
       Configuration conf,
       Path path,
       Optional<PathFilter> filter) throws IOException {
-    FileSystem fs = FileSystem.get(path.toUri(), conf);
-    Set<FileStatus> fileStatuses = new HashSet<>();
-
-    Queue<Path> pathsToCheck = new LinkedList<>();
-    pathsToCheck.add(path);
-
-    // Traverse the directory tree and find all the paths
-    // Use this instead of listFiles() as there seems to be more errors
-    // related to block locations when using with s3n
-    while (pathsToCheck.size() > 0) {
-      Path pathToCheck = pathsToCheck.remove();
-      if (filter.isPresent() && !filter.get().accept(pathToCheck)) {
-        LOG.warn("Skipping check of directory: " + pathToCheck);
-        continue;
-      }
-      FileStatus[] statuses = fs.listStatus(pathToCheck);
-      for (FileStatus status : statuses) {
-        if (status.isDirectory()) {
-          pathsToCheck.add(status.getPath());
-        } else {
-          fileStatuses.add(status);
-        }
-      }
-    }
-    return fileStatuses;
-  }
-
-  /**
-   * Get the sizes of the files under the specified path.
-   *
-   * @param root the path to check
-   * @param statuses a set of statuses for all the files in the root directory
-   * @return a map from the path to a file relative to the root (e.g. a/b.txt) to the associated
-   *         file size
-   */
-  private static Map<String, Long> getRelPathToSizes(Path root, Set<FileStatus> statuses)
-      throws ArgumentException {
-    Map<String, Long> pathToStatus = new HashMap<>();
-    for (FileStatus status : statuses) {
-      pathToStatus.put(getRelativePath(root, status.getPath()), status.getLen());
-    }
-    return pathToStatus;
-  }
-
-  /**
-   * Get the modified times of the files under the specified path.
-   *
-   * @param root the path to check
-   * @param statuses a set of statuses for all the files in the root directory
-   * @return a map from the path to a file relative to the root (e.g. a/b.txt) to the associated
-   *         modification time
-   */
-  private static Map<String, Long> getRelativePathToModificationTime(Path root,
-                                                                     Set<FileStatus> statuses)
-      throws ArgumentException {
-    Map<String, Long> pathToStatus = new HashMap<>();
-    for (FileStatus status : statuses) {
-      pathToStatus.put(getRelativePath(root, status.getPath()), status.getModificationTime());
-    }
-    return pathToStatus;
+    return ParallelFileLister.getFileStatusesRecursive(conf, Collections.singletonList(path),
+        filter).get(path);
   }
 
   /**
@@ -217,20 +182,6 @@ public class FsUtils {
     return child.toString().substring(prefix.length());
   }
 
-  /**
-   * Get the total size of the paths.
-   *
-   * @param relPathToSize a map from the relative path to a file to the file size
-   * @return the total size of the files described in the map
-   */
-  private static long totalSize(Map<String, Long> relPathToSize) {
-    long total = 0;
-    for (Long l : relPathToSize.values()) {
-      total += l;
-    }
-    return total;
-  }
-
   /**
    * Checks to see if filenames exist on a destination directory that don't exist in the source
    * directory. Mainly used for checking if a distcp -update can work.
@@ -245,22 +196,23 @@ public class FsUtils {
    */
   public static boolean filesExistOnDestButNotSrc(Configuration conf, Path src, Path dest,
       Optional<PathFilter> filter) throws IOException {
-    Set<FileStatus> srcFileStatuses = getFileStatusesRecursive(conf, src, filter);
-    Set<FileStatus> destFileStatuses = getFileStatusesRecursive(conf, dest, filter);
-
-    Map<String, Long> srcFileSizes = null;
-    Map<String, Long> destFileSizes = null;
-
-    try {
-      srcFileSizes = getRelPathToSizes(src, srcFileStatuses);
-      destFileSizes = getRelPathToSizes(dest, destFileStatuses);
-    } catch (ArgumentException e) {
-      throw new IOException("Invalid file statuses!", e);
-    }
+    return StreamingDirectoryComparator.filesExistOnDestButNotSrc(conf, src, dest, filter);
+  }
 
-    for (String file : destFileSizes.keySet()) {
-      if (!srcFileSizes.containsKey(file)) {
-        LOG.warn(String.format("%s exists on %s but not in %s", file, dest, src));
+  /**
+   * Checks to see if filenames exist in a destination listing that don't exist in the source
+   * listing.
+   *
+   * @param src listing of the source directory
+   * @param dest listing of the destination directory
+   * @return true if there are any file names on the destination directory that are not in the
+   *         source directory
+   */
+  public static boolean filesExistOnDestButNotSrc(DirectoryListing src, DirectoryListing dest) {
+    for (String file : dest.getRelativePathToStatus().keySet()) {
+      if (!src.getRelativePathToStatus().containsKey(file)) {
+        LOG.warn(String.format("%s exists on %s but not in %s", file, dest.getRoot(),
+            src.getRoot()));
         return true;
       }
     }
@@ -311,21 +263,31 @@ public class FsUtils {
       return false;
     }
 
-    Set<FileStatus> srcFileStatuses = getFileStatusesRecursive(conf, src, filter);
-    Set<FileStatus> destFileStatuses = getFileStatusesRecursive(conf, dest, filter);
-
-    Map<String, Long> srcFileSizes = null;
-    Map<String, Long> destFileSizes = null;
-
-    try {
-      srcFileSizes = getRelPathToSizes(src, srcFileStatuses);
-      destFileSizes = getRelPathToSizes(dest, destFileStatuses);
-    } catch (ArgumentException e) {
-      throw new IOException("Invalid file statuses!", e);
-    }
+    // Compare the directories without holding the listings of the whole trees in memory
+    return StreamingDirectoryComparator.equalDirs(conf, src, dest, filter,
+        compareModificationTimes);
+  }
 
-    long srcSize = totalSize(srcFileSizes);
-    long destSize = totalSize(destFileSizes);
+  /**
+   * Checks to see if the listings of two directories are equal, using the same criteria as
+   * {@link #equalDirs(Configuration, Path, Path, Optional, boolean)}.
+   *
+   * @param srcListing listing of the source directory
+   * @param destListing listing of the destination directory
+   * @param compareModificationTimes whether to compare modification times.
+   * @return true if the two directories are equal
+   */
+  public static boolean equalDirs(
+      DirectoryListing srcListing,
+      DirectoryListing destListing,
+      boolean compareModificationTimes) {
+    Path src = srcListing.getRoot();
+    Path dest = destListing.getRoot();
+    Map<String, FileStatus> srcFileStatuses = srcListing.getRelativePathToStatus();
+    Map<String, FileStatus> destFileStatuses = destListing.getRelativePathToStatus();
+
+    long srcSize = srcListing.getTotalSize();
+    long destSize = destListing.getTotalSize();
 
     // Size check is sort of redundant, but is a quick one to show.
     LOG.debug("Size of " + src + " is " + srcSize);
@@ -336,41 +298,35 @@ public class FsUtils {
       return false;
     }
 
-    if (srcFileSizes.size() != destFileSizes.size()) {
+    if (srcFileStatuses.size() != destFileStatuses.size()) {
       LOG.warn(String.format("Number of files in %s (%d) and %s (%d) " + "do not match!", src,
-          srcFileSizes.size(), dest, destFileSizes.size()));
+          srcFileStatuses.size(), dest, destFileStatuses.size()));
       return false;
     }
 
-    for (String file : srcFileSizes.keySet()) {
-      if (!destFileSizes.containsKey(file)) {
+    for (Map.Entry<String, FileStatus> entry : srcFileStatuses.entrySet()) {
+      String file = entry.getKey();
+      FileStatus destStatus = destFileStatuses.get(file);
+      if (destStatus == null) {
         LOG.warn(String.format("%s missing from %s!", file, dest));
         return false;
       }
-      if (!srcFileSizes.get(file).equals(destFileSizes.get(file))) {
+      if (entry.getValue().getLen() != destStatus.getLen()) {
         LOG.warn(String.format("Size mismatch between %s (%d) in %s " + "and %s (%d) in %s", file,
-            srcFileSizes.get(file), src, file, destFileSizes.get(file), dest));
+            entry.getValue().getLen(), src, file, destStatus.getLen(), dest));
         return false;
       }
     }
 
     if (compareModificationTimes) {
-      Map<String, Long> srcFileModificationTimes = null;
-      Map<String, Long> destFileModificationTimes = null;
-
-      try {
-        srcFileModificationTimes = getRelativePathToModificationTime(src, srcFileStatuses);
-        destFileModificationTimes = getRelativePathToModificationTime(dest, destFileStatuses);
-      } catch (ArgumentException e) {
-        throw new IOException("Invalid file statuses!", e);
-      }
-
-      for (String file : srcFileModificationTimes.keySet()) {
-        if (!srcFileModificationTimes.get(file).equals(destFileModificationTimes.get(file))) {
+      for (Map.Entry<String, FileStatus> entry : srcFileStatuses.entrySet()) {
+        String file = entry.getKey();
+        long srcModificationTime = entry.getValue().getModificationTime();
+        long destModificationTime = destFileStatuses.get(file).getModificationTime();
+        if (srcModificationTime != destModificationTime) {
           LOG.warn(String.format(
               "Modification time mismatch between " + "%s (%d) in %s and %s (%d) in %s", file,
-              srcFileModificationTimes.get(file), src, file, destFileModificationTimes.get(file),
-              dest));
+              srcModificationTime, src, file, destModificationTime, dest));
           return false;
         }
       }
@@ -393,20 +349,25 @@ public class FsUtils {
    */
   public static void syncModificationTimes(Configuration conf, Path src, Path dest,
       Optional<PathFilter> filter) throws IOException {
-    Set<FileStatus> srcFileStatuses = getFileStatusesRecursive(conf, src, filter);
-
-    Map<String, Long> srcFileModificationTimes = null;
-
-    try {
-      srcFileModificationTimes = getRelativePathToModificationTime(src, srcFileStatuses);
-    } catch (ArgumentException e) {
-      throw new IOException("Invalid file statuses!", e);
-    }
+    syncModificationTimes(conf, DirectoryListing.list(conf, src, filter), dest);
+  }
 
+  /**
+   * Set the file modification times for the files on the destination to be the same as the
+   * modification times in a listing of the source.
+   *
+   * @param conf configuration object
+   * @param srcListing listing of the source directory
+   * @param dest destination directory
+   *
+   * @throws IOException if there's an error
+   */
+  public static void syncModificationTimes(Configuration conf, DirectoryListing srcListing,
+      Path dest) throws IOException {
     FileSystem destFs = dest.getFileSystem(conf);
 
-    for (String file : srcFileModificationTimes.keySet()) {
-      destFs.setTimes(new Path(dest, file), srcFileModificationTimes.get(file), -1);
+    for (Map.Entry<String, FileStatus> entry : srcListing.getRelativePathToStatus().entrySet()) {
+      destFs.setTimes(new Path(dest, entry.getKey()), entry.getValue().getModificationTime(), -1);
     }
   }
 
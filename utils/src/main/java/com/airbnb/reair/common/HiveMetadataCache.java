@@ -0,0 +1,187 @@
+package com.airbnb.reair.common;
+
+import org.apache.hadoop.hive.metastore.api.Table;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of table and database metadata that is shared by the {@link CachingHiveMetastoreClient}s
+ * for a metastore. Entries expire after a fixed amount of time, and are invalidated when the
+ * metadata is changed through one of the caching clients.
+ *
+ * <p>If multiple threads ask for the same entry when it's not cached, only one of them fetches it
+ * from the metastore and the others wait for the result.
+ */
+public class HiveMetadataCache {
+
+  /**
+   * Fetches the value for an entry from the metastore.
+   */
+  interface Loader<T> {
+    T load() throws HiveMetastoreException;
+  }
+
+  /**
+   * A cached value, or a value that is being fetched.
+   */
+  private static class CacheEntry<T> {
+    private final CompletableFuture<T> value = new CompletableFuture<>();
+    private final long loadTime;
+
+    CacheEntry(long loadTime) {
+      this.loadTime = loadTime;
+    }
+  }
+
+  private final long ttlMs;
+  private final int maxEntries;
+
+  // Tables that don't exist are cached as empty values
+  private final Map<HiveObjectSpec, CacheEntry<Optional<Table>>> tableCache =
+      new ConcurrentHashMap<>();
+  private final Map<String, CacheEntry<Boolean>> dbExistsCache = new ConcurrentHashMap<>();
+
+  private final AtomicLong hitCount = new AtomicLong(0);
+  private final AtomicLong missCount = new AtomicLong(0);
+
+  /**
+   * Constructor for a metadata cache.
+   *
+   * @param ttlMs how long entries can be used for after they were fetched
+   * @param maxEntries the maximum number of entries of each type to keep
+   */
+  public HiveMetadataCache(long ttlMs, int maxEntries) {
+    if (ttlMs <= 0) {
+      throw new IllegalArgumentException("Invalid TTL: " + ttlMs);
+    }
+    this.ttlMs = ttlMs;
+    this.maxEntries = maxEntries;
+  }
+
+  private <K, T> T get(Map<K, CacheEntry<T>> cache, K key, Loader<T> loader)
+      throws HiveMetastoreException {
+    while (true) {
+      long now = System.currentTimeMillis();
+      CacheEntry<T> entry = cache.get(key);
+      if (entry != null && (!entry.value.isDone() || now - entry.loadTime < ttlMs)) {
+        hitCount.incrementAndGet();
+        return waitForValue(cache, key, entry);
+      }
+
+      CacheEntry<T> newEntry = new CacheEntry<>(now);
+      boolean added = entry == null
+          ? cache.putIfAbsent(key, newEntry) == null
+          : cache.replace(key, entry, newEntry);
+      if (!added) {
+        // Another thread started fetching the value
+        continue;
+      }
+      missCount.incrementAndGet();
+      if (cache.size() > maxEntries) {
+        removeExpired(cache, now);
+      }
+
+      try {
+        T value = loader.load();
+        newEntry.value.complete(value);
+        return value;
+      } catch (HiveMetastoreException | RuntimeException e) {
+        // Don't cache errors
+        cache.remove(key, newEntry);
+        newEntry.value.completeExceptionally(e);
+        throw e;
+      }
+    }
+  }
+
+  private static <K, T> T waitForValue(Map<K, CacheEntry<T>> cache, K key, CacheEntry<T> entry)
+      throws HiveMetastoreException {
+    try {
+      return entry.value.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new HiveMetastoreException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof HiveMetastoreException) {
+        throw (HiveMetastoreException) e.getCause();
+      } else if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      } else {
+        throw new HiveMetastoreException(e.getCause());
+      }
+    }
+  }
+
+  private <K, T> void removeExpired(Map<K, CacheEntry<T>> cache, long now) {
+    Iterator<CacheEntry<T>> iterator = cache.values().iterator();
+    while (iterator.hasNext()) {
+      CacheEntry<T> entry = iterator.next();
+      if (entry.value.isDone() && now - entry.loadTime >= ttlMs) {
+        iterator.remove();
+      }
+    }
+    // If the entries are still valid, start over rather than growing without bound
+    if (cache.size() > maxEntries) {
+      cache.clear();
+    }
+  }
+
+  /**
+   * Get a table, fetching it with the loader if it's not cached.
+   *
+   * @param dbName the name of the database
+   * @param tableName the name of the table
+   * @param loader fetches the table from the metastore, returning null if it doesn't exist
+   * @return the table, or null if it doesn't exist. The caller should not modify the object.
+   *
+   * @throws HiveMetastoreException if there's an error fetching the table
+   */
+  Table getTable(String dbName, String tableName, Loader<Table> loader)
+      throws HiveMetastoreException {
+    return get(tableCache, new HiveObjectSpec(dbName, tableName),
+        () -> Optional.ofNullable(loader.load())).orElse(null);
+  }
+
+  /**
+   * Check whether a database exists, checking with the loader if it's not cached.
+   *
+   * @param dbName the name of the database
+   * @param loader checks whether the database exists in the metastore
+   * @return whether the database exists
+   *
+   * @throws HiveMetastoreException if there's an error checking the database
+   */
+  boolean existsDb(String dbName, Loader<Boolean> loader) throws HiveMetastoreException {
+    return get(dbExistsCache, dbName, loader);
+  }
+
+  public void invalidateTable(String dbName, String tableName) {
+    tableCache.remove(new HiveObjectSpec(dbName, tableName));
+  }
+
+  public void invalidateDb(String dbName) {
+    dbExistsCache.remove(dbName);
+  }
+
+  /**
+   * Remove all entries from the cache.
+   */
+  public void invalidateAll() {
+    tableCache.clear();
+    dbExistsCache.clear();
+  }
+
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  public long getMissCount() {
+    return missCount.get();
+  }
+}
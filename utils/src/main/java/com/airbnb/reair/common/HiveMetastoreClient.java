@@ -14,6 +14,16 @@ public interface HiveMetastoreClient {
 
   Partition addPartition(Partition partition) throws HiveMetastoreException;
 
+  /**
+   * Add multiple partitions in a single call to the metastore. If any of the partitions can't be
+   * added (e.g. because it already exists), none of them are added.
+   *
+   * @param partitions the partitions to add
+   *
+   * @throws HiveMetastoreException if there is an error adding the partitions
+   */
+  void addPartitions(List<Partition> partitions) throws HiveMetastoreException;
+
   Table getTable(String dbName, String tableName) throws HiveMetastoreException;
 
   Partition getPartition(String dbName, String tableName, String partitionName)
@@ -22,9 +32,37 @@ public interface HiveMetastoreClient {
   List<String> getPartitionNames(String dbName, String tableName)
       throws HiveMetastoreException;
 
+  /**
+   * Get multiple partitions of a table. Implementations should fetch the partitions with as few
+   * calls to the metastore as possible.
+   *
+   * @param dbName the name of the database
+   * @param tableName the name of the table
+   * @param partitionNames the names of the partitions to get (e.g. ds=1/hr=2)
+   * @return a map from the partition name to the partition, for the partitions that exist
+   *
+   * @throws HiveMetastoreException if there is an error communicating with the metastore
+   */
+  Map<String, Partition> getPartitionsByNames(
+      String dbName,
+      String tableName,
+      List<String> partitionNames) throws HiveMetastoreException;
+
   void alterPartition(String dbName, String tableName, Partition partition)
       throws HiveMetastoreException;
 
+  /**
+   * Alter multiple partitions of a table in a single call to the metastore.
+   *
+   * @param dbName the name of the database
+   * @param tableName the name of the table
+   * @param partitions the new metadata for the partitions
+   *
+   * @throws HiveMetastoreException if there is an error altering the partitions
+   */
+  void alterPartitions(String dbName, String tableName, List<Partition> partitions)
+      throws HiveMetastoreException;
+
   void alterTable(
       String dbName,
       String tableName,
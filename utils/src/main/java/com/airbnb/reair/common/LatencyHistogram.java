@@ -0,0 +1,87 @@
+package com.airbnb.reair.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies with exponentially sized buckets. Bucket i counts latencies that are
+ * less than 2^i ms, and at least 2^(i-1) ms. This class is thread safe.
+ */
+public class LatencyHistogram {
+
+  // The last bucket holds latencies of 2^(NUM_BUCKETS - 2) ms or more (~ 1 hour)
+  private static final int NUM_BUCKETS = 24;
+
+  private final AtomicLongArray bucketCounts = new AtomicLongArray(NUM_BUCKETS);
+  private final AtomicLong count = new AtomicLong(0);
+  private final AtomicLong totalLatencyMs = new AtomicLong(0);
+  private final AtomicLong maxLatencyMs = new AtomicLong(0);
+
+  private static int getBucket(long latencyMs) {
+    if (latencyMs <= 0) {
+      return 0;
+    }
+    int bucket = 64 - Long.numberOfLeadingZeros(latencyMs);
+    return Math.min(bucket, NUM_BUCKETS - 1);
+  }
+
+  /**
+   * Record a latency.
+   *
+   * @param latencyMs the latency in ms
+   */
+  public void record(long latencyMs) {
+    bucketCounts.incrementAndGet(getBucket(latencyMs));
+    count.incrementAndGet();
+    totalLatencyMs.addAndGet(latencyMs);
+    maxLatencyMs.accumulateAndGet(latencyMs, Math::max);
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getMaxLatencyMs() {
+    return maxLatencyMs.get();
+  }
+
+  /**
+   * Get the average of the recorded latencies.
+   *
+   * @return the average latency in ms, or 0 if nothing was recorded
+   */
+  public double getAverageLatencyMs() {
+    long currentCount = count.get();
+    return currentCount == 0 ? 0 : (double) totalLatencyMs.get() / currentCount;
+  }
+
+  /**
+   * Get an upper bound for the latency at the given percentile.
+   *
+   * @param percentile the percentile, between 0 and 100
+   * @return the upper bound of the bucket containing the percentile in ms, or 0 if nothing was
+   *         recorded
+   */
+  public long getPercentileUpperBoundMs(double percentile) {
+    long currentCount = count.get();
+    if (currentCount == 0) {
+      return 0;
+    }
+    long threshold = (long) Math.ceil(currentCount * percentile / 100);
+    long seen = 0;
+    for (int i = 0; i < NUM_BUCKETS - 1; i++) {
+      seen += bucketCounts.get(i);
+      if (seen >= threshold) {
+        return 1L << i;
+      }
+    }
+    return getMaxLatencyMs();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("count=%d avg=%.1fms p50<=%dms p99<=%dms max=%dms", getCount(),
+        getAverageLatencyMs(), getPercentileUpperBoundMs(50), getPercentileUpperBoundMs(99),
+        getMaxLatencyMs());
+  }
+}
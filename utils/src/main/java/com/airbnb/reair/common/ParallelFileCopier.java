@@ -0,0 +1,199 @@
+package com.airbnb.reair.common;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copies the files of a directory tree with a thread pool in this process. This avoids the cost of
+ * launching a DistCp job for directories that are too large to copy with a single thread, but not
+ * large enough to need a cluster. The thread pool is shared by all callers, so the number of files
+ * being copied at the same time is limited by {@link #PARALLELISM_KEY}.
+ *
+ * <p>Like DistCp with -prugpb, the permissions, owner, group, replication, and block size of the
+ * files are preserved. The modification and access times are preserved as well. After each file
+ * is copied, the length and (if both filesystems provide them) the checksum of the copy are
+ * checked against the source. Only files are copied, so empty directories are not created.
+ */
+public class ParallelFileCopier {
+
+  private static final Log LOG = LogFactory.getLog(ParallelFileCopier.class);
+
+  // The maximum number of files that are copied at the same time by all callers
+  public static final String PARALLELISM_KEY = "airbnb.reair.fs.copy.parallelism";
+  public static final int DEFAULT_PARALLELISM = 16;
+  // The size of the buffer used to copy each file, in bytes
+  public static final String BUFFER_SIZE_KEY = "airbnb.reair.fs.copy.buffer_size";
+  public static final int DEFAULT_BUFFER_SIZE = 4 * 1024 * 1024;
+
+  private static final long IDLE_THREAD_TIMEOUT_SECONDS = 60;
+
+  private static ThreadPoolExecutor copyExecutor = null;
+
+  /**
+   * Get the shared executor, growing the pool if needed.
+   */
+  private static synchronized ThreadPoolExecutor getSharedExecutor(int parallelism) {
+    if (copyExecutor == null) {
+      AtomicInteger threadCount = new AtomicInteger(0);
+      ThreadFactory threadFactory = runnable -> {
+        Thread thread = new Thread(runnable, "FileCopier-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      };
+      copyExecutor = new ThreadPoolExecutor(parallelism, parallelism,
+          IDLE_THREAD_TIMEOUT_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+          threadFactory);
+      copyExecutor.allowCoreThreadTimeOut(true);
+    } else if (copyExecutor.getMaximumPoolSize() < parallelism) {
+      LOG.debug("Increasing the number of file copy threads to " + parallelism);
+      copyExecutor.setMaximumPoolSize(parallelism);
+      copyExecutor.setCorePoolSize(parallelism);
+    }
+    return copyExecutor;
+  }
+
+  /**
+   * Copy a single file, and verify the copy.
+   *
+   * @param conf configuration object
+   * @param srcStatus the status of the file to copy
+   * @param destFile where to copy the file to
+   * @param bufferSize the size of the buffer to use for the copy
+   *
+   * @throws IOException if there's an error copying the file, or the copy doesn't match the source
+   */
+  private static void copyFile(
+      Configuration conf,
+      FileStatus srcStatus,
+      Path destFile,
+      int bufferSize) throws IOException {
+    Path srcFile = srcStatus.getPath();
+    FileSystem srcFs = srcFile.getFileSystem(conf);
+    FileSystem destFs = destFile.getFileSystem(conf);
+
+    LOG.debug(String.format("Copying %s to %s", srcFile, destFile));
+    // Keeping the block size is needed for the HDFS checksums to be comparable
+    try (FSDataInputStream in = srcFs.open(srcFile, bufferSize);
+        FSDataOutputStream out = destFs.create(destFile, srcStatus.getPermission(), true,
+            bufferSize, srcStatus.getReplication(), srcStatus.getBlockSize(), null)) {
+      IOUtils.copyBytes(in, out, bufferSize, false);
+    }
+
+    long copiedLength = destFs.getFileStatus(destFile).getLen();
+    if (copiedLength != srcStatus.getLen()) {
+      throw new IOException(String.format("Copied %s bytes from %s to %s, but expected %s bytes",
+          copiedLength, srcFile, destFile, srcStatus.getLen()));
+    }
+    // Checksums can only be compared if both filesystems provide them
+    if (!FsUtils.checksumsMatch(conf, srcFile, destFile).orElse(true)) {
+      throw new IOException(String.format("Checksum of %s doesn't match %s", destFile, srcFile));
+    }
+
+    // The umask is applied on create, so the permissions need to be set explicitly
+    destFs.setPermission(destFile, srcStatus.getPermission());
+    try {
+      destFs.setOwner(destFile, srcStatus.getOwner(), srcStatus.getGroup());
+    } catch (IOException e) {
+      LOG.warn(String.format("Unable to set the owner of %s to %s:%s", destFile,
+          srcStatus.getOwner(), srcStatus.getGroup()), e);
+    }
+    destFs.setTimes(destFile, srcStatus.getModificationTime(), srcStatus.getAccessTime());
+  }
+
+  /**
+   * Copy the files in a directory listing to the destination directory, with the same paths
+   * relative to the destination directory.
+   *
+   * @param conf configuration object
+   * @param srcListing the listing of the directory to copy
+   * @param destDir the directory to copy the files to
+   * @param destListing if the destination directory already has files, the listing of the
+   *                    destination. Files that already exist on the destination with the same
+   *                    length and checksum are not copied again.
+   * @param timeoutMs the maximum amount of time that the copy can take, in ms
+   * @return the number of bytes copied
+   *
+   * @throws IOException if there's an error copying the files, or the copy took too long
+   */
+  public static long copy(
+      Configuration conf,
+      DirectoryListing srcListing,
+      Path destDir,
+      Optional<DirectoryListing> destListing,
+      long timeoutMs) throws IOException {
+    int parallelism = Math.max(1, conf.getInt(PARALLELISM_KEY, DEFAULT_PARALLELISM));
+    int bufferSize = conf.getInt(BUFFER_SIZE_KEY, DEFAULT_BUFFER_SIZE);
+    ThreadPoolExecutor executor = getSharedExecutor(parallelism);
+
+    FileSystem destFs = destDir.getFileSystem(conf);
+    destFs.mkdirs(destDir);
+
+    List<Future<Long>> futures = new ArrayList<>();
+    for (Map.Entry<String, FileStatus> entry : srcListing.getRelativePathToStatus().entrySet()) {
+      FileStatus srcStatus = entry.getValue();
+      Path destFile = new Path(destDir, entry.getKey());
+      Optional<FileStatus> destStatus = destListing.map(listing ->
+          listing.getRelativePathToStatus().get(entry.getKey()));
+      futures.add(executor.submit(() -> {
+        if (destStatus.isPresent() && destStatus.get().getLen() == srcStatus.getLen()
+            && FsUtils.checksumsMatch(conf, srcStatus.getPath(), destFile).orElse(true)) {
+          LOG.debug("Skipping copy of " + srcStatus.getPath() + " since it already exists");
+          return 0L;
+        }
+        copyFile(conf, srcStatus, destFile, bufferSize);
+        return srcStatus.getLen();
+      }));
+    }
+
+    long deadline = System.currentTimeMillis() + timeoutMs;
+    long bytesCopied = 0;
+    try {
+      for (Future<Long> future : futures) {
+        bytesCopied += future.get(Math.max(0, deadline - System.currentTimeMillis()),
+            TimeUnit.MILLISECONDS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while copying " + srcListing.getRoot());
+    } catch (TimeoutException e) {
+      throw new IOException(String.format("Copy of %s to %s exceeded timeout of %sms",
+          srcListing.getRoot(), destDir, timeoutMs));
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    } finally {
+      // Stop any copies that are still queued or running if there was an error
+      for (Future<Long> future : futures) {
+        future.cancel(true);
+      }
+    }
+
+    LOG.debug(String.format("Copied %s bytes from %s to %s", bytesCopied, srcListing.getRoot(),
+        destDir));
+    return bytesCopied;
+  }
+}
@@ -0,0 +1,218 @@
+package com.airbnb.reair.common;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lists the files under one or more directory trees, with several directories being listed at the
+ * same time. The directories are listed by a thread pool that is shared by all callers, while the
+ * calling thread walks the trees. The number of directories that a single call lists at the same
+ * time is limited by {@link #PARALLELISM_KEY}.
+ *
+ * <p>Directories are listed with listStatus() rather than listFiles(), as there seem to be more
+ * errors related to block locations when using listFiles() with s3n.
+ */
+public class ParallelFileLister {
+
+  private static final Log LOG = LogFactory.getLog(ParallelFileLister.class);
+
+  // The maximum number of directories that a single call lists at the same time. A value of 1
+  // lists directories one at a time in the calling thread.
+  public static final String PARALLELISM_KEY = "airbnb.reair.fs.listing.parallelism";
+  public static final int DEFAULT_PARALLELISM = 16;
+
+  private static final long IDLE_THREAD_TIMEOUT_SECONDS = 60;
+
+  private static ThreadPoolExecutor listingExecutor = null;
+
+  /**
+   * Receives the statuses of the files that are found.
+   */
+  interface FileVisitor {
+    /**
+     * Called for each file that is found.
+     *
+     * @param rootIndex the index of the root directory that the file is under
+     * @param status the status of the file
+     * @return whether to continue listing
+     */
+    boolean visit(int rootIndex, FileStatus status);
+  }
+
+  /**
+   * A directory to list, along with the root directory that it's under.
+   */
+  private static class Listing {
+    private final int rootIndex;
+    private final Path path;
+    private FileStatus[] statuses;
+
+    Listing(int rootIndex, Path path) {
+      this.rootIndex = rootIndex;
+      this.path = path;
+    }
+  }
+
+  /**
+   * Get the maximum number of directories that a single call should list at the same time.
+   */
+  static int getParallelism(Configuration conf) {
+    return Math.max(1, conf.getInt(PARALLELISM_KEY, DEFAULT_PARALLELISM));
+  }
+
+  /**
+   * Get the executor to list directories with. With a parallelism of 1, directories are listed in
+   * the calling thread.
+   */
+  static Executor getExecutor(Configuration conf) {
+    int parallelism = getParallelism(conf);
+    return parallelism == 1 ? Runnable::run : getSharedExecutor(parallelism);
+  }
+
+  /**
+   * Get the shared executor, growing the pool if needed.
+   */
+  private static synchronized Executor getSharedExecutor(int parallelism) {
+    if (listingExecutor == null) {
+      AtomicInteger threadCount = new AtomicInteger(0);
+      ThreadFactory threadFactory = runnable -> {
+        Thread thread = new Thread(runnable, "FileLister-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      };
+      listingExecutor = new ThreadPoolExecutor(parallelism, parallelism,
+          IDLE_THREAD_TIMEOUT_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+          threadFactory);
+      listingExecutor.allowCoreThreadTimeOut(true);
+    } else if (listingExecutor.getMaximumPoolSize() < parallelism) {
+      LOG.debug("Increasing the number of file listing threads to " + parallelism);
+      listingExecutor.setMaximumPoolSize(parallelism);
+      listingExecutor.setCorePoolSize(parallelism);
+    }
+    return listingExecutor;
+  }
+
+  /**
+   * Walk the directory trees under the specified roots, and call the visitor for each file.
+   * Directories rejected by the filter are not listed. The visitor is called from the calling
+   * thread.
+   *
+   * @param conf configuration object
+   * @param roots the directories to list
+   * @param filter use this to filter out directories
+   * @param visitor receives the statuses of the files
+   *
+   * @throws IOException if there's an error accessing the filesystem
+   */
+  static void walk(
+      Configuration conf,
+      List<Path> roots,
+      Optional<PathFilter> filter,
+      FileVisitor visitor) throws IOException {
+    int parallelism = getParallelism(conf);
+    CompletionService<Listing> completionService =
+        new ExecutorCompletionService<>(getExecutor(conf));
+
+    Deque<Listing> pendingListings = new ArrayDeque<>();
+    for (int i = 0; i < roots.size(); i++) {
+      pendingListings.add(new Listing(i, roots.get(i)));
+    }
+    int runningListingCount = 0;
+
+    while (!pendingListings.isEmpty() || runningListingCount > 0) {
+      while (!pendingListings.isEmpty() && runningListingCount < parallelism) {
+        Listing listing = pendingListings.remove();
+        if (filter.isPresent() && !filter.get().accept(listing.path)) {
+          LOG.warn("Skipping check of directory: " + listing.path);
+          continue;
+        }
+        completionService.submit(() -> {
+          FileSystem fs = listing.path.getFileSystem(conf);
+          listing.statuses = fs.listStatus(listing.path);
+          return listing;
+        });
+        runningListingCount++;
+      }
+      if (runningListingCount == 0) {
+        break;
+      }
+
+      Listing listing;
+      try {
+        listing = completionService.take().get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while listing " + roots);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new IOException(e.getCause());
+      }
+      runningListingCount--;
+
+      for (FileStatus status : listing.statuses) {
+        if (status.isDirectory()) {
+          pendingListings.add(new Listing(listing.rootIndex, status.getPath()));
+        } else if (!visitor.visit(listing.rootIndex, status)) {
+          // Listings that are still running are discarded when they finish
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Get the file statuses of all the files under each of the specified directories, including
+   * subdirectories. The directories are listed at the same time.
+   *
+   * @param conf configuration object
+   * @param roots the directories to list
+   * @param filter use this to filter out directories
+   * @return a map from each root to the statuses of the files under it
+   *
+   * @throws IOException if there's an error accessing the filesystem
+   */
+  public static Map<Path, Set<FileStatus>> getFileStatusesRecursive(
+      Configuration conf,
+      List<Path> roots,
+      Optional<PathFilter> filter) throws IOException {
+    List<Set<FileStatus>> fileStatuses = new ArrayList<>();
+    for (int i = 0; i < roots.size(); i++) {
+      fileStatuses.add(new HashSet<>());
+    }
+    walk(conf, roots, filter, (rootIndex, status) -> fileStatuses.get(rootIndex).add(status));
+
+    Map<Path, Set<FileStatus>> rootToFileStatuses = new LinkedHashMap<>();
+    for (int i = 0; i < roots.size(); i++) {
+      rootToFileStatuses.put(roots.get(i), fileStatuses.get(i));
+    }
+    return rootToFileStatuses;
+  }
+}
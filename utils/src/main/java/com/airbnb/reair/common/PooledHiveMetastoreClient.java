@@ -0,0 +1,569 @@
+package com.airbnb.reair.common;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.metastore.api.Database;
+import org.apache.hadoop.hive.metastore.api.Partition;
+import org.apache.hadoop.hive.metastore.api.Table;
+import org.apache.thrift.transport.TTransportException;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A HiveMetastoreClient that can be shared by multiple threads. Each call borrows a client from a
+ * bounded pool of connections to one or more metastore servers, so the number of open connections
+ * doesn't grow with the number of threads.
+ *
+ * <p>Connections that have been idle for longer than the health check interval are checked before
+ * they are used. When a call fails because of a transport error, the connection is closed instead
+ * of being returned to the pool, and new connections are made to the other servers until the
+ * server has been down for a while. Calls that fail with an error from the metastore itself (e.g.
+ * a missing object) leave the connection in the pool.
+ *
+ * <p>The latency of each type of call is recorded in a {@link LatencyHistogram}.
+ */
+public class PooledHiveMetastoreClient implements HiveMetastoreClient {
+
+  private static final Log LOG = LogFactory.getLog(PooledHiveMetastoreClient.class);
+
+  // How long to avoid making new connections to a server after it couldn't be reached
+  private static final long ENDPOINT_DOWN_TIME_MS = 30 * 1000;
+
+  // Weight of the latest call in the moving average of the latency for a server
+  private static final double LATENCY_AVERAGE_WEIGHT = 0.2;
+
+  // The database used to check the health of a connection
+  private static final String HEALTH_CHECK_DB = "default";
+
+  /**
+   * How to choose the metastore server for a new connection.
+   */
+  public enum Routing {
+    // Use each server in turn
+    ROUND_ROBIN,
+    // Use the server with the lowest average latency
+    LEAST_LATENCY
+  }
+
+  /**
+   * Creates the clients for the connections in the pool.
+   */
+  public interface ClientFactory {
+    HiveMetastoreClient create(String host, int port) throws HiveMetastoreException;
+  }
+
+  /**
+   * A call to make with a client from the pool.
+   */
+  private interface MetastoreCall<T> {
+    T call(HiveMetastoreClient client) throws HiveMetastoreException;
+  }
+
+  /**
+   * A metastore server, along with its recent health and latency.
+   */
+  private static class Endpoint {
+    private final String host;
+    private final int port;
+    private volatile long downUntilTime = 0;
+    private double averageLatencyMs = 0;
+
+    Endpoint(String host, int port) {
+      this.host = host;
+      this.port = port;
+    }
+
+    boolean isUp(long now) {
+      return now >= downUntilTime;
+    }
+
+    void markDown(long now) {
+      downUntilTime = now + ENDPOINT_DOWN_TIME_MS;
+    }
+
+    synchronized void recordLatency(long latencyMs) {
+      averageLatencyMs = LATENCY_AVERAGE_WEIGHT * latencyMs
+          + (1 - LATENCY_AVERAGE_WEIGHT) * averageLatencyMs;
+    }
+
+    synchronized double getAverageLatencyMs() {
+      return averageLatencyMs;
+    }
+
+    @Override
+    public String toString() {
+      return host + ":" + port;
+    }
+  }
+
+  /**
+   * A connection in the pool.
+   */
+  private static class PooledClient {
+    private final HiveMetastoreClient client;
+    private final Endpoint endpoint;
+    private long lastUsedTime;
+
+    PooledClient(HiveMetastoreClient client, Endpoint endpoint, long lastUsedTime) {
+      this.client = client;
+      this.endpoint = endpoint;
+      this.lastUsedTime = lastUsedTime;
+    }
+  }
+
+  private final List<Endpoint> endpoints = new ArrayList<>();
+  private final ClientFactory clientFactory;
+  private final Routing routing;
+  private final long healthCheckIntervalMs;
+
+  // Limits the number of connections that are in use or idle
+  private final Semaphore permits;
+  // Connections that are not in use, with the most recently used first. Guarded by this.
+  private final Deque<PooledClient> idleClients = new ArrayDeque<>();
+  private final AtomicInteger nextEndpointIndex = new AtomicInteger(0);
+  // Whether close() was called. Guarded by this.
+  private boolean closed = false;
+
+  private final Map<String, LatencyHistogram> methodToLatencies = new ConcurrentHashMap<>();
+
+  /**
+   * Constructor for a pool of Thrift clients.
+   *
+   * @param metastoreAddresses the addresses of the metastore Thrift servers
+   * @param maxClients the maximum number of connections to open
+   * @param routing how to choose the server for a new connection
+   * @param healthCheckIntervalMs connections that have been idle for longer than this are checked
+   *                              before they are used
+   */
+  public PooledHiveMetastoreClient(
+      List<InetSocketAddress> metastoreAddresses,
+      int maxClients,
+      Routing routing,
+      long healthCheckIntervalMs) {
+    this(metastoreAddresses, maxClients, routing, healthCheckIntervalMs,
+        ThriftHiveMetastoreClient::new);
+  }
+
+  /**
+   * Constructor for a pool of clients created by the given factory.
+   *
+   * @param metastoreAddresses the addresses of the metastore servers
+   * @param maxClients the maximum number of connections to open
+   * @param routing how to choose the server for a new connection
+   * @param healthCheckIntervalMs connections that have been idle for longer than this are checked
+   *                              before they are used
+   * @param clientFactory creates the clients for the connections
+   */
+  public PooledHiveMetastoreClient(
+      List<InetSocketAddress> metastoreAddresses,
+      int maxClients,
+      Routing routing,
+      long healthCheckIntervalMs,
+      ClientFactory clientFactory) {
+    if (metastoreAddresses.isEmpty()) {
+      throw new IllegalArgumentException("No metastore addresses specified");
+    }
+    if (maxClients <= 0) {
+      throw new IllegalArgumentException("Invalid number of clients: " + maxClients);
+    }
+    for (InetSocketAddress address : metastoreAddresses) {
+      endpoints.add(new Endpoint(address.getHostString(), address.getPort()));
+    }
+    this.permits = new Semaphore(maxClients, true);
+    this.routing = routing;
+    this.healthCheckIntervalMs = healthCheckIntervalMs;
+    this.clientFactory = clientFactory;
+  }
+
+  /**
+   * Get the latencies of the calls made through this client.
+   *
+   * @return a map from the name of the method to the latencies for calls to that method
+   */
+  public Map<String, LatencyHistogram> getLatencyHistograms() {
+    return Collections.unmodifiableMap(new TreeMap<>(methodToLatencies));
+  }
+
+  private void recordLatency(String methodName, long latencyMs) {
+    methodToLatencies.computeIfAbsent(methodName, name -> new LatencyHistogram())
+        .record(latencyMs);
+  }
+
+  /**
+   * Get the order in which to try the servers for a new connection.
+   *
+   * @return the servers to try, with the ones that are down at the end
+   */
+  private List<Endpoint> getEndpointsToTry() {
+    List<Endpoint> orderedEndpoints = new ArrayList<>(endpoints.size());
+    int startIndex = Math.floorMod(nextEndpointIndex.getAndIncrement(), endpoints.size());
+    for (int i = 0; i < endpoints.size(); i++) {
+      orderedEndpoints.add(endpoints.get((startIndex + i) % endpoints.size()));
+    }
+    if (routing == Routing.LEAST_LATENCY) {
+      // Stable sort, so servers with the same latency are still used in turn
+      orderedEndpoints.sort(Comparator.comparingDouble(Endpoint::getAverageLatencyMs));
+    }
+    long now = System.currentTimeMillis();
+    orderedEndpoints.sort(Comparator.comparing(endpoint -> !endpoint.isUp(now)));
+    return orderedEndpoints;
+  }
+
+  private PooledClient createClient() throws HiveMetastoreException {
+    HiveMetastoreException lastException = null;
+    for (Endpoint endpoint : getEndpointsToTry()) {
+      try {
+        HiveMetastoreClient client = clientFactory.create(endpoint.host, endpoint.port);
+        return new PooledClient(client, endpoint, System.currentTimeMillis());
+      } catch (HiveMetastoreException e) {
+        LOG.warn("Unable to connect to metastore " + endpoint, e);
+        endpoint.markDown(System.currentTimeMillis());
+        lastException = e;
+      }
+    }
+    throw lastException;
+  }
+
+  /**
+   * Take an idle connection from the pool. With least latency routing, the connection to the
+   * fastest server that is up is preferred.
+   *
+   * @return an idle connection, or null if there aren't any
+   */
+  private synchronized PooledClient takeIdleClient() {
+    if (idleClients.isEmpty()) {
+      return null;
+    }
+    if (routing != Routing.LEAST_LATENCY) {
+      return idleClients.pollFirst();
+    }
+    long now = System.currentTimeMillis();
+    PooledClient bestClient = null;
+    for (PooledClient pooledClient : idleClients) {
+      if (bestClient == null
+          || (pooledClient.endpoint.isUp(now) && !bestClient.endpoint.isUp(now))
+          || (pooledClient.endpoint.isUp(now) == bestClient.endpoint.isUp(now)
+              && pooledClient.endpoint.getAverageLatencyMs()
+              < bestClient.endpoint.getAverageLatencyMs())) {
+        bestClient = pooledClient;
+      }
+    }
+    idleClients.remove(bestClient);
+    return bestClient;
+  }
+
+  private void returnClient(PooledClient pooledClient) {
+    synchronized (this) {
+      if (!closed) {
+        pooledClient.lastUsedTime = System.currentTimeMillis();
+        idleClients.addFirst(pooledClient);
+        return;
+      }
+    }
+    evict(pooledClient);
+  }
+
+  private void evict(PooledClient pooledClient) {
+    LOG.debug("Closing connection to metastore " + pooledClient.endpoint);
+    pooledClient.client.close();
+  }
+
+  private boolean isHealthy(PooledClient pooledClient) {
+    long now = System.currentTimeMillis();
+    if (now - pooledClient.lastUsedTime < healthCheckIntervalMs) {
+      return true;
+    }
+    try {
+      pooledClient.client.existsDb(HEALTH_CHECK_DB);
+      recordLatency("healthCheck", System.currentTimeMillis() - now);
+      return true;
+    } catch (HiveMetastoreException e) {
+      LOG.warn("Health check failed for metastore " + pooledClient.endpoint, e);
+      if (isTransportError(e)) {
+        pooledClient.endpoint.markDown(System.currentTimeMillis());
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Check if an exception was caused by a problem with the connection to the server, rather than
+   * by an error returned by the server.
+   *
+   * @param exception the exception to check
+   * @return whether the exception has a TTransportException as a cause
+   */
+  private static boolean isTransportError(Throwable exception) {
+    for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+      if (cause instanceof TTransportException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Get a connection from the pool, waiting if all connections are in use. The caller must release
+   * a permit when done with the connection.
+   *
+   * @return a healthy connection
+   *
+   * @throws HiveMetastoreException if a connection can't be made
+   */
+  private PooledClient borrow() throws HiveMetastoreException {
+    try {
+      permits.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new HiveMetastoreException(e);
+    }
+    try {
+      PooledClient pooledClient;
+      while ((pooledClient = takeIdleClient()) != null) {
+        if (isHealthy(pooledClient)) {
+          return pooledClient;
+        }
+        evict(pooledClient);
+      }
+      return createClient();
+    } catch (HiveMetastoreException | RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  private <T> T execute(String methodName, MetastoreCall<T> call) throws HiveMetastoreException {
+    PooledClient pooledClient = borrow();
+    long startTime = System.currentTimeMillis();
+    boolean reusable = false;
+    try {
+      T result = call.call(pooledClient.client);
+      pooledClient.endpoint.recordLatency(System.currentTimeMillis() - startTime);
+      reusable = true;
+      return result;
+    } catch (HiveMetastoreException e) {
+      if (isTransportError(e)) {
+        LOG.warn("Transport error from metastore " + pooledClient.endpoint, e);
+        pooledClient.endpoint.markDown(System.currentTimeMillis());
+      } else {
+        // The server responded, so the connection can still be used
+        reusable = true;
+      }
+      throw e;
+    } finally {
+      recordLatency(methodName, System.currentTimeMillis() - startTime);
+      // After an unexpected exception, the state of the connection isn't known, so it's closed
+      if (reusable) {
+        returnClient(pooledClient);
+      } else {
+        evict(pooledClient);
+      }
+      permits.release();
+    }
+  }
+
+  @Override
+  public Partition addPartition(Partition partition) throws HiveMetastoreException {
+    return execute("addPartition", client -> client.addPartition(partition));
+  }
+
+  @Override
+  public void addPartitions(List<Partition> partitions) throws HiveMetastoreException {
+    execute("addPartitions", client -> {
+      client.addPartitions(partitions);
+      return null;
+    });
+  }
+
+  @Override
+  public Table getTable(String dbName, String tableName) throws HiveMetastoreException {
+    return execute("getTable", client -> client.getTable(dbName, tableName));
+  }
+
+  @Override
+  public Partition getPartition(String dbName, String tableName, String partitionName)
+      throws HiveMetastoreException {
+    return execute("getPartition",
+        client -> client.getPartition(dbName, tableName, partitionName));
+  }
+
+  @Override
+  public List<String> getPartitionNames(String dbName, String tableName)
+      throws HiveMetastoreException {
+    return execute("getPartitionNames", client -> client.getPartitionNames(dbName, tableName));
+  }
+
+  @Override
+  public Map<String, Partition> getPartitionsByNames(
+      String dbName,
+      String tableName,
+      List<String> partitionNames) throws HiveMetastoreException {
+    return execute("getPartitionsByNames",
+        client -> client.getPartitionsByNames(dbName, tableName, partitionNames));
+  }
+
+  @Override
+  public void alterPartition(String dbName, String tableName, Partition partition)
+      throws HiveMetastoreException {
+    execute("alterPartition", client -> {
+      client.alterPartition(dbName, tableName, partition);
+      return null;
+    });
+  }
+
+  @Override
+  public void alterPartitions(String dbName, String tableName, List<Partition> partitions)
+      throws HiveMetastoreException {
+    execute("alterPartitions", client -> {
+      client.alterPartitions(dbName, tableName, partitions);
+      return null;
+    });
+  }
+
+  @Override
+  public void alterTable(String dbName, String tableName, Table table)
+      throws HiveMetastoreException {
+    execute("alterTable", client -> {
+      client.alterTable(dbName, tableName, table);
+      return null;
+    });
+  }
+
+  @Override
+  public boolean isPartitioned(String dbName, String tableName) throws HiveMetastoreException {
+    return execute("isPartitioned", client -> client.isPartitioned(dbName, tableName));
+  }
+
+  @Override
+  public boolean existsPartition(String dbName, String tableName, String partitionName)
+      throws HiveMetastoreException {
+    return execute("existsPartition",
+        client -> client.existsPartition(dbName, tableName, partitionName));
+  }
+
+  @Override
+  public boolean existsTable(String dbName, String tableName) throws HiveMetastoreException {
+    return execute("existsTable", client -> client.existsTable(dbName, tableName));
+  }
+
+  @Override
+  public void createTable(Table table) throws HiveMetastoreException {
+    execute("createTable", client -> {
+      client.createTable(table);
+      return null;
+    });
+  }
+
+  @Override
+  public void dropTable(String dbName, String tableName, boolean deleteData)
+      throws HiveMetastoreException {
+    execute("dropTable", client -> {
+      client.dropTable(dbName, tableName, deleteData);
+      return null;
+    });
+  }
+
+  @Override
+  public void dropPartition(String dbName, String tableName, String partitionName,
+      boolean deleteData) throws HiveMetastoreException {
+    execute("dropPartition", client -> {
+      client.dropPartition(dbName, tableName, partitionName, deleteData);
+      return null;
+    });
+  }
+
+  @Override
+  public Map<String, String> partitionNameToMap(String partitionName)
+      throws HiveMetastoreException {
+    return execute("partitionNameToMap", client -> client.partitionNameToMap(partitionName));
+  }
+
+  @Override
+  public void createDatabase(Database db) throws HiveMetastoreException {
+    execute("createDatabase", client -> {
+      client.createDatabase(db);
+      return null;
+    });
+  }
+
+  @Override
+  public Database getDatabase(String dbName) throws HiveMetastoreException {
+    return execute("getDatabase", client -> client.getDatabase(dbName));
+  }
+
+  @Override
+  public boolean existsDb(String dbName) throws HiveMetastoreException {
+    return execute("existsDb", client -> client.existsDb(dbName));
+  }
+
+  @Override
+  public List<String> getTables(String dbName, String tableName) throws HiveMetastoreException {
+    return execute("getTables", client -> client.getTables(dbName, tableName));
+  }
+
+  @Override
+  public Partition exchangePartition(
+      Map<String, String> partitionSpecs,
+      String sourceDb,
+      String sourceTable,
+      String destDb,
+      String destinationTableName)
+      throws HiveMetastoreException {
+    return execute("exchangePartition", client -> client.exchangePartition(partitionSpecs,
+        sourceDb, sourceTable, destDb, destinationTableName));
+  }
+
+  @Override
+  public void renamePartition(
+      String db,
+      String table,
+      List<String> partitionValues,
+      Partition partition)
+      throws HiveMetastoreException {
+    execute("renamePartition", client -> {
+      client.renamePartition(db, table, partitionValues, partition);
+      return null;
+    });
+  }
+
+  @Override
+  public List<String> getAllDatabases() throws HiveMetastoreException {
+    return execute("getAllDatabases", client -> client.getAllDatabases());
+  }
+
+  @Override
+  public List<String> getAllTables(String dbName) throws HiveMetastoreException {
+    return execute("getAllTables", client -> client.getAllTables(dbName));
+  }
+
+  /**
+   * Close the idle connections in the pool. Connections that are in use are closed when they are
+   * returned, and connections made after this call are not pooled.
+   */
+  @Override
+  public void close() {
+    List<PooledClient> clientsToClose;
+    synchronized (this) {
+      closed = true;
+      clientsToClose = new ArrayList<>(idleClients);
+      idleClients.clear();
+    }
+    for (PooledClient pooledClient : clientsToClose) {
+      evict(pooledClient);
+    }
+    for (Map.Entry<String, LatencyHistogram> entry : getLatencyHistograms().entrySet()) {
+      LOG.info("Metastore call latency for " + entry.getKey() + ": " + entry.getValue());
+    }
+  }
+}
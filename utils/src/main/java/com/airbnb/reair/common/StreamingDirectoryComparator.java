@@ -0,0 +1,333 @@
+package com.airbnb.reair.common;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Compares the files under two directories without holding the listings of the whole trees in
+ * memory. Each tree is walked depth first with the entries of each directory sorted by name, so
+ * the files come out sorted by their relative paths and the two trees can be compared with a merge
+ * join. The comparison stops at the first difference.
+ *
+ * <p>Files only refer to the node for their parent directory, and the path components of a
+ * directory are shared by all the files in it, so the relative path strings are never built
+ * except for logging. To keep several listing calls in flight, the subdirectories of the directory
+ * being walked are listed ahead of time with the executor from {@link ParallelFileLister}.
+ */
+public class StreamingDirectoryComparator {
+
+  private static final Log LOG = LogFactory.getLog(StreamingDirectoryComparator.class);
+
+  private static final Comparator<FileStatus> NAME_COMPARATOR =
+      (status1, status2) -> status1.getPath().getName().compareTo(status2.getPath().getName());
+
+  /**
+   * A directory in the tree being walked.
+   */
+  private static class DirectoryNode {
+    // The names of the directories from the root to this directory, excluding the root
+    private final String[] components;
+
+    DirectoryNode(String[] components) {
+      this.components = components;
+    }
+
+    DirectoryNode getChild(String name) {
+      String[] childComponents = Arrays.copyOf(components, components.length + 1);
+      childComponents[components.length] = name;
+      return new DirectoryNode(childComponents);
+    }
+  }
+
+  /**
+   * A file found in the tree, identified by its parent directory and its name.
+   */
+  private static class FileEntry implements Comparable<FileEntry> {
+    private final DirectoryNode parent;
+    private final FileStatus status;
+
+    FileEntry(DirectoryNode parent, FileStatus status) {
+      this.parent = parent;
+      this.status = status;
+    }
+
+    String getName() {
+      return status.getPath().getName();
+    }
+
+    String getRelativePath() {
+      StringBuilder sb = new StringBuilder();
+      for (String component : parent.components) {
+        sb.append(component).append('/');
+      }
+      return sb.append(getName()).toString();
+    }
+
+    /**
+     * Compare the relative paths of two files, component by component.
+     */
+    @Override
+    public int compareTo(FileEntry other) {
+      String[] components = parent.components;
+      String[] otherComponents = other.parent.components;
+      int commonLength = Math.min(components.length, otherComponents.length);
+      for (int i = 0; i < commonLength; i++) {
+        int result = components[i].compareTo(otherComponents[i]);
+        if (result != 0) {
+          return result;
+        }
+      }
+      if (components.length == otherComponents.length) {
+        return getName().compareTo(other.getName());
+      } else if (components.length < otherComponents.length) {
+        int result = getName().compareTo(otherComponents[commonLength]);
+        return result != 0 ? result : -1;
+      } else {
+        int result = components[commonLength].compareTo(other.getName());
+        return result != 0 ? result : 1;
+      }
+    }
+  }
+
+  /**
+   * The sorted entries of a directory that is being walked.
+   */
+  private static class Frame {
+    private final DirectoryNode directory;
+    private final FileStatus[] statuses;
+    private int nextIndex = 0;
+    // Listings of the subdirectories that were started ahead of time, by index in statuses
+    private final Map<Integer, Future<FileStatus[]>> prefetchedListings = new HashMap<>();
+    private int nextPrefetchIndex = 0;
+
+    Frame(DirectoryNode directory, FileStatus[] statuses) {
+      this.directory = directory;
+      this.statuses = statuses;
+    }
+  }
+
+  /**
+   * Returns the files under a directory, sorted by their relative paths.
+   */
+  private static class SortedFileIterator {
+    private final Configuration conf;
+    private final Optional<PathFilter> filter;
+    private final Executor executor;
+    private final int prefetchCount;
+    private final Deque<Frame> frames = new ArrayDeque<>();
+
+    SortedFileIterator(Configuration conf, Path root, Optional<PathFilter> filter)
+        throws IOException {
+      this.conf = conf;
+      this.filter = filter;
+      this.executor = ParallelFileLister.getExecutor(conf);
+      this.prefetchCount = ParallelFileLister.getParallelism(conf) - 1;
+      if (accept(root)) {
+        pushFrame(new DirectoryNode(new String[0]), list(root));
+      }
+    }
+
+    private boolean accept(Path directory) {
+      if (filter.isPresent() && !filter.get().accept(directory)) {
+        LOG.warn("Skipping check of directory: " + directory);
+        return false;
+      }
+      return true;
+    }
+
+    private FileStatus[] list(Path directory) throws IOException {
+      FileStatus[] statuses = directory.getFileSystem(conf).listStatus(directory);
+      Arrays.sort(statuses, NAME_COMPARATOR);
+      return statuses;
+    }
+
+    private void pushFrame(DirectoryNode directory, FileStatus[] statuses) {
+      Frame frame = new Frame(directory, statuses);
+      frames.push(frame);
+      prefetch(frame);
+    }
+
+    /**
+     * Start listing the next few subdirectories of the frame that haven't been started yet.
+     */
+    private void prefetch(Frame frame) {
+      while (frame.prefetchedListings.size() < prefetchCount
+          && frame.nextPrefetchIndex < frame.statuses.length) {
+        int index = frame.nextPrefetchIndex++;
+        Path path = frame.statuses[index].getPath();
+        if (!frame.statuses[index].isDirectory() || !accept(path)) {
+          continue;
+        }
+        FutureTask<FileStatus[]> listing = new FutureTask<>(() -> list(path));
+        executor.execute(listing);
+        frame.prefetchedListings.put(index, listing);
+      }
+    }
+
+    private FileStatus[] getListing(Frame frame, int index) throws IOException {
+      Future<FileStatus[]> listing = frame.prefetchedListings.remove(index);
+      if (listing == null) {
+        // Subdirectories before nextPrefetchIndex that weren't listed ahead of time were rejected
+        // by the filter
+        Path path = frame.statuses[index].getPath();
+        return index >= frame.nextPrefetchIndex && accept(path) ? list(path) : null;
+      }
+      try {
+        return listing.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while listing "
+            + frame.statuses[index].getPath());
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new IOException(e.getCause());
+      }
+    }
+
+    /**
+     * Get the next file.
+     *
+     * @return the next file, or null if there are no more files
+     *
+     * @throws IOException if there's an error accessing the filesystem
+     */
+    FileEntry next() throws IOException {
+      while (!frames.isEmpty()) {
+        Frame frame = frames.peek();
+        if (frame.nextIndex == frame.statuses.length) {
+          frames.pop();
+          continue;
+        }
+        int index = frame.nextIndex++;
+        FileStatus status = frame.statuses[index];
+        if (!status.isDirectory()) {
+          return new FileEntry(frame.directory, status);
+        }
+        boolean wasPrefetched = frame.prefetchedListings.containsKey(index);
+        FileStatus[] listing = getListing(frame, index);
+        if (wasPrefetched) {
+          prefetch(frame);
+        }
+        if (listing != null) {
+          pushFrame(frame.directory.getChild(status.getPath().getName()), listing);
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Checks to see if two directories have the same files with the same sizes in the same paths
+   * (with the same modification times if applicable).
+   *
+   * @param conf configuration object
+   * @param src source directory
+   * @param dest destination directory
+   * @param filter directories rejected by this filter are not checked
+   * @param compareModificationTimes whether to compare modification times
+   * @return true if the two directories are equal
+   *
+   * @throws IOException if there is an error accessing the filesystem
+   */
+  public static boolean equalDirs(
+      Configuration conf,
+      Path src,
+      Path dest,
+      Optional<PathFilter> filter,
+      boolean compareModificationTimes) throws IOException {
+    SortedFileIterator srcFiles = new SortedFileIterator(conf, src, filter);
+    SortedFileIterator destFiles = new SortedFileIterator(conf, dest, filter);
+    FileEntry srcFile = srcFiles.next();
+    FileEntry destFile = destFiles.next();
+
+    while (srcFile != null || destFile != null) {
+      int result = srcFile == null ? 1 : destFile == null ? -1 : srcFile.compareTo(destFile);
+      if (result < 0) {
+        LOG.warn(String.format("%s missing from %s!", srcFile.getRelativePath(), dest));
+        return false;
+      } else if (result > 0) {
+        LOG.warn(String.format("%s exists on %s but not in %s", destFile.getRelativePath(), dest,
+            src));
+        return false;
+      }
+
+      if (srcFile.status.getLen() != destFile.status.getLen()) {
+        LOG.warn(String.format("Size mismatch between %s (%d) in %s " + "and %s (%d) in %s",
+            srcFile.getRelativePath(), srcFile.status.getLen(), src, destFile.getRelativePath(),
+            destFile.status.getLen(), dest));
+        return false;
+      }
+      if (compareModificationTimes
+          && srcFile.status.getModificationTime() != destFile.status.getModificationTime()) {
+        LOG.warn(String.format(
+            "Modification time mismatch between " + "%s (%d) in %s and %s (%d) in %s",
+            srcFile.getRelativePath(), srcFile.status.getModificationTime(), src,
+            destFile.getRelativePath(), destFile.status.getModificationTime(), dest));
+        return false;
+      }
+      srcFile = srcFiles.next();
+      destFile = destFiles.next();
+    }
+
+    LOG.debug(String.format("%s and %s are the same", src, dest));
+    return true;
+  }
+
+  /**
+   * Checks to see if there are files in the destination directory that are not in the source
+   * directory.
+   *
+   * @param conf configuration object
+   * @param src source directory
+   * @param dest destination directory
+   * @param filter directories rejected by this filter are not checked
+   * @return true if there are any files in the destination directory that are not in the source
+   *         directory
+   *
+   * @throws IOException if there is an error accessing the filesystem
+   */
+  public static boolean filesExistOnDestButNotSrc(
+      Configuration conf,
+      Path src,
+      Path dest,
+      Optional<PathFilter> filter) throws IOException {
+    SortedFileIterator srcFiles = new SortedFileIterator(conf, src, filter);
+    SortedFileIterator destFiles = new SortedFileIterator(conf, dest, filter);
+    FileEntry srcFile = srcFiles.next();
+    FileEntry destFile = destFiles.next();
+
+    while (destFile != null) {
+      int result = srcFile == null ? 1 : srcFile.compareTo(destFile);
+      if (result > 0) {
+        LOG.warn(String.format("%s exists on %s but not in %s", destFile.getRelativePath(), dest,
+            src));
+        return true;
+      }
+      if (result == 0) {
+        destFile = destFiles.next();
+      }
+      srcFile = srcFiles.next();
+    }
+    return false;
+  }
+}
@@ -2,6 +2,7 @@ package com.airbnb.reair.common;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.metastore.Warehouse;
 import org.apache.hadoop.hive.metastore.api.Database;
 import org.apache.hadoop.hive.metastore.api.MetaException;
 import org.apache.hadoop.hive.metastore.api.NoSuchObjectException;
@@ -14,6 +15,8 @@ import org.apache.thrift.transport.TSocket;
 import org.apache.thrift.transport.TTransport;
 import org.apache.thrift.transport.TTransportException;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -26,6 +29,9 @@ public class ThriftHiveMetastoreClient implements HiveMetastoreClient {
 
   private static int DEFAULT_SOCKET_TIMEOUT = 600;
 
+  // Maximum number of partitions to get in a single call to the metastore
+  private static final int MAX_PARTITIONS_PER_CALL = 500;
+
   private String host;
   private int port;
   private int clientSocketTimeout;
@@ -162,6 +168,75 @@ public class ThriftHiveMetastoreClient implements HiveMetastoreClient {
     }
   }
 
+  @Override
+  public synchronized void addPartitions(List<Partition> partitions)
+      throws HiveMetastoreException {
+    try {
+      connectIfNeeded();
+      client.add_partitions(partitions);
+    } catch (TException e) {
+      close();
+      throw new HiveMetastoreException(e);
+    }
+  }
+
+  @Override
+  public synchronized void alterPartitions(
+      String dbName,
+      String tableName,
+      List<Partition> partitions) throws HiveMetastoreException {
+    try {
+      connectIfNeeded();
+      client.alter_partitions(dbName, tableName, partitions);
+    } catch (TException e) {
+      close();
+      throw new HiveMetastoreException(e);
+    }
+  }
+
+  @Override
+  public synchronized Map<String, Partition> getPartitionsByNames(
+      String dbName,
+      String tableName,
+      List<String> partitionNames) throws HiveMetastoreException {
+    // The partitions that are returned don't have names, so match them up using the values
+    Map<List<String>, String> valuesToName = new HashMap<>();
+    try {
+      for (String partitionName : partitionNames) {
+        valuesToName.put(new ArrayList<>(Warehouse.makeSpecFromName(partitionName).values()),
+            partitionName);
+      }
+    } catch (MetaException e) {
+      throw new HiveMetastoreException(e);
+    }
+
+    Map<String, Partition> nameToPartition = new HashMap<>();
+    for (int i = 0; i < partitionNames.size(); i += MAX_PARTITIONS_PER_CALL) {
+      List<String> partitionNamesToGet =
+          partitionNames.subList(i, Math.min(i + MAX_PARTITIONS_PER_CALL, partitionNames.size()));
+      List<Partition> partitions;
+      try {
+        connectIfNeeded();
+        partitions = client.get_partitions_by_names(dbName, tableName, partitionNamesToGet);
+      } catch (NoSuchObjectException e) {
+        // The table doesn't exist
+        return nameToPartition;
+      } catch (TException e) {
+        close();
+        throw new HiveMetastoreException(e);
+      }
+      for (Partition partition : partitions) {
+        String partitionName = valuesToName.get(partition.getValues());
+        if (partitionName == null) {
+          throw new HiveMetastoreException(String.format("Got unexpected partition %s for %s.%s",
+              partition.getValues(), dbName, tableName));
+        }
+        nameToPartition.put(partitionName, partition);
+      }
+    }
+    return nameToPartition;
+  }
+
   /**
    * TODO.
    *
@@ -22,9 +22,37 @@ public abstract class Job {
   // A set of jobs that are waiting for this job to finish before running
   private Set<Job> childJobs = new HashSet<>();
 
-  // Method that gets called when this job should run
+  // Return code for run() to indicate that the job should run again after a delay. The job keeps
+  // its locks while waiting, but doesn't hold a worker.
+  public static final int RETRY_RETURN_CODE = 1;
+
+  // Used by the executor to order the jobs that are ready to run
+  private long priority = 0;
+  private long readySequenceNumber = 0;
+
+  // How long to wait before running the job again, if run() returned RETRY_RETURN_CODE
+  private long retryDelayMs = 0;
+
+  // Method that gets called when this job should run. Returns 0 on success,
+  // RETRY_RETURN_CODE to run again later, or any other value on failure.
   public abstract int run();
 
+  /**
+   * Schedule this job to run again after a delay. Jobs should return the value from this method
+   * from run(), instead of sleeping in the worker thread.
+   *
+   * @param delayMs how long to wait in ms before running the job again
+   * @return the value that run() should return
+   */
+  protected int retryAfter(long delayMs) {
+    this.retryDelayMs = delayMs;
+    return RETRY_RETURN_CODE;
+  }
+
+  long getRetryDelayMs() {
+    return retryDelayMs;
+  }
+
   // // A set of locks that the job needs to get before running
   // abstract public Set<String> getRequiredExclusiveLocks();
   // // A set of shared locks that the job needs to get before running
@@ -94,6 +122,19 @@ public abstract class Job {
     }
   }
 
+  void setPriority(long priority, long readySequenceNumber) {
+    this.priority = priority;
+    this.readySequenceNumber = readySequenceNumber;
+  }
+
+  long getPriority() {
+    return priority;
+  }
+
+  long getReadySequenceNumber() {
+    return readySequenceNumber;
+  }
+
   /**
    * To handle concurrency issues, jobs should specify a set of locks so that two conflicting jobs
    * do not run at the same time.
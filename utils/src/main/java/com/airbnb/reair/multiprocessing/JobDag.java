@@ -0,0 +1,26 @@
+package com.airbnb.reair.multiprocessing;
+
+import java.util.Set;
+
+/**
+ * Tracks the dependencies between jobs that are implied by the locks that the jobs need. Jobs that
+ * need conflicting locks are run in the order that they were added.
+ */
+public interface JobDag {
+
+  /**
+   * Add the job to run.
+   *
+   * @param job the job to add
+   * @return true if the job that was added can be run immediately.
+   */
+  boolean addJob(Job job);
+
+  /**
+   * Remove a job that has finished running.
+   *
+   * @param job The job to remove from the DAG
+   * @return A set of jobs that can now run since the specified job was removed.
+   */
+  Set<Job> removeJob(Job job);
+}
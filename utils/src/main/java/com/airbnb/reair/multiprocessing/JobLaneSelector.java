@@ -0,0 +1,17 @@
+package com.airbnb.reair.multiprocessing;
+
+/**
+ * Decides which lane of a {@link ParallelJobExecutor} runs a job. Each lane has its own workers, so
+ * jobs in one lane don't wait for workers that are busy with jobs in another lane. All lanes share
+ * the same DAG of jobs, so jobs in different lanes still wait for the locks that they need.
+ */
+public interface JobLaneSelector {
+
+  /**
+   * Get the lane that should run a job.
+   *
+   * @param job the job that is ready to run
+   * @return the name of the lane
+   */
+  String getLane(Job job);
+}
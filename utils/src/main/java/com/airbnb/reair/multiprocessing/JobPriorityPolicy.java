@@ -0,0 +1,19 @@
+package com.airbnb.reair.multiprocessing;
+
+/**
+ * Decides the order in which jobs that are ready to run are given to the workers. A job only
+ * becomes ready once the jobs that it depends on (through the locks that it needs) are done, so the
+ * policy doesn't change the order of jobs that need conflicting locks.
+ */
+public interface JobPriorityPolicy {
+
+  /**
+   * Get the priority of a job that just became ready to run.
+   *
+   * @param job the job that is ready to run
+   * @param readyTime the time in ms when the job became ready to run
+   * @return the priority of the job. Jobs with lower values run first, and jobs with the same value
+   *         run in the order that they became ready.
+   */
+  long getPriority(Job job, long readyTime);
+}
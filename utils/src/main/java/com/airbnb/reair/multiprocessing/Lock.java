@@ -3,11 +3,80 @@ package com.airbnb.reair.multiprocessing;
 /**
  * Represents a lock that jobs need to get before running. Shared locks are locks where multiple
  * jobs can acquire them where as exclusive locks can only be acquired by one job.
+ *
+ * <p>Locks can also be organized in a hierarchy (e.g. database, table, partition). To lock an
+ * object in the hierarchy, a job gets intention locks on the object's ancestors before getting the
+ * shared or exclusive lock on the object. An exclusive lock on an ancestor then conflicts with
+ * locks on any of its descendants, without having to list all the descendants. See
+ * {@link LockSet#addHierarchical}.
  */
 public class Lock {
 
   public enum Type {
-    SHARED, EXCLUSIVE
+    SHARED, EXCLUSIVE, INTENTION_SHARED, INTENTION_EXCLUSIVE;
+
+    /**
+     * Check if two jobs can hold locks of the specified types on the same object at the same time.
+     *
+     * @param other the other type of lock
+     * @return whether this type of lock is compatible with the other type
+     */
+    public boolean isCompatibleWith(Type other) {
+      switch (this) {
+        case SHARED:
+          return other == SHARED || other == INTENTION_SHARED;
+        case EXCLUSIVE:
+          return false;
+        case INTENTION_SHARED:
+          return other != EXCLUSIVE;
+        case INTENTION_EXCLUSIVE:
+          return other == INTENTION_SHARED || other == INTENTION_EXCLUSIVE;
+        default:
+          throw new RuntimeException("Unhandled lock type " + this);
+      }
+    }
+
+    /**
+     * Get the type of lock to get on the ancestors of an object that is locked with this type.
+     *
+     * @return the intention lock type for this type
+     */
+    public Type getIntentionType() {
+      switch (this) {
+        case SHARED:
+        case INTENTION_SHARED:
+          return INTENTION_SHARED;
+        case EXCLUSIVE:
+        case INTENTION_EXCLUSIVE:
+          return INTENTION_EXCLUSIVE;
+        default:
+          throw new RuntimeException("Unhandled lock type " + this);
+      }
+    }
+
+    /**
+     * Get the weakest type of lock that covers both this type and the other type.
+     *
+     * @param other the other type of lock
+     * @return a type of lock that covers both types
+     */
+    public Type combine(Type other) {
+      if (this == other) {
+        return this;
+      }
+      if (this == EXCLUSIVE || other == EXCLUSIVE) {
+        return EXCLUSIVE;
+      }
+      if (this == INTENTION_SHARED) {
+        return other;
+      }
+      if (other == INTENTION_SHARED) {
+        return this;
+      }
+      // Shared and intention exclusive. There's no shared + intention exclusive type, so use the
+      // type that covers both.
+      return EXCLUSIVE;
+    }
   }
 
   private Type type;
@@ -2,22 +2,22 @@ package com.airbnb.reair.multiprocessing;
 
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class LockSet {
 
-  private Set<Lock> allLocks;
-
-  private Set<String> exclusiveLockNames;
-  private Set<String> sharedLockNames;
+  // Maps from the name of a lock to the type of lock needed. If the same lock is added multiple
+  // times, the type covers all the added types.
+  private Map<String, Lock.Type> lockTypes;
 
   /**
    * TODO.
    */
   public LockSet() {
-    allLocks = new HashSet<>();
-    exclusiveLockNames = new HashSet<>();
-    sharedLockNames = new HashSet<>();
+    lockTypes = new LinkedHashMap<>();
   }
 
   /**
@@ -26,14 +26,28 @@ public class LockSet {
    * @param lock TODO
    */
   public void add(Lock lock) {
-    allLocks.add(lock);
-    if (lock.getType() == Lock.Type.SHARED) {
-      sharedLockNames.add(lock.getName());
-    } else if (lock.getType() == Lock.Type.EXCLUSIVE) {
-      exclusiveLockNames.add(lock.getName());
-    } else {
-      throw new RuntimeException("Unhandled lock type " + lock.getType());
+    add(lock.getType(), lock.getName());
+  }
+
+  private void add(Lock.Type type, String lockName) {
+    Lock.Type existingType = lockTypes.get(lockName);
+    lockTypes.put(lockName, existingType == null ? type : existingType.combine(type));
+  }
+
+  /**
+   * Add a lock on an object in a hierarchy, along with intention locks on the object's ancestors.
+   * For example, with the path (db, db.table, db.table/ds=1) and an exclusive lock type, this adds
+   * intention exclusive locks for db and db.table, and an exclusive lock for db.table/ds=1.
+   *
+   * @param type the type of lock to get on the object
+   * @param path the names of the locks for the object's ancestors, starting from the root,
+   *             followed by the name of the lock for the object
+   */
+  public void addHierarchical(Lock.Type type, List<String> path) {
+    for (int i = 0; i < path.size() - 1; i++) {
+      add(type.getIntentionType(), path.get(i));
     }
+    add(type, path.get(path.size() - 1));
   }
 
   /**
@@ -43,29 +57,53 @@ public class LockSet {
    * @return TODO
    */
   public Lock.Type getType(String lockName) {
-    if (sharedLockNames.contains(lockName)) {
-      return Lock.Type.SHARED;
-    } else if (exclusiveLockNames.contains(lockName)) {
-      return Lock.Type.EXCLUSIVE;
-    } else {
+    Lock.Type type = lockTypes.get(lockName);
+    if (type == null) {
       throw new RuntimeException("Unknown lock name " + lockName);
     }
+    return type;
   }
 
   public boolean contains(String lockName) {
-    return exclusiveLockNames.contains(lockName) || sharedLockNames.contains(lockName);
+    return lockTypes.containsKey(lockName);
+  }
+
+  /**
+   * Get all the locks in this set.
+   *
+   * @return a map from the name of the lock to the type of the lock
+   */
+  public Map<String, Lock.Type> getLocks() {
+    return Collections.unmodifiableMap(lockTypes);
   }
 
   public Set<String> getExclusiveLocks() {
-    return Collections.unmodifiableSet(exclusiveLockNames);
+    return getLocks(Lock.Type.EXCLUSIVE);
   }
 
   public Set<String> getSharedLocks() {
-    return Collections.unmodifiableSet(sharedLockNames);
+    return getLocks(Lock.Type.SHARED);
+  }
+
+  private Set<String> getLocks(Lock.Type type) {
+    Set<String> lockNames = new HashSet<>();
+    for (Map.Entry<String, Lock.Type> entry : lockTypes.entrySet()) {
+      if (entry.getValue() == type) {
+        lockNames.add(entry.getKey());
+      }
+    }
+    return Collections.unmodifiableSet(lockNames);
   }
 
   @Override
   public String toString() {
-    return allLocks.toString();
+    StringBuilder sb = new StringBuilder("[");
+    for (Map.Entry<String, Lock.Type> entry : lockTypes.entrySet()) {
+      if (sb.length() > 1) {
+        sb.append(", ");
+      }
+      sb.append(new Lock(entry.getValue(), entry.getKey()));
+    }
+    return sb.append("]").toString();
   }
 }
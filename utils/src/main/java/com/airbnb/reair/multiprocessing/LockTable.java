@@ -0,0 +1,202 @@
+package com.airbnb.reair.multiprocessing;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of the jobs that hold and need a set of locks. Lock names are interned to integer
+ * IDs, and each lock has a FIFO queue of the jobs that need it along with the information required
+ * to find the dependencies of a newly added request. This way, adding or removing a request takes
+ * constant time, rather than time proportional to the number of jobs that are waiting for the
+ * lock.
+ *
+ * <p>This class is not thread safe.
+ */
+class LockTable {
+
+  private static final Lock.Type[] LOCK_TYPES = Lock.Type.values();
+
+  /**
+   * The state for a single lock - the jobs holding the lock and the jobs needing the lock.
+   */
+  private static class LockQueue {
+    private final String name;
+    // The jobs needing the lock, in the order that they were submitted. The jobs at the head of
+    // the queue hold the lock.
+    private final LinkedHashSet<Job> jobs = new LinkedHashSet<>();
+    // Number of jobs in the queue that need each type of lock, indexed by the type's ordinal
+    private final int[] requestCounts = new int[LOCK_TYPES.length];
+    // The most recently submitted job in the queue that needs the lock exclusively
+    private Job lastExclusiveJob = null;
+    // For each non-exclusive type, the jobs in the queue that need that type of lock and were
+    // submitted after lastExclusiveJob. Indexed by the type's ordinal.
+    private final List<Set<Job>> jobsSinceLastExclusive = new ArrayList<>();
+
+    // The jobs holding the lock
+    private final Map<Job, Lock.Type> holders = new HashMap<>();
+    // Number of jobs holding each type of lock, indexed by the type's ordinal
+    private final int[] holderCounts = new int[LOCK_TYPES.length];
+
+    LockQueue(String name) {
+      this.name = name;
+      for (int i = 0; i < LOCK_TYPES.length; i++) {
+        jobsSinceLastExclusive.add(new HashSet<>());
+      }
+    }
+
+    boolean isEmpty() {
+      for (int requestCount : requestCounts) {
+        if (requestCount > 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  // Maps from a lock name to the ID of the lock
+  private Map<String, Integer> lockNameToId = new HashMap<>();
+  // The state for each lock, indexed by the lock ID. Entries are null for unused IDs.
+  private List<LockQueue> lockQueues = new ArrayList<>();
+  // IDs of locks that are no longer needed by any job, and can be reused
+  private Deque<Integer> freeLockIds = new ArrayDeque<>();
+
+  /**
+   * Get the ID for a lock, creating the state for the lock if no other job needs it. The ID is
+   * valid until all the requests for the lock are released.
+   *
+   * @param lockName the name of the lock
+   * @return the ID of the lock
+   */
+  public int internLock(String lockName) {
+    Integer lockId = lockNameToId.get(lockName);
+    if (lockId != null) {
+      return lockId;
+    }
+    if (freeLockIds.isEmpty()) {
+      lockId = lockQueues.size();
+      lockQueues.add(new LockQueue(lockName));
+    } else {
+      lockId = freeLockIds.pop();
+      lockQueues.set(lockId, new LockQueue(lockName));
+    }
+    lockNameToId.put(lockName, lockId);
+    return lockId;
+  }
+
+  /**
+   * To keep track of what jobs need what lock, update the internal data structures to indicate that
+   * the supplied job needs the specified lock before running.
+   *
+   * @param lockId the ID of the lock that the job needs
+   * @param job the job that has the lock requirement
+   * @param type the type of lock that the job needs
+   * @param parents the jobs that need to finish before the job can get the lock are added to this
+   *                set
+   */
+  public void addRequest(int lockId, Job job, Lock.Type type, Set<Job> parents) {
+    LockQueue lockQueue = lockQueues.get(lockId);
+    if (!lockQueue.jobs.add(job)) {
+      throw new RuntimeException("Job " + job + " was already in the queue for lock "
+          + lockQueue.name);
+    }
+    lockQueue.requestCounts[type.ordinal()]++;
+
+    // The job needs to wait for the last job to require the lock exclusively, as well as the
+    // conflicting jobs that were submitted after that. The jobs before the last exclusive one don't
+    // need to be added as they are already parents of the exclusive one.
+    if (lockQueue.lastExclusiveJob != null) {
+      parents.add(lockQueue.lastExclusiveJob);
+    }
+    for (Lock.Type otherType : LOCK_TYPES) {
+      if (otherType != Lock.Type.EXCLUSIVE && !type.isCompatibleWith(otherType)) {
+        parents.addAll(lockQueue.jobsSinceLastExclusive.get(otherType.ordinal()));
+      }
+    }
+
+    if (type == Lock.Type.EXCLUSIVE) {
+      lockQueue.lastExclusiveJob = job;
+      for (Set<Job> jobs : lockQueue.jobsSinceLastExclusive) {
+        jobs.clear();
+      }
+    } else {
+      lockQueue.jobsSinceLastExclusive.get(type.ordinal()).add(job);
+    }
+  }
+
+  /**
+   * Mark the lock as held by the specified job.
+   *
+   * @param lockId the ID of the lock
+   * @param job the job that gets the lock
+   * @param type the type of lock that the job gets
+   */
+  public void grant(int lockId, Job job, Lock.Type type) {
+    LockQueue lockQueue = lockQueues.get(lockId);
+    for (Lock.Type heldType : LOCK_TYPES) {
+      if (lockQueue.holderCounts[heldType.ordinal()] > 0 && !type.isCompatibleWith(heldType)) {
+        throw new RuntimeException("Tried to give " + type + " lock " + lockQueue.name + " to "
+            + job + " when it was held by " + lockQueue.holders);
+      }
+    }
+    if (lockQueue.holders.put(job, type) != null) {
+      throw new RuntimeException("Shouldn't happen!");
+    }
+    lockQueue.holderCounts[type.ordinal()]++;
+  }
+
+  /**
+   * Release a lock held by the specified job, and mark the lock as not being needed by the job. If
+   * no other job needs the lock, the ID for the lock is freed.
+   *
+   * @param lockId the ID of the lock
+   * @param job the job that no longer needs the lock
+   * @param type the type of lock that the job held
+   */
+  public void release(int lockId, Job job, Lock.Type type) {
+    LockQueue lockQueue = lockQueues.get(lockId);
+    Lock.Type heldType = lockQueue.holders.remove(job);
+    if (heldType != type) {
+      throw new RuntimeException("Job " + job + " was supposed to have " + type + " lock "
+          + lockQueue.name + " but it had " + heldType);
+    }
+    lockQueue.holderCounts[type.ordinal()]--;
+
+    // The job at the head of queue represents the job that has the exclusive lock. This is used
+    // as a sanity check only.
+    if (type == Lock.Type.EXCLUSIVE && lockQueue.jobs.iterator().next() != job) {
+      throw new RuntimeException("Tried to remove " + job + " but it "
+          + "wasn't at the head of the queue for lock " + lockQueue.name + "!");
+    }
+    boolean removed = lockQueue.jobs.remove(job);
+    if (!removed) {
+      throw new RuntimeException("Didn't remove job " + job + " from the queue for lock "
+          + lockQueue.name);
+    }
+    lockQueue.requestCounts[type.ordinal()]--;
+
+    if (type == Lock.Type.EXCLUSIVE) {
+      if (lockQueue.lastExclusiveJob == job) {
+        lockQueue.lastExclusiveJob = null;
+      }
+    } else {
+      lockQueue.jobsSinceLastExclusive.get(type.ordinal()).remove(job);
+    }
+
+    if (lockQueue.isEmpty()) {
+      Integer removedId = lockNameToId.remove(lockQueue.name);
+      if (removedId == null || removedId != lockId) {
+        throw new RuntimeException("Shouldn't happen!");
+      }
+      lockQueues.set(lockId, null);
+      freeLockIds.push(lockId);
+    }
+  }
+}
@@ -3,10 +3,21 @@ package com.airbnb.reair.multiprocessing;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -14,14 +25,38 @@ import java.util.concurrent.locks.ReentrantLock;
 /**
  * Accepts a bunch of jobs, executes them in parallel while observing the locks that each jobs
  * needs.
+ *
+ * <p>Jobs can be added and completed from multiple threads at the same time. By default, the DAG
+ * of jobs is updated by one thread at a time. If the executor is created with multiple lock
+ * stripes, a {@link StripedJobDagManager} is used instead so that jobs with unrelated locks can be
+ * added and completed concurrently.
+ *
+ * <p>Jobs that are ready to run are given to the workers in the order that they became ready,
+ * unless a {@link JobPriorityPolicy} is supplied.
+ *
+ * <p>The workers can be divided into lanes, with a {@link JobLaneSelector} deciding which lane runs
+ * each job. This way, quick jobs don't have to wait for workers that are busy with slow jobs in
+ * another lane.
+ *
+ * <p>A job can ask to be retried after a delay (see {@link Job#retryAfter(long)}). While it waits,
+ * the job keeps its locks, but its worker is free to run other jobs.
  */
 public class ParallelJobExecutor {
   private static final Log LOG = LogFactory.getLog(ParallelJobExecutor.class);
 
-  private BlockingQueue<Job> jobsToRun;
-  private JobDagManager dagManager;
-  private int numWorkers = 0;
-  private Set<Worker> workers = new HashSet<>();
+  private static final Comparator<Job> PRIORITY_COMPARATOR =
+      Comparator.comparingLong(Job::getPriority).thenComparingLong(Job::getReadySequenceNumber);
+
+  // Name of the lane used when the workers are not divided into lanes
+  private static final String DEFAULT_LANE = "default";
+
+  // The jobs that are ready to run, for each lane
+  private Map<String, BlockingQueue<Job>> laneToJobsToRun = new LinkedHashMap<>();
+  private Map<String, Integer> laneToNumWorkers;
+  private JobLaneSelector laneSelector;
+  private JobDag dagManager;
+  // The workers, and the queue of the lane that each one takes jobs from
+  private Map<Worker, BlockingQueue<Job>> workers = new HashMap<>();
 
   // Vars for counting the number of jobs
   // Lock to hold when incrementing either count
@@ -33,15 +68,21 @@ public class ParallelJobExecutor {
 
   private String workerName = "Worker";
 
+  private Optional<JobPriorityPolicy> priorityPolicy = Optional.empty();
+  private AtomicLong nextReadySequenceNumber = new AtomicLong(0);
+
+  // Adds jobs that are being retried back to the queue when their delay expires
+  private volatile ScheduledExecutorService retryScheduler = createRetryScheduler();
+  // Jobs that are waiting for their retry delay to expire
+  private Set<Job> retryingJobs = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
   /**
    * Constructor for a job executor that run jobs in multiple threads.
    *
    * @param numWorkers the number of threads (i.e. workers) to create
    */
   public ParallelJobExecutor(int numWorkers) {
-    dagManager = new JobDagManager();
-    jobsToRun = new LinkedBlockingQueue<Job>();
-    this.numWorkers = numWorkers;
+    this("Worker", numWorkers);
   }
 
   /**
@@ -52,10 +93,99 @@ public class ParallelJobExecutor {
    * @param numWorkers the number of threads (i.e. workers) to create
    */
   public ParallelJobExecutor(String workerName, int numWorkers) {
+    this(workerName, numWorkers, 1);
+  }
+
+  /**
+   * Constructor for a job executor that run jobs in multiple threads with the option to give a
+   * prefix to the workers' thread names, and to partition the locks for the DAG of jobs.
+   *
+   * @param workerName a prefix use for the worker thread name
+   * @param numWorkers the number of threads (i.e. workers) to create
+   * @param numLockStripes the number of partitions for the locks that jobs need. If more than 1,
+   *                       jobs that need locks in different partitions can be added and completed
+   *                       concurrently.
+   */
+  public ParallelJobExecutor(String workerName, int numWorkers, int numLockStripes) {
+    this(workerName, numWorkers, numLockStripes, Optional.empty());
+  }
+
+  /**
+   * Constructor for a job executor that run jobs in multiple threads with the option to give a
+   * prefix to the workers' thread names, to partition the locks for the DAG of jobs, and to order
+   * the jobs that are ready to run.
+   *
+   * @param workerName a prefix use for the worker thread name
+   * @param numWorkers the number of threads (i.e. workers) to create
+   * @param numLockStripes the number of partitions for the locks that jobs need. If more than 1,
+   *                       jobs that need locks in different partitions can be added and completed
+   *                       concurrently.
+   * @param priorityPolicy the policy for ordering jobs that are ready to run. If empty, jobs run in
+   *                       the order that they became ready.
+   */
+  public ParallelJobExecutor(
+      String workerName,
+      int numWorkers,
+      int numLockStripes,
+      Optional<JobPriorityPolicy> priorityPolicy) {
+    this(workerName, Collections.singletonMap(DEFAULT_LANE, numWorkers), job -> DEFAULT_LANE,
+        numLockStripes, priorityPolicy);
+  }
+
+  /**
+   * Constructor for a job executor that divides the workers into lanes.
+   *
+   * @param workerName a prefix use for the worker thread name. If there is more than one lane, the
+   *                   name of the lane is appended.
+   * @param laneToNumWorkers the number of threads (i.e. workers) to create for each lane
+   * @param laneSelector decides which lane runs each job
+   * @param numLockStripes the number of partitions for the locks that jobs need. If more than 1,
+   *                       jobs that need locks in different partitions can be added and completed
+   *                       concurrently.
+   * @param priorityPolicy the policy for ordering jobs that are ready to run within a lane. If
+   *                       empty, jobs run in the order that they became ready.
+   */
+  public ParallelJobExecutor(
+      String workerName,
+      Map<String, Integer> laneToNumWorkers,
+      JobLaneSelector laneSelector,
+      int numLockStripes,
+      Optional<JobPriorityPolicy> priorityPolicy) {
     this.workerName = workerName;
-    dagManager = new JobDagManager();
-    jobsToRun = new LinkedBlockingQueue<Job>();
-    this.numWorkers = numWorkers;
+    if (numLockStripes > 1) {
+      dagManager = new StripedJobDagManager(numLockStripes);
+    } else {
+      dagManager = new JobDagManager();
+    }
+    this.priorityPolicy = priorityPolicy;
+    this.laneToNumWorkers = new LinkedHashMap<>(laneToNumWorkers);
+    this.laneSelector = laneSelector;
+    for (String lane : laneToNumWorkers.keySet()) {
+      if (priorityPolicy.isPresent()) {
+        laneToJobsToRun.put(lane, new PriorityBlockingQueue<Job>(11, PRIORITY_COMPARATOR));
+      } else {
+        laneToJobsToRun.put(lane, new LinkedBlockingQueue<Job>());
+      }
+    }
+  }
+
+  /**
+   * Give a job that is ready to run to the workers.
+   *
+   * @param job the job that is ready to run
+   */
+  private void enqueue(Job job) {
+    LOG.debug("Job " + job + " is ready to run.");
+    String lane = laneSelector.getLane(job);
+    BlockingQueue<Job> jobsToRun = laneToJobsToRun.get(lane);
+    if (jobsToRun == null) {
+      throw new RuntimeException("Job " + job + " was assigned to unknown lane " + lane);
+    }
+    if (priorityPolicy.isPresent()) {
+      job.setPriority(priorityPolicy.get().getPriority(job, System.currentTimeMillis()),
+          nextReadySequenceNumber.getAndIncrement());
+    }
+    jobsToRun.add(job);
   }
 
   /**
@@ -65,13 +195,13 @@ public class ParallelJobExecutor {
    *
    * @param job the job that should be run
    */
-  public synchronized void add(Job job) {
+  public void add(Job job) {
+    // Count the job before it can run so that the done count never exceeds the submitted count
+    incrementSubmittedJobCount();
     boolean canRunImmediately = dagManager.addJob(job);
     if (canRunImmediately) {
-      LOG.debug("Job " + job + " is ready to run.");
-      jobsToRun.add(job);
+      enqueue(job);
     }
-    incrementSubmittedJobCount();
   }
 
 
@@ -81,12 +211,11 @@ public class ParallelJobExecutor {
    *
    * @param doneJob the job that is done running
    */
-  public synchronized void notifyDone(Job doneJob) {
+  public void notifyDone(Job doneJob) {
     LOG.debug("Done notification received for " + doneJob);
     Set<Job> newReadyJobs = dagManager.removeJob(doneJob);
     for (Job jobToRun : newReadyJobs) {
-      LOG.debug("Job " + jobToRun + " is ready to run.");
-      jobsToRun.add(jobToRun);
+      enqueue(jobToRun);
     }
     incrementDoneJobCount();
 
@@ -99,6 +228,31 @@ public class ParallelJobExecutor {
     }
   }
 
+  /**
+   * Should be called by the workers to indicate that a job should be run again after the delay
+   * that it requested. The job keeps its locks, so jobs that depend on it continue to wait.
+   *
+   * @param retryJob the job that should be run again
+   */
+  public void notifyRetry(Job retryJob) {
+    long delayMs = retryJob.getRetryDelayMs();
+    LOG.debug("Retrying " + retryJob + " in " + delayMs + " ms");
+    retryingJobs.add(retryJob);
+    retryScheduler.schedule(() -> {
+      if (retryingJobs.remove(retryJob)) {
+        enqueue(retryJob);
+      }
+    }, delayMs, TimeUnit.MILLISECONDS);
+  }
+
+  private static ScheduledExecutorService createRetryScheduler() {
+    return Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "RetryScheduler");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
   /**
    * This is used with incrementJobDoneCount() to know when all the jobs submitted to the executor
    * has finished.
@@ -160,12 +314,21 @@ public class ParallelJobExecutor {
       throw new RuntimeException("Start called while there are workers" + " still running");
     }
 
-    for (int i = 0; i < numWorkers; i++) {
-      Worker worker = new Worker<Job>(workerName, jobsToRun, this);
-      workers.add(worker);
+    if (retryScheduler.isShutdown()) {
+      retryScheduler = createRetryScheduler();
     }
 
-    for (Worker w : workers) {
+    for (Map.Entry<String, Integer> laneAndNumWorkers : laneToNumWorkers.entrySet()) {
+      String lane = laneAndNumWorkers.getKey();
+      BlockingQueue<Job> jobsToRun = laneToJobsToRun.get(lane);
+      String laneWorkerName = laneToNumWorkers.size() > 1 ? workerName + "-" + lane : workerName;
+      for (int i = 0; i < laneAndNumWorkers.getValue(); i++) {
+        Worker worker = new Worker<Job>(laneWorkerName, jobsToRun, this);
+        workers.put(worker, jobsToRun);
+      }
+    }
+
+    for (Worker w : workers.keySet()) {
       try {
         Thread.sleep(100);
       } catch (Exception e) {
@@ -176,24 +339,35 @@ public class ParallelJobExecutor {
   }
 
   /**
-   * Interrupt the threads that are currently working on the jobs and wait for them to stop.
+   * Interrupt the threads that are currently working on the jobs and wait for them to stop. Jobs
+   * that are waiting to be retried are put back in the queue, so they run right away if the
+   * executor is started again.
    *
    * @throws InterruptedException if interrupted while waiting for threads to finish
    */
   public synchronized void stop() throws InterruptedException {
-    for (Worker w : workers) {
+    for (Worker w : workers.keySet()) {
       w.interrupt();
     }
 
-    for (Worker w : workers) {
+    for (Worker w : workers.keySet()) {
       w.join();
     }
 
+    retryScheduler.shutdownNow();
+    retryScheduler.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    for (Job retryJob : retryingJobs) {
+      if (retryingJobs.remove(retryJob)) {
+        enqueue(retryJob);
+      }
+    }
+
     // Do this after interrupting? Think about case when a worker takes an
     // item from the queue and is then interrupted.
-    for (Worker w : workers) {
-      if (w.getJob() != null) {
-        jobsToRun.add(w.getJob());
+    for (Map.Entry<Worker, BlockingQueue<Job>> workerAndQueue : workers.entrySet()) {
+      Job job = workerAndQueue.getKey().getJob();
+      if (job != null) {
+        workerAndQueue.getValue().add(job);
       }
     }
     workers.clear();
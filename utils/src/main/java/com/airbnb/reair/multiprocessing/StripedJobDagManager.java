@@ -0,0 +1,205 @@
+package com.airbnb.reair.multiprocessing;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link JobDag} that can be updated by multiple threads at the same time. The lock names are
+ * partitioned into stripes by hash, and each stripe has a separate {@link LockTable} guarded by a
+ * separate mutex. Adding or removing a job only holds the mutexes for the stripes of the job's
+ * locks, so jobs with unrelated locks don't contend with each other.
+ *
+ * <p>To avoid deadlocks, the mutexes are always acquired in increasing stripe order. Since a job
+ * shares a lock (and therefore a stripe) with each of its parents, a parent can't be removed while
+ * a child is being added, so the relationships between jobs are the same as with
+ * {@link JobDagManager}.
+ */
+public class StripedJobDagManager implements JobDag {
+
+  private static final Log LOG = LogFactory.getLog(StripedJobDagManager.class);
+
+  /**
+   * The locks required by a job, resolved to stripes and lock IDs when the job is added.
+   */
+  private static class JobLocks {
+    private final int[] stripes;
+    private final int[] lockIds;
+    private final Lock.Type[] lockTypes;
+    // The distinct stripes for the locks, in the order that the mutexes should be acquired
+    private final int[] sortedStripes;
+    private volatile boolean hasAllLocks = false;
+
+    JobLocks(int[] stripes, int[] lockIds, Lock.Type[] lockTypes, int[] sortedStripes) {
+      this.stripes = stripes;
+      this.lockIds = lockIds;
+      this.lockTypes = lockTypes;
+      this.sortedStripes = sortedStripes;
+    }
+  }
+
+  private final LockTable[] lockTables;
+  private final ReentrantLock[] stripeLocks;
+
+  // The resolved locks for each job in the DAG
+  private final Map<Job, JobLocks> jobToLocks = new ConcurrentHashMap<>();
+
+  /**
+   * Constructor.
+   *
+   * @param numStripes the number of partitions for the lock names
+   */
+  public StripedJobDagManager(int numStripes) {
+    if (numStripes < 1) {
+      throw new IllegalArgumentException("Invalid number of stripes: " + numStripes);
+    }
+    lockTables = new LockTable[numStripes];
+    stripeLocks = new ReentrantLock[numStripes];
+    for (int i = 0; i < numStripes; i++) {
+      lockTables[i] = new LockTable();
+      stripeLocks[i] = new ReentrantLock();
+    }
+  }
+
+  private int getStripe(String lockName) {
+    return (lockName.hashCode() & Integer.MAX_VALUE) % lockTables.length;
+  }
+
+  private void lockStripes(int[] sortedStripes) {
+    for (int stripe : sortedStripes) {
+      stripeLocks[stripe].lock();
+    }
+  }
+
+  private void unlockStripes(int[] sortedStripes) {
+    for (int i = sortedStripes.length - 1; i >= 0; i--) {
+      stripeLocks[sortedStripes[i]].unlock();
+    }
+  }
+
+  private void grantAllLocks(Job job, JobLocks jobLocks) {
+    for (int i = 0; i < jobLocks.lockIds.length; i++) {
+      lockTables[jobLocks.stripes[i]].grant(jobLocks.lockIds[i], job, jobLocks.lockTypes[i]);
+    }
+    jobLocks.hasAllLocks = true;
+  }
+
+  @Override
+  public boolean addJob(Job jobToAdd) {
+    Map<String, Lock.Type> locks = jobToAdd.getRequiredLocks().getLocks();
+    LOG.debug("Adding job " + jobToAdd + " requiring " + locks.size() + " locks");
+
+    int[] stripes = new int[locks.size()];
+    String[] lockNames = new String[locks.size()];
+    Lock.Type[] lockTypes = new Lock.Type[locks.size()];
+    Set<Integer> distinctStripes = new TreeSet<>();
+    int index = 0;
+    for (Map.Entry<String, Lock.Type> lock : locks.entrySet()) {
+      lockNames[index] = lock.getKey();
+      lockTypes[index] = lock.getValue();
+      stripes[index] = getStripe(lock.getKey());
+      distinctStripes.add(stripes[index]);
+      index++;
+    }
+    int[] sortedStripes = new int[distinctStripes.size()];
+    index = 0;
+    for (int stripe : distinctStripes) {
+      sortedStripes[index++] = stripe;
+    }
+    JobLocks jobLocks =
+        new JobLocks(stripes, new int[lockNames.length], lockTypes, sortedStripes);
+
+    if (jobToLocks.putIfAbsent(jobToAdd, jobLocks) != null) {
+      throw new RuntimeException("Job " + jobToAdd + " was already added");
+    }
+
+    Set<Job> parents = new HashSet<>();
+    lockStripes(sortedStripes);
+    try {
+      for (int i = 0; i < lockNames.length; i++) {
+        jobLocks.lockIds[i] = lockTables[stripes[i]].internLock(lockNames[i]);
+        lockTables[stripes[i]].addRequest(jobLocks.lockIds[i], jobToAdd, lockTypes[i], parents);
+      }
+
+      // If there are no parents, it can get all the locks
+      if (parents.size() == 0) {
+        grantAllLocks(jobToAdd, jobLocks);
+        return true;
+      }
+
+      // The parents can't be removed until the stripe mutexes are released, so the relationships
+      // can be set up without worrying about a parent finishing in the middle.
+      synchronized (jobToAdd) {
+        for (Job parent : parents) {
+          jobToAdd.addParent(parent);
+        }
+      }
+      for (Job parent : parents) {
+        synchronized (parent) {
+          parent.addChild(jobToAdd);
+        }
+      }
+    } finally {
+      unlockStripes(sortedStripes);
+    }
+
+    LOG.debug("Added job " + jobToAdd + " with parents " + parents);
+    return false;
+  }
+
+  @Override
+  public Set<Job> removeJob(Job job) {
+    JobLocks jobLocks = jobToLocks.get(job);
+    if (jobLocks == null || !jobLocks.hasAllLocks) {
+      throw new RuntimeException("Trying to remove job without " + "having all the locks");
+    }
+
+    // Free up locks. After this, no new children can be added to this job.
+    lockStripes(jobLocks.sortedStripes);
+    try {
+      for (int i = 0; i < jobLocks.lockIds.length; i++) {
+        lockTables[jobLocks.stripes[i]].release(jobLocks.lockIds[i], job, jobLocks.lockTypes[i]);
+      }
+    } finally {
+      unlockStripes(jobLocks.sortedStripes);
+    }
+    jobToLocks.remove(job);
+
+    Set<Job> childJobs;
+    synchronized (job) {
+      // Make a copy since we'll be removing from it
+      childJobs = new HashSet<>(job.getChildJobs());
+      for (Job child : childJobs) {
+        job.removeChildJob(child);
+      }
+    }
+
+    // If any of the child jobs have no parent jobs, that means they should be run. Only the thread
+    // that removes the last parent sees an empty set, so each child is granted its locks once.
+    Set<Job> newJobsWithRequiredLocks = new HashSet<>();
+    for (Job child : childJobs) {
+      boolean readyToRun;
+      synchronized (child) {
+        child.removeParentJob(job);
+        readyToRun = child.getParentJobs().isEmpty();
+      }
+      if (readyToRun) {
+        JobLocks childLocks = jobToLocks.get(child);
+        lockStripes(childLocks.sortedStripes);
+        try {
+          grantAllLocks(child, childLocks);
+        } finally {
+          unlockStripes(childLocks.sortedStripes);
+        }
+        newJobsWithRequiredLocks.add(child);
+      }
+    }
+    return newJobsWithRequiredLocks;
+  }
+}
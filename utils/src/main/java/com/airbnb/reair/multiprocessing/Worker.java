@@ -65,6 +65,12 @@ public class Worker<T extends Job> extends Thread {
         }
         LOG.debug("**** Running job: " + job + " ****");
         int ret = job.run();
+        if (ret == Job.RETRY_RETURN_CODE) {
+          LOG.debug("**** Job will be retried: " + job + " ****");
+          parallelJobExecutor.notifyRetry(job);
+          job = null;
+          continue;
+        }
         if (ret != 0) {
           LOG.error("Error running job " + job + " return code: " + ret);
           throw new RuntimeException(String.format("Job %s returned %s", job, ret));